@@ -5,10 +5,30 @@ LOCAL_MODULE := gpuimage-library
 LOCAL_LDFLAGS := -Wl,--build-id
 LOCAL_LDLIBS := \
 	-llog \
+	-ljnigraphics \
+	-lGLESv2 \
 
 LOCAL_SRC_FILES := jni/yuv-decoder.c \
+	jni/yuv-convert.c \
+	jni/bitmap-readback.c \
+	jni/pixel-flip.c \
+
+# NEON only for the routine picked at runtime, not every ARMv7 device has it.
+# Newer NDKs enable it for the whole module unless told otherwise.
+ifeq ($(TARGET_ARCH_ABI),armeabi-v7a)
+LOCAL_ARM_NEON := false
+LOCAL_SRC_FILES += jni/yuv-convert-neon.c.neon
+endif
+ifeq ($(TARGET_ARCH_ABI),arm64-v8a)
+LOCAL_SRC_FILES += jni/yuv-convert-neon.c
+endif
+
+LOCAL_CFLAGS := -O3
+LOCAL_STATIC_LIBRARIES := cpufeatures
 
 LOCAL_C_INCLUDES += jni
 LOCAL_C_INCLUDES += src/debug/jni
 
 include $(BUILD_SHARED_LIBRARY)
+
+$(call import-module,android/cpufeatures)
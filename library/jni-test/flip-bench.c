@@ -0,0 +1,102 @@
+/*
+ * Compares the readback of a 12 MP frame into a bitmap as PixelBuffer used to
+ * do it, with the native flip that replaced it. glReadPixels and the bitmap are
+ * stood in for by plain memory, the copies are the same.
+ *
+ *   old: glReadPixels into a heap IntBuffer, a per-pixel flip into an int[],
+ *        copyPixelsFromBuffer into the bitmap
+ *   new: glReadPixels into the locked bitmap, rows swapped in place
+ *   pbo: rows copied flipped from a mapped pixel pack buffer into the bitmap
+ */
+#include <stdint.h>
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+#include <time.h>
+
+#include "pixel-flip.h"
+
+#define WIDTH 4000
+#define HEIGHT 3000
+#define ITERATIONS 10
+
+static double now_ms(void)
+{
+    struct timespec ts;
+    clock_gettime(CLOCK_MONOTONIC, &ts);
+    return ts.tv_sec * 1000.0 + ts.tv_nsec / 1000000.0;
+}
+
+static void old_readback(const uint32_t *framebuffer, uint32_t *bitmap)
+{
+    size_t pixels = (size_t) WIDTH * HEIGHT;
+    uint32_t *ib = (uint32_t *) malloc(pixels * 4);
+    uint32_t *iat = (uint32_t *) malloc(pixels * 4);
+    int i;
+    int j;
+
+    memcpy(ib, framebuffer, pixels * 4);
+    for (i = 0; i < HEIGHT; i++) {
+        for (j = 0; j < WIDTH; j++) {
+            iat[(size_t) (HEIGHT - i - 1) * WIDTH + j] = ib[(size_t) i * WIDTH + j];
+        }
+    }
+    memcpy(bitmap, iat, pixels * 4);
+    free(ib);
+    free(iat);
+}
+
+static void new_readback(const uint32_t *framebuffer, uint32_t *bitmap)
+{
+    size_t rowBytes = (size_t) WIDTH * 4;
+    uint8_t *tmp = (uint8_t *) malloc(rowBytes);
+
+    memcpy(bitmap, framebuffer, rowBytes * HEIGHT);
+    pixel_flip_rows((uint8_t *) bitmap, rowBytes, rowBytes, HEIGHT, tmp);
+    free(tmp);
+}
+
+static void pbo_readback(const uint32_t *mapped, uint32_t *bitmap)
+{
+    size_t rowBytes = (size_t) WIDTH * 4;
+    pixel_copy_flipped((const uint8_t *) mapped, rowBytes, (uint8_t *) bitmap, rowBytes,
+                       rowBytes, HEIGHT);
+}
+
+static void run(const char *name, void (*readback)(const uint32_t *, uint32_t *),
+                const uint32_t *framebuffer, uint32_t *bitmap, int iterations,
+                size_t transientBytes)
+{
+    double start;
+    int n;
+
+    readback(framebuffer, bitmap);
+    start = now_ms();
+    for (n = 0; n < iterations; n++) {
+        readback(framebuffer, bitmap);
+    }
+    printf("%-4s %8.2f ms/capture %8.1f MB transient\n", name,
+           (now_ms() - start) / iterations, transientBytes / (1024.0 * 1024.0));
+}
+
+int main(int argc, char **argv)
+{
+    int iterations = argc > 1 ? atoi(argv[1]) : ITERATIONS;
+    size_t bytes = (size_t) WIDTH * HEIGHT * 4;
+    uint32_t *framebuffer = (uint32_t *) malloc(bytes);
+    uint32_t *bitmap = (uint32_t *) malloc(bytes);
+    size_t i;
+
+    for (i = 0; i < (size_t) WIDTH * HEIGHT; i++) {
+        framebuffer[i] = (uint32_t) i * 2654435761u;
+    }
+
+    /* The bitmap itself is the same for all three and not counted */
+    run("old", old_readback, framebuffer, bitmap, iterations, 2 * bytes);
+    run("new", new_readback, framebuffer, bitmap, iterations, (size_t) WIDTH * 4);
+    run("pbo", pbo_readback, framebuffer, bitmap, iterations, 0);
+
+    free(framebuffer);
+    free(bitmap);
+    return 0;
+}
@@ -0,0 +1,80 @@
+/*
+ * Checks pixel_flip_rows and pixel_copy_flipped against a per-pixel flip, for
+ * odd and even heights and padded rows.
+ */
+#include <stdint.h>
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+
+#include "pixel-flip.h"
+
+static int sFailures = 0;
+
+static void check(int width, int height, int padding)
+{
+    size_t rowBytes = (size_t) width * 4;
+    size_t stride = rowBytes + padding;
+    size_t size = stride * height;
+    uint8_t *source = (uint8_t *) malloc(size);
+    uint8_t *expected = (uint8_t *) malloc(size);
+    uint8_t *inPlace = (uint8_t *) malloc(size);
+    uint8_t *copied = (uint8_t *) malloc(size);
+    uint8_t *tmp = (uint8_t *) malloc(rowBytes);
+    size_t i;
+    int y;
+
+    for (i = 0; i < size; i++) {
+        source[i] = (uint8_t) rand();
+    }
+    memcpy(expected, source, size);
+    for (y = 0; y < height; y++) {
+        memcpy(expected + y * stride, source + (height - 1 - y) * stride, rowBytes);
+    }
+
+    memcpy(inPlace, source, size);
+    pixel_flip_rows(inPlace, stride, rowBytes, height, tmp);
+    memcpy(copied, source, size);
+    pixel_copy_flipped(source, stride, copied, stride, rowBytes, height);
+
+    for (y = 0; y < height; y++) {
+        if (memcmp(inPlace + y * stride, expected + y * stride, rowBytes) != 0) {
+            fprintf(stderr, "FAIL flip %dx%d padding %d: row %d\n", width, height, padding, y);
+            sFailures++;
+            break;
+        }
+        if (memcmp(copied + y * stride, expected + y * stride, rowBytes) != 0) {
+            fprintf(stderr, "FAIL copy %dx%d padding %d: row %d\n", width, height, padding, y);
+            sFailures++;
+            break;
+        }
+    }
+
+    free(source);
+    free(expected);
+    free(inPlace);
+    free(copied);
+    free(tmp);
+}
+
+int main(void)
+{
+    static const int heights[] = { 1, 2, 3, 4, 17, 480 };
+    static const int widths[] = { 1, 3, 640 };
+    size_t h;
+    size_t w;
+
+    srand(1);
+    for (h = 0; h < sizeof(heights) / sizeof(heights[0]); h++) {
+        for (w = 0; w < sizeof(widths) / sizeof(widths[0]); w++) {
+            check(widths[w], heights[h], 0);
+            check(widths[w], heights[h], 12);
+        }
+    }
+    if (sFailures > 0) {
+        fprintf(stderr, "%d failures\n", sFailures);
+        return 1;
+    }
+    printf("flip-test: all passed\n");
+    return 0;
+}
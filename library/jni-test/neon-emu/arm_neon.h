@@ -0,0 +1,182 @@
+/*
+ * Plain C stand-ins for the NEON intrinsics yuv-convert-neon.c uses, so the
+ * NEON path can be checked against the reference decoder on a host without an
+ * ARM toolchain (make yuv-test-neon). Only the lane semantics are reproduced,
+ * the real header is used for every device build and by make test-armv7 and
+ * make test-arm64.
+ */
+#ifndef NEON_EMU_ARM_NEON_H
+#define NEON_EMU_ARM_NEON_H
+
+#include <stdint.h>
+
+typedef struct { uint8_t v[8]; } uint8x8_t;
+typedef struct { uint8_t v[16]; } uint8x16_t;
+typedef struct { uint16_t v[8]; } uint16x8_t;
+typedef struct { int16_t v[8]; } int16x8_t;
+typedef struct { uint8x8_t val[2]; } uint8x8x2_t;
+typedef struct { int16x8_t val[2]; } int16x8x2_t;
+typedef struct { uint8x16_t val[4]; } uint8x16x4_t;
+
+static inline uint8x8_t vget_low_u8(uint8x16_t a)
+{
+    uint8x8_t r;
+    int i;
+    for (i = 0; i < 8; i++) r.v[i] = a.v[i];
+    return r;
+}
+
+static inline uint8x8_t vget_high_u8(uint8x16_t a)
+{
+    uint8x8_t r;
+    int i;
+    for (i = 0; i < 8; i++) r.v[i] = a.v[i + 8];
+    return r;
+}
+
+static inline uint8x16_t vcombine_u8(uint8x8_t low, uint8x8_t high)
+{
+    uint8x16_t r;
+    int i;
+    for (i = 0; i < 8; i++) {
+        r.v[i] = low.v[i];
+        r.v[i + 8] = high.v[i];
+    }
+    return r;
+}
+
+static inline uint8x16_t vdupq_n_u8(uint8_t x)
+{
+    uint8x16_t r;
+    int i;
+    for (i = 0; i < 16; i++) r.v[i] = x;
+    return r;
+}
+
+static inline int16x8_t vdupq_n_s16(int16_t x)
+{
+    int16x8_t r;
+    int i;
+    for (i = 0; i < 8; i++) r.v[i] = x;
+    return r;
+}
+
+static inline uint8x16_t vld1q_u8(const uint8_t *p)
+{
+    uint8x16_t r;
+    int i;
+    for (i = 0; i < 16; i++) r.v[i] = p[i];
+    return r;
+}
+
+/* De-interleaves 16 bytes, even ones to val[0] */
+static inline uint8x8x2_t vld2_u8(const uint8_t *p)
+{
+    uint8x8x2_t r;
+    int i;
+    for (i = 0; i < 8; i++) {
+        r.val[0].v[i] = p[2 * i];
+        r.val[1].v[i] = p[2 * i + 1];
+    }
+    return r;
+}
+
+/* Interleaves four vectors into 64 bytes */
+static inline void vst4q_u8(uint8_t *p, uint8x16x4_t a)
+{
+    int i, k;
+    for (i = 0; i < 16; i++) {
+        for (k = 0; k < 4; k++) p[4 * i + k] = a.val[k].v[i];
+    }
+}
+
+static inline uint16x8_t vmovl_u8(uint8x8_t a)
+{
+    uint16x8_t r;
+    int i;
+    for (i = 0; i < 8; i++) r.v[i] = a.v[i];
+    return r;
+}
+
+static inline uint16x8_t vaddq_u16(uint16x8_t a, uint16x8_t b)
+{
+    uint16x8_t r;
+    int i;
+    for (i = 0; i < 8; i++) r.v[i] = (uint16_t) (a.v[i] + b.v[i]);
+    return r;
+}
+
+static inline uint16x8_t vsubq_u16(uint16x8_t a, uint16x8_t b)
+{
+    uint16x8_t r;
+    int i;
+    for (i = 0; i < 8; i++) r.v[i] = (uint16_t) (a.v[i] - b.v[i]);
+    return r;
+}
+
+static inline int16x8_t vaddq_s16(int16x8_t a, int16x8_t b)
+{
+    int16x8_t r;
+    int i;
+    for (i = 0; i < 8; i++) r.v[i] = (int16_t) (a.v[i] + b.v[i]);
+    return r;
+}
+
+static inline int16x8_t vsubq_s16(int16x8_t a, int16x8_t b)
+{
+    int16x8_t r;
+    int i;
+    for (i = 0; i < 8; i++) r.v[i] = (int16_t) (a.v[i] - b.v[i]);
+    return r;
+}
+
+/* Logical shift */
+static inline uint16x8_t vshrq_n_u16(uint16x8_t a, int n)
+{
+    uint16x8_t r;
+    int i;
+    for (i = 0; i < 8; i++) r.v[i] = (uint16_t) (a.v[i] >> n);
+    return r;
+}
+
+/* Arithmetic shift */
+static inline int16x8_t vshrq_n_s16(int16x8_t a, int n)
+{
+    int16x8_t r;
+    int i;
+    for (i = 0; i < 8; i++) r.v[i] = (int16_t) (a.v[i] < 0 ? ~(~a.v[i] >> n) : a.v[i] >> n);
+    return r;
+}
+
+static inline int16x8_t vreinterpretq_s16_u16(uint16x8_t a)
+{
+    int16x8_t r;
+    int i;
+    for (i = 0; i < 8; i++) r.v[i] = (int16_t) a.v[i];
+    return r;
+}
+
+/* Narrows to unsigned bytes, saturating */
+static inline uint8x8_t vqmovun_s16(int16x8_t a)
+{
+    uint8x8_t r;
+    int i;
+    for (i = 0; i < 8; i++) r.v[i] = a.v[i] < 0 ? 0 : a.v[i] > 255 ? 255 : (uint8_t) a.v[i];
+    return r;
+}
+
+/* Interleaves the lanes of a and b, the low halves to val[0] */
+static inline int16x8x2_t vzipq_s16(int16x8_t a, int16x8_t b)
+{
+    int16x8x2_t r;
+    int i;
+    for (i = 0; i < 4; i++) {
+        r.val[0].v[2 * i] = a.v[i];
+        r.val[0].v[2 * i + 1] = b.v[i];
+        r.val[1].v[2 * i] = a.v[i + 4];
+        r.val[1].v[2 * i + 1] = b.v[i + 4];
+    }
+    return r;
+}
+
+#endif
@@ -0,0 +1,64 @@
+/*
+ * Measures the conversion of a 1080p NV21 frame by the original scalar decoder
+ * and by yuv_nv21_convert with 1 to 4 threads.
+ */
+#include <stdint.h>
+#include <stdio.h>
+#include <stdlib.h>
+#include <time.h>
+
+#include "yuv-convert.h"
+#include "yuv-reference.h"
+
+#define WIDTH 1920
+#define HEIGHT 1080
+#define ITERATIONS 100
+
+static double now_ms(void)
+{
+    struct timespec ts;
+    clock_gettime(CLOCK_MONOTONIC, &ts);
+    return ts.tv_sec * 1000.0 + ts.tv_nsec / 1000000.0;
+}
+
+int main(int argc, char **argv)
+{
+    int iterations = argc > 1 ? atoi(argv[1]) : ITERATIONS;
+    size_t size = (size_t) WIDTH * HEIGHT * 3 / 2 + 16;
+    uint8_t *frame = (uint8_t *) malloc(size);
+    uint32_t *out = (uint32_t *) malloc((size_t) WIDTH * HEIGHT * 4);
+    double reference;
+    double start;
+    size_t i;
+    int threads;
+    int n;
+
+    srand(1);
+    for (i = 0; i < size; i++) {
+        frame[i] = (uint8_t) rand();
+    }
+
+    /* Warm up caches and page in the output */
+    yuv_reference_convert((const signed char *) frame, WIDTH, HEIGHT, (int *) out, 0);
+
+    start = now_ms();
+    for (n = 0; n < iterations; n++) {
+        yuv_reference_convert((const signed char *) frame, WIDTH, HEIGHT, (int *) out, 0);
+    }
+    reference = (now_ms() - start) / iterations;
+    printf("%-12s %7.3f ms/frame\n", "reference", reference);
+
+    for (threads = 1; threads <= 4; threads++) {
+        double elapsed;
+        yuv_nv21_convert(frame, WIDTH, HEIGHT, out, YUV_ORDER_RBGA, threads);
+        start = now_ms();
+        for (n = 0; n < iterations; n++) {
+            yuv_nv21_convert(frame, WIDTH, HEIGHT, out, YUV_ORDER_RBGA, threads);
+        }
+        elapsed = (now_ms() - start) / iterations;
+        printf("threads %-4d %7.3f ms/frame %6.2fx\n", threads, elapsed, reference / elapsed);
+    }
+    free(frame);
+    free(out);
+    return 0;
+}
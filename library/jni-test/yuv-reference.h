@@ -0,0 +1,7 @@
+#ifndef YUV_REFERENCE_H
+#define YUV_REFERENCE_H
+
+/* order: 0 for YUVtoRBGA, 1 for YUVtoARBG */
+void yuv_reference_convert(const signed char *yuv, int width, int height, int *rgbData, int order);
+
+#endif
@@ -0,0 +1,120 @@
+/*
+ * Checks that yuv_nv21_convert is bit exact with the original scalar decoder,
+ * for all sample values, odd sizes and band splits.
+ */
+#include <stdint.h>
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+
+#include "yuv-convert.h"
+#include "yuv-reference.h"
+
+static int sFailures = 0;
+
+static uint8_t *alloc_frame(int width, int height)
+{
+    /* The decoders read one chroma sample past the plane for odd widths */
+    size_t size = (size_t) width * height + (size_t) ((height + 1) / 2) * width + width + 16;
+    uint8_t *frame = (uint8_t *) malloc(size);
+    memset(frame, 0, size);
+    return frame;
+}
+
+static void check(const uint8_t *yuv, int width, int height, int order, int threads,
+                  const char *name)
+{
+    size_t pixels = (size_t) width * height;
+    int *expected = (int *) malloc(pixels * 4);
+    uint32_t *actual = (uint32_t *) malloc(pixels * 4 + 64);
+    size_t i;
+
+    yuv_reference_convert((const signed char *) yuv, width, height, expected, order);
+    memset(actual, 0x5a, pixels * 4 + 64);
+    yuv_nv21_convert(yuv, width, height, actual, order, threads);
+    for (i = 0; i < pixels; i++) {
+        if ((uint32_t) expected[i] != actual[i]) {
+            fprintf(stderr, "FAIL %s %dx%d order %d threads %d: pixel %d,%d is %08x, expected %08x\n",
+                    name, width, height, order, threads, (int) (i % width), (int) (i / width),
+                    actual[i], (uint32_t) expected[i]);
+            sFailures++;
+            break;
+        }
+    }
+    if (actual[pixels] != 0x5a5a5a5au) {
+        fprintf(stderr, "FAIL %s %dx%d order %d threads %d: wrote past the output\n",
+                name, width, height, order, threads);
+        sFailures++;
+    }
+    free(expected);
+    free(actual);
+}
+
+/* Every luma value with every pair of chroma values */
+static void test_exhaustive(void)
+{
+    const int width = 512;
+    const int height = 512;
+    uint8_t *frame = alloc_frame(width, height);
+    uint8_t *chrominance = frame + width * height;
+    int y;
+    int j;
+    int i;
+
+    for (j = 0; j < height / 2; j++) {
+        for (i = 0; i < width; i += 2) {
+            chrominance[j * width + i] = (uint8_t) j;
+            chrominance[j * width + i + 1] = (uint8_t) (i / 2);
+        }
+    }
+    for (y = 0; y < 256; y++) {
+        memset(frame, y, width * height);
+        check(frame, width, height, YUV_ORDER_RBGA, 1, "exhaustive");
+        check(frame, width, height, YUV_ORDER_ARBG, 1, "exhaustive");
+    }
+    free(frame);
+}
+
+/* Random content with sizes which leave columns and rows for the scalar tail */
+static void test_sizes(void)
+{
+    static const int widths[] = {1, 2, 3, 7, 8, 9, 15, 16, 17, 18, 31, 33, 100, 161, 640, 1282};
+    static const int heights[] = {1, 2, 3, 5, 64, 127, 128, 129, 255, 480};
+    static const int threads[] = {1, 2, 3, 4, 8, 16};
+    size_t w;
+    size_t h;
+    size_t t;
+    int order;
+
+    srand(1);
+    for (w = 0; w < sizeof(widths) / sizeof(widths[0]); w++) {
+        for (h = 0; h < sizeof(heights) / sizeof(heights[0]); h++) {
+            int width = widths[w];
+            int height = heights[h];
+            size_t size = (size_t) width * height + (size_t) ((height + 1) / 2) * width + width;
+            uint8_t *frame = alloc_frame(width, height);
+            size_t i;
+            for (i = 0; i < size; i++) {
+                frame[i] = (uint8_t) rand();
+            }
+            for (order = 0; order < 2; order++) {
+                for (t = 0; t < sizeof(threads) / sizeof(threads[0]); t++) {
+                    check(frame, width, height, order, threads[t], "random");
+                }
+            }
+            free(frame);
+        }
+    }
+}
+
+int main(void)
+{
+    test_exhaustive();
+    test_sizes();
+    if (sFailures != 0) {
+        fprintf(stderr, "%d failures\n", sFailures);
+        return 1;
+    }
+    printf("yuv-test: all conversions match the reference decoder (%s path)\n", yuv_nv21_path());
+    return 0;
+}
@@ -0,0 +1,80 @@
+#include <jni.h>
+#include <stdlib.h>
+#include <android/bitmap.h>
+#include <GLES2/gl2.h>
+
+#include "pixel-flip.h"
+
+static void throwIllegalArgument(JNIEnv * env, const char *message)
+{
+    jclass exception = (*env)->FindClass(env, "java/lang/IllegalArgumentException");
+    (*env)->ThrowNew(env, exception, message);
+}
+
+/*
+ * Locks an ARGB_8888 bitmap, whose memory layout is that of GL_RGBA pixels.
+ */
+static void *lockBitmap(JNIEnv * env, jobject bitmap, AndroidBitmapInfo *info)
+{
+    void *pixels = NULL;
+    if (AndroidBitmap_getInfo(env, bitmap, info) != ANDROID_BITMAP_RESULT_SUCCESS
+            || info->format != ANDROID_BITMAP_FORMAT_RGBA_8888) {
+        throwIllegalArgument(env, "Bitmap must be ARGB_8888");
+        return NULL;
+    }
+    if (AndroidBitmap_lockPixels(env, bitmap, &pixels) != ANDROID_BITMAP_RESULT_SUCCESS) {
+        throwIllegalArgument(env, "Bitmap pixels cannot be locked");
+        return NULL;
+    }
+    return pixels;
+}
+
+JNIEXPORT jboolean JNICALL Java_jp_co_cyberagent_android_gpuimage_GPUImageNativeLibrary_readPixelsToBitmap(JNIEnv * env, jobject obj, jobject bitmap)
+{
+    AndroidBitmapInfo info;
+    size_t rowBytes;
+    uint8_t *tmp;
+    void *pixels = lockBitmap(env, bitmap, &info);
+    if (pixels == NULL) {
+        return JNI_FALSE;
+    }
+    rowBytes = (size_t) info.width * 4;
+    tmp = (uint8_t *) malloc(rowBytes);
+    if (tmp == NULL || info.stride != rowBytes) {
+        /* glReadPixels of ES 2.0 cannot skip padding at the end of the rows */
+        free(tmp);
+        AndroidBitmap_unlockPixels(env, bitmap);
+        return JNI_FALSE;
+    }
+
+    glPixelStorei(GL_PACK_ALIGNMENT, 4);
+    glReadPixels(0, 0, info.width, info.height, GL_RGBA, GL_UNSIGNED_BYTE, pixels);
+    pixel_flip_rows((uint8_t *) pixels, info.stride, rowBytes, info.height, tmp);
+
+    free(tmp);
+    AndroidBitmap_unlockPixels(env, bitmap);
+    return JNI_TRUE;
+}
+
+JNIEXPORT void JNICALL Java_jp_co_cyberagent_android_gpuimage_GPUImageNativeLibrary_copyFlippedToBitmap(JNIEnv * env, jobject obj, jobject rgba, jobject bitmap)
+{
+    AndroidBitmapInfo info;
+    void *pixels;
+    const uint8_t *src = (const uint8_t *) (*env)->GetDirectBufferAddress(env, rgba);
+    if (AndroidBitmap_getInfo(env, bitmap, &info) != ANDROID_BITMAP_RESULT_SUCCESS) {
+        throwIllegalArgument(env, "Bitmap info unavailable");
+        return;
+    }
+    if (src == NULL || (*env)->GetDirectBufferCapacity(env, rgba)
+            < (jlong) info.width * info.height * 4) {
+        throwIllegalArgument(env, "Pixels must be a direct buffer of width * height * 4 bytes");
+        return;
+    }
+    pixels = lockBitmap(env, bitmap, &info);
+    if (pixels == NULL) {
+        return;
+    }
+    pixel_copy_flipped(src, (size_t) info.width * 4, (uint8_t *) pixels, info.stride,
+                       (size_t) info.width * 4, info.height);
+    AndroidBitmap_unlockPixels(env, bitmap);
+}
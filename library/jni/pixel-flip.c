@@ -0,0 +1,31 @@
+#include <string.h>
+
+#include "pixel-flip.h"
+
+void pixel_flip_rows(uint8_t *pixels, size_t stride, size_t row_bytes, int height,
+                     uint8_t *tmp)
+{
+    uint8_t *top = pixels;
+    uint8_t *bottom = pixels + (size_t) (height - 1) * stride;
+
+    while (top < bottom) {
+        memcpy(tmp, top, row_bytes);
+        memcpy(top, bottom, row_bytes);
+        memcpy(bottom, tmp, row_bytes);
+        top += stride;
+        bottom -= stride;
+    }
+}
+
+void pixel_copy_flipped(const uint8_t *src, size_t src_stride, uint8_t *dst,
+                        size_t dst_stride, size_t row_bytes, int height)
+{
+    const uint8_t *row = src + (size_t) (height - 1) * src_stride;
+    int y;
+
+    for (y = 0; y < height; y++) {
+        memcpy(dst, row, row_bytes);
+        dst += dst_stride;
+        row -= src_stride;
+    }
+}
@@ -0,0 +1,21 @@
+#ifndef PIXEL_FLIP_H
+#define PIXEL_FLIP_H
+
+#include <stddef.h>
+#include <stdint.h>
+
+/*
+ * Mirrors an image vertically in place, swapping rows through `tmp`, which must
+ * hold row_bytes. glReadPixels returns the bottom row first, bitmaps start with
+ * the top one.
+ */
+void pixel_flip_rows(uint8_t *pixels, size_t stride, size_t row_bytes, int height,
+                     uint8_t *tmp);
+
+/*
+ * Copies an image into `dst` mirrored vertically, one memcpy per row.
+ */
+void pixel_copy_flipped(const uint8_t *src, size_t src_stride, uint8_t *dst,
+                        size_t dst_stride, size_t row_bytes, int height);
+
+#endif
@@ -0,0 +1,73 @@
+/*
+ * NEON path of yuv-convert.c, 16 pixels of each row per iteration.
+ *
+ * Built on its own with NEON enabled (as a .neon source on armeabi-v7a), so the
+ * rest of the library runs on ARMv7 devices without NEON. yuv-convert.c only
+ * calls it once the CPU is known to have NEON.
+ */
+#include "yuv-convert-neon.h"
+#include "yuv-convert.h"
+
+#include <arm_neon.h>
+#include <stddef.h>
+
+static inline int16x8_t luma_neon(uint8x8_t samples)
+{
+    uint16x8_t y = vmovl_u8(samples);
+    y = vsubq_u16(y, vshrq_n_u16(y, 7));
+    y = vaddq_u16(vaddq_u16(y, vshrq_n_u16(y, 3)),
+                  vaddq_u16(vshrq_n_u16(y, 5), vshrq_n_u16(y, 7)));
+    return vreinterpretq_s16_u16(y);
+}
+
+static inline int16x8_t chroma_neon(uint8x8_t samples)
+{
+    uint16x8_t c = vmovl_u8(samples);
+    return vsubq_s16(vsubq_s16(vreinterpretq_s16_u16(c), vdupq_n_s16(128)),
+                     vreinterpretq_s16_u16(vshrq_n_u16(c, 7)));
+}
+
+static inline void store_neon(uint32_t *out, uint8x16_t samples, int16x8x2_t rc,
+                              int16x8x2_t gc, int16x8x2_t bc, int order)
+{
+    int16x8_t lo = luma_neon(vget_low_u8(samples));
+    int16x8_t hi = luma_neon(vget_high_u8(samples));
+    uint8x16_t r = vcombine_u8(vqmovun_s16(vaddq_s16(lo, rc.val[0])),
+                               vqmovun_s16(vaddq_s16(hi, rc.val[1])));
+    uint8x16_t g = vcombine_u8(vqmovun_s16(vaddq_s16(lo, gc.val[0])),
+                               vqmovun_s16(vaddq_s16(hi, gc.val[1])));
+    uint8x16_t b = vcombine_u8(vqmovun_s16(vaddq_s16(lo, bc.val[0])),
+                               vqmovun_s16(vaddq_s16(hi, bc.val[1])));
+    uint8x16x4_t pixels;
+    pixels.val[0] = order == YUV_ORDER_RBGA ? b : r;
+    pixels.val[1] = g;
+    pixels.val[2] = order == YUV_ORDER_RBGA ? r : b;
+    pixels.val[3] = vdupq_n_u8(0xff);
+    vst4q_u8((uint8_t *) out, pixels);
+}
+
+int yuv_nv21_convert_vector_neon(const uint8_t *y0, const uint8_t *y1, const uint8_t *c,
+                                 uint32_t *out0, uint32_t *out1, int width, int order)
+{
+    int i;
+    for (i = 0; i + 16 <= width; i += 16) {
+        uint8x8x2_t vu = vld2_u8(c + i);
+        int16x8_t cb = chroma_neon(vu.val[0]);
+        int16x8_t cr = chroma_neon(vu.val[1]);
+        int16x8_t rc = vaddq_s16(vaddq_s16(cr, cr), vshrq_n_s16(cr, 6));
+        int16x8_t gc = vaddq_s16(vsubq_s16(vaddq_s16(vshrq_n_s16(cb, 3), vshrq_n_s16(cb, 4)), cb),
+                                 vsubq_s16(vshrq_n_s16(cr, 3), vshrq_n_s16(cr, 1)));
+        int16x8_t bc = vaddq_s16(vaddq_s16(cb, vshrq_n_s16(cb, 1)),
+                                 vaddq_s16(vshrq_n_s16(cb, 4), vshrq_n_s16(cb, 5)));
+        /* One chroma value per two pixels */
+        int16x8x2_t rcs = vzipq_s16(rc, rc);
+        int16x8x2_t gcs = vzipq_s16(gc, gc);
+        int16x8x2_t bcs = vzipq_s16(bc, bc);
+
+        store_neon(out0 + i, vld1q_u8(y0 + i), rcs, gcs, bcs, order);
+        if (y1 != NULL) {
+            store_neon(out1 + i, vld1q_u8(y1 + i), rcs, gcs, bcs, order);
+        }
+    }
+    return i;
+}
@@ -0,0 +1,16 @@
+#ifndef YUV_CONVERT_NEON_H
+#define YUV_CONVERT_NEON_H
+
+#include <stdint.h>
+
+/*
+ * Converts the leading columns of a pair of rows of an NV21 frame, see
+ * yuv-convert.c. y1 and out1 are NULL for a row without a partner. Must only be
+ * called on a CPU with NEON.
+ *
+ * Returns the number of columns converted, a multiple of 16.
+ */
+int yuv_nv21_convert_vector_neon(const uint8_t *y0, const uint8_t *y1, const uint8_t *c,
+                                 uint32_t *out0, uint32_t *out1, int width, int order);
+
+#endif
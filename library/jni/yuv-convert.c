@@ -0,0 +1,362 @@
+#include "yuv-convert.h"
+
+#include <pthread.h>
+#include <stddef.h>
+
+/*
+ * On ARMv7 the NEON path is built separately and chosen at runtime, devices
+ * without NEON would fault on NEON instructions anywhere else. ARMv5 has none.
+ */
+#if !defined(YUV_NO_SIMD) && (defined(__aarch64__) || defined(YUV_NEON_EMULATED) \
+        || (defined(__arm__) && defined(__ARM_ARCH) && __ARM_ARCH >= 7))
+#define YUV_NEON 1
+#include "yuv-convert-neon.h"
+#if defined(__ANDROID__) && !defined(__aarch64__)
+#include <cpu-features.h>
+#endif
+#elif !defined(YUV_NO_SIMD) && defined(__SSE2__)
+#define YUV_SSE2 1
+#include <emmintrin.h>
+#endif
+
+#define MAX_THREADS 8
+/* Bands smaller than this are not worth a thread */
+#define MIN_BAND_ROWS 64
+
+/*
+ * The arithmetic of the original decoder, which all paths reproduce exactly:
+ *
+ *   Y  = y - (y >= 128)                     y, u, v are the unsigned samples
+ *   Cb = v - 128 - (v >= 128)               (sic, the first sample of a pair)
+ *   Cr = u - 128 - (u >= 128)
+ *   Y' = Y + (Y >> 3) + (Y >> 5) + (Y >> 7) ~ 1.164 * Y
+ *   R  = Y' + 2 * Cr + (Cr >> 6)
+ *   G  = Y' - Cb + (Cb >> 3) + (Cb >> 4) - (Cr >> 1) + (Cr >> 3)
+ *   B  = Y' + Cb + (Cb >> 1) + (Cb >> 4) + (Cb >> 5)
+ *
+ * clamped to 0..255. The chroma terms are computed once per 2x2 block and
+ * shared by the two rows of the block. All intermediate values fit 16 bits.
+ */
+
+static inline int luma(int y)
+{
+    y -= y >> 7;
+    return y + (y >> 3) + (y >> 5) + (y >> 7);
+}
+
+static inline int chroma(int c)
+{
+    return c - 128 - (c >> 7);
+}
+
+static inline int clamp(int value)
+{
+    return value < 0 ? 0 : (value > 255 ? 255 : value);
+}
+
+static inline uint32_t pack(int y, int rc, int gc, int bc, int order)
+{
+    uint32_t r = (uint32_t) clamp(y + rc);
+    uint32_t g = (uint32_t) clamp(y + gc);
+    uint32_t b = (uint32_t) clamp(y + bc);
+    if (order == YUV_ORDER_RBGA) {
+        return 0xff000000u | (r << 16) | (g << 8) | b;
+    }
+    return 0xff000000u | (b << 16) | (g << 8) | r;
+}
+
+/* Portable path, also converts the columns left over by the vector paths */
+static void convert_scalar(const uint8_t *y0, const uint8_t *y1, const uint8_t *c,
+                           uint32_t *out0, uint32_t *out1, int i, int width, int order)
+{
+    for (; i < width; i += 2) {
+        int cb = chroma(c[i]);
+        int cr = chroma(c[i + 1]);
+        int rc = cr * 2 + (cr >> 6);
+        int gc = -cb + (cb >> 3) + (cb >> 4) - (cr >> 1) + (cr >> 3);
+        int bc = cb + (cb >> 1) + (cb >> 4) + (cb >> 5);
+        int last = i + 1 >= width;
+
+        out0[i] = pack(luma(y0[i]), rc, gc, bc, order);
+        if (!last) {
+            out0[i + 1] = pack(luma(y0[i + 1]), rc, gc, bc, order);
+        }
+        if (y1 != NULL) {
+            out1[i] = pack(luma(y1[i]), rc, gc, bc, order);
+            if (!last) {
+                out1[i + 1] = pack(luma(y1[i + 1]), rc, gc, bc, order);
+            }
+        }
+    }
+}
+
+#if defined(YUV_NEON)
+
+static int convert_none(const uint8_t *y0, const uint8_t *y1, const uint8_t *c,
+                        uint32_t *out0, uint32_t *out1, int width, int order)
+{
+    return 0;
+}
+
+typedef int (*vector_converter)(const uint8_t *y0, const uint8_t *y1, const uint8_t *c,
+                                uint32_t *out0, uint32_t *out1, int width, int order);
+
+static vector_converter sConvertVector = convert_none;
+static pthread_once_t sSelectOnce = PTHREAD_ONCE_INIT;
+
+static int has_neon(void)
+{
+#if defined(__aarch64__) || defined(YUV_NEON_EMULATED)
+    return 1;
+#elif defined(__ANDROID__)
+    return android_getCpuFamily() == ANDROID_CPU_FAMILY_ARM
+           && (android_getCpuFeatures() & ANDROID_CPU_ARM_FEATURE_NEON) != 0;
+#elif defined(__ARM_NEON__) || defined(__ARM_NEON)
+    return 1;
+#else
+    return 0;
+#endif
+}
+
+static void select_vector(void)
+{
+    if (has_neon()) {
+        sConvertVector = yuv_nv21_convert_vector_neon;
+    }
+}
+
+/* The NEON path of yuv-convert-neon.c where the CPU has NEON, none otherwise */
+static int convert_vector(const uint8_t *y0, const uint8_t *y1, const uint8_t *c,
+                          uint32_t *out0, uint32_t *out1, int width, int order)
+{
+    return sConvertVector(y0, y1, c, out0, out1, width, order);
+}
+
+#elif defined(YUV_SSE2)
+
+static inline __m128i luma_sse2(const uint8_t *samples)
+{
+    __m128i y = _mm_unpacklo_epi8(_mm_loadl_epi64((const __m128i *) samples),
+                                  _mm_setzero_si128());
+    y = _mm_sub_epi16(y, _mm_srli_epi16(y, 7));
+    return _mm_add_epi16(_mm_add_epi16(y, _mm_srli_epi16(y, 3)),
+                         _mm_add_epi16(_mm_srli_epi16(y, 5), _mm_srli_epi16(y, 7)));
+}
+
+static inline void store_sse2(uint32_t *out, const uint8_t *samples, __m128i rc,
+                              __m128i gc, __m128i bc, int order)
+{
+    __m128i zero = _mm_setzero_si128();
+    __m128i y = luma_sse2(samples);
+    __m128i r = _mm_packus_epi16(_mm_add_epi16(y, rc), zero);
+    __m128i g = _mm_packus_epi16(_mm_add_epi16(y, gc), zero);
+    __m128i b = _mm_packus_epi16(_mm_add_epi16(y, bc), zero);
+    __m128i first = _mm_unpacklo_epi8(order == YUV_ORDER_RBGA ? b : r, g);
+    __m128i second = _mm_unpacklo_epi8(order == YUV_ORDER_RBGA ? r : b,
+                                       _mm_set1_epi8((char) 0xff));
+    _mm_storeu_si128((__m128i *) out, _mm_unpacklo_epi16(first, second));
+    _mm_storeu_si128((__m128i *) (out + 4), _mm_unpackhi_epi16(first, second));
+}
+
+/* 8 pixels of each row per iteration */
+static int convert_vector(const uint8_t *y0, const uint8_t *y1, const uint8_t *c,
+                          uint32_t *out0, uint32_t *out1, int width, int order)
+{
+    int i;
+    for (i = 0; i + 8 <= width; i += 8) {
+        __m128i vu = _mm_unpacklo_epi8(_mm_loadl_epi64((const __m128i *) (c + i)),
+                                       _mm_setzero_si128());
+        vu = _mm_sub_epi16(_mm_sub_epi16(vu, _mm_set1_epi16(128)), _mm_srli_epi16(vu, 7));
+        /* Spread the V and U sample of each pair over both pixels of the pair */
+        __m128i cb = _mm_shufflehi_epi16(_mm_shufflelo_epi16(vu, _MM_SHUFFLE(2, 2, 0, 0)),
+                                         _MM_SHUFFLE(2, 2, 0, 0));
+        __m128i cr = _mm_shufflehi_epi16(_mm_shufflelo_epi16(vu, _MM_SHUFFLE(3, 3, 1, 1)),
+                                         _MM_SHUFFLE(3, 3, 1, 1));
+        __m128i rc = _mm_add_epi16(_mm_add_epi16(cr, cr), _mm_srai_epi16(cr, 6));
+        __m128i gc = _mm_add_epi16(
+                _mm_sub_epi16(_mm_add_epi16(_mm_srai_epi16(cb, 3), _mm_srai_epi16(cb, 4)), cb),
+                _mm_sub_epi16(_mm_srai_epi16(cr, 3), _mm_srai_epi16(cr, 1)));
+        __m128i bc = _mm_add_epi16(_mm_add_epi16(cb, _mm_srai_epi16(cb, 1)),
+                                   _mm_add_epi16(_mm_srai_epi16(cb, 4), _mm_srai_epi16(cb, 5)));
+
+        store_sse2(out0 + i, y0 + i, rc, gc, bc, order);
+        if (y1 != NULL) {
+            store_sse2(out1 + i, y1 + i, rc, gc, bc, order);
+        }
+    }
+    return i;
+}
+
+#else
+
+static int convert_vector(const uint8_t *y0, const uint8_t *y1, const uint8_t *c,
+                          uint32_t *out0, uint32_t *out1, int width, int order)
+{
+    return 0;
+}
+
+#endif
+
+const char *yuv_nv21_path(void)
+{
+#if defined(YUV_NEON)
+    pthread_once(&sSelectOnce, select_vector);
+    return sConvertVector != convert_none ? "neon" : "portable";
+#elif defined(YUV_SSE2)
+    return "sse2";
+#else
+    return "portable";
+#endif
+}
+
+void yuv_nv21_convert_rows(const uint8_t *yuv, int width, int height, uint32_t *out,
+                           int order, int row_start, int row_end)
+{
+    const uint8_t *chrominance = yuv + (size_t) width * height;
+    int j;
+
+#if defined(YUV_NEON)
+    pthread_once(&sSelectOnce, select_vector);
+#endif
+    for (j = row_start; j < row_end; j += 2) {
+        const uint8_t *y0 = yuv + (size_t) j * width;
+        const uint8_t *c = chrominance + (size_t) (j >> 1) * width;
+        uint32_t *out0 = out + (size_t) j * width;
+        /* The last row of a frame with an odd height has no partner */
+        int pair = j + 1 < row_end;
+        const uint8_t *y1 = pair ? y0 + width : NULL;
+        uint32_t *out1 = pair ? out0 + width : NULL;
+
+        int i = convert_vector(y0, y1, c, out0, out1, width, order);
+        convert_scalar(y0, y1, c, out0, out1, i, width, order);
+    }
+}
+
+typedef struct {
+    const uint8_t *yuv;
+    int width;
+    int height;
+    uint32_t *out;
+    int order;
+    int row_start;
+    int row_end;
+} band;
+
+static void convert_band(const band *b)
+{
+    yuv_nv21_convert_rows(b->yuv, b->width, b->height, b->out, b->order,
+                          b->row_start, b->row_end);
+}
+
+/*
+ * Band workers, started the first time a frame needs them and kept for the life
+ * of the process. Each frame bumps sGeneration and wakes them, worker t then
+ * converts band t if the frame has one. The calling thread converts band 0.
+ */
+static pthread_mutex_t sPoolOwner = PTHREAD_MUTEX_INITIALIZER;
+static pthread_mutex_t sPoolLock = PTHREAD_MUTEX_INITIALIZER;
+static pthread_cond_t sWork = PTHREAD_COND_INITIALIZER;
+static pthread_cond_t sDone = PTHREAD_COND_INITIALIZER;
+static int sWorkers = 1;
+static unsigned int sGeneration;
+static unsigned int sSeen[MAX_THREADS];
+static band sBands[MAX_THREADS];
+static int sBandCount;
+static int sPending;
+
+static void *band_worker(void *arg)
+{
+    int t = (int) (intptr_t) arg;
+
+    pthread_mutex_lock(&sPoolLock);
+    for (;;) {
+        while (sSeen[t] == sGeneration) {
+            pthread_cond_wait(&sWork, &sPoolLock);
+        }
+        sSeen[t] = sGeneration;
+        if (t < sBandCount) {
+            band b = sBands[t];
+            pthread_mutex_unlock(&sPoolLock);
+            convert_band(&b);
+            pthread_mutex_lock(&sPoolLock);
+            if (--sPending == 0) {
+                pthread_cond_signal(&sDone);
+            }
+        }
+    }
+    return NULL;
+}
+
+/* Called with sPoolLock held, returns the number of workers, the caller included */
+static int start_workers(int threads)
+{
+    pthread_attr_t attr;
+    pthread_t thread;
+
+    if (sWorkers >= threads) {
+        return sWorkers;
+    }
+    pthread_attr_init(&attr);
+    pthread_attr_setdetachstate(&attr, PTHREAD_CREATE_DETACHED);
+    while (sWorkers < threads) {
+        sSeen[sWorkers] = sGeneration;
+        if (pthread_create(&thread, &attr, band_worker, (void *) (intptr_t) sWorkers) != 0) {
+            break;
+        }
+        sWorkers++;
+    }
+    pthread_attr_destroy(&attr);
+    return sWorkers;
+}
+
+void yuv_nv21_convert(const uint8_t *yuv, int width, int height, uint32_t *out,
+                      int order, int threads)
+{
+    int rows;
+    int count;
+    int t;
+
+    if (threads > MAX_THREADS) {
+        threads = MAX_THREADS;
+    }
+    if (threads > height / MIN_BAND_ROWS) {
+        threads = height / MIN_BAND_ROWS;
+    }
+    /* A frame converted while another thread has the pool is converted alone */
+    if (threads <= 1 || pthread_mutex_trylock(&sPoolOwner) != 0) {
+        yuv_nv21_convert_rows(yuv, width, height, out, order, 0, height);
+        return;
+    }
+
+    pthread_mutex_lock(&sPoolLock);
+    threads = start_workers(threads);
+    /* Even band heights, so no 2x2 block is split between two bands */
+    rows = ((height + threads - 1) / threads + 1) & ~1;
+    count = 0;
+    for (t = 0; t < threads && t * rows < height; t++) {
+        sBands[t].yuv = yuv;
+        sBands[t].width = width;
+        sBands[t].height = height;
+        sBands[t].out = out;
+        sBands[t].order = order;
+        sBands[t].row_start = t * rows;
+        sBands[t].row_end = (t + 1) * rows < height ? (t + 1) * rows : height;
+        count++;
+    }
+    sBandCount = count;
+    sPending = count - 1;
+    if (sPending > 0) {
+        sGeneration++;
+        pthread_cond_broadcast(&sWork);
+    }
+    pthread_mutex_unlock(&sPoolLock);
+
+    convert_band(&sBands[0]);
+
+    pthread_mutex_lock(&sPoolLock);
+    while (sPending > 0) {
+        pthread_cond_wait(&sDone, &sPoolLock);
+    }
+    pthread_mutex_unlock(&sPoolLock);
+    pthread_mutex_unlock(&sPoolOwner);
+}
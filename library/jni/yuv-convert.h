@@ -0,0 +1,38 @@
+#ifndef YUV_CONVERT_H
+#define YUV_CONVERT_H
+
+#include <stdint.h>
+
+/*
+ * Pixel orders of the 32 bit output words, named after the functions of
+ * GPUImageNativeLibrary. RBGA stores 0xAARRGGBB, which is R, G, B, A in memory
+ * on little endian devices, ARBG stores 0xAABBGGRR.
+ */
+#define YUV_ORDER_RBGA 0
+#define YUV_ORDER_ARBG 1
+
+/*
+ * Converts an NV21 frame (Y plane followed by interleaved V and U samples) to
+ * 32 bit pixels, bit exact with the original scalar decoder.
+ *
+ * The frame is split into bands of rows converted on up to `threads` threads,
+ * the calling thread included. The other threads are started once and reused
+ * for later frames. Must not be called with threads < 1.
+ */
+void yuv_nv21_convert(const uint8_t *yuv, int width, int height, uint32_t *out,
+                      int order, int threads);
+
+/*
+ * Converts the rows [row_start, row_end) of an NV21 frame on the calling
+ * thread. row_start must be even.
+ */
+void yuv_nv21_convert_rows(const uint8_t *yuv, int width, int height, uint32_t *out,
+                           int order, int row_start, int row_end);
+
+/*
+ * Returns the vector path conversions take on this CPU: "neon", "sse2" or
+ * "portable".
+ */
+const char *yuv_nv21_path(void);
+
+#endif
@@ -41,7 +41,11 @@ import android.view.WindowManager;
 
 import java.io.*;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
 import java.util.concurrent.Semaphore;
 
 /**
@@ -51,6 +55,7 @@ import java.util.concurrent.Semaphore;
 public class GPUImage {
     private final Context mContext;
     private final GPUImageRenderer mRenderer;
+    private GPUImageRenderWorker mExportWorker;
     private GLSurfaceView mGlSurfaceView;
     private GPUImageFilter mFilter;
     private Bitmap mCurrentBitmap;
@@ -85,6 +90,17 @@ public class GPUImage {
         return configurationInfo.reqGlEsVersion >= 0x20000;
     }
 
+    /**
+     * Enables persisting linked shader programs in the cache directory of the app, so later
+     * launches load them instead of compiling from source. Needs an OpenGL ES 3.0 capable
+     * driver and is silently skipped otherwise. Call before the first filter is initialized.
+     *
+     * @param context the context
+     */
+    public static void enableProgramBinaryCache(final Context context) {
+        GPUImageProgramBinaryCache.setDirectory(new File(context.getCacheDir(), "gpuimage-programs"));
+    }
+
     /**
      * Sets the GLSurfaceView which will display the preview.
      *
@@ -98,6 +114,19 @@ public class GPUImage {
         mGlSurfaceView.setRenderer(mRenderer);
         mGlSurfaceView.setRenderMode(GLSurfaceView.RENDERMODE_WHEN_DIRTY);
         mGlSurfaceView.requestRender();
+        mRenderer.setRenderRequestListener(new GPUImageRenderer.RenderRequestListener() {
+            @Override
+            public void onRenderRequested() {
+                requestRender();
+            }
+        });
+        // Events queued while drawing run on the GL thread after the swap
+        mRenderer.setPresentExecutor(new Executor() {
+            @Override
+            public void execute(final Runnable command) {
+                view.queueEvent(command);
+            }
+        });
     }
 
     /**
@@ -111,6 +140,64 @@ public class GPUImage {
         mRenderer.setBackgroundColor(red, green, blue);
     }
 
+    /**
+     * Reports the allocations of every preview frame to the given tracker, null to stop.
+     * Meant for debug builds only.
+     *
+     * @param tracker the tracker
+     */
+    public void setAllocationTracker(final GPUImageAllocationTracker tracker) {
+        mRenderer.setAllocationTracker(tracker);
+    }
+
+    /**
+     * Reports how long each filter takes to draw the preview frames to the given profiler,
+     * null to stop.
+     *
+     * @param profiler the profiler
+     */
+    public void setFilterProfiler(final GPUImageFilterProfiler profiler) {
+        mRenderer.setFilterProfiler(profiler);
+    }
+
+    /**
+     * Reports the capture-to-display latency and pacing of the camera frames to the given
+     * timings, null to stop.
+     *
+     * @param timings the timings
+     */
+    public void setFrameTimings(final GPUImageFrameTimings timings) {
+        mRenderer.setFrameTimings(timings);
+    }
+
+    /**
+     * Lowers the preview resolution and filter quality when frames take longer than the
+     * governor's target, null to always render at full quality.
+     *
+     * @param governor the governor
+     */
+    public void setQualityGovernor(final GPUImageQualityGovernor governor) {
+        mRenderer.setQualityGovernor(governor);
+    }
+
+    /**
+     * Captures the next preview frame without stalling the rendering.
+     *
+     * @return completes with the frame a frame later
+     */
+    public Future<Bitmap> capturePreview() {
+        return mRenderer.capture();
+    }
+
+    /**
+     * Reads back every preview frame for a burst or an encoder, null to stop.
+     *
+     * @param callback receives the pixels on the GL thread
+     */
+    public void setFrameCapture(final GPUImagePixelReader.FrameCallback callback) {
+        mRenderer.setFrameCapture(callback);
+    }
+
     /**
      * Request the preview to be rendered again.
      */
@@ -139,9 +226,25 @@ public class GPUImage {
      */
     public void setUpCamera(final Camera camera, final int degrees, final boolean flipHorizontal,
             final boolean flipVertical) {
-        mGlSurfaceView.setRenderMode(GLSurfaceView.RENDERMODE_CONTINUOUSLY);
+        setUpCamera(camera, degrees, flipHorizontal, flipVertical, true);
+    }
+
+    /**
+     * Sets the up camera to be connected to GPUImage to get a filtered preview.
+     *
+     * @param camera the camera
+     * @param degrees by how many degrees the image should be rotated
+     * @param flipHorizontal if the image should be flipped horizontally
+     * @param flipVertical if the image should be flipped vertically
+     * @param externalTexture true to sample the preview as an external texture on the GPU,
+     *            false to convert and upload the frames of a preview callback
+     */
+    public void setUpCamera(final Camera camera, final int degrees, final boolean flipHorizontal,
+            final boolean flipVertical, final boolean externalTexture) {
+        // Frames are drawn when the camera delivers them, see setGLSurfaceView
+        mGlSurfaceView.setRenderMode(GLSurfaceView.RENDERMODE_WHEN_DIRTY);
         if (Build.VERSION.SDK_INT > Build.VERSION_CODES.GINGERBREAD_MR1) {
-            setUpCameraGingerbread(camera);
+            setUpCameraGingerbread(camera, externalTexture);
         } else {
             camera.setPreviewCallback(mRenderer);
             camera.startPreview();
@@ -162,8 +265,12 @@ public class GPUImage {
     }
 
     @TargetApi(11)
-    private void setUpCameraGingerbread(final Camera camera) {
-        mRenderer.setUpSurfaceTexture(camera);
+    private void setUpCameraGingerbread(final Camera camera, final boolean externalTexture) {
+        if (externalTexture) {
+            mRenderer.setUpCameraTexture(camera);
+        } else {
+            mRenderer.setUpSurfaceTexture(camera);
+        }
     }
 
     /**
@@ -279,47 +386,21 @@ public class GPUImage {
      * @return the bitmap with filter applied
      */
     public Bitmap getBitmapWithFilterApplied(final Bitmap bitmap) {
-        if (mGlSurfaceView != null) {
-            mRenderer.deleteImage();
-            mRenderer.runOnDraw(new Runnable() {
-
-                @Override
-                public void run() {
-                    synchronized(mFilter) {
-                        mFilter.destroy();
-                        mFilter.notify();
-                    }
-                }
-            });
-            synchronized(mFilter) {
-                requestRender();
-                try {
-                    mFilter.wait();
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
-                }
-            }
-        }
-
-        GPUImageRenderer renderer = new GPUImageRenderer(mFilter);
-        renderer.setRotation(Rotation.NORMAL,
-                mRenderer.isFlippedHorizontally(), mRenderer.isFlippedVertically());
-        renderer.setScaleType(mScaleType);
-        PixelBuffer buffer = new PixelBuffer(bitmap.getWidth(), bitmap.getHeight());
-        buffer.setRenderer(renderer);
-        renderer.setImageBitmap(bitmap, false);
-        Bitmap result = buffer.getBitmap();
-        mFilter.destroy();
-        renderer.deleteImage();
-        buffer.destroy();
+        // Rendered next to the preview, which keeps its filter and image
+        GPUImageRenderWorker worker = mGlSurfaceView != null
+                ? getExportWorker() : GPUImageRenderWorker.getDefault();
+        return getResult(worker.render(bitmap, mFilter, mScaleType,
+                mRenderer.isFlippedHorizontally(), mRenderer.isFlippedVertically()));
+    }
 
-        mRenderer.setFilter(mFilter);
-        if (mCurrentBitmap != null) {
-            mRenderer.setImageBitmap(mCurrentBitmap, false);
+    /**
+     * @return the worker sharing its context with the preview, created on first use
+     */
+    private synchronized GPUImageRenderWorker getExportWorker() {
+        if (mExportWorker == null) {
+            mExportWorker = new GPUImageRenderWorker(mRenderer);
         }
-        requestRender();
-
-        return result;
+        return mExportWorker;
     }
 
     /**
@@ -338,18 +419,61 @@ public class GPUImage {
         if (filters.isEmpty()) {
             return;
         }
-        GPUImageRenderer renderer = new GPUImageRenderer(filters.get(0));
-        renderer.setImageBitmap(bitmap, false);
-        PixelBuffer buffer = new PixelBuffer(bitmap.getWidth(), bitmap.getHeight());
-        buffer.setRenderer(renderer);
-
+        // Queued all at once, the worker renders the next while the listener handles one
+        GPUImageRenderWorker worker = GPUImageRenderWorker.getDefault();
+        List<Future<Bitmap>> results = new ArrayList<Future<Bitmap>>(filters.size());
         for (GPUImageFilter filter : filters) {
-            renderer.setFilter(filter);
-            listener.response(buffer.getBitmap());
-            filter.destroy();
+            results.add(worker.render(bitmap, filter));
+        }
+        for (Future<Bitmap> result : results) {
+            listener.response(getResult(result));
+        }
+    }
+
+    /**
+     * Gets thumbnails of an image for multiple filters, e.g. for a filter picker. The image is
+     * scaled once and all filters are drawn into a single atlas which is read back at once,
+     * much faster than {@link #getBitmapForMultipleFilters(Bitmap, List, ResponseListener)}.
+     * The listener is called with the thumbnails in the filter order.
+     *
+     * @param bitmap the bitmap on which the filters will be applied
+     * @param filters the filters which will be applied on the bitmap
+     * @param thumbnailSize the size of the longer side of the thumbnails
+     * @param listener the listener on which the results will be notified
+     */
+    public static void getBitmapForMultipleFilters(final Bitmap bitmap,
+            final List<GPUImageFilter> filters, final int thumbnailSize,
+            final ResponseListener<Bitmap> listener) {
+        if (filters.isEmpty()) {
+            return;
+        }
+        float scale = (float) thumbnailSize / Math.max(bitmap.getWidth(), bitmap.getHeight());
+        int width = Math.max(1, Math.round(bitmap.getWidth() * scale));
+        int height = Math.max(1, Math.round(bitmap.getHeight() * scale));
+        List<Bitmap> thumbnails = getResult(GPUImageRenderWorker.getDefault()
+                .renderThumbnails(bitmap, filters, width, height));
+        if (thumbnails == null) {
+            return;
+        }
+        for (Bitmap thumbnail : thumbnails) {
+            listener.response(thumbnail);
+        }
+    }
+
+    /**
+     * Waits for a result of the worker.
+     *
+     * @return null if interrupted while waiting
+     */
+    private static <T> T getResult(final Future<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
         }
-        renderer.deleteImage();
-        buffer.destroy();
     }
 
     /**
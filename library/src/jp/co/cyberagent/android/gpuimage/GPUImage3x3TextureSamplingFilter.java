@@ -79,8 +79,8 @@ public class GPUImage3x3TextureSamplingFilter extends GPUImageFilter {
     @Override
     public void onInit() {
         super.onInit();
-        mUniformTexelWidthLocation = GLES20.glGetUniformLocation(getProgram(), "texelWidth");
-        mUniformTexelHeightLocation = GLES20.glGetUniformLocation(getProgram(), "texelHeight");
+        mUniformTexelWidthLocation = OpenGlUtils.getUniformLocation(getProgram(), "texelWidth");
+        mUniformTexelHeightLocation = OpenGlUtils.getUniformLocation(getProgram(), "texelHeight");
         if (mTexelWidth != 0) {
             updateTexelValues();
         }
@@ -117,4 +117,13 @@ public class GPUImage3x3TextureSamplingFilter extends GPUImageFilter {
         setFloat(mUniformTexelWidthLocation, mTexelWidth);
         setFloat(mUniformTexelHeightLocation, mTexelHeight);
     }
+
+    @Override
+    public int getSamplingRadius() {
+        if (mHasOverriddenImageSizeFactor) {
+            // Texel sizes set in texture coordinates cover a different distance in every tile
+            return SAMPLING_RADIUS_UNBOUNDED;
+        }
+        return (int) Math.ceil(mLineSize);
+    }
 }
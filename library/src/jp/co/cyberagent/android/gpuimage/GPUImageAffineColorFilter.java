@@ -0,0 +1,34 @@
+/*
+ * Copyright (C) 2012 CyberAgent
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.co.cyberagent.android.gpuimage;
+
+/**
+ * Implemented by filters which map every RGBA pixel through an affine transform
+ * {@code matrix * color + offset}. Runs of such filters can be folded into a single pass by
+ * {@link GPUImageFilterGroup#setColorMatrixFoldingEnabled(boolean)}.
+ */
+public interface GPUImageAffineColorFilter {
+
+    /**
+     * Writes the transform for the current parameters.
+     *
+     * @param matrix 16 values receiving the matrix in row-major order, i.e. the layout used by
+     *               {@link GPUImageColorMatrixFilter#setColorMatrix(float[])}
+     * @param offset 4 values receiving the offset added to the RGBA result
+     */
+    void getColorMatrix(float[] matrix, float[] offset);
+}
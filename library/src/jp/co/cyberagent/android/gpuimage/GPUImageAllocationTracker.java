@@ -0,0 +1,202 @@
+/*
+ * Copyright (C) 2012 CyberAgent
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.co.cyberagent.android.gpuimage;
+
+import android.os.Debug;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Debugging aid which reports the objects and bytes allocated on the render thread per frame,
+ * broken down by call site: the sections of {@link GPUImageRenderer#onDrawFrame} and the
+ * passes of {@link GPUImageFilterGroup}, keyed by filter class. In steady state every site
+ * should report zero.
+ * <p>
+ * Relies on {@link Debug#startAllocCounting()}, which slows down the whole process, so only
+ * install a tracker with {@link GPUImage#setAllocationTracker(GPUImageAllocationTracker)} in
+ * debug builds. The tracker does not allocate while counting, except the first time it sees
+ * a call site.
+ */
+public class GPUImageAllocationTracker {
+    private static final int MAX_DEPTH = 16;
+
+    private static volatile GPUImageAllocationTracker sCurrent;
+
+    private final Listener mListener;
+    private final ArrayList<Object> mSites = new ArrayList<Object>();
+    private int[] mCounts = new int[16];
+    private int[] mSizes = new int[16];
+    private final int[] mStack = new int[MAX_DEPTH];
+    private int mDepth;
+    private int mMarkCount;
+    private int mMarkSize;
+    private Thread mThread;
+    private long mFrame;
+
+    /**
+     * @param listener notified on the render thread after every frame
+     */
+    public GPUImageAllocationTracker(final Listener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * Called on the render thread after every tracked frame.
+     */
+    public interface Listener {
+        void onFrameAllocations(GPUImageAllocationTracker tracker);
+    }
+
+    /**
+     * @return the tracker of the frame being drawn on the calling thread, or null
+     */
+    static GPUImageAllocationTracker current() {
+        GPUImageAllocationTracker tracker = sCurrent;
+        return tracker != null && tracker.mThread == Thread.currentThread() ? tracker : null;
+    }
+
+    void beginFrame() {
+        mThread = Thread.currentThread();
+        Arrays.fill(mCounts, 0);
+        Arrays.fill(mSizes, 0);
+        mDepth = 0;
+        sCurrent = this;
+        Debug.startAllocCounting();
+        mMarkCount = Debug.getThreadAllocCount();
+        mMarkSize = Debug.getThreadAllocSize();
+    }
+
+    void endFrame() {
+        while (mDepth > 0) {
+            end();
+        }
+        Debug.stopAllocCounting();
+        sCurrent = null;
+        mFrame++;
+        if (mListener != null) {
+            mListener.onFrameAllocations(this);
+        }
+    }
+
+    /**
+     * Attributes allocations from now on to the given site, until the matching {@link #end()}.
+     * Sites nest, allocations are only counted for the innermost one.
+     *
+     * @param site a String or a Class
+     */
+    void begin(final Object site) {
+        mark();
+        if (mDepth < MAX_DEPTH) {
+            mStack[mDepth] = indexOf(site);
+        }
+        mDepth++;
+        // Do not count the bookkeeping of a new site
+        mMarkCount = Debug.getThreadAllocCount();
+        mMarkSize = Debug.getThreadAllocSize();
+    }
+
+    void end() {
+        mark();
+        mDepth--;
+    }
+
+    private void mark() {
+        int count = Debug.getThreadAllocCount();
+        int size = Debug.getThreadAllocSize();
+        if (mDepth > 0) {
+            int site = mStack[Math.min(mDepth, MAX_DEPTH) - 1];
+            mCounts[site] += count - mMarkCount;
+            mSizes[site] += size - mMarkSize;
+        }
+        mMarkCount = count;
+        mMarkSize = size;
+    }
+
+    private int indexOf(final Object site) {
+        for (int i = 0; i < mSites.size(); i++) {
+            if (mSites.get(i) == site || mSites.get(i).equals(site)) {
+                return i;
+            }
+        }
+        mSites.add(site);
+        if (mSites.size() > mCounts.length) {
+            mCounts = grow(mCounts);
+            mSizes = grow(mSizes);
+        }
+        return mSites.size() - 1;
+    }
+
+    private static int[] grow(final int[] values) {
+        int[] grown = new int[values.length * 2];
+        System.arraycopy(values, 0, grown, 0, values.length);
+        return grown;
+    }
+
+    /**
+     * @return the number of frames tracked so far
+     */
+    public long getFrameCount() {
+        return mFrame;
+    }
+
+    public int getSiteCount() {
+        return mSites.size();
+    }
+
+    public String getSiteName(final int site) {
+        Object key = mSites.get(site);
+        return key instanceof Class ? ((Class<?>) key).getSimpleName() : key.toString();
+    }
+
+    /**
+     * @return the objects allocated at the site during the last frame
+     */
+    public int getAllocationCount(final int site) {
+        return mCounts[site];
+    }
+
+    /**
+     * @return the bytes allocated at the site during the last frame
+     */
+    public int getAllocationSize(final int site) {
+        return mSizes[site];
+    }
+
+    /**
+     * @return the objects allocated at all sites during the last frame
+     */
+    public int getTotalAllocationCount() {
+        int total = 0;
+        for (int i = 0; i < mSites.size(); i++) {
+            total += mCounts[i];
+        }
+        return total;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("Frame ").append(mFrame).append(':');
+        for (int i = 0; i < mSites.size(); i++) {
+            if (mCounts[i] != 0) {
+                builder.append(' ').append(getSiteName(i)).append('=').append(mCounts[i])
+                        .append('/').append(mSizes[i]).append('B');
+            }
+        }
+        return builder.toString();
+    }
+}
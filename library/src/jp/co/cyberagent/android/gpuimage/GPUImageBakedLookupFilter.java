@@ -0,0 +1,325 @@
+/*
+ * Copyright (C) 2012 CyberAgent
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.co.cyberagent.android.gpuimage;
+
+import android.opengl.GLES20;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import jp.co.cyberagent.android.gpuimage.util.TextureRotationUtil;
+
+import static jp.co.cyberagent.android.gpuimage.GPUImageRenderer.CUBE;
+
+/**
+ * Applies a run of {@link GPUImageColorMappingFilter}s with a single lookup into a baked color
+ * table, using the 512x512 layout of {@link GPUImageLookupFilter}.
+ * <p>
+ * Whenever a parameter of a stage changes, an identity lattice is rendered through the stages
+ * into the table. The bake is then checked by rendering a set of probe colors, which lie
+ * between the lattice points, both ways: if any channel differs by more than the tolerance the
+ * table is not used and the stages are drawn one by one until the next change. Alpha is
+ * taken from the table multiplied with the input alpha, which is exact for opaque input.
+ * <p>
+ * The stages have to be initialized, they are neither initialized nor destroyed by this filter.
+ */
+class GPUImageBakedLookupFilter extends GPUImageFilter {
+    public static final String BAKED_LOOKUP_FRAGMENT_SHADER = "" +
+            "varying highp vec2 textureCoordinate;\n" +
+            "\n" +
+            "uniform sampler2D inputImageTexture;\n" +
+            "uniform sampler2D lookupTexture;\n" +
+            "\n" +
+            "void main()\n" +
+            "{\n" +
+            "    highp vec4 textureColor = texture2D(inputImageTexture, textureCoordinate);\n" +
+            "    \n" +
+            "    highp float blueColor = textureColor.b * 63.0;\n" +
+            "    \n" +
+            "    highp vec2 quad1;\n" +
+            "    quad1.y = floor(floor(blueColor) / 8.0);\n" +
+            "    quad1.x = floor(blueColor) - (quad1.y * 8.0);\n" +
+            "    \n" +
+            "    highp vec2 quad2;\n" +
+            "    quad2.y = floor(ceil(blueColor) / 8.0);\n" +
+            "    quad2.x = ceil(blueColor) - (quad2.y * 8.0);\n" +
+            "    \n" +
+            "    highp vec2 texPos1;\n" +
+            "    texPos1.x = (quad1.x * 0.125) + 0.5/512.0 + ((0.125 - 1.0/512.0) * textureColor.r);\n" +
+            "    texPos1.y = (quad1.y * 0.125) + 0.5/512.0 + ((0.125 - 1.0/512.0) * textureColor.g);\n" +
+            "    \n" +
+            "    highp vec2 texPos2;\n" +
+            "    texPos2.x = (quad2.x * 0.125) + 0.5/512.0 + ((0.125 - 1.0/512.0) * textureColor.r);\n" +
+            "    texPos2.y = (quad2.y * 0.125) + 0.5/512.0 + ((0.125 - 1.0/512.0) * textureColor.g);\n" +
+            "    \n" +
+            "    lowp vec4 newColor1 = texture2D(lookupTexture, texPos1);\n" +
+            "    lowp vec4 newColor2 = texture2D(lookupTexture, texPos2);\n" +
+            "    \n" +
+            "    lowp vec4 newColor = mix(newColor1, newColor2, fract(blueColor));\n" +
+            "    gl_FragColor = vec4(newColor.rgb, newColor.a * textureColor.a);\n" +
+            "}";
+
+    /**
+     * Default for the largest tolerated difference per channel, about two 8 bit steps.
+     */
+    static final float DEFAULT_TOLERANCE = 2.0f / 255.0f;
+
+    private static final int LOOKUP_SIZE = 512;
+    private static final int PROBE_SIZE = 64;
+
+    private final List<GPUImageFilter> mStages;
+    private final int[] mStageVersions;
+    private final GPUImageFrameBufferPool mFrameBufferPool;
+    private final float mTolerance;
+    private final FloatBuffer mGLCubeBuffer;
+    private final FloatBuffer mGLTextureFlipBuffer;
+    private final int[] mTextures = new int[] {OpenGlUtils.NO_TEXTURE, OpenGlUtils.NO_TEXTURE};
+    private final int[] mSavedFrameBuffer = new int[1];
+    private final int[] mSavedViewport = new int[4];
+    private final int[] mLookupViewport = {0, 0, LOOKUP_SIZE, LOOKUP_SIZE};
+    private final int[] mProbeViewport = {0, 0, PROBE_SIZE, PROBE_SIZE};
+    private GPUImageFrameBuffer mLookupFrameBuffer;
+    private ByteBuffer mProbeResult;
+    private ByteBuffer mLookupResult;
+    private int mLookupTextureLocation;
+    private boolean mBaked;
+    private boolean mAccurate;
+
+    GPUImageBakedLookupFilter(final List<GPUImageFilter> stages,
+                              final GPUImageFrameBufferPool frameBufferPool, final float tolerance) {
+        super(NO_FILTER_VERTEX_SHADER, BAKED_LOOKUP_FRAGMENT_SHADER);
+        mStages = new ArrayList<GPUImageFilter>(stages);
+        mStageVersions = new int[stages.size()];
+        mFrameBufferPool = frameBufferPool;
+        mTolerance = tolerance;
+
+        mGLCubeBuffer = ByteBuffer.allocateDirect(CUBE.length * 4)
+                .order(ByteOrder.nativeOrder())
+                .asFloatBuffer();
+        mGLCubeBuffer.put(CUBE).position(0);
+
+        // Rows of the input end up in the same rows of the output, so lattice and table align
+        float[] flipTexture = TextureRotationUtil.getRotation(Rotation.NORMAL, false, true);
+        mGLTextureFlipBuffer = ByteBuffer.allocateDirect(flipTexture.length * 4)
+                .order(ByteOrder.nativeOrder())
+                .asFloatBuffer();
+        mGLTextureFlipBuffer.put(flipTexture).position(0);
+    }
+
+    static boolean canBake(final GPUImageFilter filter) {
+        return filter instanceof GPUImageColorMappingFilter;
+    }
+
+    List<GPUImageFilter> getStages() {
+        return mStages;
+    }
+
+    float getTolerance() {
+        return mTolerance;
+    }
+
+    /**
+     * @return true if the last bake was within the tolerance and the table is used
+     */
+    boolean isAccurate() {
+        return mAccurate;
+    }
+
+    @Override
+    public void onInit() {
+        super.onInit();
+        mLookupTextureLocation = OpenGlUtils.getUniformLocation(getProgram(), "lookupTexture");
+
+        ByteBuffer lattice = ByteBuffer.allocateDirect(LOOKUP_SIZE * LOOKUP_SIZE * 4);
+        for (int y = 0; y < LOOKUP_SIZE; y++) {
+            for (int x = 0; x < LOOKUP_SIZE; x++) {
+                lattice.put(toByte((x % 64) / 63.0f));
+                lattice.put(toByte((y % 64) / 63.0f));
+                lattice.put(toByte(((y / 64) * 8 + x / 64) / 63.0f));
+                lattice.put((byte) 0xff);
+            }
+        }
+        // Midpoints between lattice points are where interpolation is least accurate
+        ByteBuffer probe = ByteBuffer.allocateDirect(PROBE_SIZE * PROBE_SIZE * 4);
+        for (int y = 0; y < PROBE_SIZE; y++) {
+            for (int x = 0; x < PROBE_SIZE; x++) {
+                probe.put(toByte((x % 63 + 0.5f) / 63.0f));
+                probe.put(toByte((y % 63 + 0.5f) / 63.0f));
+                probe.put(toByte(((x * 7 + y * 13) % 63 + 0.5f) / 63.0f));
+                probe.put((byte) 0xff);
+            }
+        }
+        mTextures[0] = createTexture(lattice, LOOKUP_SIZE);
+        mTextures[1] = createTexture(probe, PROBE_SIZE);
+        mLookupFrameBuffer = new GPUImageFrameBuffer(LOOKUP_SIZE, LOOKUP_SIZE, GLES20.GL_RGBA);
+        mProbeResult = ByteBuffer.allocateDirect(PROBE_SIZE * PROBE_SIZE * 4);
+        mLookupResult = ByteBuffer.allocateDirect(PROBE_SIZE * PROBE_SIZE * 4);
+        mBaked = false;
+    }
+
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        GLES20.glDeleteTextures(mTextures.length, mTextures, 0);
+        mTextures[0] = OpenGlUtils.NO_TEXTURE;
+        mTextures[1] = OpenGlUtils.NO_TEXTURE;
+        if (mLookupFrameBuffer != null) {
+            mLookupFrameBuffer.destroy();
+            mLookupFrameBuffer = null;
+        }
+        mProbeResult = null;
+        mLookupResult = null;
+    }
+
+    @Override
+    public void onDraw(final int textureId, final FloatBuffer cubeBuffer,
+                       final FloatBuffer textureBuffer) {
+        if (!isInitialized()) {
+            return;
+        }
+        boolean changed = !mBaked;
+        for (int i = 0; i < mStages.size(); i++) {
+            GPUImageFilter stage = mStages.get(i);
+            stage.runPendingOnDrawTasks();
+            if (stage.getStateVersion() != mStageVersions[i]) {
+                changed = true;
+            }
+        }
+        if (changed) {
+            bake();
+        }
+        if (mAccurate) {
+            super.onDraw(textureId, cubeBuffer, textureBuffer);
+        } else {
+            // The caller may draw into a tile of its framebuffer, e.g. of a thumbnail atlas
+            GLES20.glGetIntegerv(GLES20.GL_FRAMEBUFFER_BINDING, mSavedFrameBuffer, 0);
+            GLES20.glGetIntegerv(GLES20.GL_VIEWPORT, mSavedViewport, 0);
+            drawStages(textureId, cubeBuffer, textureBuffer, mSavedFrameBuffer[0],
+                    mSavedViewport);
+        }
+    }
+
+    @Override
+    protected void onDrawArraysPre() {
+        GLES20.glActiveTexture(GLES20.GL_TEXTURE3);
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, mLookupFrameBuffer.getTextureId());
+        GLES20.glUniform1i(mLookupTextureLocation, 3);
+        GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
+    }
+
+    private void bake() {
+        for (int i = 0; i < mStages.size(); i++) {
+            mStageVersions[i] = mStages.get(i).getStateVersion();
+        }
+        mBaked = true;
+        GLES20.glGetIntegerv(GLES20.GL_FRAMEBUFFER_BINDING, mSavedFrameBuffer, 0);
+        GLES20.glGetIntegerv(GLES20.GL_VIEWPORT, mSavedViewport, 0);
+
+        drawStages(mTextures[0], mGLCubeBuffer, mGLTextureFlipBuffer,
+                mLookupFrameBuffer.getFrameBufferId(), mLookupViewport);
+
+        // Compare the probe colors drawn through the stages with their lookup
+        GPUImageFrameBuffer probe = mFrameBufferPool.obtain(PROBE_SIZE, PROBE_SIZE);
+        drawStages(mTextures[1], mGLCubeBuffer, mGLTextureFlipBuffer,
+                probe.getFrameBufferId(), mProbeViewport);
+        readPixels(mProbeResult);
+        super.onDraw(mTextures[1], mGLCubeBuffer, mGLTextureFlipBuffer);
+        readPixels(mLookupResult);
+        mFrameBufferPool.release(probe);
+        mAccurate = maxDifference(mProbeResult, mLookupResult) <= Math.round(mTolerance * 255.0f);
+
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, mSavedFrameBuffer[0]);
+        GLES20.glViewport(mSavedViewport[0], mSavedViewport[1], mSavedViewport[2],
+                mSavedViewport[3]);
+    }
+
+    /**
+     * Draws the stages one after another, the last one into the given viewport of the given
+     * framebuffer and the others into pooled framebuffers of the viewport's size.
+     */
+    private void drawStages(final int textureId, final FloatBuffer cubeBuffer,
+                            final FloatBuffer textureBuffer, final int target,
+                            final int[] targetViewport) {
+        int width = targetViewport[2];
+        int height = targetViewport[3];
+        int size = mStages.size();
+        int previousTexture = textureId;
+        GPUImageFrameBuffer previousFrameBuffer = null;
+        for (int i = 0; i < size; i++) {
+            boolean last = i == size - 1;
+            GPUImageFrameBuffer frameBuffer = null;
+            if (last) {
+                GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, target);
+                GLES20.glViewport(targetViewport[0], targetViewport[1], width, height);
+            } else {
+                frameBuffer = mFrameBufferPool.obtain(width, height);
+                GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, frameBuffer.getFrameBufferId());
+                GLES20.glViewport(0, 0, width, height);
+            }
+            if (i == 0) {
+                mStages.get(i).onDraw(previousTexture, cubeBuffer, textureBuffer);
+            } else {
+                mStages.get(i).onDraw(previousTexture, mGLCubeBuffer, mGLTextureFlipBuffer);
+            }
+            mFrameBufferPool.release(previousFrameBuffer);
+            previousFrameBuffer = frameBuffer;
+            if (!last) {
+                previousTexture = frameBuffer.getTextureId();
+            }
+        }
+    }
+
+    private static void readPixels(final ByteBuffer buffer) {
+        buffer.position(0);
+        GLES20.glReadPixels(0, 0, PROBE_SIZE, PROBE_SIZE, GLES20.GL_RGBA,
+                GLES20.GL_UNSIGNED_BYTE, buffer);
+    }
+
+    private static int maxDifference(final ByteBuffer a, final ByteBuffer b) {
+        int max = 0;
+        for (int i = 0; i < PROBE_SIZE * PROBE_SIZE * 4; i++) {
+            max = Math.max(max, Math.abs((a.get(i) & 0xff) - (b.get(i) & 0xff)));
+        }
+        return max;
+    }
+
+    private static int createTexture(final ByteBuffer pixels, final int size) {
+        pixels.position(0);
+        int[] texture = new int[1];
+        GLES20.glGenTextures(1, texture, 0);
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, texture[0]);
+        GLES20.glTexParameterf(GLES20.GL_TEXTURE_2D,
+                GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_NEAREST);
+        GLES20.glTexParameterf(GLES20.GL_TEXTURE_2D,
+                GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_NEAREST);
+        GLES20.glTexParameterf(GLES20.GL_TEXTURE_2D,
+                GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
+        GLES20.glTexParameterf(GLES20.GL_TEXTURE_2D,
+                GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
+        GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, GLES20.GL_RGBA, size, size, 0,
+                GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, pixels);
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
+        return texture[0];
+    }
+
+    private static byte toByte(final float value) {
+        return (byte) Math.round(value * 255.0f);
+    }
+}
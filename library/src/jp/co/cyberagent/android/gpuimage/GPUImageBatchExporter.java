@@ -0,0 +1,447 @@
+/*
+ * Copyright (C) 2012 CyberAgent
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.co.cyberagent.android.gpuimage;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Applies one look to many images, e.g. a whole gallery, without a view.
+ * <p>
+ * Images go through three stages which overlap: decoding on a pool of threads, rendering on
+ * one or more {@link GPUImageRenderWorker}s, and writing the results to a {@link Sink} on
+ * another pool. At most {@link #setMaxImagesInFlight(int)} images are between decoding and
+ * written, so memory stays bounded however many images there are; decoding waits for an
+ * image to be written when the limit is reached. Each worker renders with a filter of its own
+ * from the {@link FilterFactory}, initialized once for all of its images.
+ * <pre>
+ * GPUImageBatchExporter exporter = new GPUImageBatchExporter(factory);
+ * GPUImageBatchExporter.Stats stats = exporter.export(inputs,
+ *         GPUImageBatchExporter.toDirectory(directory, Bitmap.CompressFormat.JPEG, 90), null);
+ * Log.d(TAG, stats.toString());
+ * </pre>
+ */
+public class GPUImageBatchExporter {
+    private final FilterFactory mFilterFactory;
+    private int mDecodeThreadCount = 2;
+    private int mRenderWorkerCount = 1;
+    private int mEncodeThreadCount = 2;
+    private int mMaxImagesInFlight = 6;
+
+    /**
+     * Creates the filter a render worker applies to its images. Filters keep per context
+     * state, so every worker needs an instance of its own.
+     */
+    public interface FilterFactory {
+        GPUImageFilter createFilter();
+    }
+
+    /**
+     * Receives the filtered images, on an encoding thread. The result is recycled once
+     * {@link #write(Input, Bitmap)} returns.
+     */
+    public interface Sink {
+        void write(Input input, Bitmap result) throws IOException;
+    }
+
+    /**
+     * Notified about each image, on the thread which finished it.
+     */
+    public interface Listener {
+        void onImageExported(Input input);
+
+        /**
+         * @param e the cause, an error such as running out of memory for a large image wrapped
+         *          in an {@link ExecutionException}; the export goes on with the next image
+         */
+        void onImageFailed(Input input, Exception e);
+    }
+
+    /**
+     * An image to export, decoded on a decoding thread.
+     */
+    public abstract static class Input {
+        private final String mName;
+
+        protected Input(final String name) {
+            mName = name;
+        }
+
+        /**
+         * @return the name of the image, e.g. its file name
+         */
+        public String getName() {
+            return mName;
+        }
+
+        public abstract Bitmap decode() throws IOException;
+
+        /**
+         * Called once the decoded image is rendered. Recycles it unless it was handed in.
+         */
+        protected void onRendered(final Bitmap bitmap) {
+            bitmap.recycle();
+        }
+
+        public static Input fromFile(final File file) {
+            return new Input(file.getName()) {
+                @Override
+                public Bitmap decode() throws IOException {
+                    Bitmap bitmap = BitmapFactory.decodeFile(file.getAbsolutePath());
+                    if (bitmap == null) {
+                        throw new IOException("Cannot decode " + file);
+                    }
+                    return bitmap;
+                }
+            };
+        }
+
+        public static Input fromUri(final Context context, final Uri uri) {
+            return new Input(uri.getLastPathSegment()) {
+                @Override
+                public Bitmap decode() throws IOException {
+                    InputStream in = context.getContentResolver().openInputStream(uri);
+                    if (in == null) {
+                        throw new IOException("Cannot open " + uri);
+                    }
+                    try {
+                        Bitmap bitmap = BitmapFactory.decodeStream(in);
+                        if (bitmap == null) {
+                            throw new IOException("Cannot decode " + uri);
+                        }
+                        return bitmap;
+                    } finally {
+                        in.close();
+                    }
+                }
+            };
+        }
+
+        /**
+         * An image already in memory, which is left to the caller afterwards.
+         */
+        public static Input fromBitmap(final String name, final Bitmap bitmap) {
+            return new Input(name) {
+                @Override
+                public Bitmap decode() {
+                    return bitmap;
+                }
+
+                @Override
+                protected void onRendered(final Bitmap bitmap) {
+                }
+            };
+        }
+    }
+
+    /**
+     * Throughput and time spent per stage of an export. Updated while the export runs.
+     */
+    public static class Stats {
+        private final long mStartNanos = System.nanoTime();
+        private volatile long mEndNanos;
+        private final AtomicInteger mExported = new AtomicInteger();
+        private final AtomicInteger mFailed = new AtomicInteger();
+        private final AtomicLong mDecodeNanos = new AtomicLong();
+        private final AtomicLong mRenderNanos = new AtomicLong();
+        private final AtomicLong mEncodeNanos = new AtomicLong();
+        private final AtomicLong mBlockedNanos = new AtomicLong();
+
+        public int getExportedCount() {
+            return mExported.get();
+        }
+
+        public int getFailedCount() {
+            return mFailed.get();
+        }
+
+        /**
+         * @return the images exported per second since the export started
+         */
+        public float getThroughput() {
+            long end = mEndNanos != 0 ? mEndNanos : System.nanoTime();
+            return mExported.get() * 1e9f / Math.max(1, end - mStartNanos);
+        }
+
+        /**
+         * @return the mean time to decode an image in milliseconds
+         */
+        public float getMeanDecodeMillis() {
+            return mean(mDecodeNanos);
+        }
+
+        /**
+         * @return the mean time from handing an image to a worker to getting it back in
+         *         milliseconds, including the wait for the worker
+         */
+        public float getMeanRenderMillis() {
+            return mean(mRenderNanos);
+        }
+
+        /**
+         * @return the mean time to write an image to the sink in milliseconds
+         */
+        public float getMeanEncodeMillis() {
+            return mean(mEncodeNanos);
+        }
+
+        /**
+         * @return the time in milliseconds decoding waited for images to be written, high if
+         *         encoding is the bottleneck
+         */
+        public float getBlockedMillis() {
+            return mBlockedNanos.get() / 1e6f;
+        }
+
+        private float mean(final AtomicLong nanos) {
+            int count = mExported.get() + mFailed.get();
+            return count == 0 ? 0 : nanos.get() / 1e6f / count;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d exported, %d failed, %.1f images/s, decode %.1f ms, "
+                            + "render %.1f ms, encode %.1f ms, blocked %.0f ms",
+                    getExportedCount(), getFailedCount(), getThroughput(),
+                    getMeanDecodeMillis(), getMeanRenderMillis(), getMeanEncodeMillis(),
+                    getBlockedMillis());
+        }
+    }
+
+    public GPUImageBatchExporter(final FilterFactory filterFactory) {
+        mFilterFactory = filterFactory;
+    }
+
+    public void setDecodeThreadCount(final int count) {
+        mDecodeThreadCount = Math.max(1, count);
+    }
+
+    /**
+     * Sets the number of workers rendering at the same time, each with a context of its own.
+     * A second worker can upload and read back while the first draws, more rarely pay off on
+     * a single GPU. Defaults to 1.
+     */
+    public void setRenderWorkerCount(final int count) {
+        mRenderWorkerCount = Math.max(1, count);
+    }
+
+    public void setEncodeThreadCount(final int count) {
+        mEncodeThreadCount = Math.max(1, count);
+    }
+
+    /**
+     * Sets how many images may be decoded but not yet written, which bounds the memory of an
+     * export to about that many source and result bitmaps. Defaults to 6.
+     */
+    public void setMaxImagesInFlight(final int count) {
+        mMaxImagesInFlight = Math.max(1, count);
+    }
+
+    /**
+     * Exports all images, returning once the last one is written or failed. Runs the input
+     * iteration on the calling thread, which must not be the one of a render worker.
+     *
+     * @param inputs   the images, iterated lazily
+     * @param sink     receives the results
+     * @param listener notified about each image, may be null
+     * @return the stats of the export
+     * @throws InterruptedException if interrupted while waiting, images in flight are
+     *                              still finished
+     */
+    public Stats export(final Iterable<? extends Input> inputs, final Sink sink,
+            final Listener listener) throws InterruptedException {
+        final Stats stats = new Stats();
+        final Semaphore inFlight = new Semaphore(mMaxImagesInFlight);
+        final List<GPUImageRenderWorker> workers =
+                new ArrayList<GPUImageRenderWorker>(mRenderWorkerCount);
+        final List<GPUImageFilter> filters = new ArrayList<GPUImageFilter>(mRenderWorkerCount);
+        for (int i = 0; i < mRenderWorkerCount; i++) {
+            workers.add(new GPUImageRenderWorker());
+            filters.add(mFilterFactory.createFilter());
+        }
+        final ExecutorService decoders = newPool(mDecodeThreadCount, "decode");
+        final ExecutorService encoders = newPool(mEncodeThreadCount, "encode");
+        final AtomicInteger next = new AtomicInteger();
+        try {
+            for (final Input input : inputs) {
+                long blockStart = System.nanoTime();
+                inFlight.acquire();
+                stats.mBlockedNanos.addAndGet(System.nanoTime() - blockStart);
+                decoders.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        // Images are dealt out in turn, a worker renders them in order
+                        int worker = next.getAndIncrement() % workers.size();
+                        decode(input, workers.get(worker), filters.get(worker), sink, listener,
+                                stats, encoders, inFlight);
+                    }
+                });
+            }
+        } finally {
+            // Every permit is back once the last image is written
+            inFlight.acquireUninterruptibly(mMaxImagesInFlight);
+            decoders.shutdown();
+            encoders.shutdown();
+            for (GPUImageRenderWorker worker : workers) {
+                worker.release();
+            }
+            stats.mEndNanos = System.nanoTime();
+        }
+        return stats;
+    }
+
+    private void decode(final Input input, final GPUImageRenderWorker worker,
+            final GPUImageFilter filter, final Sink sink, final Listener listener,
+            final Stats stats, final ExecutorService encoders, final Semaphore inFlight) {
+        // Released here unless the encoding task took it over, export() waits for every permit
+        boolean handedOver = false;
+        try {
+            final Bitmap image;
+            long start = System.nanoTime();
+            try {
+                image = input.decode();
+            } finally {
+                stats.mDecodeNanos.addAndGet(System.nanoTime() - start);
+            }
+            final long renderStart = System.nanoTime();
+            final Future<Bitmap> rendered = worker.renderKeepingFilter(image, filter);
+            // The encoding thread waits for the worker, decoding goes on with the next image
+            encoders.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        Bitmap result;
+                        try {
+                            result = rendered.get();
+                        } finally {
+                            stats.mRenderNanos.addAndGet(System.nanoTime() - renderStart);
+                            input.onRendered(image);
+                        }
+                        encode(input, result, sink, listener, stats);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        fail(input, e, listener, stats);
+                    } catch (Throwable e) {
+                        fail(input, e, listener, stats);
+                    } finally {
+                        inFlight.release();
+                    }
+                }
+            });
+            handedOver = true;
+        } catch (Throwable e) {
+            fail(input, e, listener, stats);
+        } finally {
+            if (!handedOver) {
+                inFlight.release();
+            }
+        }
+    }
+
+    private void encode(final Input input, final Bitmap result, final Sink sink,
+            final Listener listener, final Stats stats) {
+        long start = System.nanoTime();
+        try {
+            sink.write(input, result);
+        } catch (Throwable e) {
+            fail(input, e, listener, stats);
+            return;
+        } finally {
+            result.recycle();
+            stats.mEncodeNanos.addAndGet(System.nanoTime() - start);
+        }
+        stats.mExported.incrementAndGet();
+        if (listener != null) {
+            listener.onImageExported(input);
+        }
+    }
+
+    private void fail(final Input input, final Throwable e, final Listener listener,
+            final Stats stats) {
+        stats.mFailed.incrementAndGet();
+        if (listener != null) {
+            listener.onImageFailed(input,
+                    e instanceof Exception ? (Exception) e : new ExecutionException(e));
+        }
+    }
+
+    private static ExecutorService newPool(final int threadCount, final String stage) {
+        return Executors.newFixedThreadPool(threadCount, new ThreadFactory() {
+            private final AtomicInteger mCount = new AtomicInteger();
+
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                Thread thread = new Thread(runnable,
+                        "GPUImageBatchExporter-" + stage + "-" + mCount.incrementAndGet());
+                // Below the UI and the render workers
+                thread.setPriority(Thread.NORM_PRIORITY - 1);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * A sink compressing the results into files named after the inputs.
+     *
+     * @param directory the directory to write to, created if missing
+     * @param format    the format to compress to
+     * @param quality   the quality hint of {@link Bitmap#compress}
+     */
+    public static Sink toDirectory(final File directory, final Bitmap.CompressFormat format,
+            final int quality) {
+        final String extension = format == Bitmap.CompressFormat.PNG ? ".png"
+                : format == Bitmap.CompressFormat.JPEG ? ".jpg" : ".webp";
+        return new Sink() {
+            @Override
+            public void write(final Input input, final Bitmap result) throws IOException {
+                if (!directory.isDirectory() && !directory.mkdirs() && !directory.isDirectory()) {
+                    throw new IOException("Cannot create " + directory);
+                }
+                String name = input.getName();
+                int dot = name.lastIndexOf('.');
+                File file = new File(directory, (dot > 0 ? name.substring(0, dot) : name)
+                        + extension);
+                OutputStream out = new FileOutputStream(file);
+                try {
+                    if (!result.compress(format, quality, out)) {
+                        throw new IOException("Cannot compress " + file);
+                    }
+                } finally {
+                    out.close();
+                }
+            }
+        };
+    }
+}
@@ -128,8 +128,8 @@ public class GPUImageBilateralFilter extends GPUImageFilter {
 	@Override
 	public void onInit() {
 		super.onInit();
-		mDisFactorLocation = GLES20.glGetUniformLocation(getProgram(), "distanceNormalizationFactor");
-		mSingleStepOffsetLocation = GLES20.glGetUniformLocation(getProgram(), "singleStepOffset");
+		mDisFactorLocation = OpenGlUtils.getUniformLocation(getProgram(), "distanceNormalizationFactor");
+		mSingleStepOffsetLocation = OpenGlUtils.getUniformLocation(getProgram(), "singleStepOffset");
 	}
 	
 	@Override
@@ -152,4 +152,10 @@ public class GPUImageBilateralFilter extends GPUImageFilter {
         super.onOutputSizeChanged(width, height);
         setTexelSize(width, height);
     }
+
+    @Override
+    public int getSamplingRadius() {
+        // GAUSSIAN_SAMPLES taps a texel apart, centered on the pixel
+        return 4;
+    }
 }
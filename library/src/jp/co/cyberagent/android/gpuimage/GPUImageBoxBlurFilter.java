@@ -110,4 +110,10 @@ public class GPUImageBoxBlurFilter extends GPUImageTwoPassTextureSamplingFilter
     public float getHorizontalTexelOffsetRatio() {
         return blurSize;
     }
+
+    @Override
+    public int getSamplingRadius() {
+        // The outer taps sit between the third and fourth texel, read with linear filtering
+        return (int) Math.ceil(4 * blurSize);
+    }
 }
@@ -21,7 +21,8 @@ import android.opengl.GLES20;
 /**
  * brightness value ranges from -1.0 to 1.0, with 0.0 as the normal level
  */
-public class GPUImageBrightnessFilter extends GPUImageFilter {
+public class GPUImageBrightnessFilter extends GPUImageFilter implements GPUImagePointwiseFilter,
+        GPUImageAffineColorFilter, GPUImageColorMappingFilter {
     public static final String BRIGHTNESS_FRAGMENT_SHADER = "" +
             "varying highp vec2 textureCoordinate;\n" +
             " \n" +
@@ -35,6 +36,9 @@ public class GPUImageBrightnessFilter extends GPUImageFilter {
             "     gl_FragColor = vec4((textureColor.rgb + vec3(brightness)), textureColor.w);\n" +
             " }";
 
+    public static final String BRIGHTNESS_COLOR_TRANSFORM = "" +
+            "    color.rgb += vec3(brightness);\n";
+
     private int mBrightnessLocation;
     private float mBrightness;
 
@@ -50,7 +54,7 @@ public class GPUImageBrightnessFilter extends GPUImageFilter {
     @Override
     public void onInit() {
         super.onInit();
-        mBrightnessLocation = GLES20.glGetUniformLocation(getProgram(), "brightness");
+        mBrightnessLocation = OpenGlUtils.getUniformLocation(getProgram(), "brightness");
     }
 
     @Override
@@ -63,4 +67,25 @@ public class GPUImageBrightnessFilter extends GPUImageFilter {
         mBrightness = brightness;
         setFloat(mBrightnessLocation, mBrightness);
     }
+
+    @Override
+    public boolean isIdentity() {
+        return mBrightness == 0.0f;
+    }
+
+    @Override
+    public String getColorTransform() {
+        return BRIGHTNESS_COLOR_TRANSFORM;
+    }
+
+    @Override
+    public void getColorMatrix(final float[] matrix, final float[] offset) {
+        GPUImageFoldedColorFilter.setIdentity(matrix, offset);
+        offset[0] = offset[1] = offset[2] = mBrightness;
+    }
+
+    @Override
+    public int getSamplingRadius() {
+        return 0;
+    }
 }
@@ -72,10 +72,10 @@ public class GPUImageBulgeDistortionFilter extends GPUImageFilter {
     @Override
     public void onInit() {
         super.onInit();
-        mScaleLocation = GLES20.glGetUniformLocation(getProgram(), "scale");
-        mRadiusLocation = GLES20.glGetUniformLocation(getProgram(), "radius");
-        mCenterLocation = GLES20.glGetUniformLocation(getProgram(), "center");
-        mAspectRatioLocation = GLES20.glGetUniformLocation(getProgram(), "aspectRatio");
+        mScaleLocation = OpenGlUtils.getUniformLocation(getProgram(), "scale");
+        mRadiusLocation = OpenGlUtils.getUniformLocation(getProgram(), "radius");
+        mCenterLocation = OpenGlUtils.getUniformLocation(getProgram(), "center");
+        mAspectRatioLocation = OpenGlUtils.getUniformLocation(getProgram(), "aspectRatio");
     }
 
     @Override
@@ -0,0 +1,482 @@
+/*
+ * Copyright (C) 2012 CyberAgent
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.co.cyberagent.android.gpuimage;
+
+import android.graphics.ImageFormat;
+import android.hardware.Camera;
+import android.hardware.Camera.PreviewCallback;
+import android.hardware.Camera.Size;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+
+/**
+ * Hands camera preview frames from the camera thread to the renderer.
+ * <p>
+ * The preview size is queried once per camera and a ring of callback buffers is registered
+ * with {@link Camera#setPreviewCallbackWithBuffer}, so no memory is allocated per frame. Frames
+ * are passed on latest-wins: a frame which is replaced by a newer one before the renderer gets
+ * to it is dropped and its buffer handed back to the camera right away, so the preview never
+ * lags behind and the camera never runs out of buffers.
+ * <p>
+ * If frames are converted to RGBA on the CPU, the conversion runs on a worker thread into a
+ * ring of direct buffers, overlapped with the rendering of the previous frame. Otherwise the
+ * NV21 frames themselves are handed to the renderer, which converts them on the GPU.
+ * <p>
+ * Frames which do not come from a camera, e.g. decoded video or a
+ * {@link GPUImageSyntheticFrameSource}, can be fed with
+ * {@link #queueFrame(byte[], int, int, long, BufferRecycler)}.
+ */
+public class GPUImageCameraIngest implements PreviewCallback {
+    public static final int DEFAULT_BUFFER_COUNT = 3;
+
+    /**
+     * Takes back the NV21 buffers of queued frames once they are no longer needed.
+     */
+    public interface BufferRecycler {
+        /**
+         * Called with the ingest lock held, must not block.
+         */
+        void recycleBuffer(byte[] buffer);
+    }
+
+    private final int mBufferCount;
+    private final Object mLock = new Object();
+    private final ArrayList<Frame> mFreeFrames = new ArrayList<Frame>();
+    private final ArrayList<Frame> mFreeRgbaFrames = new ArrayList<Frame>();
+    private volatile Runnable mFrameReadyCallback;
+
+    // Guarded by mLock
+    private Camera mCamera;
+    private CameraRecycler mCameraRecycler;
+    private int mWidth;
+    private int mHeight;
+    private int mFrameLength;
+    private boolean mConvertOnCpu;
+    private Frame mPending;
+    private Frame mReady;
+    private Thread mWorker;
+    private long mReceivedFrames;
+    private long mProcessedFrames;
+    private long mDroppedFrames;
+
+    /**
+     * A preview frame, either NV21 or converted to RGBA.
+     */
+    static final class Frame {
+        final int width;
+        final int height;
+        final ByteBuffer rgba;
+        final IntBuffer rgbaInts;
+        byte[] yuv;
+        BufferRecycler recycler;
+        long captureNanos;
+        long conversionStartNanos;
+        long conversionEndNanos;
+
+        Frame(final int width, final int height, final boolean rgba) {
+            this.width = width;
+            this.height = height;
+            if (rgba) {
+                this.rgba = ByteBuffer.allocateDirect(width * height * 4)
+                        .order(ByteOrder.nativeOrder());
+                rgbaInts = this.rgba.asIntBuffer();
+            } else {
+                this.rgba = null;
+                rgbaInts = null;
+            }
+        }
+    }
+
+    public GPUImageCameraIngest() {
+        this(DEFAULT_BUFFER_COUNT);
+    }
+
+    /**
+     * @param bufferCount the number of callback buffers and, when converting on the CPU, RGBA
+     *                    buffers; at least 2 to overlap the camera with the renderer
+     */
+    public GPUImageCameraIngest(final int bufferCount) {
+        mBufferCount = Math.max(2, bufferCount);
+    }
+
+    /**
+     * Registers the buffers with the camera and starts receiving its preview frames. The
+     * preview size must be set before.
+     */
+    public void start(final Camera camera) {
+        synchronized (mLock) {
+            stopLocked();
+            mCamera = camera;
+            configureCameraLocked(camera, true);
+            camera.setPreviewCallbackWithBuffer(this);
+        }
+    }
+
+    /**
+     * Stops handing frames to the renderer and ends the worker thread. The camera itself is
+     * left alone, it may already be released.
+     */
+    public void stop() {
+        synchronized (mLock) {
+            stopLocked();
+        }
+    }
+
+    /**
+     * @param convertOnCpu true to convert frames to RGBA on a worker thread, false to hand the
+     *                     NV21 frames to the renderer
+     */
+    public void setConvertOnCpu(final boolean convertOnCpu) {
+        synchronized (mLock) {
+            if (mConvertOnCpu == convertOnCpu) {
+                return;
+            }
+            mConvertOnCpu = convertOnCpu;
+            if (mReady != null) {
+                freeLocked(mReady);
+                mReady = null;
+            }
+            if (convertOnCpu && mWidth > 0) {
+                startWorkerLocked();
+            } else {
+                stopWorkerLocked();
+            }
+        }
+    }
+
+    @Override
+    public void onPreviewFrame(final byte[] data, final Camera camera) {
+        if (data == null) {
+            return;
+        }
+        long captureNanos = System.nanoTime();
+        synchronized (mLock) {
+            if (camera != mCamera) {
+                // Registered with setPreviewCallback instead of start, the camera allocates
+                stopLocked();
+                mCamera = camera;
+                configureCameraLocked(camera, false);
+            } else if (data.length != mFrameLength) {
+                // The preview size changed without calling start again
+                configureCameraLocked(camera, mCameraRecycler != null);
+            }
+            if (queueLocked(data, captureNanos, mCameraRecycler)) {
+                return;
+            }
+        }
+        notifyFrameReady();
+    }
+
+    /**
+     * Queues an NV21 frame from a source other than the camera. A frame of a new size stops
+     * the camera frames, if any.
+     *
+     * @param data         the NV21 frame, not written to until it is recycled
+     * @param captureNanos the capture time on the {@link System#nanoTime()} clock
+     * @param recycler     takes the buffer back once it is converted or dropped, may be null
+     */
+    public void queueFrame(final byte[] data, final int width, final int height,
+            final long captureNanos, final BufferRecycler recycler) {
+        synchronized (mLock) {
+            if (mCamera != null || width != mWidth || height != mHeight) {
+                stopLocked();
+                resizeLocked(width, height);
+            }
+            if (queueLocked(data, captureNanos, recycler)) {
+                return;
+            }
+        }
+        notifyFrameReady();
+    }
+
+    /**
+     * @return true if the frame goes to the worker, which notifies once it is converted
+     */
+    private boolean queueLocked(final byte[] data, final long captureNanos,
+            final BufferRecycler recycler) {
+        mReceivedFrames++;
+        if (mPending != null) {
+            recycleLocked(mPending);
+            mDroppedFrames++;
+        } else {
+            mPending = takeLocked(mFreeFrames);
+            if (mPending == null) {
+                mPending = new Frame(mWidth, mHeight, false);
+            }
+        }
+        mPending.yuv = data;
+        mPending.recycler = recycler;
+        mPending.captureNanos = captureNanos;
+        mLock.notifyAll();
+        return mConvertOnCpu;
+    }
+
+    /**
+     * @param callback run on the camera or worker thread whenever a new frame can be acquired
+     */
+    void setFrameReadyCallback(final Runnable callback) {
+        mFrameReadyCallback = callback;
+    }
+
+    private void notifyFrameReady() {
+        Runnable callback = mFrameReadyCallback;
+        if (callback != null) {
+            callback.run();
+        }
+    }
+
+    /**
+     * Takes the latest frame, or null if there is no new one. Must be handed back with
+     * {@link #release(Frame)} after drawing.
+     */
+    Frame acquire() {
+        synchronized (mLock) {
+            Frame frame;
+            if (mConvertOnCpu) {
+                frame = mReady;
+                mReady = null;
+            } else {
+                frame = mPending;
+                mPending = null;
+            }
+            return frame;
+        }
+    }
+
+    void release(final Frame frame) {
+        synchronized (mLock) {
+            mProcessedFrames++;
+            freeLocked(frame);
+        }
+    }
+
+    /**
+     * @return the frames delivered by the camera or queued
+     */
+    public long getReceivedFrameCount() {
+        synchronized (mLock) {
+            return mReceivedFrames;
+        }
+    }
+
+    /**
+     * @return the frames drawn by the renderer
+     */
+    public long getProcessedFrameCount() {
+        synchronized (mLock) {
+            return mProcessedFrames;
+        }
+    }
+
+    /**
+     * @return the frames replaced by a newer frame before the renderer got to them
+     */
+    public long getDroppedFrameCount() {
+        synchronized (mLock) {
+            return mDroppedFrames;
+        }
+    }
+
+    private void configureCameraLocked(final Camera camera, final boolean callbackBuffers) {
+        Camera.Parameters parameters = camera.getParameters();
+        Size size = parameters.getPreviewSize();
+        int bitsPerPixel = ImageFormat.getBitsPerPixel(parameters.getPreviewFormat());
+        if (mCameraRecycler != null) {
+            mCameraRecycler.mValid = false;
+        }
+        mFrameLength = size.width * size.height * bitsPerPixel / 8;
+        mCameraRecycler = callbackBuffers ? new CameraRecycler(camera) : null;
+        resizeLocked(size.width, size.height);
+        if (callbackBuffers) {
+            for (int i = 0; i < mBufferCount; i++) {
+                camera.addCallbackBuffer(new byte[mFrameLength]);
+            }
+        }
+    }
+
+    private void resizeLocked(final int width, final int height) {
+        mWidth = width;
+        mHeight = height;
+        // Frames of the previous size are not handed on, their buffers are not reused
+        if (mPending != null) {
+            recycleLocked(mPending);
+            mPending = null;
+        }
+        mReady = null;
+        mFreeFrames.clear();
+        mFreeRgbaFrames.clear();
+        for (int i = 0; i < mBufferCount; i++) {
+            mFreeFrames.add(new Frame(mWidth, mHeight, false));
+        }
+        if (mConvertOnCpu) {
+            startWorkerLocked();
+        }
+    }
+
+    private void startWorkerLocked() {
+        while (mFreeRgbaFrames.size() < mBufferCount) {
+            mFreeRgbaFrames.add(new Frame(mWidth, mHeight, true));
+        }
+        if (mWorker == null) {
+            mWorker = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    convertFrames();
+                }
+            }, "GPUImageCameraIngest");
+            mWorker.start();
+        }
+    }
+
+    private void stopWorkerLocked() {
+        mFreeRgbaFrames.clear();
+        if (mWorker != null) {
+            mWorker.interrupt();
+            mWorker = null;
+        }
+        mLock.notifyAll();
+    }
+
+    private void stopLocked() {
+        if (mCameraRecycler != null) {
+            mCameraRecycler.mValid = false;
+            mCameraRecycler = null;
+        }
+        mCamera = null;
+        mWidth = 0;
+        mHeight = 0;
+        if (mPending != null) {
+            recycleLocked(mPending);
+            mPending = null;
+        }
+        mReady = null;
+        mFreeFrames.clear();
+        stopWorkerLocked();
+    }
+
+    /**
+     * Returns a frame to its pool, unless it is of a previous preview size.
+     */
+    private void freeLocked(final Frame frame) {
+        recycleLocked(frame);
+        if (frame.width == mWidth && frame.height == mHeight) {
+            (frame.rgba != null ? mFreeRgbaFrames : mFreeFrames).add(frame);
+        }
+    }
+
+    /**
+     * Takes a frame from a pool, or returns null if it is empty.
+     */
+    private static Frame takeLocked(final ArrayList<Frame> frames) {
+        return frames.isEmpty() ? null : frames.remove(frames.size() - 1);
+    }
+
+    /**
+     * Hands the NV21 buffer of a frame back to where it came from.
+     */
+    private void recycleLocked(final Frame frame) {
+        if (frame.yuv != null && frame.recycler != null) {
+            frame.recycler.recycleBuffer(frame.yuv);
+        }
+        frame.yuv = null;
+        frame.recycler = null;
+    }
+
+    /**
+     * Hands callback buffers back to the camera until the camera or its preview size changes.
+     */
+    private static final class CameraRecycler implements BufferRecycler {
+        private final Camera mCamera;
+        private boolean mValid = true;
+
+        CameraRecycler(final Camera camera) {
+            mCamera = camera;
+        }
+
+        @Override
+        public void recycleBuffer(final byte[] buffer) {
+            if (mValid) {
+                mCamera.addCallbackBuffer(buffer);
+            }
+        }
+    }
+
+    /**
+     * Worker loop converting the latest NV21 frame into an RGBA buffer while the renderer draws
+     * the previous one.
+     */
+    private void convertFrames() {
+        Thread thread = Thread.currentThread();
+        while (true) {
+            Frame source;
+            Frame target;
+            synchronized (mLock) {
+                while (mWorker == thread && mPending == null) {
+                    try {
+                        mLock.wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (mWorker != thread) {
+                    return;
+                }
+                source = mPending;
+                mPending = null;
+                target = takeLocked(mFreeRgbaFrames);
+                if (target == null && mReady != null) {
+                    // The renderer holds the other buffers, replace the frame it did not take
+                    target = mReady;
+                    mReady = null;
+                    mDroppedFrames++;
+                }
+                if (target == null) {
+                    target = new Frame(source.width, source.height, true);
+                }
+            }
+
+            boolean converted = source.width == target.width && source.height == target.height;
+            if (converted) {
+                target.captureNanos = source.captureNanos;
+                target.conversionStartNanos = System.nanoTime();
+                GPUImageNativeLibrary.YUVtoRBGABuffer(source.yuv, target.width, target.height,
+                        target.rgba);
+                target.conversionEndNanos = System.nanoTime();
+            }
+
+            synchronized (mLock) {
+                freeLocked(source);
+                if (mWorker != thread) {
+                    return;
+                }
+                if (!converted) {
+                    freeLocked(target);
+                    continue;
+                }
+                if (mReady != null) {
+                    freeLocked(mReady);
+                    mDroppedFrames++;
+                }
+                mReady = target;
+            }
+            notifyFrameReady();
+        }
+    }
+}
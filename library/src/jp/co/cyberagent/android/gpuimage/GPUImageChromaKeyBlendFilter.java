@@ -65,9 +65,9 @@ public class GPUImageChromaKeyBlendFilter extends GPUImageTwoInputFilter {
     @Override
     public void onInit() {
         super.onInit();
-        mThresholdSensitivityLocation = GLES20.glGetUniformLocation(getProgram(), "thresholdSensitivity");
-        mSmoothingLocation = GLES20.glGetUniformLocation(getProgram(), "smoothing");
-        mColorToReplaceLocation = GLES20.glGetUniformLocation(getProgram(), "colorToReplace");
+        mThresholdSensitivityLocation = OpenGlUtils.getUniformLocation(getProgram(), "thresholdSensitivity");
+        mSmoothingLocation = OpenGlUtils.getUniformLocation(getProgram(), "smoothing");
+        mColorToReplaceLocation = OpenGlUtils.getUniformLocation(getProgram(), "colorToReplace");
     }
 
     @Override
@@ -5,7 +5,8 @@ import android.opengl.GLES20;
 /**
  * Created by edward_chiang on 13/10/16.
  */
-public class GPUImageColorBalanceFilter extends GPUImageFilter {
+public class GPUImageColorBalanceFilter extends GPUImageFilter implements
+        GPUImageColorMappingFilter {
 
     public static final String GPU_IMAGE_COLOR_BALANCE_FRAGMENT_SHADER = "" +
             "varying highp vec2 textureCoordinate;\n"   +
@@ -160,10 +161,10 @@ public class GPUImageColorBalanceFilter extends GPUImageFilter {
     @Override
     public void onInit() {
         super.onInit();
-        mShadowsLocation = GLES20.glGetUniformLocation(getProgram(), "shadowsShift");
-        mMidtonesLocation = GLES20.glGetUniformLocation(getProgram(), "midtonesShift");
-        mHighlightsLocation = GLES20.glGetUniformLocation(getProgram(), "highlightsShift");
-        mPreserveLuminosityLocation = GLES20.glGetUniformLocation(getProgram(), "preserveLuminosity");
+        mShadowsLocation = OpenGlUtils.getUniformLocation(getProgram(), "shadowsShift");
+        mMidtonesLocation = OpenGlUtils.getUniformLocation(getProgram(), "midtonesShift");
+        mHighlightsLocation = OpenGlUtils.getUniformLocation(getProgram(), "highlightsShift");
+        mPreserveLuminosityLocation = OpenGlUtils.getUniformLocation(getProgram(), "preserveLuminosity");
     }
 
     @Override
@@ -194,4 +195,9 @@ public class GPUImageColorBalanceFilter extends GPUImageFilter {
         this.preserveLuminosity = preserveLuminosity;
         setInteger(mPreserveLuminosityLocation, preserveLuminosity ? 1: 0);
     }
+
+    @Override
+    public int getSamplingRadius() {
+        return 0;
+    }
 }
@@ -19,7 +19,8 @@ package jp.co.cyberagent.android.gpuimage;
 /**
  * Invert all the colors in the image.
  */
-public class GPUImageColorInvertFilter extends GPUImageFilter {
+public class GPUImageColorInvertFilter extends GPUImageFilter implements GPUImagePointwiseFilter,
+        GPUImageAffineColorFilter, GPUImageColorMappingFilter {
     public static final String COLOR_INVERT_FRAGMENT_SHADER = "" +
             "varying highp vec2 textureCoordinate;\n" +
             "\n" +
@@ -32,7 +33,27 @@ public class GPUImageColorInvertFilter extends GPUImageFilter {
             "    gl_FragColor = vec4((1.0 - textureColor.rgb), textureColor.w);\n" +
             "}";
 
+    public static final String COLOR_INVERT_COLOR_TRANSFORM = "" +
+            "    color.rgb = 1.0 - color.rgb;\n";
+
     public GPUImageColorInvertFilter() {
         super(NO_FILTER_VERTEX_SHADER, COLOR_INVERT_FRAGMENT_SHADER);
     }
+
+    @Override
+    public String getColorTransform() {
+        return COLOR_INVERT_COLOR_TRANSFORM;
+    }
+
+    @Override
+    public void getColorMatrix(final float[] matrix, final float[] offset) {
+        GPUImageFoldedColorFilter.setIdentity(matrix, offset);
+        matrix[0] = matrix[5] = matrix[10] = -1.0f;
+        offset[0] = offset[1] = offset[2] = 1.0f;
+    }
+
+    @Override
+    public int getSamplingRadius() {
+        return 0;
+    }
 }
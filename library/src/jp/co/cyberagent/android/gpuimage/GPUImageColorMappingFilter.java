@@ -0,0 +1,29 @@
+/*
+ * Copyright (C) 2012 CyberAgent
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.co.cyberagent.android.gpuimage;
+
+/**
+ * Marks filters whose output color is a function of the input color only, independent of the
+ * pixel position, neighboring pixels or the output size. Runs of such filters can be baked
+ * into a color lookup table by {@link GPUImageFilterGroup#setLookupBakingEnabled(boolean)}.
+ * <p>
+ * Implementations must only change their output through uniforms or
+ * {@link GPUImageFilter#runOnDraw(Runnable)}, so the bake notices parameter changes, and
+ * return 0 from {@link GPUImageFilter#getSamplingRadius()}.
+ */
+public interface GPUImageColorMappingFilter {
+}
@@ -21,7 +21,8 @@ import android.opengl.GLES20;
 /**
  * Applies a ColorMatrix to the image.
  */
-public class GPUImageColorMatrixFilter extends GPUImageFilter {
+public class GPUImageColorMatrixFilter extends GPUImageFilter implements GPUImagePointwiseFilter,
+        GPUImageAffineColorFilter, GPUImageColorMappingFilter {
     public static final String COLOR_MATRIX_FRAGMENT_SHADER = "" +
             "varying highp vec2 textureCoordinate;\n" +
             "\n" +
@@ -38,6 +39,10 @@ public class GPUImageColorMatrixFilter extends GPUImageFilter {
             "    gl_FragColor = (intensity * outputColor) + ((1.0 - intensity) * textureColor);\n" +
             "}";
 
+    public static final String COLOR_MATRIX_COLOR_TRANSFORM = "" +
+            "    lowp vec4 outputColor = color * colorMatrix;\n" +
+            "    color = (intensity * outputColor) + ((1.0 - intensity) * color);\n";
+
     private float mIntensity;
     private float[] mColorMatrix;
     private int mColorMatrixLocation;
@@ -61,8 +66,8 @@ public class GPUImageColorMatrixFilter extends GPUImageFilter {
     @Override
     public void onInit() {
         super.onInit();
-        mColorMatrixLocation = GLES20.glGetUniformLocation(getProgram(), "colorMatrix");
-        mIntensityLocation = GLES20.glGetUniformLocation(getProgram(), "intensity");
+        mColorMatrixLocation = OpenGlUtils.getUniformLocation(getProgram(), "colorMatrix");
+        mIntensityLocation = OpenGlUtils.getUniformLocation(getProgram(), "intensity");
     }
 
     @Override
@@ -81,4 +86,35 @@ public class GPUImageColorMatrixFilter extends GPUImageFilter {
         mColorMatrix = colorMatrix;
         setUniformMatrix4f(mColorMatrixLocation, colorMatrix);
     }
+
+    @Override
+    public boolean isIdentity() {
+        if (mIntensity == 0.0f) {
+            return true;
+        }
+        for (int i = 0; i < 16; i++) {
+            if (mColorMatrix[i] != (i % 5 == 0 ? 1.0f : 0.0f)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public String getColorTransform() {
+        return COLOR_MATRIX_COLOR_TRANSFORM;
+    }
+
+    @Override
+    public void getColorMatrix(final float[] matrix, final float[] offset) {
+        GPUImageFoldedColorFilter.setIdentity(matrix, offset);
+        for (int i = 0; i < 16; i++) {
+            matrix[i] = mIntensity * mColorMatrix[i] + (1.0f - mIntensity) * matrix[i];
+        }
+    }
+
+    @Override
+    public int getSamplingRadius() {
+        return 0;
+    }
 }
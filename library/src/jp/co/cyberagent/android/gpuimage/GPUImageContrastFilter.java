@@ -23,7 +23,8 @@ import android.opengl.GLES20;
  * <br>
  * contrast value ranges from 0.0 to 4.0, with 1.0 as the normal level
  */
-public class GPUImageContrastFilter extends GPUImageFilter {
+public class GPUImageContrastFilter extends GPUImageFilter implements GPUImagePointwiseFilter,
+        GPUImageAffineColorFilter, GPUImageColorMappingFilter {
     public static final String CONTRAST_FRAGMENT_SHADER = "" +
             "varying highp vec2 textureCoordinate;\n" + 
             " \n" + 
@@ -37,6 +38,9 @@ public class GPUImageContrastFilter extends GPUImageFilter {
             "     gl_FragColor = vec4(((textureColor.rgb - vec3(0.5)) * contrast + vec3(0.5)), textureColor.w);\n" + 
             " }";
 
+    public static final String CONTRAST_COLOR_TRANSFORM = "" +
+            "    color.rgb = (color.rgb - vec3(0.5)) * contrast + vec3(0.5);\n";
+
     private int mContrastLocation;
     private float mContrast;
 
@@ -52,7 +56,7 @@ public class GPUImageContrastFilter extends GPUImageFilter {
     @Override
     public void onInit() {
         super.onInit();
-        mContrastLocation = GLES20.glGetUniformLocation(getProgram(), "contrast");
+        mContrastLocation = OpenGlUtils.getUniformLocation(getProgram(), "contrast");
     }
 
     @Override
@@ -65,4 +69,26 @@ public class GPUImageContrastFilter extends GPUImageFilter {
         mContrast = contrast;
         setFloat(mContrastLocation, mContrast);
     }
+
+    @Override
+    public boolean isIdentity() {
+        return mContrast == 1.0f;
+    }
+
+    @Override
+    public String getColorTransform() {
+        return CONTRAST_COLOR_TRANSFORM;
+    }
+
+    @Override
+    public void getColorMatrix(final float[] matrix, final float[] offset) {
+        GPUImageFoldedColorFilter.setIdentity(matrix, offset);
+        matrix[0] = matrix[5] = matrix[10] = mContrast;
+        offset[0] = offset[1] = offset[2] = 0.5f * (1.0f - mContrast);
+    }
+
+    @Override
+    public int getSamplingRadius() {
+        return 0;
+    }
 }
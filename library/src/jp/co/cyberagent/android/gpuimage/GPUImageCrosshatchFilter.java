@@ -85,8 +85,8 @@ public class GPUImageCrosshatchFilter extends GPUImageFilter {
     @Override
     public void onInit() {
         super.onInit();
-        mCrossHatchSpacingLocation = GLES20.glGetUniformLocation(getProgram(), "crossHatchSpacing");
-        mLineWidthLocation = GLES20.glGetUniformLocation(getProgram(), "lineWidth");
+        mCrossHatchSpacingLocation = OpenGlUtils.getUniformLocation(getProgram(), "crossHatchSpacing");
+        mLineWidthLocation = OpenGlUtils.getUniformLocation(getProgram(), "lineWidth");
     }
 
     @Override
@@ -257,6 +257,8 @@ public class GPUImageDilationFilter extends GPUImageTwoPassTextureSamplingFilter
                     "}\n";
 
 
+    private final int mRadius;
+
     public GPUImageDilationFilter() {
         this(1);
     }
@@ -268,11 +270,12 @@ public class GPUImageDilationFilter extends GPUImageTwoPassTextureSamplingFilter
      * @param radius 1, 2, 3 or 4
      */
     public GPUImageDilationFilter(int radius) {
-        this(getVertexShader(radius), getFragmentShader(radius));
+        this(getVertexShader(radius), getFragmentShader(radius), getSampledRadius(radius));
     }
 
-    private GPUImageDilationFilter(String vertexShader, String fragmentShader) {
+    private GPUImageDilationFilter(String vertexShader, String fragmentShader, int radius) {
         super(vertexShader, fragmentShader, vertexShader, fragmentShader);
+        mRadius = radius;
     }
 
     private static String getVertexShader(int radius) {
@@ -302,4 +305,23 @@ public class GPUImageDilationFilter extends GPUImageTwoPassTextureSamplingFilter
                 return FRAGMENT_SHADER_4;
         }
     }
+
+    @Override
+    public int getSamplingRadius() {
+        return mRadius;
+    }
+
+    private static int getSampledRadius(int radius) {
+        switch (radius) {
+            case 0:
+            case 1:
+                return 1;
+            case 2:
+                return 2;
+            case 3:
+                return 3;
+            default:
+                return 4;
+        }
+    }
 }
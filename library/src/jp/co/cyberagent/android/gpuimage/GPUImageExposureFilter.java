@@ -21,7 +21,8 @@ import android.opengl.GLES20;
 /**
  * exposure: The adjusted exposure (-10.0 - 10.0, with 0.0 as the default)
  */
-public class GPUImageExposureFilter extends GPUImageFilter {
+public class GPUImageExposureFilter extends GPUImageFilter implements GPUImagePointwiseFilter,
+        GPUImageAffineColorFilter, GPUImageColorMappingFilter {
     public static final String EXPOSURE_FRAGMENT_SHADER = "" +
             " varying highp vec2 textureCoordinate;\n" +
             " \n" +
@@ -35,6 +36,9 @@ public class GPUImageExposureFilter extends GPUImageFilter {
             "     gl_FragColor = vec4(textureColor.rgb * pow(2.0, exposure), textureColor.w);\n" +
             " } ";
 
+    public static final String EXPOSURE_COLOR_TRANSFORM = "" +
+            "    color.rgb *= pow(2.0, exposure);\n";
+
     private int mExposureLocation;
     private float mExposure;
 
@@ -50,7 +54,7 @@ public class GPUImageExposureFilter extends GPUImageFilter {
     @Override
     public void onInit() {
         super.onInit();
-        mExposureLocation = GLES20.glGetUniformLocation(getProgram(), "exposure");
+        mExposureLocation = OpenGlUtils.getUniformLocation(getProgram(), "exposure");
     }
 
     @Override
@@ -63,4 +67,25 @@ public class GPUImageExposureFilter extends GPUImageFilter {
         mExposure = exposure;
         setFloat(mExposureLocation, mExposure);
     }
+
+    @Override
+    public boolean isIdentity() {
+        return mExposure == 0.0f;
+    }
+
+    @Override
+    public String getColorTransform() {
+        return EXPOSURE_COLOR_TRANSFORM;
+    }
+
+    @Override
+    public void getColorMatrix(final float[] matrix, final float[] offset) {
+        GPUImageFoldedColorFilter.setIdentity(matrix, offset);
+        matrix[0] = matrix[5] = matrix[10] = (float) Math.pow(2.0, mExposure);
+    }
+
+    @Override
+    public int getSamplingRadius() {
+        return 0;
+    }
 }
@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2012 CyberAgent
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.co.cyberagent.android.gpuimage;
+
+import android.opengl.GLES11Ext;
+import android.opengl.GLES20;
+
+import java.nio.FloatBuffer;
+
+/**
+ * Draws a GL_TEXTURE_EXTERNAL_OES texture, e.g. the camera preview of a
+ * {@link android.graphics.SurfaceTexture}, as a regular texture. The texture coordinates are
+ * transformed by the matrix of {@link android.graphics.SurfaceTexture#getTransformMatrix}.
+ */
+public class GPUImageExternalTextureFilter extends GPUImageFilter {
+    public static final String EXTERNAL_TEXTURE_VERTEX_SHADER = "" +
+            "attribute vec4 position;\n" +
+            "attribute vec4 inputTextureCoordinate;\n" +
+            " \n" +
+            "uniform mat4 textureTransform;\n" +
+            " \n" +
+            "varying vec2 textureCoordinate;\n" +
+            " \n" +
+            "void main()\n" +
+            "{\n" +
+            "    gl_Position = position;\n" +
+            "    textureCoordinate = (textureTransform * inputTextureCoordinate).xy;\n" +
+            "}";
+    public static final String EXTERNAL_TEXTURE_FRAGMENT_SHADER = "" +
+            "#extension GL_OES_EGL_image_external : require\n" +
+            "varying highp vec2 textureCoordinate;\n" +
+            " \n" +
+            "uniform samplerExternalOES inputImageTexture;\n" +
+            " \n" +
+            "void main()\n" +
+            "{\n" +
+            "     gl_FragColor = texture2D(inputImageTexture, textureCoordinate);\n" +
+            "}";
+
+    private int mTextureTransformLocation;
+    private final float[] mTextureTransform = new float[] {
+            1.0f, 0.0f, 0.0f, 0.0f,
+            0.0f, 1.0f, 0.0f, 0.0f,
+            0.0f, 0.0f, 1.0f, 0.0f,
+            0.0f, 0.0f, 0.0f, 1.0f,
+    };
+    private int mExternalTextureId = OpenGlUtils.NO_TEXTURE;
+
+    public GPUImageExternalTextureFilter() {
+        super(EXTERNAL_TEXTURE_VERTEX_SHADER, EXTERNAL_TEXTURE_FRAGMENT_SHADER);
+    }
+
+    @Override
+    public void onInit() {
+        super.onInit();
+        mTextureTransformLocation = OpenGlUtils.getUniformLocation(getProgram(), "textureTransform");
+    }
+
+    @Override
+    public void onInitialized() {
+        super.onInitialized();
+        setTextureTransform(mTextureTransform);
+    }
+
+    /**
+     * @param matrix the column-major 4x4 matrix as returned by
+     *               {@link android.graphics.SurfaceTexture#getTransformMatrix(float[])}
+     */
+    public void setTextureTransform(final float[] matrix) {
+        if (matrix != mTextureTransform) {
+            System.arraycopy(matrix, 0, mTextureTransform, 0, 16);
+        }
+        setUniformMatrix4f(mTextureTransformLocation, mTextureTransform);
+    }
+
+    /**
+     * @param textureId an external texture instead of a GL_TEXTURE_2D one
+     */
+    @Override
+    public void onDraw(final int textureId, final FloatBuffer cubeBuffer,
+                       final FloatBuffer textureBuffer) {
+        mExternalTextureId = textureId;
+        super.onDraw(OpenGlUtils.NO_TEXTURE, cubeBuffer, textureBuffer);
+        GLES20.glBindTexture(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, 0);
+    }
+
+    @Override
+    protected void onDrawArraysPre() {
+        if (mExternalTextureId != OpenGlUtils.NO_TEXTURE) {
+            GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
+            GLES20.glBindTexture(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, mExternalTextureId);
+            GLES20.glUniform1i(getUniformTexture(), 0);
+        }
+    }
+}
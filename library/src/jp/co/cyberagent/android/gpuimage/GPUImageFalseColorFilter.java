@@ -18,7 +18,7 @@ package jp.co.cyberagent.android.gpuimage;
 
 import android.opengl.GLES20;
 
-public class GPUImageFalseColorFilter extends GPUImageFilter {
+public class GPUImageFalseColorFilter extends GPUImageFilter implements GPUImageColorMappingFilter {
     public static final String FALSECOLOR_FRAGMENT_SHADER = "" +
             "precision lowp float;\n" +
             "\n" +
@@ -61,8 +61,8 @@ public class GPUImageFalseColorFilter extends GPUImageFilter {
     @Override
     public void onInit() {
         super.onInit();
-        mFirstColorLocation = GLES20.glGetUniformLocation(getProgram(), "firstColor");
-        mSecondColorLocation = GLES20.glGetUniformLocation(getProgram(), "secondColor");
+        mFirstColorLocation = OpenGlUtils.getUniformLocation(getProgram(), "firstColor");
+        mSecondColorLocation = OpenGlUtils.getUniformLocation(getProgram(), "secondColor");
     }
 
     @Override
@@ -81,4 +81,9 @@ public class GPUImageFalseColorFilter extends GPUImageFilter {
         mSecondColor = secondColor;
         setFloatVec3(mSecondColorLocation, secondColor);
     }
+
+    @Override
+    public int getSamplingRadius() {
+        return 0;
+    }
 }
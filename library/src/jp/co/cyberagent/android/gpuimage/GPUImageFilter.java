@@ -47,9 +47,16 @@ public class GPUImageFilter {
             "     gl_FragColor = texture2D(inputImageTexture, textureCoordinate);\n" +
             "}";
 
+    /**
+     * Returned by {@link #getSamplingRadius()} for filters which cannot be rendered in tiles.
+     */
+    public static final int SAMPLING_RADIUS_UNBOUNDED = -1;
+
     private final LinkedList<Runnable> mRunOnDraw;
+    private final GPUImageUniforms mUniforms = new GPUImageUniforms();
     private final String mVertexShader;
     private final String mFragmentShader;
+    private GPUImageProgramCache.Program mProgram;
     protected int mGLProgId;
     protected int mGLAttribPosition;
     protected int mGLUniformTexture;
@@ -57,6 +64,7 @@ public class GPUImageFilter {
     protected int mOutputWidth;
     protected int mOutputHeight;
     private boolean mIsInitialized;
+    private int mQueuedTaskCount;
 
     public GPUImageFilter() {
         this(NO_FILTER_VERTEX_SHADER, NO_FILTER_FRAGMENT_SHADER);
@@ -69,17 +77,18 @@ public class GPUImageFilter {
     }
 
     public final void init() {
+        mUniforms.clear();
         onInit();
         mIsInitialized = true;
         onInitialized();
     }
 
     public void onInit() {
-        mGLProgId = OpenGlUtils.loadProgram(mVertexShader, mFragmentShader);
-        mGLAttribPosition = GLES20.glGetAttribLocation(mGLProgId, "position");
-        mGLUniformTexture = GLES20.glGetUniformLocation(mGLProgId, "inputImageTexture");
-        mGLAttribTextureCoordinate = GLES20.glGetAttribLocation(mGLProgId,
-                "inputTextureCoordinate");
+        mProgram = GPUImageProgramCache.acquire(mVertexShader, mFragmentShader);
+        mGLProgId = mProgram.id;
+        mGLAttribPosition = mProgram.getAttribLocation("position");
+        mGLUniformTexture = mProgram.getUniformLocation("inputImageTexture");
+        mGLAttribTextureCoordinate = mProgram.getAttribLocation("inputTextureCoordinate");
         mIsInitialized = true;
     }
 
@@ -88,7 +97,9 @@ public class GPUImageFilter {
 
     public final void destroy() {
         mIsInitialized = false;
-        GLES20.glDeleteProgram(mGLProgId);
+        GPUImageProgramCache.release(mProgram);
+        mProgram = null;
+        mUniforms.clear();
         onDestroy();
     }
 
@@ -107,13 +118,12 @@ public class GPUImageFilter {
         if (!mIsInitialized) {
             return;
         }
+        // Programs are shared between equal filters, so reload all values if another one drew last
+        flushUniforms(mProgram == null || mProgram.use(this));
 
-        cubeBuffer.position(0);
-        GLES20.glVertexAttribPointer(mGLAttribPosition, 2, GLES20.GL_FLOAT, false, 0, cubeBuffer);
+        GPUImageQuadCache.setVertexAttribPointer(mGLAttribPosition, cubeBuffer);
         GLES20.glEnableVertexAttribArray(mGLAttribPosition);
-        textureBuffer.position(0);
-        GLES20.glVertexAttribPointer(mGLAttribTextureCoordinate, 2, GLES20.GL_FLOAT, false, 0,
-                textureBuffer);
+        GPUImageQuadCache.setVertexAttribPointer(mGLAttribTextureCoordinate, textureBuffer);
         GLES20.glEnableVertexAttribArray(mGLAttribTextureCoordinate);
         if (textureId != OpenGlUtils.NO_TEXTURE) {
             GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
@@ -129,6 +139,62 @@ public class GPUImageFilter {
 
     protected void onDrawArraysPre() {}
 
+    /**
+     * Returns whether the filter passes its input through unchanged with its current
+     * parameters, so drawing it can be skipped. Filters override this for their neutral
+     * parameter values.
+     *
+     * @return true if the output equals the input
+     */
+    public boolean isIdentity() {
+        return getClass() == GPUImageFilter.class
+                && NO_FILTER_VERTEX_SHADER.equals(mVertexShader)
+                && NO_FILTER_FRAGMENT_SHADER.equals(mFragmentShader);
+    }
+
+    /**
+     * Returns how far, in pixels, the filter reads its input around each output pixel with
+     * its current parameters, so an image can be rendered in tiles overlapping by that much.
+     * Filters whose radius is known override this, color mappings return 0.
+     *
+     * @return the radius, or {@link #SAMPLING_RADIUS_UNBOUNDED} if the output depends on the
+     *         position in the image or on arbitrarily distant pixels
+     */
+    public int getSamplingRadius() {
+        return isIdentity() ? 0 : SAMPLING_RADIUS_UNBOUNDED;
+    }
+
+    /**
+     * Uploads uniform values to the bound program.
+     *
+     * @param all true to upload all values, false for only those changed since the last draw
+     */
+    void flushUniforms(final boolean all) {
+        mUniforms.flush(all);
+    }
+
+    GPUImageUniforms getUniforms() {
+        return mUniforms;
+    }
+
+    /**
+     * @return a counter which changes whenever a uniform value is set or a task is queued with
+     *         {@link #runOnDraw(Runnable)}, i.e. whenever the output of the filter may change
+     */
+    int getStateVersion() {
+        synchronized (mRunOnDraw) {
+            return mUniforms.getVersion() + mQueuedTaskCount;
+        }
+    }
+
+    String getVertexShader() {
+        return mVertexShader;
+    }
+
+    String getFragmentShader() {
+        return mFragmentShader;
+    }
+
     protected void runPendingOnDrawTasks() {
         synchronized (mRunOnDraw) {
             while (!mRunOnDraw.isEmpty()) {
@@ -166,96 +232,46 @@ public class GPUImageFilter {
     }
 
     protected void setInteger(final int location, final int intValue) {
-        runOnDraw(new Runnable() {
-            @Override
-            public void run() {
-                GLES20.glUniform1i(location, intValue);
-            }
-        });
+        mUniforms.setInt(location, intValue);
     }
 
     protected void setFloat(final int location, final float floatValue) {
-        runOnDraw(new Runnable() {
-            @Override
-            public void run() {
-                GLES20.glUniform1f(location, floatValue);
-            }
-        });
+        mUniforms.setFloat(location, floatValue);
     }
 
     protected void setFloatVec2(final int location, final float[] arrayValue) {
-        runOnDraw(new Runnable() {
-            @Override
-            public void run() {
-                GLES20.glUniform2fv(location, 1, FloatBuffer.wrap(arrayValue));
-            }
-        });
+        mUniforms.setFloatVec(location, 2, arrayValue);
     }
 
     protected void setFloatVec3(final int location, final float[] arrayValue) {
-        runOnDraw(new Runnable() {
-            @Override
-            public void run() {
-                GLES20.glUniform3fv(location, 1, FloatBuffer.wrap(arrayValue));
-            }
-        });
+        mUniforms.setFloatVec(location, 3, arrayValue);
     }
 
     protected void setFloatVec4(final int location, final float[] arrayValue) {
-        runOnDraw(new Runnable() {
-            @Override
-            public void run() {
-                GLES20.glUniform4fv(location, 1, FloatBuffer.wrap(arrayValue));
-            }
-        });
+        mUniforms.setFloatVec(location, 4, arrayValue);
     }
 
     protected void setFloatArray(final int location, final float[] arrayValue) {
-        runOnDraw(new Runnable() {
-            @Override
-            public void run() {
-                GLES20.glUniform1fv(location, arrayValue.length, FloatBuffer.wrap(arrayValue));
-            }
-        });
+        mUniforms.setFloatArray(location, arrayValue);
     }
 
     protected void setPoint(final int location, final PointF point) {
-        runOnDraw(new Runnable() {
-
-            @Override
-            public void run() {
-                float[] vec2 = new float[2];
-                vec2[0] = point.x;
-                vec2[1] = point.y;
-                GLES20.glUniform2fv(location, 1, vec2, 0);
-            }
-        });
+        mUniforms.setFloat2(location, point.x, point.y);
     }
 
     protected void setUniformMatrix3f(final int location, final float[] matrix) {
-        runOnDraw(new Runnable() {
-
-            @Override
-            public void run() {
-                GLES20.glUniformMatrix3fv(location, 1, false, matrix, 0);
-            }
-        });
+        mUniforms.setMatrix3(location, matrix);
     }
 
     protected void setUniformMatrix4f(final int location, final float[] matrix) {
-        runOnDraw(new Runnable() {
-
-            @Override
-            public void run() {
-                GLES20.glUniformMatrix4fv(location, 1, false, matrix, 0);
-            }
-        });
+        mUniforms.setMatrix4(location, matrix);
     }
 
     protected void runOnDraw(final Runnable runnable) {
         if(runnable == null) return;
         synchronized (mRunOnDraw) {
             mRunOnDraw.addLast(runnable);
+            mQueuedTaskCount++;
         }
     }
 
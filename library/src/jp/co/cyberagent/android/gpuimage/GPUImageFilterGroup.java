@@ -25,7 +25,6 @@ import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Iterator;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicBoolean;
 
@@ -37,7 +36,7 @@ import static jp.co.cyberagent.android.gpuimage.util.TextureRotationUtil.TEXTURE
  *
  * Thread-safe via synchronization on {@link @mFilters}, this class's source of truth.
  */
-public class GPUImageFilterGroup extends GPUImageFilter {
+public class GPUImageFilterGroup extends GPUImageFilter implements GPUImageQualityAdjustable {
 
     /**
      * Ordered collection of {@link GPUImageFilter} instances managed by this instance
@@ -51,17 +50,56 @@ public class GPUImageFilterGroup extends GPUImageFilter {
     protected List<GPUImageFilter> mMergedFilters;
 
     /**
-     * Internal flag to indicate we need to rebuild mFrameBuffers and mFrameBufferTextures
-     * on the next draw (e.g. because mFilters membership changed).
+     * Internal flag to indicate idle framebuffers of a stale size should be dropped from
+     * mFrameBufferPool on the next draw (i.e. because the output size changed).
      */
     private AtomicBoolean mFrameNeedsRefresh = new AtomicBoolean(false);
 
-    private int[] mFrameBuffers;
-    private int[] mFrameBufferTextures;
+    /**
+     * Pool the intermediate render targets are leased from, shared with nested
+     * {@link GPUImageFilterGroup} instances.
+     */
+    private GPUImageFrameBufferPool mFrameBufferPool = new GPUImageFrameBufferPool();
+
+    /**
+     * The passes actually drawn: mMergedFilters with runs of filters replaced by synthesized
+     * ones (see {@link #setLookupBakingEnabled(boolean)},
+     * {@link #setColorMatrixFoldingEnabled(boolean)} and {@link #setShaderFusionEnabled(boolean)}).
+     * Only accessed on the OpenGL thread.
+     */
+    private List<GPUImageFilter> mPassFilters = new ArrayList<GPUImageFilter>();
+
+    /**
+     * Filters in mPassFilters created by this group, destroyed by the next rebuild unless it
+     * merges the same run again.
+     */
+    private final List<GPUImageFilter> mSynthesizedFilters = new ArrayList<GPUImageFilter>();
+
+    /**
+     * Synthesized filters of the previous build not reused yet, only used during a rebuild.
+     */
+    private final List<GPUImageFilter> mStaleFilters = new ArrayList<GPUImageFilter>();
+
+    /**
+     * Internal flag to indicate mPassFilters has to be rebuilt on the next draw.
+     */
+    private AtomicBoolean mPassFiltersNeedRebuild = new AtomicBoolean(true);
+
+    /**
+     * {@link GPUImageFilter#isIdentity()} of each of mMergedFilters when mPassFilters was built.
+     */
+    private boolean[] mIdentityFilters = new boolean[0];
+
+    private volatile boolean mShaderFusionEnabled;
+    private volatile boolean mColorMatrixFoldingEnabled;
+    private volatile boolean mLookupBakingEnabled;
+    private volatile float mLookupBakingTolerance = GPUImageBakedLookupFilter.DEFAULT_TOLERANCE;
 
     private final FloatBuffer mGLCubeBuffer;
     private final FloatBuffer mGLTextureBuffer;
     private final FloatBuffer mGLTextureFlipBuffer;
+    private final int[] mTargetFrameBuffer = new int[1];
+    private final int[] mTargetViewport = new int[4];
 
     /**
      * Instantiates a new GPUImageFilterGroup with no filters.
@@ -110,6 +148,90 @@ public class GPUImageFilterGroup extends GPUImageFilter {
         }
     }
 
+    /**
+     * Hands the quality on to the filters of the group which can adjust it.
+     */
+    @Override
+    public void setQuality(final float quality) {
+        synchronized (mFilters) {
+            for (GPUImageFilter filter : mFilters) {
+                if (filter instanceof GPUImageQualityAdjustable) {
+                    ((GPUImageQualityAdjustable) filter).setQuality(quality);
+                }
+            }
+        }
+    }
+
+    /**
+     * Enables fusing runs of adjacent {@link GPUImagePointwiseFilter}s into a single pass,
+     * saving a framebuffer round trip per fused filter. Only the group being drawn fuses its
+     * passes, the setting of nested groups has no effect. Disabled by default.
+     *
+     * @param enabled true to fuse filters
+     */
+    public void setShaderFusionEnabled(final boolean enabled) {
+        mShaderFusionEnabled = enabled;
+        mPassFiltersNeedRebuild.set(true);
+    }
+
+    public boolean isShaderFusionEnabled() {
+        return mShaderFusionEnabled;
+    }
+
+    /**
+     * Enables folding runs of adjacent {@link GPUImageAffineColorFilter}s into a single color
+     * matrix pass. The product is only recomputed when a parameter of the run changes. Unlike
+     * separate passes, intermediate results are not clamped to [0, 1], which only makes a
+     * difference if a filter of the run saturates the colors. Applied before shader fusion, so
+     * a folded pass can be fused with neighboring pointwise filters. Only the group being drawn
+     * folds its passes, the setting of nested groups has no effect. Disabled by default.
+     *
+     * @param enabled true to fold filters
+     */
+    public void setColorMatrixFoldingEnabled(final boolean enabled) {
+        mColorMatrixFoldingEnabled = enabled;
+        mPassFiltersNeedRebuild.set(true);
+    }
+
+    public boolean isColorMatrixFoldingEnabled() {
+        return mColorMatrixFoldingEnabled;
+    }
+
+    /**
+     * Enables baking runs of adjacent {@link GPUImageColorMappingFilter}s into a color lookup
+     * table, so the whole run costs a single pass with one dependent texture fetch. The table
+     * is rebaked on the next draw whenever a parameter of the run changes. Runs whose table
+     * misses the result of the separate passes by more than
+     * {@link #setLookupBakingTolerance(float)} are drawn unbaked until their next change.
+     * Applied before color matrix folding and shader fusion. Only the group being drawn bakes
+     * its passes, the setting of nested groups has no effect. Disabled by default.
+     *
+     * @param enabled true to bake filters
+     */
+    public void setLookupBakingEnabled(final boolean enabled) {
+        mLookupBakingEnabled = enabled;
+        mPassFiltersNeedRebuild.set(true);
+    }
+
+    public boolean isLookupBakingEnabled() {
+        return mLookupBakingEnabled;
+    }
+
+    /**
+     * Sets the largest difference per color channel (0.0 to 1.0) a baked lookup table may
+     * have against the separate passes. Defaults to 2/255.
+     *
+     * @param tolerance the tolerance
+     */
+    public void setLookupBakingTolerance(final float tolerance) {
+        mLookupBakingTolerance = tolerance;
+        mPassFiltersNeedRebuild.set(true);
+    }
+
+    public float getLookupBakingTolerance() {
+        return mLookupBakingTolerance;
+    }
+
     /*
      * (non-Javadoc)
      * @see jp.co.cyberagent.android.gpuimage.GPUImageFilter#onInit()
@@ -121,6 +243,7 @@ public class GPUImageFilterGroup extends GPUImageFilter {
             for (GPUImageFilter filter : mFilters) {
                 filter.init();
             }
+            mPassFiltersNeedRebuild.set(true);
         }
     }
 
@@ -131,27 +254,17 @@ public class GPUImageFilterGroup extends GPUImageFilter {
     @Override
     public void onDestroy() {
         synchronized (mFilters) {
-            destroyFramebuffers();
             for (GPUImageFilter filter : mFilters) {
                 filter.destroy();
             }
+            destroySynthesizedFilters();
+            mPassFilters.clear();
+            mPassFiltersNeedRebuild.set(true);
+            mFrameBufferPool.purge();
         }
         super.onDestroy();
     }
 
-    private void destroyFramebuffers() {
-        synchronized (mFilters) {
-            if (mFrameBufferTextures != null) {
-                GLES20.glDeleteTextures(mFrameBufferTextures.length, mFrameBufferTextures, 0);
-                mFrameBufferTextures = null;
-            }
-            if (mFrameBuffers != null) {
-                GLES20.glDeleteFramebuffers(mFrameBuffers.length, mFrameBuffers, 0);
-                mFrameBuffers = null;
-            }
-        }
-    }
-
     /*
      * (non-Javadoc)
      * @see
@@ -165,6 +278,9 @@ public class GPUImageFilterGroup extends GPUImageFilter {
             for (int i = 0; i < mFilters.size(); i++) {
                 mFilters.get(i).onOutputSizeChanged(width, height);
             }
+            for (GPUImageFilter filter : mSynthesizedFilters) {
+                filter.onOutputSizeChanged(width, height);
+            }
             // Trigger texture updates on the next draw to guarantee thread owns the OpenGL context
             mFrameNeedsRefresh.getAndSet(true);
         }
@@ -185,79 +301,108 @@ public class GPUImageFilterGroup extends GPUImageFilter {
         runPendingOnDrawTasks();
         synchronized (mFilters) {
             if (mFrameNeedsRefresh.getAndSet(false)) {
-                if (mFrameBuffers != null) {
-                    destroyFramebuffers();
+                mFrameBufferPool.trim(getOutputWidth(), getOutputHeight());
+            }
+            if (mPassFiltersNeedRebuild.getAndSet(false) || identityFiltersChanged()) {
+                rebuildPassFilters();
+            }
+            if (mPassFilters.isEmpty()) {
+                // No filters to draw
+                return;
+            }
+            // Draw the texture for each filter, ping-ponging between two pooled framebuffers
+            GPUImageAllocationTracker tracker = GPUImageAllocationTracker.current();
+            GPUImageFilterProfiler profiler = GPUImageFilterProfiler.current();
+            int size = mPassFilters.size();
+            if (size > 1) {
+                // The last pass draws into whatever the caller bound, the screen or a target,
+                // and where the caller put the viewport, e.g. a tile of an atlas
+                GLES20.glGetIntegerv(GLES20.GL_FRAMEBUFFER_BINDING, mTargetFrameBuffer, 0);
+                GLES20.glGetIntegerv(GLES20.GL_VIEWPORT, mTargetViewport, 0);
+            }
+            int previousTexture = textureId;
+            GPUImageFrameBuffer previousFrameBuffer = null;
+            for (int i = 0; i < size; i++) {
+                GPUImageFilter filter = mPassFilters.get(i);
+                boolean last = i == size - 1;
+                GPUImageFrameBuffer frameBuffer = null;
+                if (!last) {
+                    frameBuffer = mFrameBufferPool.obtain(
+                            filter.getOutputWidth(), filter.getOutputHeight());
+                    GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, frameBuffer.getFrameBufferId());
+                    GLES20.glViewport(0, 0, frameBuffer.getWidth(), frameBuffer.getHeight());
+                    GLES20.glClearColor(0, 0, 0, 0);
+                }
+
+                if (tracker != null) {
+                    tracker.begin(filter.getClass());
+                }
+                if (profiler != null) {
+                    profiler.begin(filter);
                 }
-                if (mMergedFilters != null && mMergedFilters.size() > 0) {
-                    int size = mMergedFilters.size();
-                    mFrameBuffers = new int[size - 1];
-                    mFrameBufferTextures = new int[size - 1];
-                    for (GPUImageFilter gpuImageFilter : mMergedFilters) {
-                        for (int i = 0; i < size - 1; i++) {
-                            GLES20.glGenFramebuffers(1, mFrameBuffers, i);
-                            GLES20.glGenTextures(1, mFrameBufferTextures, i);
-                            GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, mFrameBufferTextures[i]);
-                            GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, GLES20.GL_RGBA,
-                                    gpuImageFilter.getOutputWidth(),
-                                    gpuImageFilter.getOutputHeight(),
-                                    0, GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, null);
-                            GLES20.glTexParameterf(GLES20.GL_TEXTURE_2D,
-                                    GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
-                            GLES20.glTexParameterf(GLES20.GL_TEXTURE_2D,
-                                    GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR);
-                            GLES20.glTexParameterf(GLES20.GL_TEXTURE_2D,
-                                    GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
-                            GLES20.glTexParameterf(GLES20.GL_TEXTURE_2D,
-                                    GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
-
-                            GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, mFrameBuffers[i]);
-                            GLES20.glFramebufferTexture2D(GLES20.GL_FRAMEBUFFER, GLES20.GL_COLOR_ATTACHMENT0,
-                                    GLES20.GL_TEXTURE_2D, mFrameBufferTextures[i], 0);
-
-                            GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
-                            GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
-                        }
-                    }
+                if (i == 0) {
+                    filter.onDraw(previousTexture, cubeBuffer, textureBuffer);
+                } else if (last) {
+                    filter.onDraw(previousTexture, mGLCubeBuffer, (size % 2 == 0) ? mGLTextureFlipBuffer : mGLTextureBuffer);
+                } else {
+                    filter.onDraw(previousTexture, mGLCubeBuffer, mGLTextureBuffer);
+                }
+                if (profiler != null) {
+                    profiler.end();
+                }
+                if (tracker != null) {
+                    tracker.end();
+                }
+
+                // The input of this pass is no longer needed, hand it back for the next pass
+                mFrameBufferPool.release(previousFrameBuffer);
+                previousFrameBuffer = frameBuffer;
+                if (!last) {
+                    GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, mTargetFrameBuffer[0]);
+                    GLES20.glViewport(mTargetViewport[0], mTargetViewport[1],
+                            mTargetViewport[2], mTargetViewport[3]);
+                    previousTexture = frameBuffer.getTextureId();
                 }
             }
-            if (mFrameBuffers == null || mFrameBufferTextures == null) {
-                // No textures to draw
-                return;
+        }
+    }
+
+    /**
+     * @return true if all filters of this group pass their input through unchanged
+     */
+    @Override
+    public boolean isIdentity() {
+        synchronized (mFilters) {
+            if (mMergedFilters == null || mMergedFilters.isEmpty()) {
+                return false;
             }
-            // Draw the texture for each filter
-            if (mMergedFilters != null) {
-                Iterator<GPUImageFilter> filterIterator = mMergedFilters.iterator();
-                boolean first = true;
-                boolean last;
-                int previousTexture = textureId;
-                int size = mMergedFilters.size();
-                int i = 0;
-                while (filterIterator.hasNext()) {
-                    GPUImageFilter filter = filterIterator.next();
-                    last = filterIterator.hasNext() == false;
-                    if (!last) {
-                        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, mFrameBuffers[i]);
-                        GLES20.glClearColor(0, 0, 0, 0);
-                    }
-
-                    if (first) {
-                        filter.onDraw(previousTexture, cubeBuffer, textureBuffer);
-                        first = false;
-                    } else if (last) {
-                        filter.onDraw(previousTexture, mGLCubeBuffer, (size % 2 == 0) ? mGLTextureFlipBuffer : mGLTextureBuffer);
-                    } else {
-                        filter.onDraw(previousTexture, mGLCubeBuffer, mGLTextureBuffer);
-                    }
-
-                    if (!last) {
-                        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
-                        previousTexture = mFrameBufferTextures[i];
-                    }
-                    i++;
+            // Called every frame by the renderer, so no iterator
+            for (int i = 0; i < mMergedFilters.size(); i++) {
+                if (!mMergedFilters.get(i).isIdentity()) {
+                    return false;
                 }
             }
+            return true;
         }
-     }
+    }
+
+    /**
+     * @return the sum of the radii of the filters, as each pass samples the output of the last
+     */
+    @Override
+    public int getSamplingRadius() {
+        synchronized (mFilters) {
+            int radius = 0;
+            for (GPUImageFilter filter : mFilters) {
+                int filterRadius = filter.getSamplingRadius();
+                if (filterRadius == SAMPLING_RADIUS_UNBOUNDED) {
+                    return SAMPLING_RADIUS_UNBOUNDED;
+                }
+                radius += filterRadius;
+            }
+            return radius;
+        }
+    }
 
     /**
      * Safely get the filter at index.
@@ -295,6 +440,7 @@ public class GPUImageFilterGroup extends GPUImageFilter {
             List<GPUImageFilter> filters;
             for (GPUImageFilter filter : mFilters) {
                 if (filter instanceof GPUImageFilterGroup) {
+                    ((GPUImageFilterGroup) filter).setFrameBufferPool(mFrameBufferPool);
                     ((GPUImageFilterGroup) filter).updateMergedFilters();
                     filters = ((GPUImageFilterGroup) filter).getMergedFilters();
                     if (filters == null || filters.isEmpty())
@@ -304,8 +450,249 @@ public class GPUImageFilterGroup extends GPUImageFilter {
                 }
                 mMergedFilters.add(filter);
             }
-            // Trigger texture updates on the next draw to guarantee thread owns the OpenGL context
-            mFrameNeedsRefresh.getAndSet(true);
+            mPassFiltersNeedRebuild.set(true);
+        }
+    }
+
+    /**
+     * Derives mPassFilters from mMergedFilters. Synthesized filters whose run is unchanged are
+     * kept, so e.g. a slider passing a neutral value only rebuilds the runs next to its
+     * filter. Must be called on the OpenGL thread.
+     */
+    private void rebuildPassFilters() {
+        mStaleFilters.addAll(mSynthesizedFilters);
+        mSynthesizedFilters.clear();
+        mPassFilters.clear();
+        buildPassFilters();
+        for (GPUImageFilter filter : mStaleFilters) {
+            filter.destroy();
+        }
+        mStaleFilters.clear();
+    }
+
+    private void buildPassFilters() {
+        if (mMergedFilters == null) {
+            return;
+        }
+        // Filters which pass their input through unchanged are not drawn at all
+        int size = mMergedFilters.size();
+        mIdentityFilters = new boolean[size];
+        List<GPUImageFilter> passes = new ArrayList<GPUImageFilter>(size);
+        for (int i = 0; i < size; i++) {
+            GPUImageFilter filter = mMergedFilters.get(i);
+            mIdentityFilters[i] = filter.isIdentity();
+            if (!mIdentityFilters[i]) {
+                passes.add(filter);
+            }
+        }
+        if (passes.isEmpty() && size > 0) {
+            // Still copy the input to the output
+            passes.add(obtainMerged(COPY, passes));
+            mPassFilters.addAll(passes);
+            return;
+        }
+        if (mLookupBakingEnabled) {
+            passes = bakeLookups(passes);
+        }
+        if (mColorMatrixFoldingEnabled) {
+            passes = foldColorMatrices(passes);
+        }
+        if (mShaderFusionEnabled) {
+            passes = fuseShaders(passes);
         }
+        mPassFilters.addAll(passes);
     }
+
+    private boolean identityFiltersChanged() {
+        if (mMergedFilters == null || mMergedFilters.size() != mIdentityFilters.length) {
+            return true;
+        }
+        for (int i = 0; i < mIdentityFilters.length; i++) {
+            if (mMergedFilters.get(i).isIdentity() != mIdentityFilters[i]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private List<GPUImageFilter> bakeLookups(final List<GPUImageFilter> filters) {
+        return mergeRuns(filters, new RunMerger() {
+            @Override
+            public boolean accepts(final GPUImageFilter filter, final boolean first) {
+                return GPUImageBakedLookupFilter.canBake(filter);
+            }
+
+            @Override
+            public boolean matches(final GPUImageFilter filter, final List<GPUImageFilter> run) {
+                return filter instanceof GPUImageBakedLookupFilter
+                        && ((GPUImageBakedLookupFilter) filter).getStages().equals(run)
+                        && ((GPUImageBakedLookupFilter) filter).getTolerance()
+                                == mLookupBakingTolerance;
+            }
+
+            @Override
+            public GPUImageFilter merge(final List<GPUImageFilter> run) {
+                return new GPUImageBakedLookupFilter(run, mFrameBufferPool,
+                        mLookupBakingTolerance);
+            }
+        });
+    }
+
+    private List<GPUImageFilter> foldColorMatrices(final List<GPUImageFilter> filters) {
+        return mergeRuns(filters, new RunMerger() {
+            @Override
+            public boolean accepts(final GPUImageFilter filter, final boolean first) {
+                return GPUImageFoldedColorFilter.canFold(filter);
+            }
+
+            @Override
+            public boolean matches(final GPUImageFilter filter, final List<GPUImageFilter> run) {
+                return filter instanceof GPUImageFoldedColorFilter
+                        && ((GPUImageFoldedColorFilter) filter).getStages().equals(run);
+            }
+
+            @Override
+            public GPUImageFilter merge(final List<GPUImageFilter> run) {
+                return new GPUImageFoldedColorFilter(run);
+            }
+        });
+    }
+
+    private List<GPUImageFilter> fuseShaders(final List<GPUImageFilter> filters) {
+        return mergeRuns(filters, new RunMerger() {
+            @Override
+            public boolean accepts(final GPUImageFilter filter, final boolean first) {
+                return GPUImageFusedFilter.canFuse(filter, first);
+            }
+
+            @Override
+            public boolean matches(final GPUImageFilter filter, final List<GPUImageFilter> run) {
+                return filter instanceof GPUImageFusedFilter
+                        && ((GPUImageFusedFilter) filter).getStages().equals(run);
+            }
+
+            @Override
+            public GPUImageFilter merge(final List<GPUImageFilter> run) {
+                return new GPUImageFusedFilter(run);
+            }
+        });
+    }
+
+    /**
+     * Replaces every run of at least two initialized filters accepted by the merger with the
+     * filter it merges them into.
+     */
+    private List<GPUImageFilter> mergeRuns(final List<GPUImageFilter> filters,
+                                           final RunMerger merger) {
+        List<GPUImageFilter> passes = new ArrayList<GPUImageFilter>();
+        int size = filters.size();
+        int start = 0;
+        while (start < size) {
+            int end = start;
+            while (end < size && filters.get(end).isInitialized()
+                    && merger.accepts(filters.get(end), end == start)) {
+                end++;
+            }
+            if (end - start < 2) {
+                passes.add(filters.get(start));
+                start++;
+                continue;
+            }
+            passes.add(obtainMerged(merger, filters.subList(start, end)));
+            start = end;
+        }
+        return passes;
+    }
+
+    /**
+     * Returns the filter of the previous build for the run if there is one, otherwise merges
+     * the run into a new filter.
+     */
+    private GPUImageFilter obtainMerged(final RunMerger merger, final List<GPUImageFilter> run) {
+        for (int i = 0; i < mStaleFilters.size(); i++) {
+            GPUImageFilter filter = mStaleFilters.get(i);
+            if (merger.matches(filter, run)) {
+                mStaleFilters.remove(i);
+                mSynthesizedFilters.add(filter);
+                return filter;
+            }
+        }
+        return synthesize(merger.merge(run));
+    }
+
+    /**
+     * Initializes a filter created by this group and registers it for destruction.
+     */
+    private GPUImageFilter synthesize(final GPUImageFilter filter) {
+        filter.init();
+        filter.onOutputSizeChanged(getOutputWidth(), getOutputHeight());
+        mSynthesizedFilters.add(filter);
+        return filter;
+    }
+
+    private void destroySynthesizedFilters() {
+        for (GPUImageFilter filter : mSynthesizedFilters) {
+            filter.destroy();
+        }
+        mSynthesizedFilters.clear();
+    }
+
+    /**
+     * @return the pool intermediate framebuffers of this group are leased from
+     */
+    public GPUImageFrameBufferPool getFrameBufferPool() {
+        return mFrameBufferPool;
+    }
+
+    /**
+     * Sets the pool intermediate framebuffers are leased from. Nested groups are handed the
+     * pool of their parent so the whole tree shares its render targets.
+     *
+     * @param frameBufferPool the pool to use
+     */
+    public void setFrameBufferPool(GPUImageFrameBufferPool frameBufferPool) {
+        if (frameBufferPool == null) {
+            return;
+        }
+        synchronized (mFilters) {
+            mFrameBufferPool = frameBufferPool;
+            mPassFiltersNeedRebuild.set(true);
+            for (GPUImageFilter filter : mFilters) {
+                if (filter instanceof GPUImageFilterGroup) {
+                    ((GPUImageFilterGroup) filter).setFrameBufferPool(frameBufferPool);
+                }
+            }
+        }
+    }
+
+    private interface RunMerger {
+        boolean accepts(GPUImageFilter filter, boolean first);
+
+        GPUImageFilter merge(List<GPUImageFilter> run);
+
+        /**
+         * @return true if the filter was synthesized by this merger from an equal run
+         */
+        boolean matches(GPUImageFilter filter, List<GPUImageFilter> run);
+    }
+
+    /**
+     * Copies the input to the output when all filters are identities, the run is empty.
+     */
+    private static final RunMerger COPY = new RunMerger() {
+        @Override
+        public boolean accepts(final GPUImageFilter filter, final boolean first) {
+            return false;
+        }
+
+        @Override
+        public GPUImageFilter merge(final List<GPUImageFilter> run) {
+            return new GPUImageFilter();
+        }
+
+        @Override
+        public boolean matches(final GPUImageFilter filter, final List<GPUImageFilter> run) {
+            return filter.getClass() == GPUImageFilter.class;
+        }
+    };
 }
@@ -0,0 +1,481 @@
+/*
+ * Copyright (C) 2012 CyberAgent
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.co.cyberagent.android.gpuimage;
+
+import android.annotation.TargetApi;
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+import android.os.Build;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Measures how long every filter takes to draw, so expensive filters of a chain can be found
+ * in the field.
+ * <p>
+ * Each pass of a {@link GPUImageFilterGroup} and the filter drawn by
+ * {@link GPUImageRenderer#onDrawFrame} is timed exclusively, i.e. a group is only charged for
+ * the work between its passes. With EXT_disjoint_timer_query on an OpenGL ES 3.0 context the
+ * GPU time of a pass is measured with timer queries, whose results are collected a few frames
+ * later; otherwise the CPU time between two glFinish calls is measured, which stalls the
+ * pipeline and makes the frame itself slower. Durations are kept for a rolling window of frames
+ * per filter instance and per filter class, and reported to a listener as percentiles every
+ * few frames. Filters not drawn for a whole window, e.g. the passes of a group that was
+ * replaced, are forgotten and no longer reported.
+ * <p>
+ * Install with {@link GPUImage#setFilterProfiler(GPUImageFilterProfiler)}. Must only be used by
+ * a single renderer at a time.
+ */
+public class GPUImageFilterProfiler {
+    private static final int GL_TIME_ELAPSED_EXT = 0x88BF;
+    private static final int GL_GPU_DISJOINT_EXT = 0x8FBB;
+    private static final int MAX_DEPTH = 16;
+
+    private static volatile GPUImageFilterProfiler sCurrent;
+
+    private final Listener mListener;
+    private final int mWindowSize;
+    private final int mReportInterval;
+    private final ArrayList<Site> mSites = new ArrayList<Site>();
+    private final Site mFrameSite;
+    private final Site[] mStack = new Site[MAX_DEPTH];
+    private final float[] mScratch;
+    private int mDepth;
+    private Thread mThread;
+    private long mFrame;
+    private long mReportedFrame;
+    private boolean mUseTimerQueries;
+    private boolean mTimerQueriesChecked;
+    private boolean mGpuTimingEnabled = true;
+
+    // CPU timing
+    private long mSegmentStart;
+
+    // GPU timing: queries in flight in the order they were issued
+    private final int[] mQueryResult = new int[1];
+    private int[] mFreeQueries = new int[32];
+    private int mFreeQueryCount;
+    private int[] mPendingQueries = new int[64];
+    private Site[] mPendingSites = new Site[64];
+    private long[] mPendingFrames = new long[64];
+    private int mPendingHead;
+    private int mPendingCount;
+    private long mCollectingFrame = -1;
+
+    /**
+     * @param listener       notified on the render thread with the statistics
+     * @param windowSize     the number of frames percentiles are computed over
+     * @param reportInterval the number of frames between two reports
+     */
+    public GPUImageFilterProfiler(final Listener listener, final int windowSize,
+                                  final int reportInterval) {
+        mListener = listener;
+        mWindowSize = windowSize;
+        mReportInterval = reportInterval;
+        mScratch = new float[windowSize];
+        mFrameSite = new Site("frame", null, null, windowSize);
+    }
+
+    /**
+     * Creates a profiler reporting every 60 frames over the last 300 frames.
+     */
+    public GPUImageFilterProfiler(final Listener listener) {
+        this(listener, 300, 60);
+    }
+
+    /**
+     * Called on the render thread with the statistics of the rolling window.
+     */
+    public interface Listener {
+        /**
+         * @param filters statistics per filter instance
+         * @param classes statistics per filter class, summing all instances of a frame
+         * @param frame   statistics of all filters of a frame together
+         */
+        void onFilterProfile(List<Stats> filters, List<Stats> classes, Stats frame);
+    }
+
+    /**
+     * Draw durations of a filter instance, a filter class or a whole frame, in milliseconds.
+     */
+    public static final class Stats {
+        public final String name;
+        public final Class<?> filterClass;
+        public final int sampleCount;
+        public final float mean;
+        public final float p50;
+        public final float p90;
+        public final float p99;
+        public final float max;
+
+        Stats(final String name, final Class<?> filterClass, final float[] sorted,
+              final int count) {
+            this.name = name;
+            this.filterClass = filterClass;
+            sampleCount = count;
+            float sum = 0;
+            for (int i = 0; i < count; i++) {
+                sum += sorted[i];
+            }
+            mean = count > 0 ? sum / count : 0;
+            p50 = percentile(sorted, count, 0.5f);
+            p90 = percentile(sorted, count, 0.9f);
+            p99 = percentile(sorted, count, 0.99f);
+            max = count > 0 ? sorted[count - 1] : 0;
+        }
+
+        private static float percentile(final float[] sorted, final int count,
+                                        final float fraction) {
+            if (count == 0) {
+                return 0;
+            }
+            return sorted[Math.min(count - 1, (int) (fraction * count))];
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s: p50 %.2fms p90 %.2fms p99 %.2fms max %.2fms (%d)",
+                    name, p50, p90, p99, max, sampleCount);
+        }
+    }
+
+    /**
+     * Enables GPU timer queries if the context supports them, otherwise glFinish and CPU
+     * timestamps are used. Enabled by default. Takes effect with the next renderer context.
+     */
+    public void setGpuTimingEnabled(final boolean enabled) {
+        mGpuTimingEnabled = enabled;
+        mTimerQueriesChecked = false;
+    }
+
+    /**
+     * @return true if GPU timer queries are used, valid after the first profiled frame
+     */
+    public boolean isUsingTimerQueries() {
+        return mUseTimerQueries;
+    }
+
+    /**
+     * @return the profiler of the frame being drawn on the calling thread, or null
+     */
+    static GPUImageFilterProfiler current() {
+        GPUImageFilterProfiler profiler = sCurrent;
+        return profiler != null && profiler.mThread == Thread.currentThread() ? profiler : null;
+    }
+
+    /**
+     * Forgets the timer queries in flight, as the context they belonged to is gone.
+     */
+    void onContextCreated() {
+        mFreeQueryCount = 0;
+        mPendingCount = 0;
+        mPendingHead = 0;
+        mCollectingFrame = -1;
+        mTimerQueriesChecked = false;
+    }
+
+    void beginFrame() {
+        mThread = Thread.currentThread();
+        if (!mTimerQueriesChecked) {
+            mTimerQueriesChecked = true;
+            mUseTimerQueries = mGpuTimingEnabled && supportsTimerQueries();
+        }
+        if (mUseTimerQueries) {
+            collectQueries();
+        }
+        mDepth = 0;
+        sCurrent = this;
+    }
+
+    void endFrame() {
+        while (mDepth > 0) {
+            end();
+        }
+        sCurrent = null;
+        if (!mUseTimerQueries) {
+            commitFrame(mFrame);
+        }
+        mFrame++;
+        if (mFrame - mReportedFrame >= mReportInterval) {
+            mReportedFrame = mFrame;
+            report();
+        }
+    }
+
+    /**
+     * Charges the time from now on to the given filter, until the matching {@link #end()}.
+     */
+    void begin(final GPUImageFilter filter) {
+        if (mDepth > 0 && mDepth <= MAX_DEPTH) {
+            stopSegment(mStack[mDepth - 1]);
+        }
+        Site site = siteOf(filter);
+        if (mDepth < MAX_DEPTH) {
+            mStack[mDepth] = site;
+            startSegment(site);
+        }
+        mDepth++;
+    }
+
+    void end() {
+        mDepth--;
+        if (mDepth < MAX_DEPTH) {
+            stopSegment(mStack[mDepth]);
+            mStack[mDepth] = null;
+        }
+        if (mDepth > 0 && mDepth <= MAX_DEPTH) {
+            startSegment(mStack[mDepth - 1]);
+        }
+    }
+
+    @TargetApi(18)
+    private void startSegment(final Site site) {
+        if (mUseTimerQueries) {
+            int query = obtainQuery();
+            GLES30.glBeginQuery(GL_TIME_ELAPSED_EXT, query);
+            enqueue(query, site);
+        } else {
+            GLES20.glFinish();
+            mSegmentStart = System.nanoTime();
+        }
+    }
+
+    @TargetApi(18)
+    private void stopSegment(final Site site) {
+        if (mUseTimerQueries) {
+            GLES30.glEndQuery(GL_TIME_ELAPSED_EXT);
+        } else {
+            GLES20.glFinish();
+            site.frameNanos += System.nanoTime() - mSegmentStart;
+        }
+    }
+
+    /**
+     * Accumulates the results of finished queries, committing a frame once all of its queries
+     * are done. Frames during which the GPU was disjoint, e.g. because of a frequency change,
+     * are dropped.
+     */
+    @TargetApi(18)
+    private void collectQueries() {
+        GLES20.glGetIntegerv(GL_GPU_DISJOINT_EXT, mQueryResult, 0);
+        boolean disjoint = mQueryResult[0] != 0;
+        while (mPendingCount > 0) {
+            int query = mPendingQueries[mPendingHead];
+            GLES30.glGetQueryObjectuiv(query, GLES30.GL_QUERY_RESULT_AVAILABLE, mQueryResult, 0);
+            if (mQueryResult[0] == 0) {
+                break;
+            }
+            long frame = mPendingFrames[mPendingHead];
+            if (frame != mCollectingFrame) {
+                if (mCollectingFrame >= 0) {
+                    commitFrame(mCollectingFrame);
+                }
+                mCollectingFrame = frame;
+            }
+            GLES30.glGetQueryObjectuiv(query, GLES30.GL_QUERY_RESULT, mQueryResult, 0);
+            mPendingSites[mPendingHead].frameNanos += mQueryResult[0] & 0xffffffffL;
+            mPendingSites[mPendingHead] = null;
+            releaseQuery(query);
+            mPendingHead = (mPendingHead + 1) % mPendingQueries.length;
+            mPendingCount--;
+        }
+        if (disjoint) {
+            for (int i = 0; i < mSites.size(); i++) {
+                mSites.get(i).frameNanos = 0;
+            }
+        }
+    }
+
+    @TargetApi(18)
+    private int obtainQuery() {
+        if (mFreeQueryCount == 0) {
+            GLES30.glGenQueries(mFreeQueries.length, mFreeQueries, 0);
+            mFreeQueryCount = mFreeQueries.length;
+        }
+        return mFreeQueries[--mFreeQueryCount];
+    }
+
+    private void releaseQuery(final int query) {
+        if (mFreeQueryCount == mFreeQueries.length) {
+            int[] queries = new int[mFreeQueries.length * 2];
+            System.arraycopy(mFreeQueries, 0, queries, 0, mFreeQueryCount);
+            mFreeQueries = queries;
+        }
+        mFreeQueries[mFreeQueryCount++] = query;
+    }
+
+    private void enqueue(final int query, final Site site) {
+        if (mPendingCount == mPendingQueries.length) {
+            int capacity = mPendingQueries.length * 2;
+            int[] queries = new int[capacity];
+            Site[] sites = new Site[capacity];
+            long[] frames = new long[capacity];
+            for (int i = 0; i < mPendingCount; i++) {
+                int index = (mPendingHead + i) % mPendingQueries.length;
+                queries[i] = mPendingQueries[index];
+                sites[i] = mPendingSites[index];
+                frames[i] = mPendingFrames[index];
+            }
+            mPendingQueries = queries;
+            mPendingSites = sites;
+            mPendingFrames = frames;
+            mPendingHead = 0;
+        }
+        int tail = (mPendingHead + mPendingCount) % mPendingQueries.length;
+        mPendingQueries[tail] = query;
+        mPendingSites[tail] = site;
+        mPendingFrames[tail] = mFrame;
+        mPendingCount++;
+    }
+
+    /**
+     * Moves the durations accumulated for a frame into the rolling windows.
+     */
+    private void commitFrame(final long frame) {
+        long total = 0;
+        for (int i = 0; i < mSites.size(); i++) {
+            Site site = mSites.get(i);
+            if (site.filter != null) {
+                site.classSite.frameNanos += site.frameNanos;
+                total += site.frameNanos;
+            }
+        }
+        for (int i = 0; i < mSites.size(); i++) {
+            Site site = mSites.get(i);
+            if (site.lastFrame >= frame - 1 || site.frameNanos > 0) {
+                site.add(site.frameNanos);
+                site.lastFrame = frame;
+            }
+            site.frameNanos = 0;
+        }
+        mFrameSite.add(total);
+        evictSites();
+    }
+
+    /**
+     * Drops the sites not drawn for a whole window, and with them their filters, so neither
+     * replaced filters are kept alive nor the lists walked every frame keep growing.
+     */
+    private void evictSites() {
+        long oldest = mFrame - mWindowSize;
+        int kept = 0;
+        for (int i = 0; i < mSites.size(); i++) {
+            Site site = mSites.get(i);
+            if (site.lastSeen >= oldest) {
+                mSites.set(kept++, site);
+            }
+        }
+        for (int i = mSites.size() - 1; i >= kept; i--) {
+            mSites.remove(i);
+        }
+    }
+
+    private Site siteOf(final GPUImageFilter filter) {
+        for (int i = 0; i < mSites.size(); i++) {
+            Site site = mSites.get(i);
+            if (site.filter == filter) {
+                site.lastSeen = mFrame;
+                site.classSite.lastSeen = mFrame;
+                return site;
+            }
+        }
+        Class<?> filterClass = filter.getClass();
+        Site classSite = null;
+        for (int i = 0; i < mSites.size(); i++) {
+            Site site = mSites.get(i);
+            if (site.filter == null && site.filterClass == filterClass) {
+                classSite = site;
+                break;
+            }
+        }
+        if (classSite == null) {
+            classSite = new Site(filterClass.getSimpleName(), filterClass, null, mWindowSize);
+            mSites.add(classSite);
+        }
+        classSite.lastSeen = mFrame;
+        Site site = new Site(filterClass.getSimpleName() + "@"
+                + Integer.toHexString(System.identityHashCode(filter)), filterClass, filter,
+                mWindowSize);
+        site.classSite = classSite;
+        site.lastSeen = mFrame;
+        mSites.add(site);
+        return site;
+    }
+
+    private void report() {
+        if (mListener == null) {
+            return;
+        }
+        List<Stats> filters = new ArrayList<Stats>();
+        List<Stats> classes = new ArrayList<Stats>();
+        for (int i = 0; i < mSites.size(); i++) {
+            Site site = mSites.get(i);
+            if (site.count == 0) {
+                continue;
+            }
+            (site.filter != null ? filters : classes).add(site.stats(mScratch));
+        }
+        mListener.onFilterProfile(Collections.unmodifiableList(filters),
+                Collections.unmodifiableList(classes), mFrameSite.stats(mScratch));
+    }
+
+    private static boolean supportsTimerQueries() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN_MR2) {
+            return false;
+        }
+        String version = GLES20.glGetString(GLES20.GL_VERSION);
+        String extensions = GLES20.glGetString(GLES20.GL_EXTENSIONS);
+        return version != null && version.startsWith("OpenGL ES 3")
+                && extensions != null && extensions.contains("GL_EXT_disjoint_timer_query");
+    }
+
+    private static final class Site {
+        final String name;
+        final Class<?> filterClass;
+        final GPUImageFilter filter;
+        final float[] window;
+        Site classSite;
+        long frameNanos;
+        long lastFrame = -2;
+        long lastSeen;
+        int count;
+        int position;
+
+        Site(final String name, final Class<?> filterClass, final GPUImageFilter filter,
+             final int windowSize) {
+            this.name = name;
+            this.filterClass = filterClass;
+            this.filter = filter;
+            window = new float[windowSize];
+        }
+
+        void add(final long nanos) {
+            window[position] = nanos / 1000000.0f;
+            position = (position + 1) % window.length;
+            count = Math.min(count + 1, window.length);
+        }
+
+        Stats stats(final float[] scratch) {
+            System.arraycopy(window, 0, scratch, 0, count);
+            Arrays.sort(scratch, 0, count);
+            return new Stats(name, filterClass, scratch, count);
+        }
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright (C) 2012 CyberAgent
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.co.cyberagent.android.gpuimage;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Applies a run of {@link GPUImageAffineColorFilter}s as a single matrix and offset.
+ * <p>
+ * The stages stay the source of truth for their parameters, the product is recomputed on the
+ * CPU whenever one of them changes. The stages have to be initialized, they are neither
+ * initialized nor destroyed by this filter.
+ */
+class GPUImageFoldedColorFilter extends GPUImageFilter implements GPUImagePointwiseFilter {
+    public static final String FOLDED_COLOR_FRAGMENT_SHADER = "" +
+            "varying highp vec2 textureCoordinate;\n" +
+            "\n" +
+            "uniform sampler2D inputImageTexture;\n" +
+            "\n" +
+            "uniform highp mat4 colorMatrix;\n" +
+            "uniform highp vec4 colorOffset;\n" +
+            "\n" +
+            "void main()\n" +
+            "{\n" +
+            "    highp vec4 textureColor = texture2D(inputImageTexture, textureCoordinate);\n" +
+            "    \n" +
+            "    gl_FragColor = textureColor * colorMatrix + colorOffset;\n" +
+            "}";
+
+    public static final String FOLDED_COLOR_COLOR_TRANSFORM = "" +
+            "    color = color * colorMatrix + colorOffset;\n";
+
+    private final List<GPUImageFilter> mStages;
+    private final int[] mStageVersions;
+    private final float[] mMatrix = new float[16];
+    private final float[] mOffset = new float[4];
+    private final float[] mStageMatrix = new float[16];
+    private final float[] mStageOffset = new float[4];
+    private final float[] mTemp = new float[20];
+    private int mColorMatrixLocation;
+    private int mColorOffsetLocation;
+
+    GPUImageFoldedColorFilter(final List<GPUImageFilter> stages) {
+        super(NO_FILTER_VERTEX_SHADER, FOLDED_COLOR_FRAGMENT_SHADER);
+        mStages = new ArrayList<GPUImageFilter>(stages);
+        mStageVersions = new int[stages.size()];
+    }
+
+    static boolean canFold(final GPUImageFilter filter) {
+        return filter instanceof GPUImageAffineColorFilter;
+    }
+
+    List<GPUImageFilter> getStages() {
+        return mStages;
+    }
+
+    @Override
+    public void onInit() {
+        super.onInit();
+        mColorMatrixLocation = OpenGlUtils.getUniformLocation(getProgram(), "colorMatrix");
+        mColorOffsetLocation = OpenGlUtils.getUniformLocation(getProgram(), "colorOffset");
+    }
+
+    @Override
+    public void onInitialized() {
+        super.onInitialized();
+        fold();
+    }
+
+    /*
+     * Also runs when this filter is a stage of a fused pass, so the product is up to date
+     * before its uniforms are copied.
+     */
+    @Override
+    protected void runPendingOnDrawTasks() {
+        super.runPendingOnDrawTasks();
+        boolean changed = false;
+        for (int i = 0; i < mStages.size(); i++) {
+            GPUImageFilter stage = mStages.get(i);
+            stage.runPendingOnDrawTasks();
+            if (stage.getStateVersion() != mStageVersions[i]) {
+                changed = true;
+            }
+        }
+        if (changed) {
+            fold();
+        }
+    }
+
+    private void fold() {
+        setIdentity(mMatrix, mOffset);
+        for (int i = 0; i < mStages.size(); i++) {
+            GPUImageFilter stage = mStages.get(i);
+            mStageVersions[i] = stage.getStateVersion();
+            setIdentity(mStageMatrix, mStageOffset);
+            ((GPUImageAffineColorFilter) stage).getColorMatrix(mStageMatrix, mStageOffset);
+            concat(mStageMatrix, mStageOffset, mMatrix, mOffset, mTemp);
+        }
+        setUniformMatrix4f(mColorMatrixLocation, mMatrix);
+        setFloatVec4(mColorOffsetLocation, mOffset);
+    }
+
+    @Override
+    public String getColorTransform() {
+        return FOLDED_COLOR_COLOR_TRANSFORM;
+    }
+
+    /**
+     * Sets a row-major matrix and offset to the identity transform.
+     */
+    static void setIdentity(final float[] matrix, final float[] offset) {
+        for (int i = 0; i < 16; i++) {
+            matrix[i] = i % 5 == 0 ? 1.0f : 0.0f;
+        }
+        for (int i = 0; i < 4; i++) {
+            offset[i] = 0.0f;
+        }
+    }
+
+    /**
+     * Replaces the transform ({@code matrix}, {@code offset}) with the transform applying it
+     * first and ({@code nextMatrix}, {@code nextOffset}) second, i.e.
+     * {@code matrix = nextMatrix * matrix} and {@code offset = nextMatrix * offset + nextOffset}.
+     *
+     * @param temp 20 values of scratch space
+     */
+    static void concat(final float[] nextMatrix, final float[] nextOffset,
+                       final float[] matrix, final float[] offset, final float[] temp) {
+        for (int row = 0; row < 4; row++) {
+            for (int column = 0; column < 4; column++) {
+                float sum = 0.0f;
+                for (int k = 0; k < 4; k++) {
+                    sum += nextMatrix[row * 4 + k] * matrix[k * 4 + column];
+                }
+                temp[row * 4 + column] = sum;
+            }
+        }
+        for (int row = 0; row < 4; row++) {
+            float sum = nextOffset[row];
+            for (int k = 0; k < 4; k++) {
+                sum += nextMatrix[row * 4 + k] * offset[k];
+            }
+            temp[16 + row] = sum;
+        }
+        System.arraycopy(temp, 0, matrix, 0, 16);
+        System.arraycopy(temp, 16, offset, 0, 4);
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright (C) 2012 CyberAgent
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.co.cyberagent.android.gpuimage;
+
+import android.opengl.GLES20;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * An offscreen render target: a framebuffer object with a single texture attached as
+ * color attachment. Instances are handed out by {@link GPUImageFrameBufferPool}.
+ * <p>
+ * Textures are shared between contexts of a share group, framebuffer objects are not. When
+ * bound in another context than the one it was created in, e.g. by a
+ * {@link GPUImageRenderWorker} drawing a filter of the preview, the texture is attached to a
+ * framebuffer object of that context. Framebuffer objects of another context are deleted by
+ * that context, see {@link #deleteOrphans()}.
+ */
+public class GPUImageFrameBuffer {
+    /**
+     * Identifies the context current on each thread. Code making another context current has
+     * to call {@link #onContextCreated()}, as the renderer does.
+     */
+    private static final ThreadLocal<Object> sContext = new ThreadLocal<Object>() {
+        @Override
+        protected Object initialValue() {
+            return new Object();
+        }
+    };
+
+    private static final Map<Object, List<Integer>> sOrphans =
+            new WeakHashMap<Object, List<Integer>>();
+    // Contexts with orphans, read without locking
+    private static volatile int sOrphanCount;
+
+    private final int mWidth;
+    private final int mHeight;
+    private final int mFormat;
+    private final Object mContext;
+    private final int[] mFrameBuffer = new int[1];
+    private final int[] mTexture = new int[1];
+    private Map<Object, Integer> mSharedFrameBuffers;
+
+    GPUImageFrameBuffer(final int width, final int height, final int format) {
+        mWidth = width;
+        mHeight = height;
+        mFormat = format;
+        mContext = sContext.get();
+
+        GLES20.glGenFramebuffers(1, mFrameBuffer, 0);
+        GLES20.glGenTextures(1, mTexture, 0);
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, mTexture[0]);
+        GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, format, width, height, 0,
+                format, GLES20.GL_UNSIGNED_BYTE, null);
+        GLES20.glTexParameterf(GLES20.GL_TEXTURE_2D,
+                GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
+        GLES20.glTexParameterf(GLES20.GL_TEXTURE_2D,
+                GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR);
+        GLES20.glTexParameterf(GLES20.GL_TEXTURE_2D,
+                GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
+        GLES20.glTexParameterf(GLES20.GL_TEXTURE_2D,
+                GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
+
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, mFrameBuffer[0]);
+        GLES20.glFramebufferTexture2D(GLES20.GL_FRAMEBUFFER, GLES20.GL_COLOR_ATTACHMENT0,
+                GLES20.GL_TEXTURE_2D, mTexture[0], 0);
+
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
+    }
+
+    /**
+     * @return the framebuffer object to bind in the current context
+     */
+    public int getFrameBufferId() {
+        Object context = sContext.get();
+        return context == mContext ? mFrameBuffer[0] : getSharedFrameBufferId(context);
+    }
+
+    public int getTextureId() {
+        return mTexture[0];
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    public int getFormat() {
+        return mFormat;
+    }
+
+    boolean matches(final int width, final int height, final int format) {
+        return mWidth == width && mHeight == height && mFormat == format;
+    }
+
+    void destroy() {
+        GLES20.glDeleteTextures(1, mTexture, 0);
+        Object context = sContext.get();
+        deleteFrameBuffer(mContext, mFrameBuffer[0], context);
+        synchronized (this) {
+            if (mSharedFrameBuffers != null) {
+                for (Map.Entry<Object, Integer> entry : mSharedFrameBuffers.entrySet()) {
+                    deleteFrameBuffer(entry.getKey(), entry.getValue(), context);
+                }
+                mSharedFrameBuffers = null;
+            }
+        }
+    }
+
+    private synchronized int getSharedFrameBufferId(final Object context) {
+        if (mSharedFrameBuffers == null) {
+            mSharedFrameBuffers = new WeakHashMap<Object, Integer>();
+        }
+        Integer frameBuffer = mSharedFrameBuffers.get(context);
+        if (frameBuffer == null) {
+            int[] ids = new int[1];
+            int[] binding = new int[1];
+            GLES20.glGetIntegerv(GLES20.GL_FRAMEBUFFER_BINDING, binding, 0);
+            GLES20.glGenFramebuffers(1, ids, 0);
+            GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, ids[0]);
+            GLES20.glFramebufferTexture2D(GLES20.GL_FRAMEBUFFER, GLES20.GL_COLOR_ATTACHMENT0,
+                    GLES20.GL_TEXTURE_2D, mTexture[0], 0);
+            // Created while drawing, the caller may have a target bound
+            GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, binding[0]);
+            frameBuffer = ids[0];
+            mSharedFrameBuffers.put(context, frameBuffer);
+        }
+        return frameBuffer;
+    }
+
+    private static void deleteFrameBuffer(final Object owner, final int frameBuffer,
+            final Object context) {
+        if (owner == context) {
+            GLES20.glDeleteFramebuffers(1, new int[] {frameBuffer}, 0);
+            return;
+        }
+        synchronized (sOrphans) {
+            List<Integer> orphans = sOrphans.get(owner);
+            if (orphans == null) {
+                orphans = new ArrayList<Integer>();
+                sOrphans.put(owner, orphans);
+            }
+            orphans.add(frameBuffer);
+            sOrphanCount = sOrphans.size();
+        }
+    }
+
+    /**
+     * Deletes the framebuffer objects of the current context whose framebuffer was destroyed
+     * in another context. Called regularly by the owners of contexts, cheap if there are none.
+     */
+    static void deleteOrphans() {
+        if (sOrphanCount == 0) {
+            return;
+        }
+        List<Integer> orphans;
+        synchronized (sOrphans) {
+            orphans = sOrphans.remove(sContext.get());
+            // Also drops the orphans of contexts which are gone
+            sOrphanCount = sOrphans.size();
+            if (orphans == null) {
+                return;
+            }
+        }
+        int[] ids = new int[orphans.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = orphans.get(i);
+        }
+        GLES20.glDeleteFramebuffers(ids.length, ids, 0);
+    }
+
+    /**
+     * Tells framebuffers that a new context is current on this thread. Framebuffer objects of
+     * the previous one are gone with it.
+     */
+    static void onContextCreated() {
+        sContext.set(new Object());
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2012 CyberAgent
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.co.cyberagent.android.gpuimage;
+
+import android.opengl.GLES20;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Pool of {@link GPUImageFrameBuffer} instances keyed by width, height and format.
+ * <p>
+ * Framebuffers are leased with {@link #obtain(int, int)} and handed back with
+ * {@link #release(GPUImageFrameBuffer)}. A released framebuffer is kept and given out again
+ * on the next matching request, so a linear filter chain only ever needs two targets which
+ * it ping-pongs between.
+ * <p>
+ * Not thread-safe: all methods must be called on the thread which owns the OpenGL context.
+ */
+public class GPUImageFrameBufferPool {
+    private final List<GPUImageFrameBuffer> mIdleFrameBuffers = new ArrayList<GPUImageFrameBuffer>();
+
+    public GPUImageFrameBuffer obtain(final int width, final int height) {
+        return obtain(width, height, GLES20.GL_RGBA);
+    }
+
+    /**
+     * Leases a framebuffer of the given size and format, creating one if none is idle.
+     *
+     * @param width  width of the framebuffer
+     * @param height height of the framebuffer
+     * @param format texture format, e.g. GLES20.GL_RGBA
+     * @return a framebuffer which must be handed back with {@link #release(GPUImageFrameBuffer)}
+     */
+    public GPUImageFrameBuffer obtain(final int width, final int height, final int format) {
+        for (int i = mIdleFrameBuffers.size() - 1; i >= 0; i--) {
+            GPUImageFrameBuffer frameBuffer = mIdleFrameBuffers.get(i);
+            if (frameBuffer.matches(width, height, format)) {
+                mIdleFrameBuffers.remove(i);
+                return frameBuffer;
+            }
+        }
+        return new GPUImageFrameBuffer(width, height, format);
+    }
+
+    /**
+     * Hands a leased framebuffer back to the pool so it can be reused.
+     *
+     * @param frameBuffer the framebuffer, may be null
+     */
+    public void release(final GPUImageFrameBuffer frameBuffer) {
+        if (frameBuffer == null) {
+            return;
+        }
+        mIdleFrameBuffers.add(frameBuffer);
+    }
+
+    /**
+     * Deletes all idle framebuffers which do not match the given size.
+     *
+     * @param width  width to keep
+     * @param height height to keep
+     */
+    public void trim(final int width, final int height) {
+        for (int i = mIdleFrameBuffers.size() - 1; i >= 0; i--) {
+            GPUImageFrameBuffer frameBuffer = mIdleFrameBuffers.get(i);
+            if (frameBuffer.getWidth() != width || frameBuffer.getHeight() != height) {
+                mIdleFrameBuffers.remove(i);
+                frameBuffer.destroy();
+            }
+        }
+    }
+
+    /**
+     * Deletes all idle framebuffers.
+     */
+    public void purge() {
+        for (int i = 0; i < mIdleFrameBuffers.size(); i++) {
+            mIdleFrameBuffers.get(i).destroy();
+        }
+        mIdleFrameBuffers.clear();
+    }
+}
@@ -0,0 +1,279 @@
+/*
+ * Copyright (C) 2012 CyberAgent
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.co.cyberagent.android.gpuimage;
+
+import java.util.Arrays;
+
+/**
+ * Measures how long camera frames take from capture to the display and how evenly they are
+ * presented.
+ * <p>
+ * Every frame with new camera input is timed at capture (the SurfaceTexture timestamp, or the
+ * arrival of the preview callback), at the start and end of its conversion to RGB, when the
+ * filter has been submitted and when the buffer swap has completed. All times are on the
+ * {@link System#nanoTime()} clock. Each frame is reported to a listener as a {@link Record}, and
+ * the durations of the stages between those points are kept as rolling histograms over a window
+ * of frames.
+ * <p>
+ * Install with {@link GPUImage#setFrameTimings(GPUImageFrameTimings)}. Renderers not hosted by a
+ * GLSurfaceView report the swap with {@link GPUImageRenderer#notifyFramePresented()}; with a
+ * {@link GPUImageSyntheticFrameSource} the pipeline can be measured without a camera. Must only
+ * be used by a single renderer at a time.
+ */
+public class GPUImageFrameTimings {
+    /** Capture until the conversion starts, the time a frame waits for the GL or worker thread. */
+    public static final int STAGE_QUEUE = 0;
+    /** Conversion to RGB, on the CPU worker or the GL thread. */
+    public static final int STAGE_CONVERSION = 1;
+    /** Conversion end until the filter is submitted. */
+    public static final int STAGE_DRAW = 2;
+    /** Submission until the buffer swap has completed. */
+    public static final int STAGE_PRESENT = 3;
+    /** Capture until the buffer swap has completed. */
+    public static final int STAGE_LATENCY = 4;
+    /** Between the swaps of two consecutive frames, the frame pacing. */
+    public static final int STAGE_INTERVAL = 5;
+    public static final int STAGE_COUNT = 6;
+
+    /** Histogram buckets of one millisecond each, the last one counts everything longer. */
+    public static final int BUCKET_COUNT = 101;
+
+    private static final String[] STAGE_NAMES = {
+            "queue", "conversion", "draw", "present", "latency", "interval"
+    };
+
+    private final Listener mListener;
+    private final int mWindowSize;
+    private final Record mRecord = new Record();
+    private final long[][] mDurations;
+    private final int[][] mBuckets = new int[STAGE_COUNT][BUCKET_COUNT];
+    private final long[] mScratch;
+    private int mHead;
+    private int mCount;
+    private long mFrame;
+    private long mLastPresentNanos;
+    private boolean mPending;
+
+    public interface Listener {
+        /**
+         * Called on the GL thread once a frame has been presented. The record is reused for
+         * the next frame and must be copied to be kept.
+         */
+        void onFrameTimed(Record record);
+    }
+
+    /**
+     * The timeline of one frame, on the {@link System#nanoTime()} clock.
+     */
+    public static final class Record {
+        public long frame;
+        public long captureNanos;
+        public long conversionStartNanos;
+        public long conversionEndNanos;
+        public long drawSubmitNanos;
+        public long swapCompleteNanos;
+        /** Since the swap of the previous frame, 0 for the first frame. */
+        public long intervalNanos;
+
+        /**
+         * @param stage one of the STAGE constants
+         */
+        public long getDurationNanos(final int stage) {
+            switch (stage) {
+                case STAGE_QUEUE:
+                    return conversionStartNanos - captureNanos;
+                case STAGE_CONVERSION:
+                    return conversionEndNanos - conversionStartNanos;
+                case STAGE_DRAW:
+                    return drawSubmitNanos - conversionEndNanos;
+                case STAGE_PRESENT:
+                    return swapCompleteNanos - drawSubmitNanos;
+                case STAGE_LATENCY:
+                    return swapCompleteNanos - captureNanos;
+                case STAGE_INTERVAL:
+                    return intervalNanos;
+                default:
+                    throw new IllegalArgumentException("Unknown stage " + stage);
+            }
+        }
+
+        public void set(final Record other) {
+            frame = other.frame;
+            captureNanos = other.captureNanos;
+            conversionStartNanos = other.conversionStartNanos;
+            conversionEndNanos = other.conversionEndNanos;
+            drawSubmitNanos = other.drawSubmitNanos;
+            swapCompleteNanos = other.swapCompleteNanos;
+            intervalNanos = other.intervalNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("frame %d: queue %.2fms conversion %.2fms draw %.2fms "
+                            + "present %.2fms latency %.2fms",
+                    frame, getDurationNanos(STAGE_QUEUE) / 1e6f,
+                    getDurationNanos(STAGE_CONVERSION) / 1e6f,
+                    getDurationNanos(STAGE_DRAW) / 1e6f, getDurationNanos(STAGE_PRESENT) / 1e6f,
+                    getDurationNanos(STAGE_LATENCY) / 1e6f);
+        }
+    }
+
+    public GPUImageFrameTimings(final Listener listener) {
+        this(listener, 300);
+    }
+
+    /**
+     * @param listener   notified of every frame, may be null to only keep the histograms
+     * @param windowSize the number of frames the histograms are kept for
+     */
+    public GPUImageFrameTimings(final Listener listener, final int windowSize) {
+        mListener = listener;
+        mWindowSize = Math.max(1, windowSize);
+        mDurations = new long[STAGE_COUNT][mWindowSize];
+        mScratch = new long[mWindowSize];
+    }
+
+    public static String getStageName(final int stage) {
+        return STAGE_NAMES[stage];
+    }
+
+    /**
+     * @return the frames in the window
+     */
+    public synchronized int getSampleCount() {
+        return mCount;
+    }
+
+    /**
+     * @param stage   one of the STAGE constants
+     * @param buckets receives the frame counts per millisecond, {@link #BUCKET_COUNT} long
+     */
+    public synchronized void getHistogram(final int stage, final int[] buckets) {
+        System.arraycopy(mBuckets[stage], 0, buckets, 0, BUCKET_COUNT);
+    }
+
+    /**
+     * @param stage    one of the STAGE constants
+     * @param fraction e.g. 0.99f for the 99th percentile
+     * @return the duration in milliseconds, 0 without frames
+     */
+    public synchronized float getPercentile(final int stage, final float fraction) {
+        if (mCount == 0) {
+            return 0;
+        }
+        System.arraycopy(mDurations[stage], 0, mScratch, 0, mCount);
+        Arrays.sort(mScratch, 0, mCount);
+        return mScratch[Math.min(mCount - 1, (int) (fraction * mCount))] / 1e6f;
+    }
+
+    /**
+     * @param stage one of the STAGE constants
+     * @return the mean duration in milliseconds, 0 without frames
+     */
+    public synchronized float getMean(final int stage) {
+        if (mCount == 0) {
+            return 0;
+        }
+        long sum = 0;
+        long[] durations = mDurations[stage];
+        for (int i = 0; i < mCount; i++) {
+            sum += durations[i];
+        }
+        return sum / (float) mCount / 1e6f;
+    }
+
+    public synchronized void reset() {
+        mHead = 0;
+        mCount = 0;
+        mPending = false;
+        mLastPresentNanos = 0;
+        for (int[] buckets : mBuckets) {
+            Arrays.fill(buckets, 0);
+        }
+    }
+
+    /**
+     * Called on the GL thread after the filter of a frame with new camera input is submitted.
+     */
+    void onFrameDrawn(final long captureNanos, final long conversionStartNanos,
+            final long conversionEndNanos, final long drawSubmitNanos) {
+        if (mPending) {
+            // The previous frame was never reported presented, its swap happened by now
+            onFramePresented(drawSubmitNanos);
+        }
+        synchronized (this) {
+            mRecord.frame = mFrame++;
+            mRecord.captureNanos = captureNanos;
+            mRecord.conversionStartNanos = conversionStartNanos;
+            mRecord.conversionEndNanos = conversionEndNanos;
+            mRecord.drawSubmitNanos = drawSubmitNanos;
+            mPending = true;
+        }
+    }
+
+    /**
+     * Called on the GL thread once the last drawn frame has been swapped or read back.
+     */
+    void onFramePresented(final long swapCompleteNanos) {
+        synchronized (this) {
+            if (!mPending) {
+                return;
+            }
+            mPending = false;
+            mRecord.swapCompleteNanos = swapCompleteNanos;
+            mRecord.intervalNanos = mLastPresentNanos != 0
+                    ? swapCompleteNanos - mLastPresentNanos : 0;
+            mLastPresentNanos = swapCompleteNanos;
+            add(mRecord);
+        }
+        if (mListener != null) {
+            mListener.onFrameTimed(mRecord);
+        }
+    }
+
+    private void add(final Record record) {
+        boolean full = mCount == mWindowSize;
+        for (int stage = 0; stage < STAGE_COUNT; stage++) {
+            long[] durations = mDurations[stage];
+            if (full) {
+                mBuckets[stage][bucket(durations[mHead])]--;
+            }
+            long duration = record.getDurationNanos(stage);
+            durations[mHead] = duration;
+            mBuckets[stage][bucket(duration)]++;
+        }
+        mHead = (mHead + 1) % mWindowSize;
+        if (!full) {
+            mCount++;
+        }
+    }
+
+    private static int bucket(final long nanos) {
+        return (int) Math.max(0, Math.min(BUCKET_COUNT - 1, nanos / 1000000));
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder builder = new StringBuilder();
+        for (int stage = 0; stage < STAGE_COUNT; stage++) {
+            builder.append(String.format("%s: mean %.2fms p50 %.2fms p90 %.2fms p99 %.2fms\n",
+                    STAGE_NAMES[stage], getMean(stage), getPercentile(stage, 0.5f),
+                    getPercentile(stage, 0.9f), getPercentile(stage, 0.99f)));
+        }
+        return builder.toString();
+    }
+}
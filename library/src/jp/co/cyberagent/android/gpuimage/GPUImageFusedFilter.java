@@ -0,0 +1,176 @@
+/*
+ * Copyright (C) 2012 CyberAgent
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.co.cyberagent.android.gpuimage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Applies a run of {@link GPUImagePointwiseFilter}s in a single pass.
+ * <p>
+ * The fragment shader is generated from the color transforms of the stages. Uniforms of stage
+ * {@code i} are declared as {@code s<i>_<name>} and the stage's statements are wrapped in
+ * defines mapping the original names to those. The stages stay the source of truth for their
+ * parameters: their uniform values are copied into the fused program whenever they change.
+ * The stages have to be initialized, they are neither initialized nor destroyed by this filter.
+ */
+class GPUImageFusedFilter extends GPUImageFilter {
+    private static final Pattern UNIFORM = Pattern.compile(
+            "uniform\\s+((?:(?:lowp|mediump|highp)\\s+)?(\\w+))\\s+(\\w+)\\s*;");
+
+    private final List<GPUImageFilter> mStages;
+    private final String[][] mUniformNames;
+    private final int[][] mStageLocations;
+    private final int[][] mFusedLocations;
+    private final int[] mStageVersions;
+
+    GPUImageFusedFilter(final List<GPUImageFilter> stages) {
+        this(stages, collectUniforms(stages));
+    }
+
+    private GPUImageFusedFilter(final List<GPUImageFilter> stages, final String[][][] uniforms) {
+        super(NO_FILTER_VERTEX_SHADER, buildFragmentShader(stages, uniforms));
+        mStages = new ArrayList<GPUImageFilter>(stages);
+        mUniformNames = new String[stages.size()][];
+        for (int i = 0; i < stages.size(); i++) {
+            mUniformNames[i] = uniforms[i][1];
+        }
+        mStageLocations = new int[stages.size()][];
+        mFusedLocations = new int[stages.size()][];
+        mStageVersions = new int[stages.size()];
+    }
+
+    /**
+     * Checks whether the filter can be a stage of a fused pass.
+     *
+     * @param filter the filter
+     * @param first  whether the filter would be the first stage
+     */
+    static boolean canFuse(final GPUImageFilter filter, final boolean first) {
+        if (!(filter instanceof GPUImagePointwiseFilter)
+                || !NO_FILTER_VERTEX_SHADER.equals(filter.getVertexShader())) {
+            return false;
+        }
+        String transform = ((GPUImagePointwiseFilter) filter).getColorTransform();
+        if (transform == null) {
+            return false;
+        }
+        // Texture coordinates differ between the passes of a group (the intermediate passes are
+        // flipped and uncropped), so position dependent stages only see the right one up front
+        return first || !transform.contains("textureCoordinate");
+    }
+
+    List<GPUImageFilter> getStages() {
+        return mStages;
+    }
+
+    @Override
+    public void onInit() {
+        super.onInit();
+        for (int i = 0; i < mStages.size(); i++) {
+            String[] names = mUniformNames[i];
+            mStageLocations[i] = new int[names.length];
+            mFusedLocations[i] = new int[names.length];
+            for (int j = 0; j < names.length; j++) {
+                mStageLocations[i][j] = OpenGlUtils.getUniformLocation(
+                        mStages.get(i).getProgram(), names[j]);
+                mFusedLocations[i][j] = OpenGlUtils.getUniformLocation(
+                        getProgram(), "s" + i + "_" + names[j]);
+            }
+        }
+    }
+
+    @Override
+    void flushUniforms(final boolean all) {
+        super.flushUniforms(all);
+        for (int i = 0; i < mStages.size(); i++) {
+            GPUImageFilter stage = mStages.get(i);
+            stage.runPendingOnDrawTasks();
+            GPUImageUniforms uniforms = stage.getUniforms();
+            int version = uniforms.getVersion();
+            if (all || version != mStageVersions[i]) {
+                uniforms.flushRemapped(mStageLocations[i], mFusedLocations[i]);
+                mStageVersions[i] = version;
+            }
+        }
+    }
+
+    /**
+     * @return per stage the uniform declarations ([0]) and names ([1]), samplers excluded
+     */
+    private static String[][][] collectUniforms(final List<GPUImageFilter> stages) {
+        String[][][] uniforms = new String[stages.size()][][];
+        for (int i = 0; i < stages.size(); i++) {
+            List<String> types = new ArrayList<String>();
+            List<String> names = new ArrayList<String>();
+            Matcher matcher = UNIFORM.matcher(stages.get(i).getFragmentShader());
+            while (matcher.find()) {
+                if (matcher.group(2).startsWith("sampler")) {
+                    continue;
+                }
+                types.add(matcher.group(1));
+                names.add(matcher.group(3));
+            }
+            uniforms[i] = new String[][] {
+                    types.toArray(new String[types.size()]),
+                    names.toArray(new String[names.size()])
+            };
+        }
+        return uniforms;
+    }
+
+    private static String buildFragmentShader(final List<GPUImageFilter> stages,
+                                              final String[][][] uniforms) {
+        StringBuilder shader = new StringBuilder();
+        shader.append("precision mediump float;\n")
+                .append("varying highp vec2 textureCoordinate;\n")
+                .append("\n")
+                .append("uniform sampler2D inputImageTexture;\n");
+        for (int i = 0; i < stages.size(); i++) {
+            for (int j = 0; j < uniforms[i][1].length; j++) {
+                shader.append("uniform ").append(uniforms[i][0][j])
+                        .append(" s").append(i).append('_').append(uniforms[i][1][j])
+                        .append(";\n");
+            }
+        }
+        shader.append("\n")
+                .append("void main()\n")
+                .append("{\n")
+                .append("    highp vec4 color = texture2D(inputImageTexture, textureCoordinate);\n");
+        for (int i = 0; i < stages.size(); i++) {
+            String[] names = uniforms[i][1];
+            shader.append("    {\n");
+            for (String name : names) {
+                shader.append("#define ").append(name)
+                        .append(" s").append(i).append('_').append(name).append('\n');
+            }
+            shader.append(((GPUImagePointwiseFilter) stages.get(i)).getColorTransform())
+                    .append('\n');
+            for (String name : names) {
+                shader.append("#undef ").append(name).append('\n');
+            }
+            // Intermediate framebuffers would have clamped the result of every stage
+            shader.append("    color = clamp(color, 0.0, 1.0);\n")
+                    .append("    }\n");
+        }
+        shader.append("    gl_FragColor = color;\n")
+                .append("}");
+        return shader.toString();
+    }
+}
@@ -21,7 +21,8 @@ import android.opengl.GLES20;
 /**
  * gamma value ranges from 0.0 to 3.0, with 1.0 as the normal level
  */
-public class GPUImageGammaFilter extends GPUImageFilter {
+public class GPUImageGammaFilter extends GPUImageFilter implements GPUImagePointwiseFilter,
+        GPUImageColorMappingFilter {
     public static final String GAMMA_FRAGMENT_SHADER = "" +
             "varying highp vec2 textureCoordinate;\n" +
             " \n" +
@@ -35,6 +36,9 @@ public class GPUImageGammaFilter extends GPUImageFilter {
             "     gl_FragColor = vec4(pow(textureColor.rgb, vec3(gamma)), textureColor.w);\n" +
             " }";
 
+    public static final String GAMMA_COLOR_TRANSFORM = "" +
+            "    color.rgb = pow(color.rgb, vec3(gamma));\n";
+
     private int mGammaLocation;
     private float mGamma;
 
@@ -50,7 +54,7 @@ public class GPUImageGammaFilter extends GPUImageFilter {
     @Override
     public void onInit() {
         super.onInit();
-        mGammaLocation = GLES20.glGetUniformLocation(getProgram(), "gamma");
+        mGammaLocation = OpenGlUtils.getUniformLocation(getProgram(), "gamma");
     }
 
     @Override
@@ -63,4 +67,19 @@ public class GPUImageGammaFilter extends GPUImageFilter {
         mGamma = gamma;
         setFloat(mGammaLocation, mGamma);
     }
+
+    @Override
+    public boolean isIdentity() {
+        return mGamma == 1.0f;
+    }
+
+    @Override
+    public String getColorTransform() {
+        return GAMMA_COLOR_TRANSFORM;
+    }
+
+    @Override
+    public int getSamplingRadius() {
+        return 0;
+    }
 }
@@ -113,4 +113,10 @@ public class GPUImageGaussianBlurFilter extends GPUImageTwoPassTextureSamplingFi
             }
         });
     }
+
+    @Override
+    public int getSamplingRadius() {
+        // GAUSSIAN_SAMPLES taps blurSize texels apart, in each direction of one of the passes
+        return (int) Math.ceil(4 * mBlurSize);
+    }
 }
@@ -19,7 +19,8 @@ package jp.co.cyberagent.android.gpuimage;
 /**
  * Applies a grayscale effect to the image.
  */
-public class GPUImageGrayscaleFilter extends GPUImageFilter {
+public class GPUImageGrayscaleFilter extends GPUImageFilter implements GPUImagePointwiseFilter,
+        GPUImageAffineColorFilter, GPUImageColorMappingFilter {
     public static final String GRAYSCALE_FRAGMENT_SHADER = "" +
             "precision highp float;\n" +
             "\n" +
@@ -37,7 +38,31 @@ public class GPUImageGrayscaleFilter extends GPUImageFilter {
             "  gl_FragColor = vec4(vec3(luminance), textureColor.a);\n" +
             "}";
 
+    public static final String GRAYSCALE_COLOR_TRANSFORM = "" +
+            "    const highp vec3 W = vec3(0.2125, 0.7154, 0.0721);\n" +
+            "    color.rgb = vec3(dot(color.rgb, W));\n";
+
     public GPUImageGrayscaleFilter() {
         super(NO_FILTER_VERTEX_SHADER, GRAYSCALE_FRAGMENT_SHADER);
     }
+
+    @Override
+    public String getColorTransform() {
+        return GRAYSCALE_COLOR_TRANSFORM;
+    }
+
+    @Override
+    public void getColorMatrix(final float[] matrix, final float[] offset) {
+        GPUImageFoldedColorFilter.setIdentity(matrix, offset);
+        for (int row = 0; row < 3; row++) {
+            matrix[row * 4] = 0.2125f;
+            matrix[row * 4 + 1] = 0.7154f;
+            matrix[row * 4 + 2] = 0.0721f;
+        }
+    }
+
+    @Override
+    public int getSamplingRadius() {
+        return 0;
+    }
 }
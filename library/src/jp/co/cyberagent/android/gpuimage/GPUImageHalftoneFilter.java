@@ -44,8 +44,8 @@ public class GPUImageHalftoneFilter extends GPUImageFilter {
     @Override
     public void onInit() {
         super.onInit();
-        mFractionalWidthOfPixelLocation = GLES20.glGetUniformLocation(getProgram(), "fractionalWidthOfPixel");
-        mAspectRatioLocation = GLES20.glGetUniformLocation(getProgram(), "aspectRatio");
+        mFractionalWidthOfPixelLocation = OpenGlUtils.getUniformLocation(getProgram(), "fractionalWidthOfPixel");
+        mAspectRatioLocation = OpenGlUtils.getUniformLocation(getProgram(), "aspectRatio");
         setFractionalWidthOfAPixel(mFractionalWidthOfAPixel);
     }
 
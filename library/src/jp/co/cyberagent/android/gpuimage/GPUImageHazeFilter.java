@@ -64,8 +64,8 @@ public class GPUImageHazeFilter extends GPUImageFilter {
     @Override
     public void onInit() {
         super.onInit();
-        mDistanceLocation = GLES20.glGetUniformLocation(getProgram(), "distance");
-        mSlopeLocation = GLES20.glGetUniformLocation(getProgram(), "slope");
+        mDistanceLocation = OpenGlUtils.getUniformLocation(getProgram(), "distance");
+        mSlopeLocation = OpenGlUtils.getUniformLocation(getProgram(), "slope");
     }
 
     @Override
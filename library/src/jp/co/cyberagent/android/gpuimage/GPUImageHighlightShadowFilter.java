@@ -23,7 +23,8 @@ import android.opengl.GLES20;
  * shadows: Increase to lighten shadows, from 0.0 to 1.0, with 0.0 as the default.
  * highlights: Decrease to darken highlights, from 0.0 to 1.0, with 1.0 as the default.
  */
-public class GPUImageHighlightShadowFilter extends GPUImageFilter {
+public class GPUImageHighlightShadowFilter extends GPUImageFilter implements
+        GPUImageColorMappingFilter {
     public static final String HIGHLIGHT_SHADOW_FRAGMENT_SHADER = "" +
             " uniform sampler2D inputImageTexture;\n" +
             " varying highp vec2 textureCoordinate;\n" +
@@ -63,8 +64,8 @@ public class GPUImageHighlightShadowFilter extends GPUImageFilter {
     @Override
     public void onInit() {
         super.onInit();
-        mHighlightsLocation = GLES20.glGetUniformLocation(getProgram(), "highlights");
-        mShadowsLocation = GLES20.glGetUniformLocation(getProgram(), "shadows");
+        mHighlightsLocation = OpenGlUtils.getUniformLocation(getProgram(), "highlights");
+        mShadowsLocation = OpenGlUtils.getUniformLocation(getProgram(), "shadows");
     }
 
     @Override
@@ -83,4 +84,9 @@ public class GPUImageHighlightShadowFilter extends GPUImageFilter {
         mShadows = shadows;
         setFloat(mShadowsLocation, mShadows);
     }
+
+    @Override
+    public int getSamplingRadius() {
+        return 0;
+    }
 }
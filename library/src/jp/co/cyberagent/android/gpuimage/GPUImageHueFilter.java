@@ -18,7 +18,8 @@ package jp.co.cyberagent.android.gpuimage;
 
 import android.opengl.GLES20;
 
-public class GPUImageHueFilter extends GPUImageFilter {
+public class GPUImageHueFilter extends GPUImageFilter implements GPUImagePointwiseFilter,
+        GPUImageColorMappingFilter {
     public static final String HUE_FRAGMENT_SHADER = "" +
       "precision highp float;\n" +
       "varying highp vec2 textureCoordinate;\n" +
@@ -64,6 +65,21 @@ public class GPUImageHueFilter extends GPUImageFilter {
       "    gl_FragColor = color;\n" +
       "}\n";
 
+    public static final String HUE_COLOR_TRANSFORM = "" +
+            "    const highp vec4 kRGBToYPrime = vec4 (0.299, 0.587, 0.114, 0.0);\n" +
+            "    const highp vec4 kRGBToI = vec4 (0.595716, -0.274453, -0.321263, 0.0);\n" +
+            "    const highp vec4 kRGBToQ = vec4 (0.211456, -0.522591, 0.31135, 0.0);\n" +
+            "    const highp vec4 kYIQToR = vec4 (1.0, 0.9563, 0.6210, 0.0);\n" +
+            "    const highp vec4 kYIQToG = vec4 (1.0, -0.2721, -0.6474, 0.0);\n" +
+            "    const highp vec4 kYIQToB = vec4 (1.0, -1.1070, 1.7046, 0.0);\n" +
+            "    highp float YPrime = dot (color, kRGBToYPrime);\n" +
+            "    highp float I = dot (color, kRGBToI);\n" +
+            "    highp float Q = dot (color, kRGBToQ);\n" +
+            "    highp float hue = atan (Q, I) - hueAdjust;\n" +
+            "    highp float chroma = sqrt (I * I + Q * Q);\n" +
+            "    highp vec4 yIQ = vec4 (YPrime, chroma * cos (hue), chroma * sin (hue), 0.0);\n" +
+            "    color.rgb = vec3(dot (yIQ, kYIQToR), dot (yIQ, kYIQToG), dot (yIQ, kYIQToB));\n";
+
     private float mHue;
     private int mHueLocation;
 
@@ -79,7 +95,7 @@ public class GPUImageHueFilter extends GPUImageFilter {
     @Override
     public void onInit() {
         super.onInit();
-        mHueLocation = GLES20.glGetUniformLocation(getProgram(), "hueAdjust");
+        mHueLocation = OpenGlUtils.getUniformLocation(getProgram(), "hueAdjust");
     }
 
     @Override
@@ -93,4 +109,14 @@ public class GPUImageHueFilter extends GPUImageFilter {
         float hueAdjust = (mHue % 360.0f) * (float) Math.PI / 180.0f;
         setFloat(mHueLocation, hueAdjust);
     }
+
+    @Override
+    public String getColorTransform() {
+        return HUE_COLOR_TRANSFORM;
+    }
+
+    @Override
+    public int getSamplingRadius() {
+        return 0;
+    }
 }
@@ -24,7 +24,7 @@ import android.opengl.GLES20;
  * image, but it is extremely computationally expensive, so it can take seconds to render a frame on an iPad 2.
  * This might be best used for still images.
  */
-public class GPUImageKuwaharaFilter extends GPUImageFilter {
+public class GPUImageKuwaharaFilter extends GPUImageFilter implements GPUImageQualityAdjustable {
     public static final String KUWAHARA_FRAGMENT_SHADER = "" +
             "varying highp vec2 textureCoordinate;\n" +
             "uniform sampler2D inputImageTexture;\n" +
@@ -116,6 +116,7 @@ public class GPUImageKuwaharaFilter extends GPUImageFilter {
 
     private int mRadius;
     private int mRadiusLocation;
+    private float mQuality = 1f;
 
     public GPUImageKuwaharaFilter() {
         this(3);
@@ -129,7 +130,7 @@ public class GPUImageKuwaharaFilter extends GPUImageFilter {
     @Override
     public void onInit() {
         super.onInit();
-        mRadiusLocation = GLES20.glGetUniformLocation(getProgram(), "radius");
+        mRadiusLocation = OpenGlUtils.getUniformLocation(getProgram(), "radius");
     }
 
     @Override
@@ -146,6 +147,24 @@ public class GPUImageKuwaharaFilter extends GPUImageFilter {
      */
     public void setRadius(final int radius) {
         mRadius = radius;
-        setInteger(mRadiusLocation, radius);
+        setInteger(mRadiusLocation, getSampledRadius());
+    }
+
+    /**
+     * Samples a smaller radius below full quality, the cost falls with its square.
+     */
+    @Override
+    public void setQuality(final float quality) {
+        mQuality = quality;
+        setInteger(mRadiusLocation, getSampledRadius());
+    }
+
+    private int getSampledRadius() {
+        return Math.max(1, Math.round(mRadius * mQuality));
+    }
+
+    @Override
+    public int getSamplingRadius() {
+        return getSampledRadius();
     }
 }
@@ -6,7 +6,7 @@ import android.util.Log;
 /**
  * Created by vashisthg 30/05/14.
  */
-public class GPUImageLevelsFilter extends GPUImageFilter{
+public class GPUImageLevelsFilter extends GPUImageFilter implements GPUImageColorMappingFilter {
 
     private static final String LOGTAG = GPUImageLevelsFilter.class.getSimpleName();
 
@@ -57,11 +57,11 @@ public class GPUImageLevelsFilter extends GPUImageFilter{
     @Override
     public void onInit() {
         super.onInit();
-        mMinLocation = GLES20.glGetUniformLocation(getProgram(), "levelMinimum");
-        mMidLocation = GLES20.glGetUniformLocation(getProgram(), "levelMiddle");
-        mMaxLocation = GLES20.glGetUniformLocation(getProgram(), "levelMaximum");
-        mMinOutputLocation = GLES20.glGetUniformLocation(getProgram(), "minOutput");
-        mMaxOutputLocation = GLES20.glGetUniformLocation(getProgram(), "maxOutput");
+        mMinLocation = OpenGlUtils.getUniformLocation(getProgram(), "levelMinimum");
+        mMidLocation = OpenGlUtils.getUniformLocation(getProgram(), "levelMiddle");
+        mMaxLocation = OpenGlUtils.getUniformLocation(getProgram(), "levelMaximum");
+        mMinOutputLocation = OpenGlUtils.getUniformLocation(getProgram(), "minOutput");
+        mMaxOutputLocation = OpenGlUtils.getUniformLocation(getProgram(), "maxOutput");
     }
 
     @Override
@@ -127,4 +127,9 @@ public class GPUImageLevelsFilter extends GPUImageFilter{
     public void setBlueMin(float min, float mid , float max ){
         setBlueMin(min, mid, max, 0, 1);
     }
+
+    @Override
+    public int getSamplingRadius() {
+        return 0;
+    }
 }
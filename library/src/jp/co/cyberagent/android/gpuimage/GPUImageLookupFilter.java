@@ -72,7 +72,7 @@ public class GPUImageLookupFilter extends GPUImageTwoInputFilter {
     @Override
     public void onInit() {
         super.onInit();
-        mIntensityLocation = GLES20.glGetUniformLocation(getProgram(), "intensity");
+        mIntensityLocation = OpenGlUtils.getUniformLocation(getProgram(), "intensity");
     }
 
     @Override
@@ -85,4 +85,12 @@ public class GPUImageLookupFilter extends GPUImageTwoInputFilter {
         mIntensity = intensity;
         setFloat(mIntensityLocation, mIntensity);
     }
+
+    /**
+     * The lookup table is indexed by color, so only the pixel itself is read from the image.
+     */
+    @Override
+    public int getSamplingRadius() {
+        return 0;
+    }
 }
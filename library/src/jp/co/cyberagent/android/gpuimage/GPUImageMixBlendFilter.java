@@ -35,7 +35,7 @@ public class GPUImageMixBlendFilter extends GPUImageTwoInputFilter {
     @Override
     public void onInit() {
         super.onInit();
-        mMixLocation = GLES20.glGetUniformLocation(getProgram(), "mixturePercent");
+        mMixLocation = OpenGlUtils.getUniformLocation(getProgram(), "mixturePercent");
     }
 
     @Override
@@ -23,7 +23,8 @@ import android.opengl.GLES20;
  * intensity: The degree to which the specific color replaces the normal image color (0.0 - 1.0, with 1.0 as the default)
  * color: The color to use as the basis for the effect, with (0.6, 0.45, 0.3, 1.0) as the default.
  */
-public class GPUImageMonochromeFilter extends GPUImageFilter {
+public class GPUImageMonochromeFilter extends GPUImageFilter implements GPUImagePointwiseFilter,
+        GPUImageColorMappingFilter {
     public static final String MONOCHROME_FRAGMENT_SHADER = "" +
             " precision lowp float;\n" +
             "  \n" +
@@ -55,6 +56,16 @@ public class GPUImageMonochromeFilter extends GPUImageFilter {
             " 	gl_FragColor = vec4( mix(textureColor.rgb, outputColor.rgb, intensity), textureColor.a);\n" +
             "  }";
 
+    public static final String MONOCHROME_COLOR_TRANSFORM = "" +
+            "    const mediump vec3 luminanceWeighting = vec3(0.2125, 0.7154, 0.0721);\n" +
+            "    lowp float luminance = dot(color.rgb, luminanceWeighting);\n" +
+            "    lowp vec4 desat = vec4(vec3(luminance), 1.0);\n" +
+            "    lowp vec3 outputColor = vec3(\n" +
+            "            (desat.r < 0.5 ? (2.0 * desat.r * filterColor.r) : (1.0 - 2.0 * (1.0 - desat.r) * (1.0 - filterColor.r))),\n" +
+            "            (desat.g < 0.5 ? (2.0 * desat.g * filterColor.g) : (1.0 - 2.0 * (1.0 - desat.g) * (1.0 - filterColor.g))),\n" +
+            "            (desat.b < 0.5 ? (2.0 * desat.b * filterColor.b) : (1.0 - 2.0 * (1.0 - desat.b) * (1.0 - filterColor.b))));\n" +
+            "    color.rgb = mix(color.rgb, outputColor, intensity);\n";
+
     private int mIntensityLocation;
     private float mIntensity;
     private int mFilterColorLocation;
@@ -73,8 +84,8 @@ public class GPUImageMonochromeFilter extends GPUImageFilter {
     @Override
     public void onInit() {
         super.onInit();
-        mIntensityLocation = GLES20.glGetUniformLocation(getProgram(), "intensity");
-        mFilterColorLocation = GLES20.glGetUniformLocation(getProgram(), "filterColor");
+        mIntensityLocation = OpenGlUtils.getUniformLocation(getProgram(), "intensity");
+        mFilterColorLocation = OpenGlUtils.getUniformLocation(getProgram(), "filterColor");
     }
 
     @Override
@@ -98,4 +109,14 @@ public class GPUImageMonochromeFilter extends GPUImageFilter {
     public void setColorRed(final float red, final float green, final float blue) {
         setFloatVec3(mFilterColorLocation, new float[]{ red, green, blue });
     }
+
+    @Override
+    public String getColorTransform() {
+        return MONOCHROME_COLOR_TRANSFORM;
+    }
+
+    @Override
+    public int getSamplingRadius() {
+        return 0;
+    }
 }
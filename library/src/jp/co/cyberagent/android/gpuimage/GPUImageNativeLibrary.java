@@ -16,6 +16,10 @@
 
 package jp.co.cyberagent.android.gpuimage;
 
+import android.graphics.Bitmap;
+
+import java.nio.ByteBuffer;
+
 public class GPUImageNativeLibrary {
     static {
         System.loadLibrary("gpuimage-library");
@@ -24,4 +28,36 @@ public class GPUImageNativeLibrary {
     public static native void YUVtoRBGA(byte[] yuv, int width, int height, int[] out);
 
     public static native void YUVtoARBG(byte[] yuv, int width, int height, int[] out);
+
+    /**
+     * Like {@link #YUVtoRBGA(byte[], int, int, int[])}, but writes into a direct buffer of at
+     * least width * height * 4 bytes, e.g. one to be uploaded with glTexImage2D.
+     */
+    public static native void YUVtoRBGABuffer(byte[] yuv, int width, int height, ByteBuffer out);
+
+    /**
+     * Like {@link #YUVtoARBG(byte[], int, int, int[])}, but writes into a direct buffer of at
+     * least width * height * 4 bytes.
+     */
+    public static native void YUVtoARBGBuffer(byte[] yuv, int width, int height, ByteBuffer out);
+
+    /**
+     * Sets the number of threads a frame is split across by the conversions, 1 by default.
+     * Only frames of at least 64 rows per thread are split.
+     */
+    public static native void setYUVDecoderThreads(int threads);
+
+    /**
+     * Reads the bound framebuffer into an ARGB_8888 bitmap of its size, top row first, on the
+     * GL thread. Needs no memory beyond the bitmap.
+     *
+     * @return false if the bitmap rows are padded, nothing is read then
+     */
+    public static native boolean readPixelsToBitmap(Bitmap bitmap);
+
+    /**
+     * Copies GL_RGBA pixels, bottom row first as glReadPixels returns them, into an ARGB_8888
+     * bitmap of the same size, top row first.
+     */
+    public static native void copyFlippedToBitmap(ByteBuffer rgba, Bitmap bitmap);
 }
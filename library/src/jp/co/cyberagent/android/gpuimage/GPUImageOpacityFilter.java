@@ -22,7 +22,8 @@ import android.opengl.GLES20;
  * Adjusts the alpha channel of the incoming image
  * opacity: The value to multiply the incoming alpha channel for each pixel by (0.0 - 1.0, with 1.0 as the default)
 */
-public class GPUImageOpacityFilter extends GPUImageFilter {
+public class GPUImageOpacityFilter extends GPUImageFilter implements GPUImagePointwiseFilter,
+        GPUImageAffineColorFilter, GPUImageColorMappingFilter {
     public static final String OPACITY_FRAGMENT_SHADER = "" +
             "  varying highp vec2 textureCoordinate;\n" +
             "  \n" +
@@ -36,6 +37,9 @@ public class GPUImageOpacityFilter extends GPUImageFilter {
             "      gl_FragColor = vec4(textureColor.rgb, textureColor.a * opacity);\n" +
             "  }\n";
 
+    public static final String OPACITY_COLOR_TRANSFORM = "" +
+            "    color.a *= opacity;\n";
+
     private int mOpacityLocation;
     private float mOpacity;
 
@@ -51,7 +55,7 @@ public class GPUImageOpacityFilter extends GPUImageFilter {
     @Override
     public void onInit() {
         super.onInit();
-        mOpacityLocation = GLES20.glGetUniformLocation(getProgram(), "opacity");
+        mOpacityLocation = OpenGlUtils.getUniformLocation(getProgram(), "opacity");
     }
 
     @Override
@@ -64,4 +68,25 @@ public class GPUImageOpacityFilter extends GPUImageFilter {
         mOpacity = opacity;
         setFloat(mOpacityLocation, mOpacity);
     }
+
+    @Override
+    public boolean isIdentity() {
+        return mOpacity == 1.0f;
+    }
+
+    @Override
+    public String getColorTransform() {
+        return OPACITY_COLOR_TRANSFORM;
+    }
+
+    @Override
+    public void getColorMatrix(final float[] matrix, final float[] offset) {
+        GPUImageFoldedColorFilter.setIdentity(matrix, offset);
+        matrix[15] = mOpacity;
+    }
+
+    @Override
+    public int getSamplingRadius() {
+        return 0;
+    }
 }
@@ -0,0 +1,393 @@
+/*
+ * Copyright (C) 2012 CyberAgent
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.co.cyberagent.android.gpuimage;
+
+import android.annotation.TargetApi;
+import android.graphics.Bitmap;
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+import android.os.Build;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Reads the bound framebuffer back without waiting for the GPU.
+ * <p>
+ * On OpenGL ES 3.0 glReadPixels writes into one of a ring of pixel pack buffers and returns
+ * right away, the copy happens on the GPU after the frame's commands. A fence marks when it is
+ * done; {@link #poll()} maps the finished buffers on a later frame and hands their pixels on,
+ * so neither the render thread nor the GPU stalls and continuous reads keep up with the display
+ * rate. When all buffers are in flight, the oldest read is completed first, waiting if needed.
+ * Without OpenGL ES 3.0 the pixels are read synchronously.
+ * <p>
+ * All methods must be called on the thread of the GL context the reader was created for.
+ */
+@TargetApi(18)
+public class GPUImagePixelReader {
+    public static final int DEFAULT_BUFFER_COUNT = 3;
+
+    private static final long WAIT_TIMEOUT_NANOS = 100000000L;
+
+    private final int mBufferCount;
+    private final int[] mBuffers;
+    private final int[] mBufferSizes;
+    private final long[] mFences;
+    private final Request[] mRequests;
+    private int mHead;
+    private int mCount;
+    private boolean mChecked;
+    private boolean mAsync;
+    private Thread mThread;
+    private ByteBuffer mReadBuffer;
+
+    /**
+     * Receives the pixels of continuous reads, without a Bitmap per frame.
+     */
+    public interface FrameCallback {
+        /**
+         * Called on the GL thread.
+         *
+         * @param rgba the pixels, bottom row first as glReadPixels returns them; only valid
+         *             during the call
+         */
+        void onPixels(ByteBuffer rgba, int width, int height);
+    }
+
+    private static final class Request {
+        int width;
+        int height;
+        BitmapFuture future;
+        FrameCallback callback;
+    }
+
+    /**
+     * The result of a read into a Bitmap. {@link #get()} on the GL thread completes the read
+     * right away instead of waiting for a later frame to do so.
+     */
+    public static final class BitmapFuture implements Future<Bitmap> {
+        private final CountDownLatch mDone = new CountDownLatch(1);
+        private volatile GPUImagePixelReader mReader;
+        private volatile Bitmap mBitmap;
+        private volatile Throwable mError;
+
+        BitmapFuture() {
+        }
+
+        void set(final Bitmap bitmap) {
+            mBitmap = bitmap;
+            mReader = null;
+            mDone.countDown();
+        }
+
+        void setException(final Throwable error) {
+            mError = error;
+            mReader = null;
+            mDone.countDown();
+        }
+
+        @Override
+        public boolean cancel(final boolean mayInterruptIfRunning) {
+            return false;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return false;
+        }
+
+        @Override
+        public boolean isDone() {
+            return mDone.getCount() == 0;
+        }
+
+        @Override
+        public Bitmap get() throws InterruptedException, ExecutionException {
+            finishOnGLThread();
+            mDone.await();
+            return getResult();
+        }
+
+        @Override
+        public Bitmap get(final long timeout, final TimeUnit unit)
+                throws InterruptedException, ExecutionException, TimeoutException {
+            finishOnGLThread();
+            if (!mDone.await(timeout, unit)) {
+                throw new TimeoutException();
+            }
+            return getResult();
+        }
+
+        private void finishOnGLThread() {
+            GPUImagePixelReader reader = mReader;
+            if (reader != null && reader.mThread == Thread.currentThread()) {
+                // Nothing else would complete it while this thread waits
+                reader.finish();
+            }
+        }
+
+        private Bitmap getResult() throws ExecutionException {
+            if (mError != null) {
+                throw new ExecutionException(mError);
+            }
+            return mBitmap;
+        }
+    }
+
+    public GPUImagePixelReader() {
+        this(DEFAULT_BUFFER_COUNT);
+    }
+
+    /**
+     * @param bufferCount the reads in flight at a time, 2 or 3 to overlap with rendering
+     */
+    public GPUImagePixelReader(final int bufferCount) {
+        mBufferCount = Math.max(1, bufferCount);
+        mBuffers = new int[mBufferCount];
+        mBufferSizes = new int[mBufferCount];
+        mFences = new long[mBufferCount];
+        mRequests = new Request[mBufferCount];
+        for (int i = 0; i < mBufferCount; i++) {
+            mRequests[i] = new Request();
+        }
+    }
+
+    /**
+     * @return true if reads complete asynchronously, known after the first read
+     */
+    public boolean isAsync() {
+        return mAsync;
+    }
+
+    /**
+     * @return the reads not yet completed
+     */
+    public int getPendingCount() {
+        return mCount;
+    }
+
+    /**
+     * Reads the lower left width x height pixels of the bound framebuffer into a Bitmap.
+     */
+    public Future<Bitmap> read(final int width, final int height) {
+        BitmapFuture future = new BitmapFuture();
+        read(width, height, future);
+        return future;
+    }
+
+    /**
+     * Reads the lower left width x height pixels of the bound framebuffer, handing them to the
+     * callback once available.
+     */
+    public void read(final int width, final int height, final FrameCallback callback) {
+        issue(width, height, null, callback);
+    }
+
+    void read(final int width, final int height, final BitmapFuture future) {
+        issue(width, height, future, null);
+    }
+
+    /**
+     * Completes the reads the GPU has finished, without waiting.
+     */
+    public void poll() {
+        while (mCount > 0 && isFinished(mHead, false)) {
+            completeHead();
+        }
+    }
+
+    /**
+     * Completes all reads, waiting for the GPU if needed.
+     */
+    public void finish() {
+        while (mCount > 0) {
+            isFinished(mHead, true);
+            completeHead();
+        }
+    }
+
+    /**
+     * Deletes the buffers, failing reads not completed yet.
+     */
+    public void release() {
+        for (int i = 0; i < mBufferCount; i++) {
+            if (mFences[i] != 0) {
+                GLES30.glDeleteSync(mFences[i]);
+                mFences[i] = 0;
+            }
+        }
+        // Unused slots are 0, which glDeleteBuffers ignores
+        GLES20.glDeleteBuffers(mBufferCount, mBuffers, 0);
+        abandon();
+    }
+
+    /**
+     * Forgets the buffers of a lost context, failing reads not completed yet.
+     */
+    void abandon() {
+        while (mCount > 0) {
+            Request request = mRequests[mHead];
+            if (request.future != null) {
+                request.future.setException(new IllegalStateException("Pixel reader released"));
+            }
+            request.future = null;
+            request.callback = null;
+            mHead = (mHead + 1) % mBufferCount;
+            mCount--;
+        }
+        for (int i = 0; i < mBufferCount; i++) {
+            mBuffers[i] = 0;
+            mBufferSizes[i] = 0;
+            mFences[i] = 0;
+        }
+        mChecked = false;
+    }
+
+    private void issue(final int width, final int height, final BitmapFuture future,
+            final FrameCallback callback) {
+        mThread = Thread.currentThread();
+        if (!mChecked) {
+            mChecked = true;
+            mAsync = isSupported();
+        }
+        int size = width * height * 4;
+        if (!mAsync) {
+            if (future != null) {
+                Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+                if (GPUImageNativeLibrary.readPixelsToBitmap(bitmap)) {
+                    future.set(bitmap);
+                    return;
+                }
+                bitmap.recycle();
+            }
+            if (mReadBuffer == null || mReadBuffer.capacity() < size) {
+                mReadBuffer = ByteBuffer.allocateDirect(size).order(ByteOrder.nativeOrder());
+            }
+            mReadBuffer.clear();
+            GLES20.glReadPixels(0, 0, width, height, GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE,
+                    mReadBuffer);
+            deliver(mReadBuffer, width, height, future, callback);
+            return;
+        }
+        if (mCount == mBufferCount) {
+            // Every buffer is in flight, make room by waiting for the oldest
+            isFinished(mHead, true);
+            completeHead();
+        }
+        int slot = (mHead + mCount) % mBufferCount;
+        if (mBuffers[slot] == 0) {
+            GLES20.glGenBuffers(1, mBuffers, slot);
+        }
+        GLES20.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, mBuffers[slot]);
+        if (mBufferSizes[slot] < size) {
+            GLES20.glBufferData(GLES30.GL_PIXEL_PACK_BUFFER, size, null, GLES30.GL_STREAM_READ);
+            mBufferSizes[slot] = size;
+        }
+        GLES30.glReadPixels(0, 0, width, height, GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, 0);
+        GLES20.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, 0);
+        mFences[slot] = GLES30.glFenceSync(GLES30.GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+
+        Request request = mRequests[slot];
+        request.width = width;
+        request.height = height;
+        request.future = future;
+        request.callback = callback;
+        if (future != null) {
+            future.mReader = this;
+        }
+        mCount++;
+    }
+
+    private boolean isFinished(final int slot, final boolean wait) {
+        long fence = mFences[slot];
+        if (fence == 0) {
+            return true;
+        }
+        while (true) {
+            int status = GLES30.glClientWaitSync(fence, GLES30.GL_SYNC_FLUSH_COMMANDS_BIT,
+                    wait ? WAIT_TIMEOUT_NANOS : 0);
+            if (status != GLES30.GL_TIMEOUT_EXPIRED) {
+                // Signaled, or failed, in which case mapping waits for the copy itself
+                return true;
+            }
+            if (!wait) {
+                return false;
+            }
+        }
+    }
+
+    private void completeHead() {
+        int slot = mHead;
+        Request request = mRequests[slot];
+        mHead = (mHead + 1) % mBufferCount;
+        mCount--;
+        if (mFences[slot] != 0) {
+            GLES30.glDeleteSync(mFences[slot]);
+            mFences[slot] = 0;
+        }
+        BitmapFuture future = request.future;
+        FrameCallback callback = request.callback;
+        request.future = null;
+        request.callback = null;
+
+        int size = request.width * request.height * 4;
+        GLES20.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, mBuffers[slot]);
+        ByteBuffer pixels = (ByteBuffer) GLES30.glMapBufferRange(GLES30.GL_PIXEL_PACK_BUFFER, 0,
+                size, GLES30.GL_MAP_READ_BIT);
+        if (pixels == null) {
+            GLES20.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, 0);
+            if (future != null) {
+                future.setException(new IllegalStateException(
+                        "glMapBufferRange failed: " + GLES20.glGetError()));
+            }
+            return;
+        }
+        try {
+            deliver(pixels.order(ByteOrder.nativeOrder()), request.width, request.height,
+                    future, callback);
+        } finally {
+            GLES30.glUnmapBuffer(GLES30.GL_PIXEL_PACK_BUFFER);
+            GLES20.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, 0);
+        }
+    }
+
+    private void deliver(final ByteBuffer pixels, final int width, final int height,
+            final BitmapFuture future, final FrameCallback callback) {
+        if (callback != null) {
+            pixels.position(0).limit(width * height * 4);
+            callback.onPixels(pixels, width, height);
+            return;
+        }
+        // glReadPixels starts at the bottom row, bitmaps at the top
+        Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        GPUImageNativeLibrary.copyFlippedToBitmap(pixels, bitmap);
+        future.set(bitmap);
+    }
+
+    private static boolean isSupported() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN_MR2) {
+            return false;
+        }
+        String version = GLES20.glGetString(GLES20.GL_VERSION);
+        return version != null && version.startsWith("OpenGL ES 3");
+    }
+}
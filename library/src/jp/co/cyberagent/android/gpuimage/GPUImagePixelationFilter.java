@@ -54,9 +54,9 @@ public class GPUImagePixelationFilter extends GPUImageFilter {
     @Override
     public void onInit() {
         super.onInit();
-        mImageWidthFactorLocation = GLES20.glGetUniformLocation(getProgram(), "imageWidthFactor");
-        mImageHeightFactorLocation = GLES20.glGetUniformLocation(getProgram(), "imageHeightFactor");
-        mPixelLocation = GLES20.glGetUniformLocation(getProgram(), "pixel");
+        mImageWidthFactorLocation = OpenGlUtils.getUniformLocation(getProgram(), "imageWidthFactor");
+        mImageHeightFactorLocation = OpenGlUtils.getUniformLocation(getProgram(), "imageHeightFactor");
+        mPixelLocation = OpenGlUtils.getUniformLocation(getProgram(), "pixel");
         setPixel(mPixel);
     }
 
@@ -0,0 +1,34 @@
+/*
+ * Copyright (C) 2012 CyberAgent
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.co.cyberagent.android.gpuimage;
+
+/**
+ * Implemented by filters whose output pixel only depends on the input pixel at the same
+ * position. Runs of such filters can be fused into a single pass by
+ * {@link GPUImageFilterGroup#setShaderFusionEnabled(boolean)}.
+ */
+public interface GPUImagePointwiseFilter {
+
+    /**
+     * Returns GLSL statements which transform the variable {@code color} (a vec4 holding the
+     * current pixel) in place. The statements may use the uniforms declared in the fragment
+     * shader of the filter and local declarations of their own.
+     *
+     * @return the color transform
+     */
+    String getColorTransform();
+}
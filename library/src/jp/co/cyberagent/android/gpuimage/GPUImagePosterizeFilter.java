@@ -23,7 +23,8 @@ import android.opengl.GLES20;
  * <br>
  * colorLevels: ranges from 1 to 256, with a default of 10
  */
-public class GPUImagePosterizeFilter extends GPUImageFilter {
+public class GPUImagePosterizeFilter extends GPUImageFilter implements GPUImagePointwiseFilter,
+        GPUImageColorMappingFilter {
     public static final String POSTERIZE_FRAGMENT_SHADER = "" +
             "varying highp vec2 textureCoordinate;\n" +
             "\n" +
@@ -37,6 +38,9 @@ public class GPUImagePosterizeFilter extends GPUImageFilter {
             "   gl_FragColor = floor((textureColor * colorLevels) + vec4(0.5)) / colorLevels;\n" +
             "}";
 
+    public static final String POSTERIZE_COLOR_TRANSFORM = "" +
+            "    color = floor((color * colorLevels) + vec4(0.5)) / colorLevels;\n";
+
     private int mGLUniformColorLevels;
     private int mColorLevels;
 
@@ -52,7 +56,7 @@ public class GPUImagePosterizeFilter extends GPUImageFilter {
     @Override
     public void onInit() {
         super.onInit();
-        mGLUniformColorLevels = GLES20.glGetUniformLocation(getProgram(), "colorLevels");
+        mGLUniformColorLevels = OpenGlUtils.getUniformLocation(getProgram(), "colorLevels");
         setColorLevels(mColorLevels);
     }
 
@@ -60,4 +64,14 @@ public class GPUImagePosterizeFilter extends GPUImageFilter {
         mColorLevels = colorLevels;
         setFloat(mGLUniformColorLevels, colorLevels);
     }
+
+    @Override
+    public String getColorTransform() {
+        return POSTERIZE_COLOR_TRANSFORM;
+    }
+
+    @Override
+    public int getSamplingRadius() {
+        return 0;
+    }
 }
@@ -0,0 +1,268 @@
+/*
+ * Copyright (C) 2012 CyberAgent
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.co.cyberagent.android.gpuimage;
+
+import android.annotation.TargetApi;
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+import android.os.Build;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.CRC32;
+
+/**
+ * Persists linked programs on disk with glGetProgramBinary, so later launches can skip
+ * compiling and linking shaders.
+ * <p>
+ * Entries are keyed by the shader sources, GL_RENDERER and GL_VERSION (which carries the
+ * driver version), so a driver update or a different GPU never loads a stale binary. Any
+ * mismatch, corruption or rejected binary deletes the entry and the caller falls back to
+ * compiling from source. Only used with OpenGL ES 3.0 contexts, disabled unless a directory
+ * was set with {@link #setDirectory(File)}.
+ */
+@TargetApi(18)
+final class GPUImageProgramBinaryCache {
+    private static final String TAG = "ProgramBinaryCache";
+    private static final int MAGIC = 0x47504942;
+    private static final int VERSION = 1;
+
+    private static File sDirectory;
+
+    private GPUImageProgramBinaryCache() {
+    }
+
+    static synchronized void setDirectory(final File directory) {
+        sDirectory = directory;
+    }
+
+    /**
+     * Creates a program from a stored binary.
+     *
+     * @return the linked program or 0 if there is no usable binary
+     */
+    static int load(final String vertexShader, final String fragmentShader) {
+        File file = getFile(vertexShader, fragmentShader);
+        if (file == null || !file.exists()) {
+            return 0;
+        }
+
+        Entry entry;
+        try {
+            entry = readEntry(file, GLES20.glGetString(GLES20.GL_RENDERER),
+                    GLES20.glGetString(GLES20.GL_VERSION));
+        } catch (IOException e) {
+            Log.d(TAG, "Discarding " + file.getName() + ": " + e.getMessage());
+            file.delete();
+            return 0;
+        }
+
+        byte[] binary = entry.binary;
+        ByteBuffer buffer = ByteBuffer.allocateDirect(binary.length).order(ByteOrder.nativeOrder());
+        buffer.put(binary).position(0);
+        int program = GLES20.glCreateProgram();
+        GLES30.glProgramBinary(program, entry.format, buffer, binary.length);
+        int[] link = new int[1];
+        GLES20.glGetProgramiv(program, GLES20.GL_LINK_STATUS, link, 0);
+        if (link[0] <= 0) {
+            Log.d(TAG, "Driver rejected " + file.getName());
+            GLES20.glDeleteProgram(program);
+            file.delete();
+            return 0;
+        }
+        return program;
+    }
+
+    /**
+     * Writes the binary of a freshly linked program to disk.
+     */
+    static void store(final int program, final String vertexShader, final String fragmentShader) {
+        File file = getFile(vertexShader, fragmentShader);
+        if (file == null) {
+            return;
+        }
+        int[] length = new int[1];
+        GLES20.glGetProgramiv(program, GLES30.GL_PROGRAM_BINARY_LENGTH, length, 0);
+        if (length[0] <= 0) {
+            return;
+        }
+        ByteBuffer buffer = ByteBuffer.allocateDirect(length[0]).order(ByteOrder.nativeOrder());
+        int[] format = new int[1];
+        GLES30.glGetProgramBinary(program, length[0], length, 0, format, 0, buffer);
+        if (length[0] <= 0) {
+            return;
+        }
+        byte[] binary = new byte[length[0]];
+        buffer.position(0);
+        buffer.get(binary);
+        try {
+            writeEntry(file, GLES20.glGetString(GLES20.GL_RENDERER),
+                    GLES20.glGetString(GLES20.GL_VERSION), format[0], binary);
+        } catch (IOException e) {
+            Log.d(TAG, "Could not store " + file.getName() + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Reads an entry written by {@link #writeEntry} for the same renderer and version.
+     *
+     * @throws IOException if the entry is corrupt, truncated or from another driver
+     */
+    static Entry readEntry(final File file, final String renderer, final String version)
+            throws IOException {
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Not a program binary");
+            }
+            if (!in.readUTF().equals(renderer) || !in.readUTF().equals(version)) {
+                throw new IOException("Binary was written by another driver");
+            }
+            int format = in.readInt();
+            int length = in.readInt();
+            if (length <= 0 || length > file.length()) {
+                throw new IOException("Invalid length");
+            }
+            byte[] binary = new byte[length];
+            long checksum = in.readLong();
+            in.readFully(binary);
+            CRC32 crc = new CRC32();
+            crc.update(binary);
+            if (crc.getValue() != checksum) {
+                throw new IOException("Checksum mismatch");
+            }
+            return new Entry(format, binary);
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    /**
+     * Writes an entry to a temporary file first and renames it, so a crash never leaves a
+     * truncated entry behind.
+     */
+    static void writeEntry(final File file, final String renderer, final String version,
+            final int format, final byte[] binary) throws IOException {
+        File directory = file.getParentFile();
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new IOException("Cannot create " + directory);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(binary);
+        File temp = new File(directory, file.getName() + ".tmp");
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(renderer);
+            out.writeUTF(version);
+            out.writeInt(format);
+            out.writeInt(binary.length);
+            out.writeLong(crc.getValue());
+            out.write(binary);
+            out.close();
+            out = null;
+            if (!temp.renameTo(file)) {
+                throw new IOException("Cannot rename " + temp);
+            }
+        } finally {
+            closeQuietly(out);
+            temp.delete();
+        }
+    }
+
+    private static File getFile(final String vertexShader, final String fragmentShader) {
+        File directory;
+        synchronized (GPUImageProgramBinaryCache.class) {
+            directory = sDirectory;
+        }
+        if (directory == null || !isSupported()) {
+            return null;
+        }
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            digest.update(vertexShader.getBytes("UTF-8"));
+            digest.update((byte) 0);
+            digest.update(fragmentShader.getBytes("UTF-8"));
+            digest.update((byte) 0);
+            digest.update(GLES20.glGetString(GLES20.GL_RENDERER).getBytes("UTF-8"));
+            digest.update((byte) 0);
+            digest.update(GLES20.glGetString(GLES20.GL_VERSION).getBytes("UTF-8"));
+            StringBuilder name = new StringBuilder();
+            for (byte b : digest.digest()) {
+                name.append(Character.forDigit((b >> 4) & 0xf, 16));
+                name.append(Character.forDigit(b & 0xf, 16));
+            }
+            return new File(directory, name.append(".bin").toString());
+        } catch (NoSuchAlgorithmException e) {
+            return null;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static boolean isSupported() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN_MR2) {
+            return false;
+        }
+        String version = GLES20.glGetString(GLES20.GL_VERSION);
+        if (version == null || !version.startsWith("OpenGL ES 3")) {
+            return false;
+        }
+        int[] formats = new int[1];
+        GLES20.glGetIntegerv(GLES30.GL_NUM_PROGRAM_BINARY_FORMATS, formats, 0);
+        return formats[0] > 0;
+    }
+
+    /**
+     * The program binary of an entry and its format.
+     */
+    static final class Entry {
+        final int format;
+        final byte[] binary;
+
+        Entry(final int format, final byte[] binary) {
+            this.format = format;
+            this.binary = binary;
+        }
+    }
+
+    private static void closeQuietly(final Closeable closeable) {
+        if (closeable == null) {
+            return;
+        }
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            // ignore
+        }
+    }
+}
@@ -0,0 +1,254 @@
+/*
+ * Copyright (C) 2012 CyberAgent
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.co.cyberagent.android.gpuimage;
+
+import android.opengl.GLES20;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.microedition.khronos.egl.EGL10;
+import javax.microedition.khronos.egl.EGLContext;
+
+/**
+ * Process-wide, reference counted cache of linked shader programs.
+ * <p>
+ * Programs are keyed by their vertex and fragment source and kept per EGL context, as program
+ * objects are only valid within the share group of the context which created them. A program
+ * whose last reference is released is kept idle for a while, so destroying a filter and
+ * initializing an equal one (e.g. when switching filters back and forth) does not recompile.
+ * A context created to share with another one, see
+ * {@link #shareCurrentContextWith(EGLContext)}, finds the programs of that context.
+ * <p>
+ * Thread-safe via synchronization on the class.
+ */
+final class GPUImageProgramCache {
+    private static final int MAX_IDLE_PROGRAMS = 32;
+
+    private static final Map<EGLContext, ShareGroup> sShareGroups =
+            new HashMap<EGLContext, ShareGroup>();
+
+    private GPUImageProgramCache() {
+    }
+
+    /**
+     * Returns a linked program for the given sources, compiling it only if the current
+     * context does not have one yet. Must be called on a thread with a current EGL context.
+     */
+    static synchronized Program acquire(final String vertexShader, final String fragmentShader) {
+        ShareGroup shareGroup = currentShareGroup();
+        Key key = new Key(vertexShader, fragmentShader);
+        Program program = shareGroup.programs.get(key);
+        if (program == null) {
+            program = new Program(shareGroup, key, loadProgram(vertexShader, fragmentShader));
+            if (program.id == 0) {
+                // Do not cache failed compiles
+                return program;
+            }
+            shareGroup.programs.put(key, program);
+            shareGroup.programsById.put(program.id, program);
+        }
+        if (program.refCount++ == 0) {
+            shareGroup.idlePrograms.remove(key);
+        }
+        return program;
+    }
+
+    /**
+     * Drops a reference to the program. Unreferenced programs are deleted once more than
+     * {@link #MAX_IDLE_PROGRAMS} of them are idle. Must be called on the OpenGL thread.
+     */
+    static synchronized void release(final Program program) {
+        if (program == null || program.id == 0 || program.refCount == 0) {
+            return;
+        }
+        if (--program.refCount > 0) {
+            return;
+        }
+        ShareGroup shareGroup = program.shareGroup;
+        if (shareGroup.programs.get(program.key) != program) {
+            // Belongs to a context which is gone
+            return;
+        }
+        program.lastUser = null;
+        shareGroup.idlePrograms.put(program.key, program);
+        Iterator<Program> iterator = shareGroup.idlePrograms.values().iterator();
+        while (shareGroup.idlePrograms.size() > MAX_IDLE_PROGRAMS) {
+            Program eldest = iterator.next();
+            iterator.remove();
+            shareGroup.programs.remove(eldest.key);
+            shareGroup.programsById.remove(eldest.id);
+            GLES20.glDeleteProgram(eldest.id);
+        }
+    }
+
+    /**
+     * Looks up a program handed out by {@link #acquire(String, String)} in the current context.
+     *
+     * @return the program or null if it was not created by this cache
+     */
+    static synchronized Program find(final int programId) {
+        ShareGroup shareGroup = sShareGroups.get(currentContext());
+        return shareGroup != null ? shareGroup.programsById.get(programId) : null;
+    }
+
+    /**
+     * Forgets all programs of the current context without deleting them, e.g. because the
+     * context was just (re)created and the handles of an earlier context with the same
+     * identity are no longer valid.
+     */
+    static synchronized void invalidateCurrentContext() {
+        sShareGroups.remove(currentContext());
+    }
+
+    /**
+     * Forgets all programs of a context which is gone, e.g. the one a renderer drew in before
+     * its surface was recreated. The programs were deleted with the context.
+     */
+    static synchronized void invalidateContext(final EGLContext context) {
+        sShareGroups.remove(context);
+    }
+
+    /**
+     * Makes the current context use the programs of the given one, which it was created to
+     * share objects with. Called once the current context is set up.
+     */
+    static synchronized void shareCurrentContextWith(final EGLContext context) {
+        ShareGroup shareGroup = sShareGroups.get(context);
+        if (shareGroup == null) {
+            shareGroup = new ShareGroup();
+            sShareGroups.put(context, shareGroup);
+        }
+        sShareGroups.put(currentContext(), shareGroup);
+    }
+
+    private static int loadProgram(final String vertexShader, final String fragmentShader) {
+        int id = GPUImageProgramBinaryCache.load(vertexShader, fragmentShader);
+        if (id == 0) {
+            id = OpenGlUtils.loadProgram(vertexShader, fragmentShader);
+            if (id != 0) {
+                GPUImageProgramBinaryCache.store(id, vertexShader, fragmentShader);
+            }
+        }
+        return id;
+    }
+
+    private static ShareGroup currentShareGroup() {
+        EGLContext context = currentContext();
+        ShareGroup shareGroup = sShareGroups.get(context);
+        if (shareGroup == null) {
+            shareGroup = new ShareGroup();
+            sShareGroups.put(context, shareGroup);
+        }
+        return shareGroup;
+    }
+
+    private static EGLContext currentContext() {
+        return ((EGL10) EGLContext.getEGL()).eglGetCurrentContext();
+    }
+
+    private static final class ShareGroup {
+        final Map<Key, Program> programs = new HashMap<Key, Program>();
+        final Map<Integer, Program> programsById = new HashMap<Integer, Program>();
+        final LinkedHashMap<Key, Program> idlePrograms = new LinkedHashMap<Key, Program>();
+    }
+
+    private static final class Key {
+        final String vertexShader;
+        final String fragmentShader;
+
+        Key(final String vertexShader, final String fragmentShader) {
+            this.vertexShader = vertexShader;
+            this.fragmentShader = fragmentShader;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return vertexShader.equals(key.vertexShader)
+                    && fragmentShader.equals(key.fragmentShader);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * vertexShader.hashCode() + fragmentShader.hashCode();
+        }
+    }
+
+    /**
+     * A cached program together with its attribute and uniform locations.
+     */
+    static final class Program {
+        final int id;
+        private final ShareGroup shareGroup;
+        private final Key key;
+        private final Map<String, Integer> attribLocations = new HashMap<String, Integer>();
+        private final Map<String, Integer> uniformLocations = new HashMap<String, Integer>();
+        private int refCount;
+        private Object lastUser;
+
+        private Program(final ShareGroup shareGroup, final Key key, final int id) {
+            this.shareGroup = shareGroup;
+            this.key = key;
+            this.id = id;
+        }
+
+        int getAttribLocation(final String name) {
+            synchronized (GPUImageProgramCache.class) {
+                Integer location = attribLocations.get(name);
+                if (location == null) {
+                    location = GLES20.glGetAttribLocation(id, name);
+                    attribLocations.put(name, location);
+                }
+                return location;
+            }
+        }
+
+        int getUniformLocation(final String name) {
+            synchronized (GPUImageProgramCache.class) {
+                Integer location = uniformLocations.get(name);
+                if (location == null) {
+                    location = GLES20.glGetUniformLocation(id, name);
+                    uniformLocations.put(name, location);
+                }
+                return location;
+            }
+        }
+
+        /**
+         * Marks the given object as the one whose uniform values are loaded into the program.
+         *
+         * @return true if another user had loaded its values since the last call by this user,
+         *         i.e. all uniform values of the caller need to be uploaded again
+         */
+        boolean use(final Object user) {
+            if (lastUser == user) {
+                return false;
+            }
+            lastUser = user;
+            return true;
+        }
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright (C) 2012 CyberAgent
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.co.cyberagent.android.gpuimage;
+
+import android.opengl.GLES20;
+
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.microedition.khronos.egl.EGL10;
+import javax.microedition.khronos.egl.EGLContext;
+
+/**
+ * Process-wide cache of vertex buffer objects holding the small vertex and texture coordinate
+ * arrays filters draw with.
+ * <p>
+ * Vertex attributes used to be specified from client memory, which makes the driver copy the
+ * array on every draw. Buffers are matched by content, so the cube, all rotations and flips of
+ * {@link jp.co.cyberagent.android.gpuimage.util.TextureRotationUtil} and the crop adjusted
+ * coordinates of the renderer each end up in one buffer object, which is uploaded once.
+ * Content which changes often only evicts the least recently used entries.
+ * <p>
+ * Thread-safe via synchronization on the class.
+ */
+final class GPUImageQuadCache {
+    private static final int MAX_VALUES = 16;
+    private static final int MAX_QUADS = 64;
+
+    private static final Map<EGLContext, ArrayList<Quad>> sQuads =
+            new HashMap<EGLContext, ArrayList<Quad>>();
+
+    /**
+     * The quads of the context last seen current on each thread. Querying the current context
+     * allocates a new wrapper object on every call, so it is only done once per thread and
+     * context; code making another context current has to call
+     * {@link #invalidateCurrentContext()}, as the renderer and PixelBuffer do.
+     */
+    private static final ThreadLocal<ArrayList<Quad>> sThreadQuads =
+            new ThreadLocal<ArrayList<Quad>>();
+
+    private GPUImageQuadCache() {
+    }
+
+    /**
+     * Points the attribute at a buffer object holding the content of {@code values}, falling
+     * back to client memory if the array is too large to be cached. Two components per vertex.
+     * Must be called on a thread with a current EGL context.
+     */
+    static void setVertexAttribPointer(final int location, final FloatBuffer values) {
+        int buffer = obtain(values);
+        if (buffer == 0) {
+            values.position(0);
+            GLES20.glVertexAttribPointer(location, 2, GLES20.GL_FLOAT, false, 0, values);
+            return;
+        }
+        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, buffer);
+        GLES20.glVertexAttribPointer(location, 2, GLES20.GL_FLOAT, false, 0, 0);
+        // Leave no buffer bound, client memory pointers of other code would become offsets
+        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+    }
+
+    /**
+     * Forgets all buffers of the current context without deleting them, see
+     * {@link GPUImageProgramCache#invalidateCurrentContext()}.
+     */
+    static synchronized void invalidateCurrentContext() {
+        sQuads.remove(currentContext());
+        sThreadQuads.remove();
+    }
+
+    /**
+     * Forgets all buffers of a context which is gone, see
+     * {@link GPUImageProgramCache#invalidateContext(EGLContext)}.
+     */
+    static synchronized void invalidateContext(final EGLContext context) {
+        sQuads.remove(context);
+    }
+
+    private static synchronized int obtain(final FloatBuffer values) {
+        int length = values.limit();
+        if (length > MAX_VALUES) {
+            return 0;
+        }
+        ArrayList<Quad> quads = sThreadQuads.get();
+        if (quads == null) {
+            EGLContext context = currentContext();
+            quads = sQuads.get(context);
+            if (quads == null) {
+                quads = new ArrayList<Quad>();
+                sQuads.put(context, quads);
+            }
+            sThreadQuads.set(quads);
+        }
+        for (int i = 0; i < quads.size(); i++) {
+            Quad quad = quads.get(i);
+            if (quad.matches(values, length)) {
+                if (i > 0) {
+                    // Most recently used first, a frame only uses a handful of them
+                    quads.remove(i);
+                    quads.add(0, quad);
+                }
+                return quad.buffer;
+            }
+        }
+
+        Quad quad = new Quad(values, length);
+        if (quads.size() >= MAX_QUADS) {
+            Quad eldest = quads.remove(quads.size() - 1);
+            GLES20.glDeleteBuffers(1, new int[] {eldest.buffer}, 0);
+        }
+        quads.add(0, quad);
+        return quad.buffer;
+    }
+
+    private static EGLContext currentContext() {
+        return ((EGL10) EGLContext.getEGL()).eglGetCurrentContext();
+    }
+
+    private static final class Quad {
+        final float[] values;
+        final int buffer;
+
+        Quad(final FloatBuffer content, final int length) {
+            values = new float[length];
+            for (int i = 0; i < length; i++) {
+                values[i] = content.get(i);
+            }
+            int[] buffers = new int[1];
+            GLES20.glGenBuffers(1, buffers, 0);
+            buffer = buffers[0];
+            content.position(0);
+            GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, buffer);
+            GLES20.glBufferData(GLES20.GL_ARRAY_BUFFER, length * 4, content,
+                    GLES20.GL_STATIC_DRAW);
+            GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+        }
+
+        boolean matches(final FloatBuffer content, final int length) {
+            if (values.length != length) {
+                return false;
+            }
+            for (int i = 0; i < length; i++) {
+                if (values[i] != content.get(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,29 @@
+/*
+ * Copyright (C) 2012 CyberAgent
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.co.cyberagent.android.gpuimage;
+
+/**
+ * A filter which can trade quality for speed, e.g. by sampling a smaller neighbourhood.
+ * Lowered by a {@link GPUImageQualityGovernor} when the preview cannot keep up.
+ */
+public interface GPUImageQualityAdjustable {
+    /**
+     * @param quality 1 for the configured quality, down to 0 for the cheapest variant the
+     *                filter offers; the configured parameters themselves are kept
+     */
+    void setQuality(float quality);
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2012 CyberAgent
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.co.cyberagent.android.gpuimage;
+
+/**
+ * Keeps the live preview at a target frame rate by lowering the resolution the filter renders
+ * at and, once that is at its minimum, the quality of {@link GPUImageQualityAdjustable}
+ * filters.
+ * <p>
+ * The renderer reports the time from the start of each frame until its buffers were swapped.
+ * A moving average of it is compared against the target every few frames: above the target
+ * the render scale is stepped down, then the quality; with enough headroom the quality is
+ * restored first, then the scale. The filter is drawn into an offscreen target of the scaled
+ * size and only the result is upscaled to the surface.
+ * <p>
+ * Thermal pressure, e.g. derived from the PowerManager thermal status by the app, caps both
+ * before the frame times rise. Install with
+ * {@link GPUImage#setQualityGovernor(GPUImageQualityGovernor)}.
+ */
+public class GPUImageQualityGovernor {
+    private static final float SCALE_STEP = 0.85f;
+    private static final float QUALITY_STEP = 0.25f;
+    private static final float SMOOTHING = 0.1f;
+    private static final float HEADROOM = 0.7f;
+    private static final int EVALUATE_INTERVAL = 15;
+
+    private final long mTargetFrameNanos;
+    private float mMinScale = 0.5f;
+    private float mMaxScale = 1f;
+    private float mMinQuality = 0.25f;
+    private float mThermalPressure;
+
+    // Guarded by this
+    private float mScale = 1f;
+    private float mQuality = 1f;
+    private float mAverageNanos;
+    private int mFrames;
+
+    /**
+     * @param targetFramesPerSecond the frame rate to hold, e.g. 30
+     */
+    public GPUImageQualityGovernor(final float targetFramesPerSecond) {
+        mTargetFrameNanos = (long) (1e9 / targetFramesPerSecond);
+    }
+
+    /**
+     * @param minScale the smallest fraction of the surface size to render at, default 0.5
+     * @param maxScale the largest, default 1
+     */
+    public synchronized void setScaleRange(final float minScale, final float maxScale) {
+        mMinScale = Math.max(0.1f, Math.min(minScale, 1f));
+        mMaxScale = Math.max(mMinScale, Math.min(maxScale, 1f));
+        mScale = clamp(mScale, mMinScale, getScaleCap());
+    }
+
+    /**
+     * @param minQuality the lowest filter quality to fall back to, default 0.25
+     */
+    public synchronized void setMinQuality(final float minQuality) {
+        mMinQuality = Math.max(0f, Math.min(minQuality, 1f));
+        mQuality = clamp(mQuality, mMinQuality, getQualityCap());
+    }
+
+    /**
+     * @param pressure 0 without thermal pressure up to 1 at which scale and quality are held
+     *                 at their minimum
+     */
+    public synchronized void setThermalPressure(final float pressure) {
+        mThermalPressure = Math.max(0f, Math.min(pressure, 1f));
+        mScale = Math.min(mScale, getScaleCap());
+        mQuality = Math.min(mQuality, getQualityCap());
+    }
+
+    /**
+     * @return the fraction of the surface size the filter renders at
+     */
+    public synchronized float getScale() {
+        return mScale;
+    }
+
+    /**
+     * @return the quality handed to {@link GPUImageQualityAdjustable} filters
+     */
+    public synchronized float getQuality() {
+        return mQuality;
+    }
+
+    public synchronized void reset() {
+        mScale = getScaleCap();
+        mQuality = getQualityCap();
+        mAverageNanos = 0;
+        mFrames = 0;
+    }
+
+    /**
+     * Called on the GL thread with the time from the start of a frame until it was presented.
+     */
+    synchronized void onFrame(final long frameNanos) {
+        mAverageNanos = mAverageNanos == 0 ? frameNanos
+                : mAverageNanos + (frameNanos - mAverageNanos) * SMOOTHING;
+        if (++mFrames < EVALUATE_INTERVAL) {
+            return;
+        }
+        mFrames = 0;
+        if (mAverageNanos > mTargetFrameNanos) {
+            if (mScale > mMinScale) {
+                mScale = Math.max(mMinScale, mScale * SCALE_STEP);
+            } else {
+                mQuality = Math.max(mMinQuality, mQuality - QUALITY_STEP);
+            }
+        } else if (mAverageNanos < mTargetFrameNanos * HEADROOM) {
+            if (mQuality < getQualityCap()) {
+                mQuality = Math.min(getQualityCap(), mQuality + QUALITY_STEP);
+            } else {
+                mScale = Math.min(getScaleCap(), mScale / SCALE_STEP);
+            }
+        }
+    }
+
+    private float getScaleCap() {
+        return mMaxScale - (mMaxScale - mMinScale) * mThermalPressure;
+    }
+
+    private float getQualityCap() {
+        return 1f - (1f - mMinQuality) * mThermalPressure;
+    }
+
+    private static float clamp(final float value, final float min, final float max) {
+        return Math.max(min, Math.min(value, max));
+    }
+}
@@ -253,6 +253,8 @@ public class GPUImageRGBDilationFilter extends GPUImageTwoPassTextureSamplingFil
                     "}\n";
 
 
+    private final int mRadius;
+
     public GPUImageRGBDilationFilter() {
         this(1);
     }
@@ -264,11 +266,12 @@ public class GPUImageRGBDilationFilter extends GPUImageTwoPassTextureSamplingFil
      * @param radius 1, 2, 3 or 4
      */
     public GPUImageRGBDilationFilter(int radius) {
-        this(getVertexShader(radius), getFragmentShader(radius));
+        this(getVertexShader(radius), getFragmentShader(radius), getSampledRadius(radius));
     }
 
-    private GPUImageRGBDilationFilter(String vertexShader, String fragmentShader) {
+    private GPUImageRGBDilationFilter(String vertexShader, String fragmentShader, int radius) {
         super(vertexShader, fragmentShader, vertexShader, fragmentShader);
+        mRadius = radius;
     }
 
     private static String getVertexShader(int radius) {
@@ -298,4 +301,23 @@ public class GPUImageRGBDilationFilter extends GPUImageTwoPassTextureSamplingFil
                 return FRAGMENT_SHADER_4;
         }
     }
+
+    @Override
+    public int getSamplingRadius() {
+        return mRadius;
+    }
+
+    private static int getSampledRadius(int radius) {
+        switch (radius) {
+            case 0:
+            case 1:
+                return 1;
+            case 2:
+                return 2;
+            case 3:
+                return 3;
+            default:
+                return 4;
+        }
+    }
 }
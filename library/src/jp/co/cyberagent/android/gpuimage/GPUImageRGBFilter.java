@@ -24,7 +24,8 @@ import android.opengl.GLES20;
  * green:
  * blue:
  */
-public class GPUImageRGBFilter extends GPUImageFilter {
+public class GPUImageRGBFilter extends GPUImageFilter implements GPUImagePointwiseFilter,
+        GPUImageAffineColorFilter, GPUImageColorMappingFilter {
     public static final String RGB_FRAGMENT_SHADER = "" +
     		"  varying highp vec2 textureCoordinate;\n" +
     		"  \n" +
@@ -40,6 +41,9 @@ public class GPUImageRGBFilter extends GPUImageFilter {
     		"      gl_FragColor = vec4(textureColor.r * red, textureColor.g * green, textureColor.b * blue, 1.0);\n" +
     		"  }\n";
 
+    public static final String RGB_COLOR_TRANSFORM = "" +
+            "    color = vec4(color.r * red, color.g * green, color.b * blue, 1.0);\n";
+
     private int mRedLocation;
     private float mRed;
     private int mGreenLocation;
@@ -62,9 +66,9 @@ public class GPUImageRGBFilter extends GPUImageFilter {
     @Override
     public void onInit() {
         super.onInit();
-        mRedLocation = GLES20.glGetUniformLocation(getProgram(), "red");
-        mGreenLocation = GLES20.glGetUniformLocation(getProgram(), "green");
-        mBlueLocation = GLES20.glGetUniformLocation(getProgram(), "blue");
+        mRedLocation = OpenGlUtils.getUniformLocation(getProgram(), "red");
+        mGreenLocation = OpenGlUtils.getUniformLocation(getProgram(), "green");
+        mBlueLocation = OpenGlUtils.getUniformLocation(getProgram(), "blue");
         mIsInitialized = true;
         setRed(mRed);
         setGreen(mGreen);
@@ -91,4 +95,24 @@ public class GPUImageRGBFilter extends GPUImageFilter {
             setFloat(mBlueLocation, mBlue);
         }
     }
+
+    @Override
+    public String getColorTransform() {
+        return RGB_COLOR_TRANSFORM;
+    }
+
+    @Override
+    public void getColorMatrix(final float[] matrix, final float[] offset) {
+        GPUImageFoldedColorFilter.setIdentity(matrix, offset);
+        matrix[0] = mRed;
+        matrix[5] = mGreen;
+        matrix[10] = mBlue;
+        matrix[15] = 0.0f;
+        offset[3] = 1.0f;
+    }
+
+    @Override
+    public int getSamplingRadius() {
+        return 0;
+    }
 }
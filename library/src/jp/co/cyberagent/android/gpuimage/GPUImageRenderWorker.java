@@ -0,0 +1,912 @@
+/*
+ * Copyright (C) 2012 CyberAgent
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.co.cyberagent.android.gpuimage;
+
+import android.annotation.TargetApi;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Canvas;
+import android.graphics.Rect;
+import android.opengl.GLES20;
+import android.os.Build;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import javax.microedition.khronos.egl.EGL10;
+import javax.microedition.khronos.egl.EGLConfig;
+import javax.microedition.khronos.egl.EGLContext;
+import javax.microedition.khronos.egl.EGLDisplay;
+import javax.microedition.khronos.egl.EGLSurface;
+
+import static jp.co.cyberagent.android.gpuimage.util.TextureRotationUtil.TEXTURE_NO_ROTATION;
+
+/**
+ * Renders filtered bitmaps offscreen on a GL thread of its own.
+ * <p>
+ * Unlike a {@link PixelBuffer} per call, the EGL context is created by the first job and kept
+ * for all later ones, together with the cached programs and the input texture, which is only
+ * uploaded again for a different or modified bitmap. Jobs run one after the other in the order
+ * they were submitted, each into an offscreen framebuffer of the image size, and complete a
+ * future with the result. The default display is never terminated, so other EGL users of the
+ * process are not affected.
+ * <p>
+ * A worker created for the renderer of a preview shares its context with the preview's, see
+ * {@link #GPUImageRenderWorker(GPUImageRenderer)}. The filter drawn by the preview is then
+ * rendered as it is, with its programs and, for the bitmap shown, the preview's texture. It is
+ * neither destroyed nor initialized again, the preview only waits for the job to finish.
+ * <p>
+ * Images larger than a texture may be, or than {@link #MAX_UNTILED_PIXELS}, are rendered in
+ * tiles when the filter declares how far it samples, see {@link #renderTiled}.
+ */
+public class GPUImageRenderWorker {
+    private static final int EGL_CONTEXT_CLIENT_VERSION = 0x3098;
+    private static final int EGL_OPENGL_ES2_BIT = 4;
+
+    /**
+     * Images with more pixels are rendered in tiles by {@link #render}, if the filter allows.
+     */
+    public static final int MAX_UNTILED_PIXELS = 4096 * 4096;
+    /**
+     * The tile size used by {@link #render} for large images.
+     */
+    public static final int DEFAULT_TILE_SIZE = 1024;
+
+    /**
+     * Provides the regions of an image rendered in tiles.
+     */
+    public interface TileSource {
+        int getWidth();
+
+        int getHeight();
+
+        /**
+         * @return a new bitmap of the region, which the renderer recycles
+         */
+        Bitmap decodeRegion(Rect region) throws IOException;
+    }
+
+    /**
+     * Receives the tiles of a rendered image, row by row from the top and left to right within
+     * a row. A tile is recycled once the sink returns.
+     */
+    public interface TileSink {
+        void writeTile(Bitmap tile, int left, int top) throws IOException;
+    }
+
+    private static GPUImageRenderWorker sDefault;
+
+    private final ExecutorService mExecutor;
+    private final GPUImageRenderer mPreview;
+    private final FloatBuffer mGLCubeBuffer;
+    private final FloatBuffer mGLTextureBuffer;
+
+    // Worker thread only
+    private EGL10 mEGL;
+    private EGLDisplay mEGLDisplay;
+    private EGLContext mEGLContext;
+    private EGLSurface mEGLSurface;
+    private EGLContext mRequestedShareContext;
+    private EGLContext mShareContext;
+    private GPUImageRenderer mRenderer;
+    private final GPUImageFilter mIdleFilter = new GPUImageFilter();
+    private GPUImageFilter mKeptFilter;
+    private GPUImageFrameBuffer mFrameBuffer;
+    private int mImageTexture = GPUImageRenderer.NO_IMAGE;
+    private WeakReference<Bitmap> mImage;
+    private int mImageGeneration;
+    private int mImageWidth;
+    private int mImageHeight;
+
+    /**
+     * @return the worker shared by {@link GPUImage}, alive for the rest of the process
+     */
+    public static synchronized GPUImageRenderWorker getDefault() {
+        if (sDefault == null) {
+            sDefault = new GPUImageRenderWorker();
+        }
+        return sDefault;
+    }
+
+    public GPUImageRenderWorker() {
+        this(null);
+    }
+
+    /**
+     * Creates a worker whose context shares objects with the context the given renderer draws
+     * in, following it when the renderer's context is recreated. Jobs hold the renderer's draw
+     * lock, so the preview and the worker never draw its filter at the same time.
+     *
+     * @param preview the renderer of the preview, null to render in a context of its own
+     */
+    public GPUImageRenderWorker(final GPUImageRenderer preview) {
+        mPreview = preview;
+        mExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                return new Thread(runnable, "GPUImageRenderWorker");
+            }
+        });
+
+        mGLCubeBuffer = ByteBuffer.allocateDirect(GPUImageRenderer.CUBE.length * 4)
+                .order(ByteOrder.nativeOrder())
+                .asFloatBuffer();
+        mGLCubeBuffer.put(GPUImageRenderer.CUBE).position(0);
+        mGLTextureBuffer = ByteBuffer.allocateDirect(TEXTURE_NO_ROTATION.length * 4)
+                .order(ByteOrder.nativeOrder())
+                .asFloatBuffer();
+        mGLTextureBuffer.put(TEXTURE_NO_ROTATION).position(0);
+    }
+
+    /**
+     * Applies a filter to a bitmap without scaling or flipping it.
+     */
+    public Future<Bitmap> render(final Bitmap image, final GPUImageFilter filter) {
+        return render(image, filter, GPUImage.ScaleType.CENTER_CROP, false, false);
+    }
+
+    /**
+     * Applies a filter to a bitmap, producing a bitmap of the same size. The filter drawn by
+     * the preview shared with is used as it is. Any other filter is initialized in the
+     * worker's context and destroyed again before the future completes, so it can be handed to
+     * a renderer right away.
+     */
+    public Future<Bitmap> render(final Bitmap image, final GPUImageFilter filter,
+            final GPUImage.ScaleType scaleType, final boolean flipHorizontal,
+            final boolean flipVertical) {
+        return mExecutor.submit(new Callable<Bitmap>() {
+            @Override
+            public Bitmap call() {
+                return renderOnWorker(image, filter, scaleType, flipHorizontal, flipVertical,
+                        false);
+            }
+        });
+    }
+
+    /**
+     * Applies a filter to a bitmap without scaling or flipping it, like
+     * {@link #render(Bitmap, GPUImageFilter)}, but leaves the filter initialized in the
+     * worker's context for the next job with it, e.g. for many images with one look. The
+     * filter is destroyed by {@link #release()} or once a job draws another filter, and must
+     * not be drawn anywhere else until then. The filter drawn by the preview shared with is
+     * used as it is.
+     */
+    public Future<Bitmap> renderKeepingFilter(final Bitmap image, final GPUImageFilter filter) {
+        return mExecutor.submit(new Callable<Bitmap>() {
+            @Override
+            public Bitmap call() {
+                return renderOnWorker(image, filter, GPUImage.ScaleType.CENTER_CROP, false,
+                        false, true);
+            }
+        });
+    }
+
+    /**
+     * Applies each filter to a copy of the bitmap scaled to the given size. The copy is
+     * uploaded once and every filter draws into its own tile of an atlas, which is read back
+     * in one go; the thumbnails are cut from it. Atlases only grow as large as a texture may
+     * be, so many thumbnails take a few of them.
+     *
+     * @return the thumbnails in the order of the filters
+     */
+    public Future<List<Bitmap>> renderThumbnails(final Bitmap image,
+            final List<GPUImageFilter> filters, final int width, final int height) {
+        return mExecutor.submit(new Callable<List<Bitmap>>() {
+            @Override
+            public List<Bitmap> call() {
+                if (mPreview == null) {
+                    prepareContext(null);
+                    return drawThumbnails(image, filters, width, height);
+                }
+                synchronized (mPreview.getDrawLock()) {
+                    prepareContext(mPreview.getEGLContext());
+                    return drawThumbnails(image, filters, width, height);
+                }
+            }
+        });
+    }
+
+    /**
+     * Applies a filter to an image tile by tile, so neither the GPU nor the heap ever holds
+     * more than a tile at a time, however large the image is. Each tile is drawn from a region
+     * overlapping its neighbours by the filter's {@link GPUImageFilter#getSamplingRadius()},
+     * which makes the stitched tiles equal to the image rendered in one go.
+     *
+     * @param tileSize the edge length of the tiles, reduced to what a texture may be
+     * @throws IllegalArgumentException in the future if the filter does not declare a
+     *         sampling radius, or one too large for a texture
+     */
+    public Future<Void> renderTiled(final TileSource source, final GPUImageFilter filter,
+            final int tileSize, final TileSink sink) {
+        return mExecutor.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws IOException {
+                prepareContext();
+                drawTiles(source, filter, tileSize, sink);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Cuts the tiles from a bitmap.
+     */
+    public static TileSource fromBitmap(final Bitmap image) {
+        return new TileSource() {
+            @Override
+            public int getWidth() {
+                return image.getWidth();
+            }
+
+            @Override
+            public int getHeight() {
+                return image.getHeight();
+            }
+
+            @Override
+            public Bitmap decodeRegion(final Rect region) {
+                if (region.width() == image.getWidth() && region.height() == image.getHeight()) {
+                    // createBitmap would return the image itself
+                    return image.copy(Bitmap.Config.ARGB_8888, false);
+                }
+                return Bitmap.createBitmap(image, region.left, region.top, region.width(),
+                        region.height());
+            }
+        };
+    }
+
+    /**
+     * Decodes only the regions needed for each tile, so the image is never held as a whole.
+     * The decoder is not recycled.
+     *
+     * @throws UnsupportedOperationException below API 10, which has no region decoder
+     */
+    @TargetApi(10)
+    public static TileSource fromDecoder(final BitmapRegionDecoder decoder) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.GINGERBREAD_MR1) {
+            throw new UnsupportedOperationException("BitmapRegionDecoder needs API 10");
+        }
+        final BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+        return new TileSource() {
+            @Override
+            public int getWidth() {
+                return decoder.getWidth();
+            }
+
+            @Override
+            public int getHeight() {
+                return decoder.getHeight();
+            }
+
+            @Override
+            public Bitmap decodeRegion(final Rect region) throws IOException {
+                Bitmap bitmap = decoder.decodeRegion(region, options);
+                if (bitmap == null) {
+                    throw new IOException("Cannot decode region " + region);
+                }
+                return bitmap;
+            }
+        };
+    }
+
+    /**
+     * Draws the tiles into a bitmap of the image size.
+     */
+    public static TileSink toBitmap(final Bitmap output) {
+        final Canvas canvas = new Canvas(output);
+        return new TileSink() {
+            @Override
+            public void writeTile(final Bitmap tile, final int left, final int top) {
+                canvas.drawBitmap(tile, left, top, null);
+            }
+        };
+    }
+
+    /**
+     * Writes the pixels to a stream as 32 bit ARGB values, big endian, row by row from the
+     * top. Only a row of tiles is buffered. The stream is not closed.
+     *
+     * @param width the width of the image
+     */
+    public static TileSink toStream(final OutputStream out, final int width) {
+        return new TileSink() {
+            private int[] mStrip;
+            private int mStripHeight;
+            private final byte[] mRow = new byte[width * 4];
+
+            @Override
+            public void writeTile(final Bitmap tile, final int left, final int top)
+                    throws IOException {
+                if (left == 0) {
+                    mStripHeight = tile.getHeight();
+                    if (mStrip == null || mStrip.length < width * mStripHeight) {
+                        mStrip = new int[width * mStripHeight];
+                    }
+                }
+                tile.getPixels(mStrip, left, width, 0, 0, tile.getWidth(), tile.getHeight());
+                if (left + tile.getWidth() < width) {
+                    return;
+                }
+                IntBuffer row = ByteBuffer.wrap(mRow).asIntBuffer();
+                for (int y = 0; y < mStripHeight; y++) {
+                    row.clear();
+                    row.put(mStrip, y * width, width);
+                    out.write(mRow);
+                }
+            }
+        };
+    }
+
+    /**
+     * Destroys the context once the jobs submitted so far are done and ends the thread.
+     */
+    public void release() {
+        synchronized (GPUImageRenderWorker.class) {
+            if (sDefault == this) {
+                sDefault = null;
+            }
+        }
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                releaseContext();
+            }
+        });
+        mExecutor.shutdown();
+    }
+
+    private Bitmap renderOnWorker(final Bitmap image, final GPUImageFilter filter,
+            final GPUImage.ScaleType scaleType, final boolean flipHorizontal,
+            final boolean flipVertical, final boolean keep) {
+        prepareContext();
+        if (isTiled(image, filter, flipHorizontal, flipVertical)) {
+            return drawTiled(image, filter);
+        }
+        if (mPreview != null) {
+            // Only the preview's filter keeps the preview waiting, others are drawn alone
+            synchronized (mPreview.getDrawLock()) {
+                if (isSharedFilter(filter)) {
+                    return draw(image, filter, scaleType, flipHorizontal, flipVertical, true,
+                            false);
+                }
+            }
+        }
+        return draw(image, filter, scaleType, flipHorizontal, flipVertical, false, keep);
+    }
+
+    /**
+     * @return true if the image is too large to draw in one go and the filter can be tiled.
+     *         The output has the size of the image, so only flips keep it from being tiled.
+     */
+    private boolean isTiled(final Bitmap image, final GPUImageFilter filter,
+            final boolean flipHorizontal, final boolean flipVertical) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int maxSize = getMaxTileSize();
+        if (width <= maxSize && height <= maxSize && (long) width * height <= MAX_UNTILED_PIXELS) {
+            return false;
+        }
+        return !flipHorizontal && !flipVertical
+                && filter.getSamplingRadius() != GPUImageFilter.SAMPLING_RADIUS_UNBOUNDED;
+    }
+
+    private Bitmap drawTiled(final Bitmap image, final GPUImageFilter filter) {
+        Bitmap result = Bitmap.createBitmap(image.getWidth(), image.getHeight(),
+                Bitmap.Config.ARGB_8888);
+        try {
+            drawTiles(fromBitmap(image), filter, DEFAULT_TILE_SIZE, toBitmap(result));
+        } catch (IOException e) {
+            // Neither the bitmap source nor the bitmap sink do any I/O
+            throw new IllegalStateException(e);
+        }
+        return result;
+    }
+
+    /**
+     * Creates the context on first use, or again when the preview's context was recreated,
+     * e.g. after a pause.
+     */
+    private void prepareContext() {
+        if (mPreview == null) {
+            prepareContext(null);
+            return;
+        }
+        synchronized (mPreview.getDrawLock()) {
+            prepareContext(mPreview.getEGLContext());
+        }
+    }
+
+    private void prepareContext(final EGLContext previewContext) {
+        if (mEGLContext == null || previewContext != mRequestedShareContext) {
+            releaseContext();
+            createContext(previewContext);
+        }
+        GPUImageFrameBuffer.deleteOrphans();
+    }
+
+    /**
+     * Destroys the filter left initialized by {@link #renderKeepingFilter}, if any.
+     */
+    private void dropKeptFilter() {
+        if (mKeptFilter != null) {
+            mKeptFilter = null;
+            mRenderer.setFilter(mIdleFilter);
+            mRenderer.runPendingOnDraw();
+        }
+    }
+
+    /**
+     * @return true for the filter the preview draws, which is used as it is. Only valid
+     *         while holding the preview's draw lock.
+     */
+    private boolean isSharedFilter(final GPUImageFilter filter) {
+        // Not once the preview's context was recreated under a running job
+        return mShareContext != null && mPreview.getEGLContext() == mRequestedShareContext
+                && filter == mPreview.getFilter() && filter.isInitialized();
+    }
+
+    private Bitmap draw(final Bitmap image, final GPUImageFilter filter,
+            final GPUImage.ScaleType scaleType, final boolean flipHorizontal,
+            final boolean flipVertical, final boolean shared, final boolean keep) {
+        boolean kept = keep && filter == mKeptFilter;
+        if (!kept) {
+            dropKeptFilter();
+        }
+        int width = image.getWidth();
+        int height = image.getHeight();
+        mRenderer.setScaleType(scaleType);
+        mRenderer.setRotation(Rotation.NORMAL, flipHorizontal, flipVertical);
+        if (mFrameBuffer == null || !mFrameBuffer.matches(width, height, GLES20.GL_RGBA)) {
+            if (mFrameBuffer != null) {
+                mFrameBuffer.destroy();
+            }
+            mFrameBuffer = new GPUImageFrameBuffer(width, height, GLES20.GL_RGBA);
+            mRenderer.onSurfaceChanged(null, width, height);
+        }
+        setImage(image, width, height, shared);
+
+        int previewWidth = filter.getOutputWidth();
+        int previewHeight = filter.getOutputHeight();
+        float previewQuality = shared ? mPreview.getAppliedQuality() : 1f;
+        if (shared) {
+            mRenderer.useSharedFilter(filter);
+            GLES20.glUseProgram(filter.getProgram());
+            filter.onOutputSizeChanged(width, height);
+            if (previewQuality != 1f && filter instanceof GPUImageQualityAdjustable) {
+                // Exports are never degraded by the preview's governor
+                ((GPUImageQualityAdjustable) filter).setQuality(1f);
+            }
+        } else if (!kept) {
+            mRenderer.setFilter(filter);
+        }
+
+        Bitmap result;
+        try {
+            GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, mFrameBuffer.getFrameBufferId());
+            // Drawn twice like PixelBuffer#getBitmap, some filters need a frame to settle
+            mRenderer.onDrawFrame(null);
+            mRenderer.onDrawFrame(null);
+            result = readBitmap(width, height);
+        } finally {
+            GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
+            if (shared) {
+                // Hands the filter back to the preview as it was
+                mRenderer.useSharedFilter(mIdleFilter);
+                GLES20.glUseProgram(filter.getProgram());
+                filter.onOutputSizeChanged(previewWidth, previewHeight);
+                if (previewQuality != 1f && filter instanceof GPUImageQualityAdjustable) {
+                    ((GPUImageQualityAdjustable) filter).setQuality(previewQuality);
+                }
+                GLES20.glFlush();
+            } else if (keep) {
+                // Stays the renderer's filter, sized by onSurfaceChanged for the next image
+                mKeptFilter = filter;
+            } else {
+                // Destroys the filter in this context before the caller gets it back
+                mRenderer.setFilter(mIdleFilter);
+                mRenderer.runPendingOnDraw();
+            }
+            if (mImageTexture != mRenderer.getImageTexture()) {
+                // Never delete the preview's texture
+                mRenderer.setImageTexture(mImageTexture, mImageWidth, mImageHeight);
+            }
+        }
+        return result;
+    }
+
+    private List<Bitmap> drawThumbnails(final Bitmap image, final List<GPUImageFilter> filters,
+            final int width, final int height) {
+        List<Bitmap> thumbnails = new ArrayList<Bitmap>(filters.size());
+        if (filters.isEmpty()) {
+            return thumbnails;
+        }
+        if (filters.contains(mKeptFilter)) {
+            // Initialized for each thumbnail below
+            dropKeptFilter();
+        }
+        Bitmap source = Bitmap.createScaledBitmap(image, width, height, true);
+        int texture = OpenGlUtils.loadTexture(source, OpenGlUtils.NO_TEXTURE, source != image);
+        int[] maxSize = new int[1];
+        GLES20.glGetIntegerv(GLES20.GL_MAX_TEXTURE_SIZE, maxSize, 0);
+        int columns = Math.max(1, Math.min(filters.size(), maxSize[0] / width));
+        int rows = Math.max(1, Math.min((filters.size() + columns - 1) / columns,
+                maxSize[0] / height));
+        try {
+            for (int first = 0; first < filters.size(); first += columns * rows) {
+                int last = Math.min(first + columns * rows, filters.size());
+                drawAtlas(texture, filters.subList(first, last), width, height, columns,
+                        thumbnails);
+            }
+        } finally {
+            GLES20.glDeleteTextures(1, new int[] {texture}, 0);
+        }
+        return thumbnails;
+    }
+
+    /**
+     * Draws the filters into the tiles of one atlas, row by row from the top, and cuts the
+     * thumbnails from its pixels.
+     */
+    private void drawAtlas(final int texture, final List<GPUImageFilter> filters,
+            final int width, final int height, final int columns,
+            final List<Bitmap> thumbnails) {
+        int count = filters.size();
+        int atlasColumns = Math.min(columns, count);
+        int atlasRows = (count + atlasColumns - 1) / atlasColumns;
+        GPUImageFrameBuffer atlas = new GPUImageFrameBuffer(atlasColumns * width,
+                atlasRows * height, GLES20.GL_RGBA);
+        Bitmap pixels;
+        try {
+            GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, atlas.getFrameBufferId());
+            GLES20.glClearColor(0, 0, 0, 1);
+            GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT);
+            for (int i = 0; i < count; i++) {
+                // The bottom row of the framebuffer ends up last in the bitmap
+                GLES20.glViewport((i % atlasColumns) * width,
+                        (atlasRows - 1 - i / atlasColumns) * height, width, height);
+                drawThumbnail(filters.get(i), texture, width, height);
+            }
+            pixels = readBitmap(atlas.getWidth(), atlas.getHeight());
+        } finally {
+            GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
+            atlas.destroy();
+        }
+        for (int i = 0; i < count; i++) {
+            thumbnails.add(Bitmap.createBitmap(pixels, (i % atlasColumns) * width,
+                    (i / atlasColumns) * height, width, height));
+        }
+        pixels.recycle();
+    }
+
+    /**
+     * Draws a filter into the current viewport, initializing it only for the draw unless it
+     * is the preview's.
+     */
+    private void drawThumbnail(final GPUImageFilter filter, final int texture,
+            final int width, final int height) {
+        boolean shared = isSharedFilter(filter);
+        int outputWidth = filter.getOutputWidth();
+        int outputHeight = filter.getOutputHeight();
+        if (!shared) {
+            filter.init();
+        }
+        GLES20.glUseProgram(filter.getProgram());
+        filter.onOutputSizeChanged(width, height);
+        // Tasks queued by init and the size change run right before the draw, once is enough
+        filter.onDraw(texture, mGLCubeBuffer, mGLTextureBuffer);
+        if (shared) {
+            GLES20.glUseProgram(filter.getProgram());
+            filter.onOutputSizeChanged(outputWidth, outputHeight);
+        } else {
+            filter.destroy();
+        }
+    }
+
+    /**
+     * Draws the tiles row by row from the top. The region of each tile is uploaded on its own
+     * and drawn with the viewport moved so the tile lands at the origin of a framebuffer of
+     * the tile size, from where it is read back without the overlap.
+     */
+    private void drawTiles(final TileSource source, final GPUImageFilter filter,
+            final int tileSize, final TileSink sink) throws IOException {
+        int radius = filter.getSamplingRadius();
+        if (radius == GPUImageFilter.SAMPLING_RADIUS_UNBOUNDED) {
+            throw new IllegalArgumentException(filter.getClass().getSimpleName()
+                    + " does not declare a sampling radius and cannot be tiled");
+        }
+        int size = Math.min(tileSize, getMaxTileSize() - 2 * radius);
+        if (size <= 0) {
+            throw new IllegalArgumentException("Sampling radius " + radius + " is too large");
+        }
+        int width = source.getWidth();
+        int height = source.getHeight();
+        if (filter == mKeptFilter) {
+            // Initialized for the tiles below
+            dropKeptFilter();
+        }
+
+        boolean shared = false;
+        if (mPreview != null) {
+            synchronized (mPreview.getDrawLock()) {
+                shared = isSharedFilter(filter);
+            }
+        }
+        if (!shared) {
+            filter.init();
+        }
+        GPUImageFrameBuffer frameBuffer = new GPUImageFrameBuffer(Math.min(size, width),
+                Math.min(size, height), GLES20.GL_RGBA);
+        int texture = OpenGlUtils.NO_TEXTURE;
+        int regionWidth = 0;
+        int regionHeight = 0;
+        Rect region = new Rect();
+        try {
+            GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, frameBuffer.getFrameBufferId());
+            for (int top = 0; top < height; top += size) {
+                int bottom = Math.min(top + size, height);
+                for (int left = 0; left < width; left += size) {
+                    int right = Math.min(left + size, width);
+                    region.set(Math.max(0, left - radius), Math.max(0, top - radius),
+                            Math.min(width, right + radius), Math.min(height, bottom + radius));
+                    Bitmap pixels = source.decodeRegion(region);
+                    boolean resized = region.width() != regionWidth
+                            || region.height() != regionHeight;
+                    if (resized) {
+                        // Regions only differ in size along the edges of the image
+                        if (texture != OpenGlUtils.NO_TEXTURE) {
+                            GLES20.glDeleteTextures(1, new int[] {texture}, 0);
+                            texture = OpenGlUtils.NO_TEXTURE;
+                        }
+                        regionWidth = region.width();
+                        regionHeight = region.height();
+                    }
+                    texture = OpenGlUtils.loadTexture(pixels, texture, true);
+
+                    // The bottom row of the framebuffer ends up last in the bitmap
+                    GLES20.glViewport(region.left - left, bottom - region.bottom,
+                            regionWidth, regionHeight);
+                    if (shared && !drawSharedTile(filter, texture, regionWidth, regionHeight)) {
+                        // The preview moved on to another filter, which it destroyed
+                        shared = false;
+                        filter.init();
+                        resized = true;
+                    }
+                    if (!shared) {
+                        if (resized) {
+                            GLES20.glUseProgram(filter.getProgram());
+                            filter.onOutputSizeChanged(regionWidth, regionHeight);
+                        }
+                        filter.onDraw(texture, mGLCubeBuffer, mGLTextureBuffer);
+                    }
+                    Bitmap tile = readBitmap(right - left, bottom - top);
+                    try {
+                        sink.writeTile(tile, left, top);
+                    } finally {
+                        tile.recycle();
+                    }
+                }
+            }
+        } finally {
+            GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
+            if (texture != OpenGlUtils.NO_TEXTURE) {
+                GLES20.glDeleteTextures(1, new int[] {texture}, 0);
+            }
+            frameBuffer.destroy();
+            if (!shared) {
+                filter.destroy();
+            }
+        }
+    }
+
+    /**
+     * Draws a tile with the preview's filter, holding the preview's draw lock only for the
+     * draw and handing the filter back as it was, so the preview keeps drawing between tiles.
+     *
+     * @return false if the filter is no longer the preview's and nothing was drawn
+     */
+    private boolean drawSharedTile(final GPUImageFilter filter, final int texture,
+            final int width, final int height) {
+        synchronized (mPreview.getDrawLock()) {
+            if (!isSharedFilter(filter)) {
+                return false;
+            }
+            int outputWidth = filter.getOutputWidth();
+            int outputHeight = filter.getOutputHeight();
+            float previewQuality = mPreview.getAppliedQuality();
+            boolean adjusted = previewQuality != 1f && filter instanceof GPUImageQualityAdjustable;
+            GLES20.glUseProgram(filter.getProgram());
+            if (adjusted) {
+                // Exports are never degraded by the preview's governor
+                ((GPUImageQualityAdjustable) filter).setQuality(1f);
+            }
+            filter.onOutputSizeChanged(width, height);
+            try {
+                filter.onDraw(texture, mGLCubeBuffer, mGLTextureBuffer);
+            } finally {
+                GLES20.glUseProgram(filter.getProgram());
+                filter.onOutputSizeChanged(outputWidth, outputHeight);
+                if (adjusted) {
+                    ((GPUImageQualityAdjustable) filter).setQuality(previewQuality);
+                }
+                GLES20.glFlush();
+            }
+            return true;
+        }
+    }
+
+    /**
+     * @return the largest edge a texture, and a viewport, may have
+     */
+    private static int getMaxTileSize() {
+        int[] maxTextureSize = new int[1];
+        GLES20.glGetIntegerv(GLES20.GL_MAX_TEXTURE_SIZE, maxTextureSize, 0);
+        int[] maxViewportDims = new int[2];
+        GLES20.glGetIntegerv(GLES20.GL_MAX_VIEWPORT_DIMS, maxViewportDims, 0);
+        return Math.min(maxTextureSize[0], Math.min(maxViewportDims[0], maxViewportDims[1]));
+    }
+
+    /**
+     * Reads the bound framebuffer into a new bitmap, top row first.
+     */
+    private static Bitmap readBitmap(final int width, final int height) {
+        Bitmap result = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        if (!GPUImageNativeLibrary.readPixelsToBitmap(result)) {
+            ByteBuffer pixels = ByteBuffer.allocateDirect(width * height * 4)
+                    .order(ByteOrder.nativeOrder());
+            GLES20.glReadPixels(0, 0, width, height, GLES20.GL_RGBA,
+                    GLES20.GL_UNSIGNED_BYTE, pixels);
+            GPUImageNativeLibrary.copyFlippedToBitmap(pixels, result);
+        }
+        return result;
+    }
+
+    /**
+     * Draws the preview's texture if it holds the image, otherwise uploads the image unless it
+     * is the one uploaded last.
+     */
+    /**
+     * @param shared true while holding the preview's draw lock, which allows drawing from
+     *        the preview's texture of the image
+     */
+    private void setImage(final Bitmap image, final int width, final int height,
+            final boolean shared) {
+        int previewTexture = shared && mShareContext != null
+                ? mPreview.getImageTexture(image) : GPUImageRenderer.NO_IMAGE;
+        if (previewTexture != GPUImageRenderer.NO_IMAGE) {
+            mRenderer.setImageTexture(previewTexture, width, height);
+            return;
+        }
+        if (mImage != null && mImage.get() == image
+                && GPUImageRenderer.isGeneration(image, mImageGeneration)) {
+            return;
+        }
+        if (mImageTexture != GPUImageRenderer.NO_IMAGE
+                && (mImageWidth != width || mImageHeight != height)) {
+            // The texture is updated in place, which only works at the same size
+            mRenderer.deleteImage();
+        }
+        mRenderer.setImageBitmap(image, false);
+        mRenderer.runPendingOnDraw();
+        mImageTexture = mRenderer.getImageTexture();
+        mImage = new WeakReference<Bitmap>(image);
+        mImageGeneration = GPUImageRenderer.getGenerationId(image);
+        mImageWidth = width;
+        mImageHeight = height;
+    }
+
+    /**
+     * Creates the context, sharing objects with the given one if possible.
+     */
+    private void createContext(final EGLContext shareContext) {
+        mEGL = (EGL10) EGLContext.getEGL();
+        mEGLDisplay = mEGL.eglGetDisplay(EGL10.EGL_DEFAULT_DISPLAY);
+        mEGL.eglInitialize(mEGLDisplay, new int[2]);
+
+        int[] configAttributes = {
+                EGL10.EGL_RED_SIZE, 8,
+                EGL10.EGL_GREEN_SIZE, 8,
+                EGL10.EGL_BLUE_SIZE, 8,
+                EGL10.EGL_ALPHA_SIZE, 8,
+                EGL10.EGL_RENDERABLE_TYPE, EGL_OPENGL_ES2_BIT,
+                EGL10.EGL_SURFACE_TYPE, EGL10.EGL_PBUFFER_BIT,
+                EGL10.EGL_NONE
+        };
+        EGLConfig[] configs = new EGLConfig[1];
+        int[] configCount = new int[1];
+        if (!mEGL.eglChooseConfig(mEGLDisplay, configAttributes, configs, 1, configCount)
+                || configCount[0] == 0) {
+            throw new IllegalStateException("No EGL config: " + mEGL.eglGetError());
+        }
+        int[] contextAttributes = {EGL_CONTEXT_CLIENT_VERSION, 2, EGL10.EGL_NONE};
+        mRequestedShareContext = shareContext;
+        mShareContext = null;
+        if (shareContext != null) {
+            mEGLContext = mEGL.eglCreateContext(mEGLDisplay, configs[0], shareContext,
+                    contextAttributes);
+            if (mEGLContext != null && mEGLContext != EGL10.EGL_NO_CONTEXT) {
+                mShareContext = shareContext;
+            }
+        }
+        if (mShareContext == null) {
+            // No preview yet or its context is gone, filters are initialized here
+            mEGLContext = mEGL.eglCreateContext(mEGLDisplay, configs[0], EGL10.EGL_NO_CONTEXT,
+                    contextAttributes);
+        }
+        // Rendering goes to a framebuffer, the surface only makes the context current
+        mEGLSurface = mEGL.eglCreatePbufferSurface(mEGLDisplay, configs[0],
+                new int[] {EGL10.EGL_WIDTH, 1, EGL10.EGL_HEIGHT, 1, EGL10.EGL_NONE});
+        if (mEGLContext == null || mEGLContext == EGL10.EGL_NO_CONTEXT
+                || mEGLSurface == null || mEGLSurface == EGL10.EGL_NO_SURFACE
+                || !mEGL.eglMakeCurrent(mEGLDisplay, mEGLSurface, mEGLSurface, mEGLContext)) {
+            int error = mEGL.eglGetError();
+            releaseContext();
+            throw new IllegalStateException("Cannot create EGL context: " + error);
+        }
+
+        mRenderer = new GPUImageRenderer(mIdleFilter);
+        mRenderer.setShareContext(mShareContext);
+        // Also forgets the programs and quads of a previous context with the same identity
+        mRenderer.onSurfaceCreated(null, configs[0]);
+        if (mShareContext != null) {
+            mPreview.setContextShared();
+        }
+    }
+
+    private void releaseContext() {
+        if (mEGLContext == null) {
+            return;
+        }
+        if (mRenderer != null) {
+            dropKeptFilter();
+            mIdleFilter.destroy();
+            if (mFrameBuffer != null) {
+                mFrameBuffer.destroy();
+                mFrameBuffer = null;
+            }
+            mRenderer.setImageTexture(mImageTexture, mImageWidth, mImageHeight);
+            mRenderer.deleteImage();
+            mRenderer.runPendingOnDraw();
+            mRenderer = null;
+            GPUImageProgramCache.invalidateCurrentContext();
+            GPUImageQuadCache.invalidateCurrentContext();
+        }
+        mImage = null;
+        mImageTexture = GPUImageRenderer.NO_IMAGE;
+        mEGL.eglMakeCurrent(mEGLDisplay, EGL10.EGL_NO_SURFACE, EGL10.EGL_NO_SURFACE,
+                EGL10.EGL_NO_CONTEXT);
+        if (mEGLSurface != null && mEGLSurface != EGL10.EGL_NO_SURFACE) {
+            mEGL.eglDestroySurface(mEGLDisplay, mEGLSurface);
+        }
+        mEGL.eglDestroyContext(mEGLDisplay, mEGLContext);
+        mEGLSurface = null;
+        mEGLContext = null;
+    }
+}
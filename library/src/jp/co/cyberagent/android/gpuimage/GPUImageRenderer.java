@@ -23,26 +23,38 @@ import android.graphics.SurfaceTexture;
 import android.hardware.Camera;
 import android.hardware.Camera.PreviewCallback;
 import android.hardware.Camera.Size;
+import android.opengl.GLES11Ext;
 import android.opengl.GLES20;
 import android.opengl.GLSurfaceView.Renderer;
+import android.os.Build;
 
 import jp.co.cyberagent.android.gpuimage.util.TextureRotationUtil;
 
+import javax.microedition.khronos.egl.EGL10;
 import javax.microedition.khronos.egl.EGLConfig;
+import javax.microedition.khronos.egl.EGLContext;
 import javax.microedition.khronos.opengles.GL10;
 import java.io.IOException;
+import java.lang.ref.WeakReference;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
-import java.nio.IntBuffer;
 import java.util.LinkedList;
 import java.util.Queue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
 
 import static jp.co.cyberagent.android.gpuimage.util.TextureRotationUtil.TEXTURE_NO_ROTATION;
 
 @TargetApi(11)
-public class GPUImageRenderer implements Renderer, PreviewCallback {
+public class GPUImageRenderer implements Renderer, PreviewCallback,
+        SurfaceTexture.OnFrameAvailableListener {
     public static final int NO_IMAGE = -1;
+    /**
+     * Returned by {@link #getGenerationId(Bitmap)} where modifications of a bitmap cannot be
+     * detected, never a valid generation id.
+     */
+    static final int UNKNOWN_GENERATION = 0;
     static final float CUBE[] = {
             -1.0f, -1.0f,
             1.0f, -1.0f,
@@ -51,14 +63,16 @@ public class GPUImageRenderer implements Renderer, PreviewCallback {
     };
 
     private GPUImageFilter mFilter;
+    private final GPUImageFilter mPassThroughFilter = new GPUImageFilter();
 
     public final Object mSurfaceChangedWaiter = new Object();
 
     private int mGLTextureId = NO_IMAGE;
+    private WeakReference<Bitmap> mImage;
+    private int mImageGeneration;
     private SurfaceTexture mSurfaceTexture = null;
     private final FloatBuffer mGLCubeBuffer;
     private final FloatBuffer mGLTextureBuffer;
-    private IntBuffer mGLRgbBuffer;
 
     private int mOutputWidth;
     private int mOutputHeight;
@@ -77,6 +91,64 @@ public class GPUImageRenderer implements Renderer, PreviewCallback {
     private float mBackgroundGreen = 0;
     private float mBackgroundBlue = 0;
 
+    private final float[] mScaledCube = new float[8];
+    private final float[] mScaledTextureCords = new float[8];
+
+    // Preview callback frames, handed over latest-wins
+    private final GPUImageCameraIngest mCameraIngest = new GPUImageCameraIngest();
+
+    // Camera preview sampled as an external texture or uploaded as NV21 planes, converted
+    // into mCameraFrameBuffer
+    private final GPUImageExternalTextureFilter mCameraTextureFilter =
+            new GPUImageExternalTextureFilter();
+    private final GPUImageYUVConversionFilter mYUVConversionFilter =
+            new GPUImageYUVConversionFilter();
+    private final FloatBuffer mCameraCubeBuffer;
+    private final FloatBuffer mCameraTextureBuffer;
+    private final FloatBuffer mYUVTextureBuffer;
+    private final float[] mCameraTextureTransform = new float[16];
+    private int mCameraTextureId = OpenGlUtils.NO_TEXTURE;
+    private GPUImageFrameBuffer mCameraFrameBuffer;
+
+    private volatile RenderRequestListener mRenderRequestListener;
+    private volatile GPUImageAllocationTracker mAllocationTracker;
+    private volatile GPUImageFilterProfiler mFilterProfiler;
+
+    // Frame timings, the stages of the camera frame drawn this frame; 0 capture without one
+    private volatile GPUImageFrameTimings mFrameTimings;
+    private volatile Executor mPresentExecutor;
+    private final Runnable mPresentTask = new Runnable() {
+        @Override
+        public void run() {
+            notifyFramePresented();
+        }
+    };
+    private long mCaptureNanos;
+    private long mConversionStartNanos;
+    private long mConversionEndNanos;
+    private long mLastCameraTimestamp;
+
+    // Quality governor: below full scale the filter renders at mRenderWidth x mRenderHeight
+    // into mScaledFrameBuffer, which is upscaled to the surface
+    private volatile GPUImageQualityGovernor mQualityGovernor;
+    private final FloatBuffer mScaledTextureBuffer;
+    private GPUImageFrameBuffer mScaledFrameBuffer;
+    private int mRenderWidth;
+    private int mRenderHeight;
+    private float mAppliedQuality = 1f;
+    private long mFrameStartNanos;
+
+    // Readback of drawn frames, completed on later frames
+    private GPUImagePixelReader mPixelReader;
+    private volatile GPUImagePixelReader.FrameCallback mFrameCapture;
+
+    // Context sharing: a GPUImageRenderWorker draws the filter and image of this renderer in a
+    // context of the same share group, never while this renderer draws
+    private final Object mDrawLock = new Object();
+    private volatile EGLContext mEGLContext;
+    private EGLContext mShareContext;
+    private volatile boolean mContextShared;
+
     public GPUImageRenderer(final GPUImageFilter filter) {
         mFilter = filter;
         mRunOnDraw = new LinkedList<Runnable>();
@@ -91,22 +163,112 @@ public class GPUImageRenderer implements Renderer, PreviewCallback {
                 .order(ByteOrder.nativeOrder())
                 .asFloatBuffer();
         setRotation(Rotation.NORMAL, false, false);
+
+        mCameraCubeBuffer = ByteBuffer.allocateDirect(CUBE.length * 4)
+                .order(ByteOrder.nativeOrder())
+                .asFloatBuffer();
+        mCameraCubeBuffer.put(CUBE).position(0);
+        // The transform of the SurfaceTexture flips the external texture vertically
+        mCameraTextureBuffer = ByteBuffer.allocateDirect(TEXTURE_NO_ROTATION.length * 4)
+                .order(ByteOrder.nativeOrder())
+                .asFloatBuffer();
+        mCameraTextureBuffer.put(TEXTURE_NO_ROTATION).position(0);
+        // Top row of the preview first, the layout of the planes uploaded from preview frames
+        float[] flipTexture = TextureRotationUtil.getRotation(Rotation.NORMAL, false, true);
+        mYUVTextureBuffer = ByteBuffer.allocateDirect(flipTexture.length * 4)
+                .order(ByteOrder.nativeOrder())
+                .asFloatBuffer();
+        mYUVTextureBuffer.put(flipTexture).position(0);
+        mScaledTextureBuffer = ByteBuffer.allocateDirect(flipTexture.length * 4)
+                .order(ByteOrder.nativeOrder())
+                .asFloatBuffer();
+        mScaledTextureBuffer.put(flipTexture).position(0);
+
+        mCameraIngest.setFrameReadyCallback(new Runnable() {
+            @Override
+            public void run() {
+                requestRender();
+            }
+        });
+    }
+
+    /**
+     * Notified when the renderer has something new to draw.
+     */
+    public interface RenderRequestListener {
+        /**
+         * Called on any thread when a camera frame arrived or a task was queued for the GL
+         * thread. Requests before the next frame is drawn are meant to coalesce into one, as
+         * {@link android.opengl.GLSurfaceView#requestRender()} does.
+         */
+        void onRenderRequested();
+    }
+
+    /**
+     * Lets the renderer trigger its own frames, so the view can render only when dirty
+     * instead of continuously while the camera is running.
+     */
+    public void setRenderRequestListener(final RenderRequestListener listener) {
+        mRenderRequestListener = listener;
+    }
+
+    private void requestRender() {
+        RenderRequestListener listener = mRenderRequestListener;
+        if (listener != null) {
+            listener.onRenderRequested();
+        }
+    }
+
+    @Override
+    public void onFrameAvailable(final SurfaceTexture surfaceTexture) {
+        requestRender();
     }
 
     @Override
     public void onSurfaceCreated(final GL10 unused, final EGLConfig config) {
         GLES20.glClearColor(mBackgroundRed, mBackgroundGreen, mBackgroundBlue, 1);
         GLES20.glDisable(GLES20.GL_DEPTH_TEST);
+        // A new context may reuse the identity of a previous one, forget its programs and quads
+        GPUImageProgramCache.invalidateCurrentContext();
+        GPUImageQuadCache.invalidateCurrentContext();
+        EGLContext previousContext = mEGLContext;
+        if (previousContext != null) {
+            // The context lost on a pause is never current again, nothing else forgets it
+            GPUImageProgramCache.invalidateContext(previousContext);
+            GPUImageQuadCache.invalidateContext(previousContext);
+        }
+        if (mShareContext != null) {
+            GPUImageProgramCache.shareCurrentContextWith(mShareContext);
+        }
+        // Framebuffers and pixel buffers of a previous context are gone with it
+        GPUImageFrameBuffer.onContextCreated();
+        mScaledFrameBuffer = null;
+        if (mPixelReader != null) {
+            mPixelReader.abandon();
+        }
+        GPUImageFilterProfiler profiler = mFilterProfiler;
+        if (profiler != null) {
+            profiler.onContextCreated();
+        }
         mFilter.init();
+        mPassThroughFilter.init();
+        mEGLContext = ((EGL10) EGLContext.getEGL()).eglGetCurrentContext();
     }
 
     @Override
     public void onSurfaceChanged(final GL10 gl, final int width, final int height) {
         mOutputWidth = width;
         mOutputHeight = height;
+        mRenderWidth = width;
+        mRenderHeight = height;
+        if (mScaledFrameBuffer != null) {
+            mScaledFrameBuffer.destroy();
+            mScaledFrameBuffer = null;
+        }
         GLES20.glViewport(0, 0, width, height);
         GLES20.glUseProgram(mFilter.getProgram());
         mFilter.onOutputSizeChanged(width, height);
+        mPassThroughFilter.onOutputSizeChanged(width, height);
         adjustImageScaling();
         synchronized (mSurfaceChangedWaiter) {
             mSurfaceChangedWaiter.notifyAll();
@@ -115,12 +277,240 @@ public class GPUImageRenderer implements Renderer, PreviewCallback {
 
     @Override
     public void onDrawFrame(final GL10 gl) {
+        synchronized (mDrawLock) {
+            drawFrame();
+            if (mContextShared) {
+                // Uploads and uniforms of this frame become visible to the sharing context
+                GLES20.glFlush();
+            }
+        }
+    }
+
+    private void drawFrame() {
+        mFrameStartNanos = System.nanoTime();
+        GPUImageAllocationTracker tracker = mAllocationTracker;
+        if (tracker != null) {
+            tracker.beginFrame();
+            tracker.begin("runOnDraw");
+        }
         GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT | GLES20.GL_DEPTH_BUFFER_BIT);
+        GPUImageFrameBuffer.deleteOrphans();
         runAll(mRunOnDraw);
-        mFilter.onDraw(mGLTextureId, mGLCubeBuffer, mGLTextureBuffer);
+        GPUImageFrameTimings timings = mFrameTimings;
+        mCaptureNanos = 0;
+        // Latch the newest camera frame before drawing, not after
+        if (mCameraTextureId != OpenGlUtils.NO_TEXTURE) {
+            drawCameraTexture();
+        } else {
+            if (mSurfaceTexture != null) {
+                // Only a sink for the preview, frames arrive through the preview callback
+                mSurfaceTexture.updateTexImage();
+            }
+            GPUImageCameraIngest.Frame frame = mCameraIngest.acquire();
+            if (frame != null) {
+                drawPreviewFrame(frame);
+                mCameraIngest.release(frame);
+            }
+        }
+        if (tracker != null) {
+            tracker.end();
+            tracker.begin("onDraw");
+        }
+        GPUImageQualityGovernor governor = mQualityGovernor;
+        applyQuality(governor);
+        // Present the input directly if the filter would not change it
+        GPUImageFilter filter = mFilter.isIdentity() ? mPassThroughFilter : mFilter;
+        boolean scaled = mScaledFrameBuffer != null && filter != mPassThroughFilter;
+        if (scaled) {
+            GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, mScaledFrameBuffer.getFrameBufferId());
+            GLES20.glViewport(0, 0, mRenderWidth, mRenderHeight);
+            GLES20.glClearColor(mBackgroundRed, mBackgroundGreen, mBackgroundBlue, 1);
+            GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT);
+        }
+        GPUImageFilterProfiler profiler = mFilterProfiler;
+        if (profiler != null) {
+            profiler.beginFrame();
+            profiler.begin(filter);
+        }
+        filter.onDraw(mGLTextureId, mGLCubeBuffer, mGLTextureBuffer);
+        if (profiler != null) {
+            profiler.end();
+            profiler.endFrame();
+        }
+        if (scaled) {
+            GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
+            GLES20.glViewport(0, 0, mOutputWidth, mOutputHeight);
+            mPassThroughFilter.onDraw(mScaledFrameBuffer.getTextureId(), mCameraCubeBuffer,
+                    mScaledTextureBuffer);
+        }
+        boolean timed = timings != null && mCaptureNanos != 0;
+        if (timed) {
+            timings.onFrameDrawn(mCaptureNanos, mConversionStartNanos, mConversionEndNanos,
+                    System.nanoTime());
+        }
+        if (timed || governor != null) {
+            Executor executor = mPresentExecutor;
+            if (executor != null) {
+                executor.execute(mPresentTask);
+            } else if (governor != null) {
+                // Nothing reports the swap, the time spent drawing has to do
+                governor.onFrame(System.nanoTime() - mFrameStartNanos);
+            }
+        }
+        if (tracker != null) {
+            tracker.end();
+            tracker.begin("runOnDrawEnd");
+        }
         runAll(mRunOnDrawEnd);
-        if (mSurfaceTexture != null) {
-            mSurfaceTexture.updateTexImage();
+        GPUImagePixelReader.FrameCallback capture = mFrameCapture;
+        if (capture != null) {
+            getPixelReader().read(mOutputWidth, mOutputHeight, capture);
+        }
+        if (mPixelReader != null && mPixelReader.getPendingCount() > 0) {
+            mPixelReader.poll();
+            if (mPixelReader.getPendingCount() > 0 && capture == null) {
+                // Draw once more to complete the capture, nothing else might
+                requestRender();
+            }
+        }
+        if (tracker != null) {
+            tracker.end();
+            tracker.endFrame();
+        }
+    }
+
+    /**
+     * Reads back the next drawn frame without stalling the GL thread. The future completes a
+     * frame later on OpenGL ES 3.0, right away otherwise.
+     */
+    public Future<Bitmap> capture() {
+        final GPUImagePixelReader.BitmapFuture future = new GPUImagePixelReader.BitmapFuture();
+        runOnDrawEnd(new Runnable() {
+            @Override
+            public void run() {
+                getPixelReader().read(mOutputWidth, mOutputHeight, future);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Reads back every drawn frame, e.g. for a burst or to feed an encoder, null to stop. The
+     * pixels of a frame reach the callback on the GL thread a frame or two later.
+     */
+    public void setFrameCapture(final GPUImagePixelReader.FrameCallback callback) {
+        mFrameCapture = callback;
+        if (callback == null) {
+            runOnDraw(new Runnable() {
+                @Override
+                public void run() {
+                    if (mPixelReader != null) {
+                        mPixelReader.finish();
+                    }
+                }
+            });
+        }
+    }
+
+    private GPUImagePixelReader getPixelReader() {
+        if (mPixelReader == null) {
+            mPixelReader = new GPUImagePixelReader();
+        }
+        return mPixelReader;
+    }
+
+    /**
+     * Reports the allocations of every frame to the given tracker, null to stop tracking.
+     * Debug builds only, see {@link GPUImageAllocationTracker}.
+     */
+    public void setAllocationTracker(final GPUImageAllocationTracker tracker) {
+        mAllocationTracker = tracker;
+    }
+
+    /**
+     * Reports the draw durations of the filters to the given profiler, null to stop profiling.
+     * See {@link GPUImageFilterProfiler} for the overhead.
+     */
+    public void setFilterProfiler(final GPUImageFilterProfiler profiler) {
+        GPUImageFilterProfiler previous = mFilterProfiler;
+        if (profiler != null && profiler != previous) {
+            // Query objects are only valid in the context they were generated in
+            runOnDraw(new Runnable() {
+                @Override
+                public void run() {
+                    profiler.onContextCreated();
+                }
+            });
+        }
+        mFilterProfiler = profiler;
+    }
+
+    /**
+     * Reports the latency and pacing of camera frames to the given timings, null to stop.
+     */
+    public void setFrameTimings(final GPUImageFrameTimings timings) {
+        mFrameTimings = timings;
+    }
+
+    /**
+     * Sets where the completion of a buffer swap is observed: a task given to the executor
+     * after a frame is drawn must run on the GL thread after the swap, as with
+     * {@link android.opengl.GLSurfaceView#queueEvent(Runnable)}. Without an executor the host
+     * calls {@link #notifyFramePresented()}.
+     */
+    public void setPresentExecutor(final Executor executor) {
+        mPresentExecutor = executor;
+    }
+
+    /**
+     * Marks the last drawn frame as presented for the frame timings, to be called on the GL
+     * thread once its buffers have been swapped or read back.
+     */
+    public void notifyFramePresented() {
+        long now = System.nanoTime();
+        GPUImageFrameTimings timings = mFrameTimings;
+        if (timings != null) {
+            timings.onFramePresented(now);
+        }
+        GPUImageQualityGovernor governor = mQualityGovernor;
+        if (governor != null && mPresentExecutor != null) {
+            governor.onFrame(now - mFrameStartNanos);
+        }
+    }
+
+    /**
+     * Lowers the render resolution and filter quality as the given governor decides, null to
+     * always render at full size and quality.
+     */
+    public void setQualityGovernor(final GPUImageQualityGovernor governor) {
+        mQualityGovernor = governor;
+    }
+
+    /**
+     * Brings the filter to the quality and render size of the governor.
+     */
+    private void applyQuality(final GPUImageQualityGovernor governor) {
+        float quality = governor != null ? governor.getQuality() : 1f;
+        if (quality != mAppliedQuality && mFilter instanceof GPUImageQualityAdjustable) {
+            ((GPUImageQualityAdjustable) mFilter).setQuality(quality);
+        }
+        mAppliedQuality = quality;
+
+        float scale = governor != null ? governor.getScale() : 1f;
+        int width = Math.max(1, Math.round(mOutputWidth * scale));
+        int height = Math.max(1, Math.round(mOutputHeight * scale));
+        if (width == mRenderWidth && height == mRenderHeight) {
+            return;
+        }
+        mRenderWidth = width;
+        mRenderHeight = height;
+        mFilter.onOutputSizeChanged(width, height);
+        if (mScaledFrameBuffer != null) {
+            mScaledFrameBuffer.destroy();
+            mScaledFrameBuffer = null;
+        }
+        if (width != mOutputWidth || height != mOutputHeight) {
+            mScaledFrameBuffer = new GPUImageFrameBuffer(width, height, GLES20.GL_RGBA);
         }
     }
 
@@ -147,26 +537,32 @@ public class GPUImageRenderer implements Renderer, PreviewCallback {
 
     @Override
     public void onPreviewFrame(final byte[] data, final Camera camera) {
-        final Size previewSize = camera.getParameters().getPreviewSize();
-        if (mGLRgbBuffer == null) {
-            mGLRgbBuffer = IntBuffer.allocate(previewSize.width * previewSize.height);
+        mCameraIngest.onPreviewFrame(data, camera);
+    }
+
+    /**
+     * @return the pipeline preview callback frames pass through, e.g. for its frame counters
+     */
+    public GPUImageCameraIngest getCameraIngest() {
+        return mCameraIngest;
+    }
+
+    private void drawPreviewFrame(final GPUImageCameraIngest.Frame frame) {
+        mCaptureNanos = frame.captureNanos;
+        if (frame.rgba != null) {
+            mConversionStartNanos = frame.conversionStartNanos;
+            mConversionEndNanos = frame.conversionEndNanos;
+            mGLTextureId = OpenGlUtils.loadTexture(frame.rgbaInts, frame.width, frame.height,
+                    mGLTextureId);
+        } else {
+            mConversionStartNanos = System.nanoTime();
+            convertPreviewFrame(frame.yuv, frame.width, frame.height);
+            mConversionEndNanos = System.nanoTime();
         }
-        if (mRunOnDraw.isEmpty()) {
-            runOnDraw(new Runnable() {
-                @Override
-                public void run() {
-                    GPUImageNativeLibrary.YUVtoRBGA(data, previewSize.width, previewSize.height,
-                            mGLRgbBuffer.array());
-                    mGLTextureId = OpenGlUtils.loadTexture(mGLRgbBuffer, previewSize, mGLTextureId);
-                    camera.addCallbackBuffer(data);
-
-                    if (mImageWidth != previewSize.width) {
-                        mImageWidth = previewSize.width;
-                        mImageHeight = previewSize.height;
-                        adjustImageScaling();
-                    }
-                }
-            });
+        if (mImageWidth != frame.width || mImageHeight != frame.height) {
+            mImageWidth = frame.width;
+            mImageHeight = frame.height;
+            adjustImageScaling();
         }
     }
 
@@ -174,12 +570,13 @@ public class GPUImageRenderer implements Renderer, PreviewCallback {
         runOnDraw(new Runnable() {
             @Override
             public void run() {
+                releaseCameraTexture();
                 int[] textures = new int[1];
                 GLES20.glGenTextures(1, textures, 0);
                 mSurfaceTexture = new SurfaceTexture(textures[0]);
                 try {
                     camera.setPreviewTexture(mSurfaceTexture);
-                    camera.setPreviewCallback(GPUImageRenderer.this);
+                    mCameraIngest.start(camera);
                     camera.startPreview();
                 } catch (IOException e) {
                     e.printStackTrace();
@@ -188,6 +585,141 @@ public class GPUImageRenderer implements Renderer, PreviewCallback {
         });
     }
 
+    /**
+     * Connects the camera preview without a preview callback: frames are sampled directly from
+     * a SurfaceTexture as an external texture and converted into a regular texture on the GPU,
+     * instead of being converted from NV21 and uploaded by the CPU.
+     *
+     * @param camera the camera, its preview size must not change afterwards
+     */
+    public void setUpCameraTexture(final Camera camera) {
+        final Size size = camera.getParameters().getPreviewSize();
+        runOnDraw(new Runnable() {
+            @Override
+            public void run() {
+                releaseCameraTexture();
+                int[] textures = new int[1];
+                GLES20.glGenTextures(1, textures, 0);
+                mCameraTextureId = textures[0];
+                GLES20.glBindTexture(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, mCameraTextureId);
+                GLES20.glTexParameterf(GLES11Ext.GL_TEXTURE_EXTERNAL_OES,
+                        GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
+                GLES20.glTexParameterf(GLES11Ext.GL_TEXTURE_EXTERNAL_OES,
+                        GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR);
+                GLES20.glTexParameterf(GLES11Ext.GL_TEXTURE_EXTERNAL_OES,
+                        GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
+                GLES20.glTexParameterf(GLES11Ext.GL_TEXTURE_EXTERNAL_OES,
+                        GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
+                GLES20.glBindTexture(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, 0);
+
+                mCameraTextureFilter.init();
+                mCameraTextureFilter.onOutputSizeChanged(size.width, size.height);
+                mCameraFrameBuffer = new GPUImageFrameBuffer(size.width, size.height,
+                        GLES20.GL_RGBA);
+                mGLTextureId = mCameraFrameBuffer.getTextureId();
+                mImageWidth = size.width;
+                mImageHeight = size.height;
+                adjustImageScaling();
+
+                mSurfaceTexture = new SurfaceTexture(mCameraTextureId);
+                mSurfaceTexture.setOnFrameAvailableListener(GPUImageRenderer.this);
+                try {
+                    camera.setPreviewTexture(mSurfaceTexture);
+                    camera.startPreview();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        });
+    }
+
+    /**
+     * Uploads the planes of an NV21 preview frame and converts them to RGB on the GPU.
+     */
+    private void convertPreviewFrame(final byte[] data, final int width, final int height) {
+        if (mCameraFrameBuffer == null || !mCameraFrameBuffer.matches(width, height,
+                GLES20.GL_RGBA)) {
+            if (mCameraFrameBuffer != null) {
+                mCameraFrameBuffer.destroy();
+            } else if (mGLTextureId != NO_IMAGE) {
+                GLES20.glDeleteTextures(1, new int[] {mGLTextureId}, 0);
+            }
+            mCameraFrameBuffer = new GPUImageFrameBuffer(width, height, GLES20.GL_RGBA);
+            mGLTextureId = mCameraFrameBuffer.getTextureId();
+            if (!mYUVConversionFilter.isInitialized()) {
+                mYUVConversionFilter.init();
+            }
+            mYUVConversionFilter.onOutputSizeChanged(width, height);
+        }
+        mYUVConversionFilter.uploadNV21(data, width, height);
+        drawIntoCameraFrameBuffer(mYUVConversionFilter, OpenGlUtils.NO_TEXTURE,
+                mYUVTextureBuffer);
+    }
+
+    /**
+     * Latches the newest camera frame and converts it into the texture the filter draws.
+     */
+    private void drawCameraTexture() {
+        mSurfaceTexture.updateTexImage();
+        long timestamp = mSurfaceTexture.getTimestamp();
+        mConversionStartNanos = System.nanoTime();
+        if (timestamp != mLastCameraTimestamp) {
+            mLastCameraTimestamp = timestamp;
+            // Camera timestamps are on the nanoTime clock on most devices, not on all
+            boolean sameClock = timestamp > 0 && timestamp <= mConversionStartNanos
+                    && mConversionStartNanos - timestamp < 1000000000L;
+            mCaptureNanos = sameClock ? timestamp : mConversionStartNanos;
+        }
+        mSurfaceTexture.getTransformMatrix(mCameraTextureTransform);
+        mCameraTextureFilter.setTextureTransform(mCameraTextureTransform);
+        drawIntoCameraFrameBuffer(mCameraTextureFilter, mCameraTextureId,
+                mCameraTextureBuffer);
+        mConversionEndNanos = System.nanoTime();
+    }
+
+    private void drawIntoCameraFrameBuffer(final GPUImageFilter filter, final int textureId,
+                                           final FloatBuffer textureBuffer) {
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, mCameraFrameBuffer.getFrameBufferId());
+        GLES20.glViewport(0, 0, mCameraFrameBuffer.getWidth(), mCameraFrameBuffer.getHeight());
+        filter.onDraw(textureId, mCameraCubeBuffer, textureBuffer);
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
+        GLES20.glViewport(0, 0, mOutputWidth, mOutputHeight);
+    }
+
+    private void releaseCameraTexture() {
+        mCameraIngest.stop();
+        if (mCameraTextureId != OpenGlUtils.NO_TEXTURE) {
+            mSurfaceTexture.release();
+            mSurfaceTexture = null;
+            GLES20.glDeleteTextures(1, new int[] {mCameraTextureId}, 0);
+            mCameraTextureId = OpenGlUtils.NO_TEXTURE;
+            mCameraTextureFilter.destroy();
+        }
+        if (mCameraFrameBuffer != null) {
+            mCameraFrameBuffer.destroy();
+            mCameraFrameBuffer = null;
+            mGLTextureId = NO_IMAGE;
+        }
+    }
+
+    /**
+     * Selects where preview callback frames are converted from NV21 to RGB: on the GPU by
+     * default, or by {@link GPUImageNativeLibrary} on a worker thread of the
+     * {@link GPUImageCameraIngest}.
+     */
+    public void setGpuYUVConversionEnabled(final boolean enabled) {
+        mCameraIngest.setConvertOnCpu(!enabled);
+    }
+
+    /**
+     * Sets the color space preview callback frames are converted from on the GPU, full range
+     * BT.601 by default.
+     */
+    public void setYUVColorSpace(final GPUImageYUVConversionFilter.ColorSpace colorSpace,
+                                 final boolean fullRange) {
+        mYUVConversionFilter.setColorSpace(colorSpace, fullRange);
+    }
+
     public void setFilter(final GPUImageFilter filter) {
         runOnDraw(new Runnable() {
 
@@ -200,7 +732,9 @@ public class GPUImageRenderer implements Renderer, PreviewCallback {
                 }
                 mFilter.init();
                 GLES20.glUseProgram(mFilter.getProgram());
-                mFilter.onOutputSizeChanged(mOutputWidth, mOutputHeight);
+                mFilter.onOutputSizeChanged(mRenderWidth, mRenderHeight);
+                // A new filter starts out at full quality
+                mAppliedQuality = 1f;
             }
         });
     }
@@ -210,10 +744,16 @@ public class GPUImageRenderer implements Renderer, PreviewCallback {
 
             @Override
             public void run() {
+                if (mCameraFrameBuffer != null) {
+                    // The image is the texture the camera preview is converted into
+                    releaseCameraTexture();
+                    return;
+                }
                 GLES20.glDeleteTextures(1, new int[]{
                         mGLTextureId
                 }, 0);
                 mGLTextureId = NO_IMAGE;
+                mImage = null;
             }
         });
     }
@@ -243,6 +783,9 @@ public class GPUImageRenderer implements Renderer, PreviewCallback {
                     mAddedPadding = 0;
                 }
 
+                // Before the upload, which may recycle the bitmap
+                mImage = new WeakReference<Bitmap>(bitmap);
+                mImageGeneration = getGenerationId(bitmap);
                 mGLTextureId = OpenGlUtils.loadTexture(
                         resizedBitmap != null ? resizedBitmap : bitmap, mGLTextureId, recycle);
                 if (resizedBitmap != null) {
@@ -289,19 +832,17 @@ public class GPUImageRenderer implements Renderer, PreviewCallback {
         if (mScaleType == GPUImage.ScaleType.CENTER_CROP) {
             float distHorizontal = (1 - 1 / ratioWidth) / 2;
             float distVertical = (1 - 1 / ratioHeight) / 2;
-            textureCords = new float[]{
-                    addDistance(textureCords[0], distHorizontal), addDistance(textureCords[1], distVertical),
-                    addDistance(textureCords[2], distHorizontal), addDistance(textureCords[3], distVertical),
-                    addDistance(textureCords[4], distHorizontal), addDistance(textureCords[5], distVertical),
-                    addDistance(textureCords[6], distHorizontal), addDistance(textureCords[7], distVertical),
-            };
+            for (int i = 0; i < 8; i += 2) {
+                mScaledTextureCords[i] = addDistance(textureCords[i], distHorizontal);
+                mScaledTextureCords[i + 1] = addDistance(textureCords[i + 1], distVertical);
+            }
+            textureCords = mScaledTextureCords;
         } else {
-            cube = new float[]{
-                    CUBE[0] / ratioHeight, CUBE[1] / ratioWidth,
-                    CUBE[2] / ratioHeight, CUBE[3] / ratioWidth,
-                    CUBE[4] / ratioHeight, CUBE[5] / ratioWidth,
-                    CUBE[6] / ratioHeight, CUBE[7] / ratioWidth,
-            };
+            for (int i = 0; i < 8; i += 2) {
+                mScaledCube[i] = CUBE[i] / ratioHeight;
+                mScaledCube[i + 1] = CUBE[i + 1] / ratioWidth;
+            }
+            cube = mScaledCube;
         }
 
         mGLCubeBuffer.clear();
@@ -343,15 +884,128 @@ public class GPUImageRenderer implements Renderer, PreviewCallback {
         return mFlipVertical;
     }
 
+    /**
+     * Runs the tasks queued for the next frame without drawing it, for hosts which need a
+     * filter change to take effect right away.
+     */
+    void runPendingOnDraw() {
+        runAll(mRunOnDraw);
+    }
+
+    /**
+     * @return the lock held while drawing, for drawing the filter in a sharing context
+     */
+    Object getDrawLock() {
+        return mDrawLock;
+    }
+
+    /**
+     * @return the context created last on the GL thread, null before the surface is created
+     */
+    EGLContext getEGLContext() {
+        return mEGLContext;
+    }
+
+    /**
+     * Makes the next {@link #onSurfaceCreated(GL10, EGLConfig)} use the programs of the given
+     * context, which the new context shares objects with.
+     */
+    void setShareContext(final EGLContext context) {
+        mShareContext = context;
+    }
+
+    /**
+     * Flushes every frame from now on, so a context sharing this one sees what was drawn.
+     */
+    void setContextShared() {
+        mContextShared = true;
+    }
+
+    /**
+     * @return the filter drawn, only stable while holding {@link #getDrawLock()}
+     */
+    GPUImageFilter getFilter() {
+        return mFilter;
+    }
+
+    /**
+     * @return the quality the filter is drawn at, see {@link #setQualityGovernor}
+     */
+    float getAppliedQuality() {
+        return mAppliedQuality;
+    }
+
+    /**
+     * Looks up the texture the given bitmap was uploaded to. Only valid while holding
+     * {@link #getDrawLock()}.
+     *
+     * @return the texture or {@link #NO_IMAGE} if another image is drawn
+     */
+    int getImageTexture(final Bitmap bitmap) {
+        if (mCameraFrameBuffer != null || mImage == null || mImage.get() != bitmap
+                || !isGeneration(bitmap, mImageGeneration)) {
+            return NO_IMAGE;
+        }
+        return mGLTextureId;
+    }
+
+    /**
+     * @return the generation id of the bitmap, which changes whenever its pixels are modified,
+     *         or {@link #UNKNOWN_GENERATION} below API 12
+     */
+    @TargetApi(12)
+    static int getGenerationId(final Bitmap bitmap) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB_MR1) {
+            return UNKNOWN_GENERATION;
+        }
+        return bitmap.getGenerationId();
+    }
+
+    /**
+     * @return true if the bitmap is unmodified since it had the given generation id, never
+     *         below API 12, where it has to be uploaded again to be sure
+     */
+    static boolean isGeneration(final Bitmap bitmap, final int generation) {
+        return generation != UNKNOWN_GENERATION && getGenerationId(bitmap) == generation;
+    }
+
+    /**
+     * @return the texture drawn as the image, {@link #NO_IMAGE} without one
+     */
+    int getImageTexture() {
+        return mGLTextureId;
+    }
+
+    /**
+     * Draws the given texture as the image, which stays owned by the caller. GL thread only.
+     */
+    void setImageTexture(final int textureId, final int width, final int height) {
+        mGLTextureId = textureId;
+        mImage = null;
+        mImageWidth = width;
+        mImageHeight = height;
+        adjustImageScaling();
+    }
+
+    /**
+     * Draws the given filter without initializing it or destroying the current one, for a
+     * filter initialized in a context sharing this one. GL thread only.
+     */
+    void useSharedFilter(final GPUImageFilter filter) {
+        mFilter = filter;
+    }
+
     protected void runOnDraw(final Runnable runnable) {
         synchronized (mRunOnDraw) {
             mRunOnDraw.add(runnable);
         }
+        requestRender();
     }
 
     protected void runOnDrawEnd(final Runnable runnable) {
         synchronized (mRunOnDrawEnd) {
             mRunOnDrawEnd.add(runnable);
         }
+        requestRender();
     }
 }
@@ -21,7 +21,8 @@ import android.opengl.GLES20;
 /**
  * saturation: The degree of saturation or desaturation to apply to the image (0.0 - 2.0, with 1.0 as the default)
  */
-public class GPUImageSaturationFilter extends GPUImageFilter {
+public class GPUImageSaturationFilter extends GPUImageFilter implements GPUImagePointwiseFilter,
+        GPUImageAffineColorFilter, GPUImageColorMappingFilter {
     public static final String SATURATION_FRAGMENT_SHADER = "" +
             " varying highp vec2 textureCoordinate;\n" +
             " \n" +
@@ -41,6 +42,11 @@ public class GPUImageSaturationFilter extends GPUImageFilter {
             "     \n" +
             " }";
 
+    public static final String SATURATION_COLOR_TRANSFORM = "" +
+            "    const mediump vec3 luminanceWeighting = vec3(0.2125, 0.7154, 0.0721);\n" +
+            "    lowp float luminance = dot(color.rgb, luminanceWeighting);\n" +
+            "    color.rgb = mix(vec3(luminance), color.rgb, saturation);\n";
+
     private int mSaturationLocation;
     private float mSaturation;
 
@@ -56,7 +62,7 @@ public class GPUImageSaturationFilter extends GPUImageFilter {
     @Override
     public void onInit() {
         super.onInit();
-        mSaturationLocation = GLES20.glGetUniformLocation(getProgram(), "saturation");
+        mSaturationLocation = OpenGlUtils.getUniformLocation(getProgram(), "saturation");
     }
 
     @Override
@@ -69,4 +75,30 @@ public class GPUImageSaturationFilter extends GPUImageFilter {
         mSaturation = saturation;
         setFloat(mSaturationLocation, mSaturation);
     }
+
+    @Override
+    public boolean isIdentity() {
+        return mSaturation == 1.0f;
+    }
+
+    @Override
+    public String getColorTransform() {
+        return SATURATION_COLOR_TRANSFORM;
+    }
+
+    @Override
+    public void getColorMatrix(final float[] matrix, final float[] offset) {
+        GPUImageFoldedColorFilter.setIdentity(matrix, offset);
+        for (int row = 0; row < 3; row++) {
+            matrix[row * 4] = (1.0f - mSaturation) * 0.2125f;
+            matrix[row * 4 + 1] = (1.0f - mSaturation) * 0.7154f;
+            matrix[row * 4 + 2] = (1.0f - mSaturation) * 0.0721f;
+            matrix[row * 5] += mSaturation;
+        }
+    }
+
+    @Override
+    public int getSamplingRadius() {
+        return 0;
+    }
 }
@@ -100,9 +100,9 @@ public class GPUImageSharpenFilter extends GPUImageFilter {
     @Override
     public void onInit() {
         super.onInit();
-        mSharpnessLocation = GLES20.glGetUniformLocation(getProgram(), "sharpness");
-        mImageWidthFactorLocation = GLES20.glGetUniformLocation(getProgram(), "imageWidthFactor");
-        mImageHeightFactorLocation = GLES20.glGetUniformLocation(getProgram(), "imageHeightFactor");
+        mSharpnessLocation = OpenGlUtils.getUniformLocation(getProgram(), "sharpness");
+        mImageWidthFactorLocation = OpenGlUtils.getUniformLocation(getProgram(), "imageWidthFactor");
+        mImageHeightFactorLocation = OpenGlUtils.getUniformLocation(getProgram(), "imageHeightFactor");
         setSharpness(mSharpness);
     }
 
@@ -117,4 +117,9 @@ public class GPUImageSharpenFilter extends GPUImageFilter {
         mSharpness = sharpness;
         setFloat(mSharpnessLocation, mSharpness);
     }
+
+    @Override
+    public int getSamplingRadius() {
+        return 1;
+    }
 }
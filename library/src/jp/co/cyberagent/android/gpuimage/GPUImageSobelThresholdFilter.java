@@ -58,7 +58,7 @@ public class GPUImageSobelThresholdFilter extends
     @Override
     public void onInit() {
     	super.onInit();
-    	mUniformThresholdLocation = GLES20.glGetUniformLocation(getProgram(), "threshold");
+    	mUniformThresholdLocation = OpenGlUtils.getUniformLocation(getProgram(), "threshold");
     }
     
     @Override
@@ -69,10 +69,10 @@ public class GPUImageSphereRefractionFilter extends GPUImageFilter {
     @Override
     public void onInit() {
         super.onInit();
-        mCenterLocation = GLES20.glGetUniformLocation(getProgram(), "center");
-        mRadiusLocation = GLES20.glGetUniformLocation(getProgram(), "radius");
-        mAspectRatioLocation = GLES20.glGetUniformLocation(getProgram(), "aspectRatio");
-        mRefractiveIndexLocation = GLES20.glGetUniformLocation(getProgram(), "refractiveIndex");
+        mCenterLocation = OpenGlUtils.getUniformLocation(getProgram(), "center");
+        mRadiusLocation = OpenGlUtils.getUniformLocation(getProgram(), "radius");
+        mAspectRatioLocation = OpenGlUtils.getUniformLocation(getProgram(), "aspectRatio");
+        mRefractiveIndexLocation = OpenGlUtils.getUniformLocation(getProgram(), "refractiveIndex");
     }
 
     @Override
@@ -72,9 +72,9 @@ public class GPUImageSwirlFilter extends GPUImageFilter {
     @Override
     public void onInit() {
         super.onInit();
-        mAngleLocation = GLES20.glGetUniformLocation(getProgram(), "angle");
-        mRadiusLocation = GLES20.glGetUniformLocation(getProgram(), "radius");
-        mCenterLocation = GLES20.glGetUniformLocation(getProgram(), "center");
+        mAngleLocation = OpenGlUtils.getUniformLocation(getProgram(), "angle");
+        mRadiusLocation = OpenGlUtils.getUniformLocation(getProgram(), "radius");
+        mCenterLocation = OpenGlUtils.getUniformLocation(getProgram(), "center");
     }
 
     @Override
@@ -0,0 +1,170 @@
+/*
+ * Copyright (C) 2012 CyberAgent
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.co.cyberagent.android.gpuimage;
+
+import java.util.ArrayList;
+
+/**
+ * Produces moving NV21 test frames in place of a camera, to measure the preview pipeline
+ * without camera hardware or on a device where the camera timing would mask it.
+ * <p>
+ * Frames are queued into a {@link GPUImageCameraIngest} from a ring of buffers, either at a
+ * fixed rate on a thread of their own with {@link #start(GPUImageCameraIngest)}, or one at a
+ * time with {@link #queueFrame(GPUImageCameraIngest)}. A headless run draws a
+ * {@link GPUImageRenderer} into a {@link PixelBuffer}:
+ * <pre>
+ * GPUImageRenderer renderer = new GPUImageRenderer(filter);
+ * renderer.setFrameTimings(timings);
+ * PixelBuffer buffer = new PixelBuffer(width, height);
+ * buffer.setRenderer(renderer);
+ * for (int i = 0; i &lt; frames; i++) {
+ *     source.queueFrame(renderer.getCameraIngest());
+ *     buffer.getBitmap();
+ * }
+ * </pre>
+ */
+public class GPUImageSyntheticFrameSource implements GPUImageCameraIngest.BufferRecycler {
+    private final int mWidth;
+    private final int mHeight;
+    private final long mFrameIntervalNanos;
+    private final ArrayList<byte[]> mFreeBuffers = new ArrayList<byte[]>();
+    private final byte[] mRamp;
+    private Thread mThread;
+    private long mFrame;
+    private volatile long mStarvedFrames;
+
+    public GPUImageSyntheticFrameSource(final int width, final int height,
+            final float framesPerSecond) {
+        this(width, height, framesPerSecond, GPUImageCameraIngest.DEFAULT_BUFFER_COUNT + 1);
+    }
+
+    /**
+     * @param width           the frame width, even
+     * @param height          the frame height, even
+     * @param framesPerSecond the rate frames are produced at once started
+     * @param bufferCount     the buffers frames are written to, the ingest holds on to at most
+     *                        two at a time
+     */
+    public GPUImageSyntheticFrameSource(final int width, final int height,
+            final float framesPerSecond, final int bufferCount) {
+        mWidth = width;
+        mHeight = height;
+        mFrameIntervalNanos = (long) (1e9 / framesPerSecond);
+        for (int i = 0; i < Math.max(1, bufferCount); i++) {
+            mFreeBuffers.add(new byte[width * height * 3 / 2]);
+        }
+        // Luma rows are windows into a ramp, shifted by the row and the frame
+        mRamp = new byte[width + 256];
+        for (int i = 0; i < mRamp.length; i++) {
+            mRamp[i] = (byte) i;
+        }
+    }
+
+    /**
+     * Produces frames at the configured rate on a thread of its own until {@link #stop()}.
+     */
+    public synchronized void start(final GPUImageCameraIngest ingest) {
+        stop();
+        mThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                produceFrames(ingest);
+            }
+        }, "GPUImageSyntheticFrameSource");
+        mThread.start();
+    }
+
+    public synchronized void stop() {
+        if (mThread != null) {
+            mThread.interrupt();
+            mThread = null;
+        }
+    }
+
+    /**
+     * Writes the next frame and queues it with the current time as its capture time.
+     *
+     * @return false if every buffer is still held by the ingest
+     */
+    public boolean queueFrame(final GPUImageCameraIngest ingest) {
+        byte[] buffer;
+        synchronized (mFreeBuffers) {
+            if (mFreeBuffers.isEmpty()) {
+                mStarvedFrames++;
+                return false;
+            }
+            buffer = mFreeBuffers.remove(mFreeBuffers.size() - 1);
+        }
+        fill(buffer, mFrame++);
+        ingest.queueFrame(buffer, mWidth, mHeight, System.nanoTime(), this);
+        return true;
+    }
+
+    /**
+     * @return the frames skipped because no buffer was free
+     */
+    public long getStarvedFrameCount() {
+        return mStarvedFrames;
+    }
+
+    @Override
+    public void recycleBuffer(final byte[] buffer) {
+        synchronized (mFreeBuffers) {
+            mFreeBuffers.add(buffer);
+        }
+    }
+
+    private void produceFrames(final GPUImageCameraIngest ingest) {
+        Thread thread = Thread.currentThread();
+        long next = System.nanoTime();
+        while (!thread.isInterrupted()) {
+            queueFrame(ingest);
+            next += mFrameIntervalNanos;
+            long wait = next - System.nanoTime();
+            if (wait < 0) {
+                // Fell behind, keep the rate from here instead of catching up in a burst
+                next -= wait;
+                continue;
+            }
+            try {
+                Thread.sleep(wait / 1000000, (int) (wait % 1000000));
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Diagonal luma stripes and horizontal chroma bands, both moving with the frame.
+     */
+    private void fill(final byte[] buffer, final long frame) {
+        int shift = (int) (frame * 4);
+        for (int y = 0; y < mHeight; y++) {
+            System.arraycopy(mRamp, (y + shift) & 0xff, buffer, y * mWidth, mWidth);
+        }
+        int offset = mWidth * mHeight;
+        for (int y = 0; y < mHeight / 2; y++) {
+            byte v = (byte) (y * 2 + shift);
+            byte u = (byte) (255 - y * 2 - shift);
+            int row = offset + y * mWidth;
+            for (int x = 0; x < mWidth; x += 2) {
+                buffer[row + x] = v;
+                buffer[row + x + 1] = u;
+            }
+        }
+    }
+}
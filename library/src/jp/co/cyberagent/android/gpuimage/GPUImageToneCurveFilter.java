@@ -26,7 +26,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Comparator;
 
-public class GPUImageToneCurveFilter extends GPUImageFilter {
+public class GPUImageToneCurveFilter extends GPUImageFilter implements GPUImageColorMappingFilter {
     public static final String TONE_CURVE_FRAGMENT_SHADER = "" +
             " varying highp vec2 textureCoordinate;\n" +
             " uniform sampler2D inputImageTexture;\n" +
@@ -69,7 +69,7 @@ public class GPUImageToneCurveFilter extends GPUImageFilter {
     @Override
     public void onInit() {
         super.onInit();
-        mToneCurveTextureUniformLocation = GLES20.glGetUniformLocation(getProgram(), "toneCurveTexture");
+        mToneCurveTextureUniformLocation = OpenGlUtils.getUniformLocation(getProgram(), "toneCurveTexture");
         GLES20.glActiveTexture(GLES20.GL_TEXTURE3);
         GLES20.glGenTextures(1, mToneCurveTexture, 0);
         GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, mToneCurveTexture[0]);
@@ -361,4 +361,9 @@ public class GPUImageToneCurveFilter extends GPUImageFilter {
 
         return output;
     }
+
+    @Override
+    public int getSamplingRadius() {
+        return 0;
+    }
 }
@@ -88,8 +88,8 @@ public class GPUImageToonFilter extends GPUImage3x3TextureSamplingFilter {
     @Override
     public void onInit() {
         super.onInit();
-        mThresholdLocation = GLES20.glGetUniformLocation(getProgram(), "threshold");
-        mQuantizationLevelsLocation = GLES20.glGetUniformLocation(getProgram(), "quantizationLevels");
+        mThresholdLocation = OpenGlUtils.getUniformLocation(getProgram(), "threshold");
+        mQuantizationLevelsLocation = OpenGlUtils.getUniformLocation(getProgram(), "quantizationLevels");
     }
 
     @Override
@@ -29,6 +29,11 @@ public class GPUImageTransformFilter extends GPUImageFilter {
 
     private float[] transform3D;
 
+    // Reused every draw, the aspect ratio corrected cube
+    private final FloatBuffer adjustedVertices = ByteBuffer.allocateDirect(8 * 4)
+            .order(ByteOrder.nativeOrder())
+            .asFloatBuffer();
+
     // This applies the transform to the raw frame data if set to YES, the default of NO takes the aspect ratio of the image input into account when rotating
     private boolean ignoreAspectRatio;
 
@@ -48,8 +53,8 @@ public class GPUImageTransformFilter extends GPUImageFilter {
     @Override
     public void onInit() {
         super.onInit();
-        transformMatrixUniform = GLES20.glGetUniformLocation(getProgram(), "transformMatrix");
-        orthographicMatrixUniform = GLES20.glGetUniformLocation(getProgram(), "orthographicMatrix");
+        transformMatrixUniform = OpenGlUtils.getUniformLocation(getProgram(), "transformMatrix");
+        orthographicMatrixUniform = OpenGlUtils.getUniformLocation(getProgram(), "orthographicMatrix");
 
         setUniformMatrix4f(transformMatrixUniform, transform3D);
         setUniformMatrix4f(orthographicMatrixUniform, orthographicMatrix);
@@ -78,22 +83,12 @@ public class GPUImageTransformFilter extends GPUImageFilter {
 
         if (!ignoreAspectRatio) {
 
-            float[] adjustedVertices = new float[8];
-
-            cubeBuffer.position(0);
-            cubeBuffer.get(adjustedVertices);
-
             float normalizedHeight = (float) getOutputHeight() / (float) getOutputWidth();
-            adjustedVertices[1] *= normalizedHeight;
-            adjustedVertices[3] *= normalizedHeight;
-            adjustedVertices[5] *= normalizedHeight;
-            adjustedVertices[7] *= normalizedHeight;
-
-            vertBuffer = ByteBuffer.allocateDirect(adjustedVertices.length * 4)
-                    .order(ByteOrder.nativeOrder())
-                    .asFloatBuffer();
-
-            vertBuffer.put(adjustedVertices).position(0);
+            for (int i = 0; i < 8; i++) {
+                float value = cubeBuffer.get(i);
+                adjustedVertices.put(i, i % 2 == 1 ? value * normalizedHeight : value);
+            }
+            vertBuffer = adjustedVertices;
         }
 
         super.onDraw(textureId, vertBuffer, textureBuffer);
@@ -42,7 +42,7 @@ public class GPUImageTwoInputFilter extends GPUImageFilter {
     public int mFilterSecondTextureCoordinateAttribute;
     public int mFilterInputTextureUniform2;
     public int mFilterSourceTexture2 = OpenGlUtils.NO_TEXTURE;
-    private ByteBuffer mTexture2CoordinatesBuffer;
+    private FloatBuffer mTexture2CoordinatesBuffer;
     private Bitmap mBitmap;
 
     public GPUImageTwoInputFilter(String fragmentShader) {
@@ -58,8 +58,8 @@ public class GPUImageTwoInputFilter extends GPUImageFilter {
     public void onInit() {
         super.onInit();
 
-        mFilterSecondTextureCoordinateAttribute = GLES20.glGetAttribLocation(getProgram(), "inputTextureCoordinate2");
-        mFilterInputTextureUniform2 = GLES20.glGetUniformLocation(getProgram(), "inputImageTexture2"); // This does assume a name of "inputImageTexture2" for second input texture in the fragment shader
+        mFilterSecondTextureCoordinateAttribute = OpenGlUtils.getAttribLocation(getProgram(), "inputTextureCoordinate2");
+        mFilterInputTextureUniform2 = OpenGlUtils.getUniformLocation(getProgram(), "inputImageTexture2"); // This does assume a name of "inputImageTexture2" for second input texture in the fragment shader
         GLES20.glEnableVertexAttribArray(mFilterSecondTextureCoordinateAttribute);
 
         if (mBitmap != null&&!mBitmap.isRecycled()) {
@@ -114,8 +114,8 @@ public class GPUImageTwoInputFilter extends GPUImageFilter {
         GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, mFilterSourceTexture2);
         GLES20.glUniform1i(mFilterInputTextureUniform2, 3);
 
-        mTexture2CoordinatesBuffer.position(0);
-        GLES20.glVertexAttribPointer(mFilterSecondTextureCoordinateAttribute, 2, GLES20.GL_FLOAT, false, 0, mTexture2CoordinatesBuffer);
+        GPUImageQuadCache.setVertexAttribPointer(mFilterSecondTextureCoordinateAttribute,
+                mTexture2CoordinatesBuffer);
     }
 
     public void setRotation(final Rotation rotation, final boolean flipHorizontal, final boolean flipVertical) {
@@ -126,6 +126,6 @@ public class GPUImageTwoInputFilter extends GPUImageFilter {
         fBuffer.put(buffer);
         fBuffer.flip();
 
-        mTexture2CoordinatesBuffer = bBuffer;
+        mTexture2CoordinatesBuffer = fBuffer;
     }
 }
@@ -34,15 +34,15 @@ public class GPUImageTwoPassTextureSamplingFilter extends GPUImageTwoPassFilter
     protected void initTexelOffsets() {
         float ratio = getHorizontalTexelOffsetRatio();
         GPUImageFilter filter = mFilters.get(0);
-        int texelWidthOffsetLocation = GLES20.glGetUniformLocation(filter.getProgram(), "texelWidthOffset");
-        int texelHeightOffsetLocation = GLES20.glGetUniformLocation(filter.getProgram(), "texelHeightOffset");
+        int texelWidthOffsetLocation = OpenGlUtils.getUniformLocation(filter.getProgram(), "texelWidthOffset");
+        int texelHeightOffsetLocation = OpenGlUtils.getUniformLocation(filter.getProgram(), "texelHeightOffset");
         filter.setFloat(texelWidthOffsetLocation, ratio / mOutputWidth);
         filter.setFloat(texelHeightOffsetLocation, 0);
 
         ratio = getVerticalTexelOffsetRatio();
         filter = mFilters.get(1);
-        texelWidthOffsetLocation = GLES20.glGetUniformLocation(filter.getProgram(), "texelWidthOffset");
-        texelHeightOffsetLocation = GLES20.glGetUniformLocation(filter.getProgram(), "texelHeightOffset");
+        texelWidthOffsetLocation = OpenGlUtils.getUniformLocation(filter.getProgram(), "texelWidthOffset");
+        texelHeightOffsetLocation = OpenGlUtils.getUniformLocation(filter.getProgram(), "texelHeightOffset");
         filter.setFloat(texelWidthOffsetLocation, 0);
         filter.setFloat(texelHeightOffsetLocation, ratio / mOutputHeight);
     }
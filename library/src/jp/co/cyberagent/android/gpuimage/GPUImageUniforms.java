@@ -0,0 +1,232 @@
+/*
+ * Copyright (C) 2012 CyberAgent
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.co.cyberagent.android.gpuimage;
+
+import android.opengl.GLES20;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Latest uniform values of a filter, keyed by uniform location.
+ * <p>
+ * Setters only copy the value into a typed slot and mark it dirty, so repeated writes to the
+ * same uniform between two draws coalesce and, once a slot exists, cause no allocation.
+ * {@link #flush(boolean)} uploads the dirty slots on the OpenGL thread.
+ * <p>
+ * Thread-safe via synchronization on this instance.
+ */
+final class GPUImageUniforms {
+    private static final int TYPE_INT = 0;
+    private static final int TYPE_FLOAT = 1;
+    private static final int TYPE_VEC2 = 2;
+    private static final int TYPE_VEC3 = 3;
+    private static final int TYPE_VEC4 = 4;
+    private static final int TYPE_FLOAT_ARRAY = 5;
+    private static final int TYPE_MAT3 = 6;
+    private static final int TYPE_MAT4 = 7;
+
+    private final List<Slot> mSlots = new ArrayList<Slot>();
+    private boolean mDirty;
+    private int mVersion;
+
+    synchronized void setInt(final int location, final int value) {
+        Slot slot = obtain(location, TYPE_INT, 0);
+        if (slot != null) {
+            slot.intValue = value;
+        }
+    }
+
+    synchronized void setFloat(final int location, final float value) {
+        Slot slot = obtain(location, TYPE_FLOAT, 1);
+        if (slot != null) {
+            slot.values[0] = value;
+        }
+    }
+
+    synchronized void setFloat2(final int location, final float x, final float y) {
+        Slot slot = obtain(location, TYPE_VEC2, 2);
+        if (slot != null) {
+            slot.values[0] = x;
+            slot.values[1] = y;
+        }
+    }
+
+    synchronized void setFloatVec(final int location, final int size, final float[] value) {
+        int type;
+        switch (size) {
+            case 2:
+                type = TYPE_VEC2;
+                break;
+            case 3:
+                type = TYPE_VEC3;
+                break;
+            default:
+                type = TYPE_VEC4;
+                break;
+        }
+        Slot slot = obtain(location, type, size);
+        if (slot != null) {
+            System.arraycopy(value, 0, slot.values, 0, size);
+        }
+    }
+
+    synchronized void setFloatArray(final int location, final float[] value) {
+        set(location, TYPE_FLOAT_ARRAY, value);
+    }
+
+    synchronized void setMatrix3(final int location, final float[] value) {
+        set(location, TYPE_MAT3, value);
+    }
+
+    synchronized void setMatrix4(final int location, final float[] value) {
+        set(location, TYPE_MAT4, value);
+    }
+
+    /**
+     * Uploads slots to the currently bound program.
+     *
+     * @param all true to upload every slot, false to upload only those changed since the last
+     *            flush
+     */
+    synchronized void flush(final boolean all) {
+        if (!mDirty && !all) {
+            return;
+        }
+        for (int i = 0; i < mSlots.size(); i++) {
+            Slot slot = mSlots.get(i);
+            if (slot.dirty || all) {
+                slot.upload();
+                slot.dirty = false;
+            }
+        }
+        mDirty = false;
+    }
+
+    /**
+     * Uploads all slots whose location is listed in {@code from} to the corresponding location
+     * in {@code to} of the currently bound program, e.g. a program fusing several filters. The
+     * dirty state of the slots is left untouched.
+     */
+    synchronized void flushRemapped(final int[] from, final int[] to) {
+        for (int i = 0; i < mSlots.size(); i++) {
+            Slot slot = mSlots.get(i);
+            for (int j = 0; j < from.length; j++) {
+                if (from[j] == slot.location) {
+                    slot.upload(to[j]);
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return a counter which changes whenever a value is set
+     */
+    synchronized int getVersion() {
+        return mVersion;
+    }
+
+    /**
+     * Forgets all slots, e.g. because the program they belong to was deleted.
+     */
+    synchronized void clear() {
+        mSlots.clear();
+        mDirty = false;
+        mVersion++;
+    }
+
+    private void set(final int location, final int type, final float[] value) {
+        Slot slot = obtain(location, type, value.length);
+        if (slot != null) {
+            System.arraycopy(value, 0, slot.values, 0, value.length);
+        }
+    }
+
+    private Slot obtain(final int location, final int type, final int length) {
+        if (location < 0) {
+            // Unknown or optimized out uniform, GL would ignore it anyway
+            return null;
+        }
+        Slot slot = null;
+        for (int i = 0; i < mSlots.size(); i++) {
+            if (mSlots.get(i).location == location) {
+                slot = mSlots.get(i);
+                break;
+            }
+        }
+        if (slot == null) {
+            slot = new Slot(location);
+            mSlots.add(slot);
+        }
+        slot.type = type;
+        if (slot.values == null || slot.values.length < length) {
+            slot.values = new float[length];
+        }
+        slot.length = length;
+        slot.dirty = true;
+        mDirty = true;
+        mVersion++;
+        return slot;
+    }
+
+    private static final class Slot {
+        final int location;
+        int type;
+        int intValue;
+        float[] values;
+        int length;
+        boolean dirty;
+
+        Slot(final int location) {
+            this.location = location;
+        }
+
+        void upload() {
+            upload(location);
+        }
+
+        void upload(final int location) {
+            switch (type) {
+                case TYPE_INT:
+                    GLES20.glUniform1i(location, intValue);
+                    break;
+                case TYPE_FLOAT:
+                    GLES20.glUniform1f(location, values[0]);
+                    break;
+                case TYPE_VEC2:
+                    GLES20.glUniform2fv(location, 1, values, 0);
+                    break;
+                case TYPE_VEC3:
+                    GLES20.glUniform3fv(location, 1, values, 0);
+                    break;
+                case TYPE_VEC4:
+                    GLES20.glUniform4fv(location, 1, values, 0);
+                    break;
+                case TYPE_FLOAT_ARRAY:
+                    GLES20.glUniform1fv(location, length, values, 0);
+                    break;
+                case TYPE_MAT3:
+                    GLES20.glUniformMatrix3fv(location, 1, false, values, 0);
+                    break;
+                case TYPE_MAT4:
+                    GLES20.glUniformMatrix4fv(location, 1, false, values, 0);
+                    break;
+            }
+        }
+    }
+}
@@ -23,7 +23,6 @@ import android.graphics.drawable.ColorDrawable;
 import android.graphics.drawable.Drawable;
 import android.media.MediaScannerConnection;
 import android.net.Uri;
-import android.opengl.GLES20;
 import android.opengl.GLSurfaceView;
 import android.os.*;
 import android.util.AttributeSet;
@@ -35,7 +34,8 @@ import android.widget.ProgressBar;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
-import java.nio.IntBuffer;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.concurrent.Semaphore;
 
 public class GPUImageView extends FrameLayout {
@@ -298,35 +298,22 @@ public class GPUImageView extends FrameLayout {
      * @throws InterruptedException
      */
     public Bitmap capture() throws InterruptedException {
-        final Semaphore waiter = new Semaphore(0);
-
-        final int width = mGLSurfaceView.getMeasuredWidth();
-        final int height = mGLSurfaceView.getMeasuredHeight();
+        try {
+            return captureAsync().get();
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+    }
 
-        // Take picture on OpenGL thread
-        final int[] pixelMirroredArray = new int[width * height];
-        mGPUImage.runOnGLThread(new Runnable() {
-            @Override
-            public void run() {
-                final IntBuffer pixelBuffer = IntBuffer.allocate(width * height);
-                GLES20.glReadPixels(0, 0, width, height, GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, pixelBuffer);
-                int[] pixelArray = pixelBuffer.array();
-
-                // Convert upside down mirror-reversed image to right-side up normal image.
-                for (int i = 0; i < height; i++) {
-                    for (int j = 0; j < width; j++) {
-                        pixelMirroredArray[(height - i - 1) * width + j] = pixelArray[i * width + j];
-                    }
-                }
-                waiter.release();
-            }
-        });
+    /**
+     * Capture the next drawn image with the size as it is displayed, without stalling the
+     * rendering until the GPU is done with it.
+     * @return completes with the output as Bitmap a frame later
+     */
+    public Future<Bitmap> captureAsync() {
+        Future<Bitmap> future = mGPUImage.capturePreview();
         requestRender();
-        waiter.acquire();
-
-        Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
-        bitmap.copyPixelsFromBuffer(IntBuffer.wrap(pixelMirroredArray));
-        return bitmap;
+        return future;
     }
 
     /**
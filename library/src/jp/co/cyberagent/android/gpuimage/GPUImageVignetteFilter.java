@@ -24,7 +24,7 @@ import android.opengl.GLES20;
  * x:
  * y: The directional intensity of the vignetting, with a default of x = 0.75, y = 0.5
  */
-public class GPUImageVignetteFilter extends GPUImageFilter {
+public class GPUImageVignetteFilter extends GPUImageFilter implements GPUImagePointwiseFilter {
     public static final String VIGNETTING_FRAGMENT_SHADER = "" +
             " uniform sampler2D inputImageTexture;\n" +
             " varying highp vec2 textureCoordinate;\n" +
@@ -49,6 +49,11 @@ public class GPUImageVignetteFilter extends GPUImageFilter {
             "     gl_FragColor = vec4(mix(rgb.x, vignetteColor.x, percent), mix(rgb.y, vignetteColor.y, percent), mix(rgb.z, vignetteColor.z, percent), 1.0);\n" +
             " }";
 
+    public static final String VIGNETTING_COLOR_TRANSFORM = "" +
+            "    lowp float d = distance(textureCoordinate, vec2(vignetteCenter.x, vignetteCenter.y));\n" +
+            "    lowp float percent = smoothstep(vignetteStart, vignetteEnd, d);\n" +
+            "    color = vec4(mix(color.rgb, vignetteColor, percent), 1.0);\n";
+
     private int mVignetteCenterLocation;
     private PointF mVignetteCenter;
     private int mVignetteColorLocation;
@@ -74,10 +79,10 @@ public class GPUImageVignetteFilter extends GPUImageFilter {
     @Override
     public void onInit() {
         super.onInit();
-        mVignetteCenterLocation = GLES20.glGetUniformLocation(getProgram(), "vignetteCenter");
-        mVignetteColorLocation = GLES20.glGetUniformLocation(getProgram(), "vignetteColor");
-        mVignetteStartLocation = GLES20.glGetUniformLocation(getProgram(), "vignetteStart");
-        mVignetteEndLocation = GLES20.glGetUniformLocation(getProgram(), "vignetteEnd");
+        mVignetteCenterLocation = OpenGlUtils.getUniformLocation(getProgram(), "vignetteCenter");
+        mVignetteColorLocation = OpenGlUtils.getUniformLocation(getProgram(), "vignetteColor");
+        mVignetteStartLocation = OpenGlUtils.getUniformLocation(getProgram(), "vignetteStart");
+        mVignetteEndLocation = OpenGlUtils.getUniformLocation(getProgram(), "vignetteEnd");
         
         setVignetteCenter(mVignetteCenter);
         setVignetteColor(mVignetteColor);
@@ -105,4 +110,9 @@ public class GPUImageVignetteFilter extends GPUImageFilter {
         mVignetteEnd = vignetteEnd;
         setFloat(mVignetteEndLocation, mVignetteEnd);
     }
+
+    @Override
+    public String getColorTransform() {
+        return VIGNETTING_COLOR_TRANSFORM;
+    }
 }
@@ -24,7 +24,8 @@ import android.opengl.GLES20;
  * temperature: 
  * tint:
  */
-public class GPUImageWhiteBalanceFilter extends GPUImageFilter {
+public class GPUImageWhiteBalanceFilter extends GPUImageFilter implements
+        GPUImageColorMappingFilter {
     public static final String WHITE_BALANCE_FRAGMENT_SHADER = "" +
             "uniform sampler2D inputImageTexture;\n" +
             "varying highp vec2 textureCoordinate;\n" +
@@ -71,8 +72,8 @@ public class GPUImageWhiteBalanceFilter extends GPUImageFilter {
     @Override
     public void onInit() {
         super.onInit();
-        mTemperatureLocation = GLES20.glGetUniformLocation(getProgram(), "temperature");
-        mTintLocation = GLES20.glGetUniformLocation(getProgram(), "tint");
+        mTemperatureLocation = OpenGlUtils.getUniformLocation(getProgram(), "temperature");
+        mTintLocation = OpenGlUtils.getUniformLocation(getProgram(), "tint");
 
         setTemperature(mTemperature);
         setTint(mTint);
@@ -88,4 +89,9 @@ public class GPUImageWhiteBalanceFilter extends GPUImageFilter {
         mTint = tint;
         setFloat(mTintLocation, (float)(mTint/100.0));
     }
+
+    @Override
+    public int getSamplingRadius() {
+        return 0;
+    }
 }
@@ -0,0 +1,264 @@
+/*
+ * Copyright (C) 2012 CyberAgent
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.co.cyberagent.android.gpuimage;
+
+import android.opengl.GLES20;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+
+/**
+ * Converts a YUV 4:2:0 frame with interleaved VU samples, e.g. the NV21 frames of
+ * {@link android.hardware.Camera.PreviewCallback}, to RGB.
+ * <p>
+ * The Y plane is uploaded as a luminance texture and the VU plane as a luminance-alpha texture
+ * of half the size, so 1.5 instead of 4 bytes per pixel are uploaded and no conversion is done
+ * on the CPU. The textures are uploaded with {@link #uploadNV21(byte[], int, int)} or
+ * {@link #uploadPlanes(Buffer, Buffer, int, int)} on the OpenGL thread before drawing; the
+ * texture passed to {@link #onDraw} is ignored.
+ */
+public class GPUImageYUVConversionFilter extends GPUImageFilter {
+    public static final String YUV_CONVERSION_FRAGMENT_SHADER = "" +
+            "varying highp vec2 textureCoordinate;\n" +
+            " \n" +
+            "uniform sampler2D inputImageTexture;\n" +
+            "uniform sampler2D chrominanceTexture;\n" +
+            "uniform mediump mat3 colorConversionMatrix;\n" +
+            "uniform mediump vec3 colorOffset;\n" +
+            " \n" +
+            "void main()\n" +
+            "{\n" +
+            "     mediump vec3 yuv;\n" +
+            "     yuv.x = texture2D(inputImageTexture, textureCoordinate).r;\n" +
+            "     lowp vec4 vu = texture2D(chrominanceTexture, textureCoordinate);\n" +
+            "     yuv.y = vu.a;\n" +
+            "     yuv.z = vu.r;\n" +
+            "     gl_FragColor = vec4(colorConversionMatrix * (yuv - colorOffset), 1.0);\n" +
+            "}";
+
+    /**
+     * The luma coefficients of a YUV color space.
+     */
+    public enum ColorSpace {
+        /** SD video and JPEG, what the camera preview of most devices uses */
+        BT601(0.299f, 0.114f),
+        /** HD video */
+        BT709(0.2126f, 0.0722f);
+
+        final float kr;
+        final float kb;
+
+        ColorSpace(final float kr, final float kb) {
+            this.kr = kr;
+            this.kb = kb;
+        }
+    }
+
+    private int mChrominanceTextureLocation;
+    private int mColorConversionMatrixLocation;
+    private int mColorOffsetLocation;
+    private ColorSpace mColorSpace;
+    private boolean mFullRange;
+    private final float[] mColorConversionMatrix = new float[9];
+    private final float[] mColorOffset = new float[3];
+
+    private final int[] mTextures = new int[] {OpenGlUtils.NO_TEXTURE, OpenGlUtils.NO_TEXTURE};
+    private int mTextureWidth;
+    private int mTextureHeight;
+
+    // Wrappers of the last frames, camera callback buffers are reused in turn
+    private final byte[][] mWrappedFrames = new byte[4][];
+    private final ByteBuffer[] mWrappedLuminance = new ByteBuffer[4];
+    private final ByteBuffer[] mWrappedChrominance = new ByteBuffer[4];
+    private int mNextWrapper;
+
+    /**
+     * Creates a filter for full range BT.601, the format of the camera preview.
+     */
+    public GPUImageYUVConversionFilter() {
+        this(ColorSpace.BT601, true);
+    }
+
+    public GPUImageYUVConversionFilter(final ColorSpace colorSpace, final boolean fullRange) {
+        super(NO_FILTER_VERTEX_SHADER, YUV_CONVERSION_FRAGMENT_SHADER);
+        mColorSpace = colorSpace;
+        mFullRange = fullRange;
+    }
+
+    @Override
+    public void onInit() {
+        super.onInit();
+        mChrominanceTextureLocation = OpenGlUtils.getUniformLocation(getProgram(),
+                "chrominanceTexture");
+        mColorConversionMatrixLocation = OpenGlUtils.getUniformLocation(getProgram(),
+                "colorConversionMatrix");
+        mColorOffsetLocation = OpenGlUtils.getUniformLocation(getProgram(), "colorOffset");
+        // Textures of a previous context are gone with it
+        mTextures[0] = OpenGlUtils.NO_TEXTURE;
+        mTextures[1] = OpenGlUtils.NO_TEXTURE;
+    }
+
+    @Override
+    public void onInitialized() {
+        super.onInitialized();
+        setColorSpace(mColorSpace, mFullRange);
+    }
+
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        if (mTextures[0] != OpenGlUtils.NO_TEXTURE) {
+            GLES20.glDeleteTextures(2, mTextures, 0);
+            mTextures[0] = OpenGlUtils.NO_TEXTURE;
+            mTextures[1] = OpenGlUtils.NO_TEXTURE;
+        }
+    }
+
+    /**
+     * @param colorSpace the color space of the frames
+     * @param fullRange  true if Y, U and V use the range 0 to 255, false for the video range
+     *                   16 to 235 (Y) and 16 to 240 (U, V)
+     */
+    public void setColorSpace(final ColorSpace colorSpace, final boolean fullRange) {
+        mColorSpace = colorSpace;
+        mFullRange = fullRange;
+        float kr = colorSpace.kr;
+        float kb = colorSpace.kb;
+        float kg = 1.0f - kr - kb;
+        float luminanceScale = fullRange ? 1.0f : 255.0f / 219.0f;
+        float chrominanceScale = fullRange ? 1.0f : 255.0f / 224.0f;
+
+        // Column-major, columns are the factors of Y, U (Cb) and V (Cr)
+        mColorConversionMatrix[0] = luminanceScale;
+        mColorConversionMatrix[1] = luminanceScale;
+        mColorConversionMatrix[2] = luminanceScale;
+        mColorConversionMatrix[3] = 0.0f;
+        mColorConversionMatrix[4] = -2.0f * kb * (1.0f - kb) / kg * chrominanceScale;
+        mColorConversionMatrix[5] = 2.0f * (1.0f - kb) * chrominanceScale;
+        mColorConversionMatrix[6] = 2.0f * (1.0f - kr) * chrominanceScale;
+        mColorConversionMatrix[7] = -2.0f * kr * (1.0f - kr) / kg * chrominanceScale;
+        mColorConversionMatrix[8] = 0.0f;
+        mColorOffset[0] = fullRange ? 0.0f : 16.0f / 255.0f;
+        mColorOffset[1] = 128.0f / 255.0f;
+        mColorOffset[2] = 128.0f / 255.0f;
+        setUniformMatrix3f(mColorConversionMatrixLocation, mColorConversionMatrix);
+        setFloatVec3(mColorOffsetLocation, mColorOffset);
+    }
+
+    public ColorSpace getColorSpace() {
+        return mColorSpace;
+    }
+
+    public boolean isFullRange() {
+        return mFullRange;
+    }
+
+    /**
+     * Uploads an NV21 frame: the Y plane followed by the interleaved V and U samples of each
+     * 2x2 block. Must be called on the OpenGL thread.
+     *
+     * @param data   the frame
+     * @param width  the width of the frame, even
+     * @param height the height of the frame, even
+     */
+    public void uploadNV21(final byte[] data, final int width, final int height) {
+        int index = -1;
+        for (int i = 0; i < mWrappedFrames.length; i++) {
+            if (mWrappedFrames[i] == data
+                    && mWrappedChrominance[i].position() == width * height) {
+                index = i;
+                break;
+            }
+        }
+        if (index < 0) {
+            index = mNextWrapper;
+            mNextWrapper = (mNextWrapper + 1) % mWrappedFrames.length;
+            mWrappedFrames[index] = data;
+            mWrappedLuminance[index] = ByteBuffer.wrap(data, 0, width * height);
+            mWrappedChrominance[index] = ByteBuffer.wrap(data, width * height,
+                    width * height / 2);
+        }
+        uploadPlanes(mWrappedLuminance[index], mWrappedChrominance[index], width, height);
+    }
+
+    /**
+     * Uploads the planes of a frame from their current positions, without row padding. Must be
+     * called on the OpenGL thread.
+     *
+     * @param luminance   width x height Y samples
+     * @param chrominance width / 2 x height / 2 pairs of V and U samples
+     * @param width       the width of the frame, even
+     * @param height      the height of the frame, even
+     */
+    public void uploadPlanes(final Buffer luminance, final Buffer chrominance,
+                             final int width, final int height) {
+        GLES20.glPixelStorei(GLES20.GL_UNPACK_ALIGNMENT, 1);
+        if (mTextures[0] == OpenGlUtils.NO_TEXTURE
+                || mTextureWidth != width || mTextureHeight != height) {
+            if (mTextures[0] == OpenGlUtils.NO_TEXTURE) {
+                GLES20.glGenTextures(2, mTextures, 0);
+            }
+            mTextureWidth = width;
+            mTextureHeight = height;
+            createTexture(mTextures[0], GLES20.GL_LUMINANCE, width, height, luminance);
+            createTexture(mTextures[1], GLES20.GL_LUMINANCE_ALPHA, width / 2, height / 2,
+                    chrominance);
+        } else {
+            GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, mTextures[0]);
+            GLES20.glTexSubImage2D(GLES20.GL_TEXTURE_2D, 0, 0, 0, width, height,
+                    GLES20.GL_LUMINANCE, GLES20.GL_UNSIGNED_BYTE, luminance);
+            GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, mTextures[1]);
+            GLES20.glTexSubImage2D(GLES20.GL_TEXTURE_2D, 0, 0, 0, width / 2, height / 2,
+                    GLES20.GL_LUMINANCE_ALPHA, GLES20.GL_UNSIGNED_BYTE, chrominance);
+        }
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
+        GLES20.glPixelStorei(GLES20.GL_UNPACK_ALIGNMENT, 4);
+    }
+
+    private static void createTexture(final int texture, final int format, final int width,
+                                      final int height, final Buffer pixels) {
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, texture);
+        GLES20.glTexParameterf(GLES20.GL_TEXTURE_2D,
+                GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
+        GLES20.glTexParameterf(GLES20.GL_TEXTURE_2D,
+                GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR);
+        GLES20.glTexParameterf(GLES20.GL_TEXTURE_2D,
+                GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
+        GLES20.glTexParameterf(GLES20.GL_TEXTURE_2D,
+                GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
+        GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, format, width, height, 0,
+                format, GLES20.GL_UNSIGNED_BYTE, pixels);
+    }
+
+    /**
+     * Draws the last uploaded frame, textureId is ignored.
+     */
+    @Override
+    public void onDraw(final int textureId, final FloatBuffer cubeBuffer,
+                       final FloatBuffer textureBuffer) {
+        super.onDraw(mTextures[0], cubeBuffer, textureBuffer);
+    }
+
+    @Override
+    protected void onDrawArraysPre() {
+        GLES20.glActiveTexture(GLES20.GL_TEXTURE1);
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, mTextures[1]);
+        GLES20.glUniform1i(mChrominanceTextureLocation, 1);
+        GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
+    }
+}
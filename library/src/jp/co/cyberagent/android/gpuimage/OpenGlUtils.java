@@ -59,8 +59,13 @@ public class OpenGlUtils {
     }
 
     public static int loadTexture(final IntBuffer data, final Size size, final int usedTexId) {
-        int textures[] = new int[1];
+        return loadTexture(data, size.width, size.height, usedTexId);
+    }
+
+    public static int loadTexture(final IntBuffer data, final int width, final int height,
+                                  final int usedTexId) {
         if (usedTexId == NO_TEXTURE) {
+            int textures[] = new int[1];
             GLES20.glGenTextures(1, textures, 0);
             GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, textures[0]);
             GLES20.glTexParameterf(GLES20.GL_TEXTURE_2D,
@@ -71,15 +76,15 @@ public class OpenGlUtils {
                     GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
             GLES20.glTexParameterf(GLES20.GL_TEXTURE_2D,
                     GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
-            GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, GLES20.GL_RGBA, size.width, size.height,
+            GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, GLES20.GL_RGBA, width, height,
                     0, GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, data);
+            return textures[0];
         } else {
             GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, usedTexId);
-            GLES20.glTexSubImage2D(GLES20.GL_TEXTURE_2D, 0, 0, 0, size.width,
-                    size.height, GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, data);
-            textures[0] = usedTexId;
+            GLES20.glTexSubImage2D(GLES20.GL_TEXTURE_2D, 0, 0, 0, width,
+                    height, GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, data);
+            return usedTexId;
         }
-        return textures[0];
     }
 
     public static int loadTextureAsBitmap(final IntBuffer data, final Size size, final int usedTexId) {
@@ -134,6 +139,30 @@ public class OpenGlUtils {
         return iProgId;
     }
 
+    /**
+     * Returns the location of a uniform, served from the program cache for programs created by
+     * {@link GPUImageFilter}.
+     */
+    public static int getUniformLocation(final int program, final String name) {
+        GPUImageProgramCache.Program cachedProgram = GPUImageProgramCache.find(program);
+        if (cachedProgram != null) {
+            return cachedProgram.getUniformLocation(name);
+        }
+        return GLES20.glGetUniformLocation(program, name);
+    }
+
+    /**
+     * Returns the location of an attribute, served from the program cache for programs created
+     * by {@link GPUImageFilter}.
+     */
+    public static int getAttribLocation(final int program, final String name) {
+        GPUImageProgramCache.Program cachedProgram = GPUImageProgramCache.find(program);
+        if (cachedProgram != null) {
+            return cachedProgram.getAttribLocation(name);
+        }
+        return GLES20.glGetAttribLocation(program, name);
+    }
+
     public static float rnd(final float min, final float max) {
         float fRandNum = (float) Math.random();
         return min + (max - min) * fRandNum;
@@ -22,7 +22,9 @@ import static javax.microedition.khronos.egl.EGL10.EGL_WIDTH;
 import static javax.microedition.khronos.opengles.GL10.GL_RGBA;
 import static javax.microedition.khronos.opengles.GL10.GL_UNSIGNED_BYTE;
 
-import java.nio.IntBuffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.Future;
 
 import javax.microedition.khronos.egl.EGL10;
 import javax.microedition.khronos.egl.EGLConfig;
@@ -42,6 +44,7 @@ public class PixelBuffer {
     GLSurfaceView.Renderer mRenderer; // borrow this interface
     int mWidth, mHeight;
     Bitmap mBitmap;
+    GPUImagePixelReader mPixelReader;
 
     EGL10 mEGL;
     EGLDisplay mEGLDisplay;
@@ -121,12 +124,60 @@ public class PixelBuffer {
         mRenderer.onDrawFrame(mGL);
         mRenderer.onDrawFrame(mGL);
         convertToBitmap();
+        if (mRenderer instanceof GPUImageRenderer) {
+            // The read back stands in for the swap of a window surface
+            ((GPUImageRenderer) mRenderer).notifyFramePresented();
+        }
         return mBitmap;
     }
 
+    /**
+     * Draws like {@link #getBitmap()}, but reads the pixels back without waiting for the GPU.
+     * The future completes during a later call, {@link #finishReads()} or {@link #destroy()},
+     * or when waited for on this thread, so rendering the next frame overlaps the readback.
+     */
+    public Future<Bitmap> getBitmapAsync() {
+        if (mRenderer == null) {
+            Log.e(TAG, "getBitmapAsync: Renderer was not set.");
+            return null;
+        }
+        if (!Thread.currentThread().getName().equals(mThreadOwner)) {
+            Log.e(TAG, "getBitmapAsync: This thread does not own the OpenGL context.");
+            return null;
+        }
+
+        mRenderer.onDrawFrame(mGL);
+        mRenderer.onDrawFrame(mGL);
+        if (mPixelReader == null) {
+            mPixelReader = new GPUImagePixelReader();
+        }
+        mPixelReader.poll();
+        Future<Bitmap> future = mPixelReader.read(mWidth, mHeight);
+        if (mRenderer instanceof GPUImageRenderer) {
+            ((GPUImageRenderer) mRenderer).notifyFramePresented();
+        }
+        return future;
+    }
+
+    /**
+     * Completes the reads of {@link #getBitmapAsync()} still in flight.
+     */
+    public void finishReads() {
+        if (mPixelReader != null) {
+            mPixelReader.finish();
+        }
+    }
+
     public void destroy() {
         mRenderer.onDrawFrame(mGL);
         mRenderer.onDrawFrame(mGL);
+        if (mPixelReader != null) {
+            mPixelReader.finish();
+            mPixelReader.release();
+            mPixelReader = null;
+        }
+        GPUImageProgramCache.invalidateCurrentContext();
+        GPUImageQuadCache.invalidateCurrentContext();
         mEGL.eglMakeCurrent(mEGLDisplay, EGL10.EGL_NO_SURFACE,
                 EGL10.EGL_NO_SURFACE, EGL10.EGL_NO_CONTEXT);
 
@@ -189,22 +240,14 @@ public class PixelBuffer {
     }
 
     private void convertToBitmap() {
-        int[] iat = new int[mWidth * mHeight];
-        IntBuffer ib = IntBuffer.allocate(mWidth * mHeight);
-        mGL.glReadPixels(0, 0, mWidth, mHeight, GL_RGBA, GL_UNSIGNED_BYTE, ib);
-        int[] ia = ib.array();
-
-        //Stupid !
-        // Convert upside down mirror-reversed image to right-side up normal
-        // image.
-        for (int i = 0; i < mHeight; i++) {
-            for (int j = 0; j < mWidth; j++) {
-                iat[(mHeight - i - 1) * mWidth + j] = ia[i * mWidth + j];
-            }
-        }
-        
-
         mBitmap = Bitmap.createBitmap(mWidth, mHeight, Bitmap.Config.ARGB_8888);
-        mBitmap.copyPixelsFromBuffer(IntBuffer.wrap(iat));
+        // Read straight into the bitmap and flip its rows in place, no copies on the heap
+        if (GPUImageNativeLibrary.readPixelsToBitmap(mBitmap)) {
+            return;
+        }
+        ByteBuffer pixels = ByteBuffer.allocateDirect(mWidth * mHeight * 4)
+                .order(ByteOrder.nativeOrder());
+        mGL.glReadPixels(0, 0, mWidth, mHeight, GL_RGBA, GL_UNSIGNED_BYTE, pixels);
+        GPUImageNativeLibrary.copyFlippedToBitmap(pixels, mBitmap);
     }
 }
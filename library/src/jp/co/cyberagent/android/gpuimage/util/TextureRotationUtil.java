@@ -46,11 +46,32 @@ public class TextureRotationUtil {
             1.0f, 1.0f,
     };
 
+    // All combinations of rotation and flips, computed once so lookups do not allocate
+    private static final float[][] ROTATIONS = new float[Rotation.values().length * 4][];
+
+    static {
+        for (Rotation rotation : Rotation.values()) {
+            for (int flips = 0; flips < 4; flips++) {
+                ROTATIONS[rotation.ordinal() * 4 + flips] =
+                        computeRotation(rotation, (flips & 2) != 0, (flips & 1) != 0);
+            }
+        }
+    }
+
     private TextureRotationUtil() {
     }
 
+    /**
+     * Returns the texture coordinates for the given orientation. The returned array is shared,
+     * it must not be modified.
+     */
     public static float[] getRotation(final Rotation rotation, final boolean flipHorizontal,
                                                          final boolean flipVertical) {
+        return ROTATIONS[rotation.ordinal() * 4 + (flipHorizontal ? 2 : 0) + (flipVertical ? 1 : 0)];
+    }
+
+    private static float[] computeRotation(final Rotation rotation, final boolean flipHorizontal,
+                                           final boolean flipVertical) {
         float[] rotatedTex;
         switch (rotation) {
             case ROTATION_90:
@@ -86,7 +107,6 @@ public class TextureRotationUtil {
         return rotatedTex;
     }
 
-
     private static float flip(final float i) {
         if (i == 0.0f) {
             return 1.0f;
@@ -0,0 +1,242 @@
+/*
+ * Copyright (C) 2012 CyberAgent
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.opengl;
+
+import java.nio.Buffer;
+import java.nio.FloatBuffer;
+
+/**
+ * Stub OpenGL ES 2.0 backend for JVM tests, found on the test classpath before the class of
+ * android.jar. Every call succeeds without doing anything: objects and locations get fresh
+ * names, shaders compile and programs link. Only the methods the library calls are stubbed,
+ * and none of them allocates, so a test can count what the code under test allocates.
+ */
+public class GLES20 {
+    private static int sNextName = 1;
+    private static int sDrawCalls;
+
+    /**
+     * @return the number of glDrawArrays calls so far
+     */
+    public static int getDrawCallCount() {
+        return sDrawCalls;
+    }
+
+    private static void genNames(final int n, final int[] names, final int offset) {
+        for (int i = 0; i < n; i++) {
+            names[offset + i] = sNextName++;
+        }
+    }
+
+    public static void glActiveTexture(int texture) {
+    }
+
+    public static void glAttachShader(int program, int shader) {
+    }
+
+    public static void glBindBuffer(int target, int buffer) {
+    }
+
+    public static void glBindFramebuffer(int target, int framebuffer) {
+    }
+
+    public static void glBindTexture(int target, int texture) {
+    }
+
+    public static void glBufferData(int target, int size, Buffer data, int usage) {
+    }
+
+    public static void glClear(int mask) {
+    }
+
+    public static void glClearColor(float red, float green, float blue, float alpha) {
+    }
+
+    public static void glCompileShader(int shader) {
+    }
+
+    public static int glCreateProgram() {
+        return sNextName++;
+    }
+
+    public static int glCreateShader(int type) {
+        return sNextName++;
+    }
+
+    public static void glDeleteBuffers(int n, int[] buffers, int offset) {
+    }
+
+    public static void glDeleteFramebuffers(int n, int[] framebuffers, int offset) {
+    }
+
+    public static void glDeleteProgram(int program) {
+    }
+
+    public static void glDeleteShader(int shader) {
+    }
+
+    public static void glDeleteTextures(int n, int[] textures, int offset) {
+    }
+
+    public static void glDisable(int cap) {
+    }
+
+    public static void glDisableVertexAttribArray(int index) {
+    }
+
+    public static void glDrawArrays(int mode, int first, int count) {
+        sDrawCalls++;
+    }
+
+    public static void glEnableVertexAttribArray(int index) {
+    }
+
+    public static void glFinish() {
+    }
+
+    public static void glFlush() {
+    }
+
+    public static void glFramebufferTexture2D(int target, int attachment, int textarget,
+            int texture, int level) {
+    }
+
+    public static void glGenBuffers(int n, int[] buffers, int offset) {
+        genNames(n, buffers, offset);
+    }
+
+    public static void glGenFramebuffers(int n, int[] framebuffers, int offset) {
+        genNames(n, framebuffers, offset);
+    }
+
+    public static void glGenTextures(int n, int[] textures, int offset) {
+        genNames(n, textures, offset);
+    }
+
+    public static int glGetAttribLocation(int program, String name) {
+        return sNextName++;
+    }
+
+    public static int glGetError() {
+        return 0;
+    }
+
+    public static void glGetIntegerv(int pname, int[] params, int offset) {
+        params[offset] = 0;
+    }
+
+    public static void glGetProgramiv(int program, int pname, int[] params, int offset) {
+        // GL_TRUE for the link status
+        params[offset] = 1;
+    }
+
+    public static void glGetShaderiv(int shader, int pname, int[] params, int offset) {
+        // GL_TRUE for the compile status
+        params[offset] = 1;
+    }
+
+    public static String glGetShaderInfoLog(int shader) {
+        return "";
+    }
+
+    public static String glGetString(int name) {
+        return "OpenGL ES 2.0";
+    }
+
+    public static int glGetUniformLocation(int program, String name) {
+        return sNextName++;
+    }
+
+    public static void glLinkProgram(int program) {
+    }
+
+    public static void glPixelStorei(int pname, int param) {
+    }
+
+    public static void glReadPixels(int x, int y, int width, int height, int format, int type,
+            Buffer pixels) {
+    }
+
+    public static void glShaderSource(int shader, String string) {
+    }
+
+    public static void glTexImage2D(int target, int level, int internalformat, int width,
+            int height, int border, int format, int type, Buffer pixels) {
+    }
+
+    public static void glTexParameterf(int target, int pname, float param) {
+    }
+
+    public static void glTexParameteri(int target, int pname, int param) {
+    }
+
+    public static void glTexSubImage2D(int target, int level, int xoffset, int yoffset,
+            int width, int height, int format, int type, Buffer pixels) {
+    }
+
+    public static void glUniform1f(int location, float x) {
+    }
+
+    public static void glUniform1fv(int location, int count, float[] v, int offset) {
+    }
+
+    public static void glUniform1fv(int location, int count, FloatBuffer v) {
+    }
+
+    public static void glUniform1i(int location, int x) {
+    }
+
+    public static void glUniform2fv(int location, int count, float[] v, int offset) {
+    }
+
+    public static void glUniform2fv(int location, int count, FloatBuffer v) {
+    }
+
+    public static void glUniform3fv(int location, int count, float[] v, int offset) {
+    }
+
+    public static void glUniform3fv(int location, int count, FloatBuffer v) {
+    }
+
+    public static void glUniform4fv(int location, int count, float[] v, int offset) {
+    }
+
+    public static void glUniform4fv(int location, int count, FloatBuffer v) {
+    }
+
+    public static void glUniformMatrix3fv(int location, int count, boolean transpose,
+            float[] value, int offset) {
+    }
+
+    public static void glUniformMatrix4fv(int location, int count, boolean transpose,
+            float[] value, int offset) {
+    }
+
+    public static void glUseProgram(int program) {
+    }
+
+    public static void glVertexAttribPointer(int index, int size, int type, boolean normalized,
+            int stride, Buffer ptr) {
+    }
+
+    public static void glVertexAttribPointer(int index, int size, int type, boolean normalized,
+            int stride, int offset) {
+    }
+
+    public static void glViewport(int x, int y, int width, int height) {
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright (C) 2012 CyberAgent
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package javax.microedition.khronos.egl;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+import javax.microedition.khronos.opengles.GL;
+
+/**
+ * Stub EGL for JVM tests, found on the test classpath before the class of android.jar, see
+ * {@link android.opengl.GLES20}. A single context is current on every thread.
+ */
+public abstract class EGLContext {
+    private static final EGLContext CURRENT_CONTEXT = new EGLContext() {
+        @Override
+        public GL getGL() {
+            return null;
+        }
+    };
+
+    private static final EGL EGL_INSTANCE = (EGL) Proxy.newProxyInstance(
+            EGLContext.class.getClassLoader(), new Class<?>[] {EGL10.class},
+            new InvocationHandler() {
+                @Override
+                public Object invoke(final Object proxy, final Method method,
+                        final Object[] args) {
+                    if (method.getName().equals("eglGetCurrentContext")) {
+                        return CURRENT_CONTEXT;
+                    }
+                    throw new UnsupportedOperationException(method.getName());
+                }
+            });
+
+    public static EGL getEGL() {
+        return EGL_INSTANCE;
+    }
+
+    public abstract GL getGL();
+}
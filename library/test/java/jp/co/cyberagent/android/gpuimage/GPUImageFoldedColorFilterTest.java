@@ -0,0 +1,304 @@
+/*
+ * Copyright (C) 2012 CyberAgent
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.co.cyberagent.android.gpuimage;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+
+public class GPUImageFoldedColorFilterTest {
+    private static final float EPSILON = 1e-5f;
+
+    private static final float[][] COLORS = {
+            {0.0f, 0.0f, 0.0f, 1.0f},
+            {1.0f, 1.0f, 1.0f, 1.0f},
+            {0.2f, 0.5f, 0.8f, 1.0f},
+            {0.9f, 0.1f, 0.3f, 0.5f},
+            {0.4f, 0.7f, 0.05f, 0.0f},
+    };
+
+    /**
+     * The output of a filter's fragment shader for one color.
+     */
+    private interface Reference {
+        float[] apply(float[] color);
+    }
+
+    @Test
+    public void setIdentityResetsMatrixAndOffset() {
+        float[] matrix = new float[16];
+        float[] offset = new float[4];
+        Arrays.fill(matrix, 7.0f);
+        Arrays.fill(offset, 7.0f);
+        GPUImageFoldedColorFilter.setIdentity(matrix, offset);
+        for (float[] color : COLORS) {
+            assertArrayEquals(color, apply(matrix, offset, color), 0.0f);
+        }
+    }
+
+    @Test
+    public void concatAppliesFirstTransformFirst() {
+        float[] scaleMatrix = scale(2.0f);
+        float[] scaleOffset = new float[4];
+        float[] shiftMatrix = scale(1.0f);
+        float[] shiftOffset = {0.1f, 0.2f, 0.3f, 0.0f};
+
+        float[] matrix = new float[16];
+        float[] offset = new float[4];
+        GPUImageFoldedColorFilter.setIdentity(matrix, offset);
+        concat(scaleMatrix, scaleOffset, matrix, offset);
+        concat(shiftMatrix, shiftOffset, matrix, offset);
+
+        float[] color = {0.2f, 0.5f, 0.8f, 1.0f};
+        assertArrayEquals(new float[] {0.5f, 1.2f, 1.9f, 1.0f}, apply(matrix, offset, color),
+                EPSILON);
+        assertArrayEquals(apply(shiftMatrix, shiftOffset, apply(scaleMatrix, scaleOffset, color)),
+                apply(matrix, offset, color), EPSILON);
+    }
+
+    @Test
+    public void concatIsNotCommutative() {
+        float[] scaleMatrix = scale(2.0f);
+        float[] scaleOffset = new float[4];
+        float[] shiftMatrix = scale(1.0f);
+        float[] shiftOffset = {0.1f, 0.2f, 0.3f, 0.0f};
+
+        float[] scaleThenShift = new float[16];
+        float[] scaleThenShiftOffset = new float[4];
+        GPUImageFoldedColorFilter.setIdentity(scaleThenShift, scaleThenShiftOffset);
+        concat(scaleMatrix, scaleOffset, scaleThenShift, scaleThenShiftOffset);
+        concat(shiftMatrix, shiftOffset, scaleThenShift, scaleThenShiftOffset);
+
+        float[] shiftThenScale = new float[16];
+        float[] shiftThenScaleOffset = new float[4];
+        GPUImageFoldedColorFilter.setIdentity(shiftThenScale, shiftThenScaleOffset);
+        concat(shiftMatrix, shiftOffset, shiftThenScale, shiftThenScaleOffset);
+        concat(scaleMatrix, scaleOffset, shiftThenScale, shiftThenScaleOffset);
+
+        // The matrices agree, only the offsets tell the orders apart
+        assertArrayEquals(scaleThenShift, shiftThenScale, 0.0f);
+        assertArrayEquals(new float[] {0.1f, 0.2f, 0.3f, 0.0f}, scaleThenShiftOffset, EPSILON);
+        assertArrayEquals(new float[] {0.2f, 0.4f, 0.6f, 0.0f}, shiftThenScaleOffset, EPSILON);
+        float[] color = {0.2f, 0.5f, 0.8f, 1.0f};
+        assertFalse(Math.abs(apply(scaleThenShift, scaleThenShiftOffset, color)[0]
+                - apply(shiftThenScale, shiftThenScaleOffset, color)[0]) < EPSILON);
+    }
+
+    @Test
+    public void concatTransformsOffsetOfFirstByMatrixOfSecond() {
+        // Grayscale after an offset mixes the offset across channels
+        float[] grayMatrix = new float[16];
+        float[] grayOffset = new float[4];
+        new GPUImageGrayscaleFilter().getColorMatrix(grayMatrix, grayOffset);
+
+        float[] matrix = new float[16];
+        float[] offset = new float[4];
+        GPUImageFoldedColorFilter.setIdentity(matrix, offset);
+        concat(scale(1.0f), new float[] {1.0f, 0.0f, 0.0f, 0.5f}, matrix, offset);
+        concat(grayMatrix, grayOffset, matrix, offset);
+
+        assertArrayEquals(new float[] {0.2125f, 0.2125f, 0.2125f, 0.5f}, offset, EPSILON);
+    }
+
+    @Test
+    public void foldedChainMatchesStagesAppliedInTurn() {
+        GPUImageAffineColorFilter[] stages = {
+                new GPUImageContrastFilter(1.5f),
+                new GPUImageBrightnessFilter(-0.1f),
+                new GPUImageSaturationFilter(0.3f),
+                new GPUImageColorInvertFilter(),
+                new GPUImageOpacityFilter(0.8f),
+        };
+        float[] matrix = new float[16];
+        float[] offset = new float[4];
+        float[] stageMatrix = new float[16];
+        float[] stageOffset = new float[4];
+        GPUImageFoldedColorFilter.setIdentity(matrix, offset);
+        for (GPUImageAffineColorFilter stage : stages) {
+            stage.getColorMatrix(stageMatrix, stageOffset);
+            concat(stageMatrix, stageOffset, matrix, offset);
+        }
+        for (float[] color : COLORS) {
+            float[] expected = color;
+            for (GPUImageAffineColorFilter stage : stages) {
+                stage.getColorMatrix(stageMatrix, stageOffset);
+                expected = apply(stageMatrix, stageOffset, expected);
+            }
+            assertArrayEquals(expected, apply(matrix, offset, color), EPSILON);
+        }
+    }
+
+    @Test
+    public void brightnessMatchesShader() {
+        assertMatches(new GPUImageBrightnessFilter(0.25f), new Reference() {
+            @Override
+            public float[] apply(final float[] c) {
+                return new float[] {c[0] + 0.25f, c[1] + 0.25f, c[2] + 0.25f, c[3]};
+            }
+        });
+    }
+
+    @Test
+    public void colorInvertMatchesShader() {
+        assertMatches(new GPUImageColorInvertFilter(), new Reference() {
+            @Override
+            public float[] apply(final float[] c) {
+                return new float[] {1.0f - c[0], 1.0f - c[1], 1.0f - c[2], c[3]};
+            }
+        });
+    }
+
+    @Test
+    public void colorMatrixMatchesShader() {
+        final float[] colorMatrix = {
+                0.3588f, 0.7044f, 0.1368f, 0.0f,
+                0.2990f, 0.5870f, 0.1140f, 0.0f,
+                0.2392f, 0.4696f, 0.0912f, 0.0f,
+                0.1f, 0.0f, 0.0f, 1.0f,
+        };
+        final float intensity = 0.7f;
+        assertMatches(new GPUImageColorMatrixFilter(intensity, colorMatrix), new Reference() {
+            @Override
+            public float[] apply(final float[] c) {
+                // textureColor * colorMatrix with the array uploaded column-major
+                float[] result = new float[4];
+                for (int row = 0; row < 4; row++) {
+                    float sum = 0.0f;
+                    for (int k = 0; k < 4; k++) {
+                        sum += c[k] * colorMatrix[row * 4 + k];
+                    }
+                    result[row] = intensity * sum + (1.0f - intensity) * c[row];
+                }
+                return result;
+            }
+        });
+    }
+
+    @Test
+    public void contrastMatchesShader() {
+        assertMatches(new GPUImageContrastFilter(1.8f), new Reference() {
+            @Override
+            public float[] apply(final float[] c) {
+                return new float[] {(c[0] - 0.5f) * 1.8f + 0.5f, (c[1] - 0.5f) * 1.8f + 0.5f,
+                        (c[2] - 0.5f) * 1.8f + 0.5f, c[3]};
+            }
+        });
+    }
+
+    @Test
+    public void exposureMatchesShader() {
+        final float factor = (float) Math.pow(2.0, -0.6);
+        assertMatches(new GPUImageExposureFilter(-0.6f), new Reference() {
+            @Override
+            public float[] apply(final float[] c) {
+                return new float[] {c[0] * factor, c[1] * factor, c[2] * factor, c[3]};
+            }
+        });
+    }
+
+    @Test
+    public void grayscaleMatchesShader() {
+        assertMatches(new GPUImageGrayscaleFilter(), new Reference() {
+            @Override
+            public float[] apply(final float[] c) {
+                float luminance = luminance(c);
+                return new float[] {luminance, luminance, luminance, c[3]};
+            }
+        });
+    }
+
+    @Test
+    public void opacityMatchesShader() {
+        assertMatches(new GPUImageOpacityFilter(0.4f), new Reference() {
+            @Override
+            public float[] apply(final float[] c) {
+                return new float[] {c[0], c[1], c[2], c[3] * 0.4f};
+            }
+        });
+    }
+
+    @Test
+    public void rgbMatchesShader() {
+        assertMatches(new GPUImageRGBFilter(0.5f, 1.2f, 0.9f), new Reference() {
+            @Override
+            public float[] apply(final float[] c) {
+                return new float[] {c[0] * 0.5f, c[1] * 1.2f, c[2] * 0.9f, 1.0f};
+            }
+        });
+    }
+
+    @Test
+    public void saturationMatchesShader() {
+        assertMatches(new GPUImageSaturationFilter(1.6f), new Reference() {
+            @Override
+            public float[] apply(final float[] c) {
+                float luminance = luminance(c);
+                return new float[] {mix(luminance, c[0], 1.6f), mix(luminance, c[1], 1.6f),
+                        mix(luminance, c[2], 1.6f), c[3]};
+            }
+        });
+    }
+
+    private static void assertMatches(final GPUImageAffineColorFilter filter,
+            final Reference reference) {
+        float[] matrix = new float[16];
+        float[] offset = new float[4];
+        filter.getColorMatrix(matrix, offset);
+        for (float[] color : COLORS) {
+            assertArrayEquals(reference.apply(color), apply(matrix, offset, color), EPSILON);
+        }
+    }
+
+    private static void concat(final float[] nextMatrix, final float[] nextOffset,
+            final float[] matrix, final float[] offset) {
+        GPUImageFoldedColorFilter.concat(nextMatrix, nextOffset, matrix, offset, new float[20]);
+    }
+
+    /**
+     * {@code matrix * color + offset} with a row-major matrix, like the folded shader.
+     */
+    private static float[] apply(final float[] matrix, final float[] offset,
+            final float[] color) {
+        float[] result = new float[4];
+        for (int row = 0; row < 4; row++) {
+            float sum = offset[row];
+            for (int k = 0; k < 4; k++) {
+                sum += matrix[row * 4 + k] * color[k];
+            }
+            result[row] = sum;
+        }
+        return result;
+    }
+
+    private static float[] scale(final float factor) {
+        float[] matrix = new float[16];
+        GPUImageFoldedColorFilter.setIdentity(matrix, new float[4]);
+        matrix[0] = matrix[5] = matrix[10] = factor;
+        return matrix;
+    }
+
+    private static float luminance(final float[] c) {
+        return 0.2125f * c[0] + 0.7154f * c[1] + 0.0721f * c[2];
+    }
+
+    private static float mix(final float x, final float y, final float a) {
+        return x * (1.0f - a) + y * a;
+    }
+}
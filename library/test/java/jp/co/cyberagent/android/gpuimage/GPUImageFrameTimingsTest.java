@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2012 CyberAgent
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.co.cyberagent.android.gpuimage;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Feeds a {@link GPUImageRenderer} from a {@link GPUImageSyntheticFrameSource} against the stub
+ * GL of the test classpath and checks what {@link GPUImageFrameTimings} makes of the frames.
+ */
+public class GPUImageFrameTimingsTest {
+    private static final int WIDTH = 64;
+    private static final int HEIGHT = 48;
+    private static final int WINDOW_SIZE = 50;
+    private static final int FRAMES = 120;
+
+    private final List<GPUImageFrameTimings.Record> mRecords =
+            new ArrayList<GPUImageFrameTimings.Record>();
+    private GPUImageFrameTimings mTimings;
+    private GPUImageRenderer mRenderer;
+    private GPUImageSyntheticFrameSource mSource;
+
+    @Before
+    public void setUp() {
+        mTimings = new GPUImageFrameTimings(new GPUImageFrameTimings.Listener() {
+            @Override
+            public void onFrameTimed(final GPUImageFrameTimings.Record record) {
+                GPUImageFrameTimings.Record copy = new GPUImageFrameTimings.Record();
+                copy.set(record);
+                mRecords.add(copy);
+            }
+        }, WINDOW_SIZE);
+        mRenderer = new GPUImageRenderer(new GPUImageContrastFilter(1.2f));
+        mRenderer.onSurfaceCreated(null, null);
+        mRenderer.onSurfaceChanged(null, WIDTH, HEIGHT);
+        mRenderer.setFrameTimings(mTimings);
+        mSource = new GPUImageSyntheticFrameSource(WIDTH, HEIGHT, 30);
+    }
+
+    @Test
+    public void recordsEveryPresentedCameraFrame() {
+        drawFrames(FRAMES);
+
+        assertEquals(FRAMES, mRecords.size());
+        assertEquals(WINDOW_SIZE, mTimings.getSampleCount());
+        for (int i = 0; i < FRAMES; i++) {
+            GPUImageFrameTimings.Record record = mRecords.get(i);
+            assertEquals(i, record.frame);
+            assertTrue(record.captureNanos <= record.conversionStartNanos);
+            assertTrue(record.conversionStartNanos <= record.conversionEndNanos);
+            assertTrue(record.conversionEndNanos <= record.drawSubmitNanos);
+            assertTrue(record.drawSubmitNanos <= record.swapCompleteNanos);
+            long interval = i == 0 ? 0
+                    : record.swapCompleteNanos - mRecords.get(i - 1).swapCompleteNanos;
+            assertEquals(interval, record.intervalNanos);
+        }
+    }
+
+    @Test
+    public void skipsFramesWithoutCameraInput() {
+        drawFrames(10);
+        for (int i = 0; i < 5; i++) {
+            mRenderer.onDrawFrame(null);
+            mRenderer.notifyFramePresented();
+        }
+
+        assertEquals(10, mRecords.size());
+        assertEquals(10, mTimings.getSampleCount());
+    }
+
+    @Test
+    public void reportsPercentilesOfTheWindow() {
+        drawFrames(FRAMES);
+
+        List<GPUImageFrameTimings.Record> window = mRecords.subList(FRAMES - WINDOW_SIZE,
+                FRAMES);
+        int[] histogram = new int[GPUImageFrameTimings.BUCKET_COUNT];
+        for (int stage = 0; stage < GPUImageFrameTimings.STAGE_COUNT; stage++) {
+            long[] durations = new long[WINDOW_SIZE];
+            long sum = 0;
+            for (int i = 0; i < WINDOW_SIZE; i++) {
+                durations[i] = window.get(i).getDurationNanos(stage);
+                sum += durations[i];
+            }
+            Arrays.sort(durations);
+            String name = GPUImageFrameTimings.getStageName(stage);
+            for (float fraction : new float[] {0f, 0.5f, 0.9f, 0.99f, 1f}) {
+                long expected = durations[Math.min(WINDOW_SIZE - 1,
+                        (int) (fraction * WINDOW_SIZE))];
+                assertEquals(name + " " + fraction, expected / 1e6f,
+                        mTimings.getPercentile(stage, fraction), 0f);
+            }
+            assertEquals(name, sum / (float) WINDOW_SIZE / 1e6f, mTimings.getMean(stage), 1e-6f);
+
+            mTimings.getHistogram(stage, histogram);
+            int count = 0;
+            for (int bucket : histogram) {
+                count += bucket;
+            }
+            assertEquals(name, WINDOW_SIZE, count);
+        }
+    }
+
+    private void drawFrames(final int count) {
+        for (int i = 0; i < count; i++) {
+            assertTrue(mSource.queueFrame(mRenderer.getCameraIngest()));
+            mRenderer.onDrawFrame(null);
+            mRenderer.notifyFramePresented();
+        }
+    }
+}
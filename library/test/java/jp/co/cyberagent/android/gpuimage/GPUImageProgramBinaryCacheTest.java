@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2012 CyberAgent
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.co.cyberagent.android.gpuimage;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class GPUImageProgramBinaryCacheTest {
+    private static final String RENDERER = "Adreno (TM) 540";
+    private static final String VERSION = "OpenGL ES 3.2 V@258.0";
+    private static final byte[] BINARY = {1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12};
+    private static final int FORMAT = 0x8fff;
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private File mFile;
+
+    @Before
+    public void setUp() throws IOException {
+        mFile = new File(mFolder.getRoot(), "entry.bin");
+        GPUImageProgramBinaryCache.writeEntry(mFile, RENDERER, VERSION, FORMAT, BINARY);
+    }
+
+    @Test
+    public void readsWhatWasWritten() throws IOException {
+        GPUImageProgramBinaryCache.Entry entry =
+                GPUImageProgramBinaryCache.readEntry(mFile, RENDERER, VERSION);
+        assertEquals(FORMAT, entry.format);
+        assertArrayEquals(BINARY, entry.binary);
+    }
+
+    @Test
+    public void leavesNoTemporaryFile() {
+        assertArrayEquals(new String[] {"entry.bin"}, mFolder.getRoot().list());
+    }
+
+    @Test
+    public void rejectsBadMagic() throws IOException {
+        overwrite(0, (byte) 0);
+        assertRejected(RENDERER, VERSION);
+    }
+
+    @Test
+    public void rejectsOtherFormatVersion() throws IOException {
+        overwrite(7, (byte) 2);
+        assertRejected(RENDERER, VERSION);
+    }
+
+    @Test
+    public void rejectsOtherRenderer() {
+        assertRejected("Mali-G71", VERSION);
+    }
+
+    @Test
+    public void rejectsOtherDriverVersion() {
+        assertRejected(RENDERER, "OpenGL ES 3.2 V@269.0");
+    }
+
+    @Test
+    public void rejectsChecksumMismatch() throws IOException {
+        overwrite(mFile.length() - 1, (byte) 42);
+        assertRejected(RENDERER, VERSION);
+    }
+
+    @Test
+    public void rejectsTruncatedFile() throws IOException {
+        RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+        try {
+            file.setLength(file.length() - 3);
+        } finally {
+            file.close();
+        }
+        assertRejected(RENDERER, VERSION);
+    }
+
+    @Test
+    public void rejectsEmptyFile() throws IOException {
+        RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+        try {
+            file.setLength(0);
+        } finally {
+            file.close();
+        }
+        assertRejected(RENDERER, VERSION);
+    }
+
+    @Test
+    public void overwritesExistingEntry() throws IOException {
+        byte[] binary = {42};
+        GPUImageProgramBinaryCache.writeEntry(mFile, RENDERER, VERSION, FORMAT, binary);
+        assertArrayEquals(binary,
+                GPUImageProgramBinaryCache.readEntry(mFile, RENDERER, VERSION).binary);
+    }
+
+    @Test
+    public void createsMissingDirectory() throws IOException {
+        File file = new File(new File(mFolder.getRoot(), "programs"), "entry.bin");
+        GPUImageProgramBinaryCache.writeEntry(file, RENDERER, VERSION, FORMAT, BINARY);
+        assertArrayEquals(BINARY,
+                GPUImageProgramBinaryCache.readEntry(file, RENDERER, VERSION).binary);
+    }
+
+    private void overwrite(final long position, final byte value) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+        try {
+            file.seek(position);
+            file.write(value);
+        } finally {
+            file.close();
+        }
+    }
+
+    private void assertRejected(final String renderer, final String version) {
+        try {
+            GPUImageProgramBinaryCache.readEntry(mFile, renderer, version);
+            fail("Entry was accepted");
+        } catch (IOException e) {
+            // The caller deletes the entry and compiles from source
+        }
+    }
+}
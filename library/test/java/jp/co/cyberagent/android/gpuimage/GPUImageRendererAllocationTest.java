@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2012 CyberAgent
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jp.co.cyberagent.android.gpuimage;
+
+import android.opengl.GLES20;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Drives the frame loop of {@link GPUImageRenderer} against the stub GL of the test classpath
+ * and counts the bytes the drawing thread allocates once the pipeline is warmed up.
+ */
+public class GPUImageRendererAllocationTest {
+    private static final int WIDTH = 64;
+    private static final int HEIGHT = 48;
+    private static final int WARM_UP_FRAMES = 10000;
+    private static final int FRAMES = 1000;
+    private static final int ROUNDS = 5;
+
+    private com.sun.management.ThreadMXBean mThreads;
+    private GPUImageBrightnessFilter mBrightness;
+    private GPUImageRenderer mRenderer;
+    private GPUImageSyntheticFrameSource mSource;
+
+    @Before
+    public void setUp() {
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        assumeTrue(threads instanceof com.sun.management.ThreadMXBean);
+        mThreads = (com.sun.management.ThreadMXBean) threads;
+        assumeTrue(mThreads.isThreadAllocatedMemorySupported());
+        mThreads.setThreadAllocatedMemoryEnabled(true);
+
+        mBrightness = new GPUImageBrightnessFilter(0.1f);
+        List<GPUImageFilter> filters = new ArrayList<GPUImageFilter>();
+        filters.add(new GPUImageContrastFilter(1.2f));
+        filters.add(mBrightness);
+        filters.add(new GPUImageSharpenFilter(0.5f));
+        filters.add(new GPUImageGaussianBlurFilter(1.5f));
+        mRenderer = new GPUImageRenderer(new GPUImageFilterGroup(filters));
+        mRenderer.onSurfaceCreated(null, null);
+        mRenderer.onSurfaceChanged(null, WIDTH * 2, HEIGHT * 2);
+        mSource = new GPUImageSyntheticFrameSource(WIDTH, HEIGHT, 30);
+    }
+
+    @Test
+    public void drawsPreviewFramesWithoutAllocating() {
+        drawFrames(WARM_UP_FRAMES);
+        int drawCalls = GLES20.getDrawCallCount();
+        long processed = mRenderer.getCameraIngest().getProcessedFrameCount();
+
+        // The JIT occasionally allocates on the drawing thread as it recompiles, a frame loop
+        // which allocates itself does so in every round
+        long overhead = -allocatedBytes() + allocatedBytes();
+        long allocated = Long.MAX_VALUE;
+        int rounds = 0;
+        while (allocated > 0 && rounds < ROUNDS) {
+            long start = allocatedBytes();
+            drawFrames(FRAMES);
+            allocated = Math.min(allocated, allocatedBytes() - start - overhead);
+            rounds++;
+        }
+
+        assertEquals(processed + rounds * FRAMES,
+                mRenderer.getCameraIngest().getProcessedFrameCount());
+        assertTrue(GLES20.getDrawCallCount() - drawCalls >= rounds * FRAMES * 2);
+        assertEquals("Bytes allocated in " + FRAMES + " frames", 0, allocated);
+    }
+
+    private void drawFrames(final int count) {
+        for (int i = 0; i < count; i++) {
+            // A parameter animated by the app, the filter is redrawn but not rebuilt
+            mBrightness.setBrightness(0.1f + (i & 7) * 0.01f);
+            mSource.queueFrame(mRenderer.getCameraIngest());
+            mRenderer.onDrawFrame(null);
+        }
+    }
+
+    private long allocatedBytes() {
+        return mThreads.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}